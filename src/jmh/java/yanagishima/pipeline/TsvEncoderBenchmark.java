@@ -0,0 +1,93 @@
+package yanagishima.pipeline;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import yanagishima.util.TypeCoerceUtil;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compares the former CSVPrinter based result writing, including the row.toString() byte counting,
+ * with TsvEncoder. Run with ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TsvEncoderBenchmark {
+    private static final CSVFormat CSV_FORMAT = CSVFormat.EXCEL.withDelimiter('\t').withNullString("\\N").withRecordSeparator(System.getProperty("line.separator"));
+
+    @Param({"10000"})
+    public int rowCount;
+
+    private List<List<Object>> rows;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            rows.add(Arrays.asList(
+                    (long) random.nextInt(),
+                    random.nextDouble() * 1000,
+                    "user_" + random.nextInt(100000),
+                    i % 10 == 0 ? null : "2019-01-0" + (1 + random.nextInt(9)) + " 12:34:56.789",
+                    i % 7 == 0 ? "text with \"quote\"\tand tab" : "\u3042\u3044\u3046\u3048\u304a" + i));
+        }
+    }
+
+    @Benchmark
+    public long csvPrinter() throws IOException {
+        long resultBytes = 0;
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream(), UTF_8));
+             CSVPrinter printer = new CSVPrinter(writer, CSV_FORMAT)) {
+            for (List<Object> data : rows) {
+                List<String> row = data.stream().map(TypeCoerceUtil::objectToString).collect(Collectors.toList());
+                printer.printRecord(row);
+                resultBytes += row.toString().getBytes(UTF_8).length;
+            }
+        }
+        return resultBytes;
+    }
+
+    @Benchmark
+    public long tsvEncoder() throws IOException {
+        long resultBytes = 0;
+        TsvEncoder encoder = new TsvEncoder();
+        try (OutputStream out = OutputStream.nullOutputStream()) {
+            for (List<Object> data : rows) {
+                resultBytes += encoder.encodeRecord(data);
+                if (encoder.size() >= 64 * 1024) {
+                    out.write(encoder.getBuffer(), 0, encoder.size());
+                    encoder.reset();
+                }
+            }
+            out.write(encoder.getBuffer(), 0, encoder.size());
+        }
+        return resultBytes;
+    }
+}
@@ -0,0 +1,182 @@
+package yanagishima.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable columnar store of the columns of one catalog.
+ * Columns are kept in parallel arrays grouped by table, the tables in a sorted array with the offset of their first column.
+ * Types and extras repeat a lot, so they are stored once in a dictionary and referenced by number.
+ * A second order of the columns by lower case name answers column name prefix searches across tables.
+ */
+public class ColumnIndex {
+    private final String[] tables;
+    // columns of tables[i] are offsets[i] until offsets[i + 1]
+    private final int[] offsets;
+    private final String[] columns;
+    private final int[] types;
+    private final int[] extras;
+    private final String[] comments;
+    private final String[] dictionary;
+    private final int[] byColumn;
+    private final String[] lowerColumns;
+    private final int[] tableOf;
+
+    private ColumnIndex(String[] tables, int[] offsets, String[] columns, int[] types, int[] extras, String[] comments, String[] dictionary) {
+        this.tables = tables;
+        this.offsets = offsets;
+        this.columns = columns;
+        this.types = types;
+        this.extras = extras;
+        this.comments = comments;
+        this.dictionary = dictionary;
+        this.tableOf = new int[columns.length];
+        for (int i = 0; i < tables.length; i++) {
+            Arrays.fill(tableOf, offsets[i], offsets[i + 1], i);
+        }
+        String[] lower = Arrays.stream(columns).map(column -> column.toLowerCase(Locale.ROOT)).toArray(String[]::new);
+        this.byColumn = IntStream.range(0, columns.length).boxed()
+                .sorted(Comparator.comparing((Integer i) -> lower[i]))
+                .mapToInt(Integer::intValue).toArray();
+        this.lowerColumns = Arrays.stream(byColumn).mapToObj(i -> lower[i]).toArray(String[]::new);
+    }
+
+    public int getTableCount() {
+        return tables.length;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Returns every catalog.schema.table in sorted order
+     */
+    public List<String> getTables() {
+        return Collections.unmodifiableList(Arrays.asList(tables));
+    }
+
+    /**
+     * Returns the columns of catalog.schema.table in the same form as DESCRIBE, Column, Type, Extra and Comment
+     */
+    public Optional<List<List<String>>> getColumns(String table) {
+        int i = Arrays.binarySearch(tables, table);
+        if (i < 0) {
+            return Optional.empty();
+        }
+        List<List<String>> rows = new ArrayList<>(offsets[i + 1] - offsets[i]);
+        for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+            rows.add(Arrays.asList(columns[j], dictionary[types[j]], dictionary[extras[j]], comments[j]));
+        }
+        return Optional.of(rows);
+    }
+
+    /**
+     * Returns at most limit columns whose name starts with prefix as catalog.schema.table, column and type
+     */
+    public List<List<String>> searchColumns(String prefix, int limit) {
+        return searchColumns(prefix, limit, table -> true);
+    }
+
+    /**
+     * Same as {@link #searchColumns(String, int)} but skips the columns of tables for which visible is false
+     */
+    public List<List<String>> searchColumns(String prefix, int limit, Predicate<String> visible) {
+        String p = prefix.toLowerCase(Locale.ROOT);
+        List<List<String>> result = new ArrayList<>();
+        int low = 0;
+        int high = lowerColumns.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lowerColumns[mid].compareTo(p) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < lowerColumns.length && result.size() < limit && lowerColumns[i].startsWith(p); i++) {
+            int j = byColumn[i];
+            if (!visible.test(tables[tableOf[j]])) {
+                continue;
+            }
+            result.add(Arrays.asList(tables[tableOf[j]], columns[j], dictionary[types[j]]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns every column as catalog.schema.table, column, type, extra and comment, in table order
+     */
+    public List<List<String>> getRows() {
+        List<List<String>> rows = new ArrayList<>(columns.length);
+        for (int j = 0; j < columns.length; j++) {
+            rows.add(Arrays.asList(tables[tableOf[j]], columns[j], dictionary[types[j]], dictionary[extras[j]], comments[j]));
+        }
+        return rows;
+    }
+
+    /**
+     * Columns must be added in their ordinal order, the tables may come in any order
+     */
+    public static class Builder {
+        private final List<String> tableNames = new ArrayList<>();
+        private final List<String> columnNames = new ArrayList<>();
+        private final List<String> typeNames = new ArrayList<>();
+        private final List<String> extraNames = new ArrayList<>();
+        private final List<String> commentNames = new ArrayList<>();
+
+        public Builder add(String table, String column, String type, String extra, String comment) {
+            tableNames.add(table);
+            columnNames.add(column);
+            typeNames.add(type);
+            extraNames.add(extra == null ? "" : extra);
+            commentNames.add(comment == null || comment.isEmpty() ? null : comment);
+            return this;
+        }
+
+        public ColumnIndex build() {
+            int size = tableNames.size();
+            // stable, so the columns of a table keep their order
+            int[] order = IntStream.range(0, size).boxed()
+                    .sorted(Comparator.comparing(tableNames::get))
+                    .mapToInt(Integer::intValue).toArray();
+
+            Map<String, Integer> ids = new HashMap<>();
+            List<String> dictionary = new ArrayList<>();
+            List<String> tables = new ArrayList<>();
+            int[] offsets = new int[size + 1];
+            String[] columns = new String[size];
+            int[] types = new int[size];
+            int[] extras = new int[size];
+            String[] comments = new String[size];
+            for (int j = 0; j < size; j++) {
+                int i = order[j];
+                String table = tableNames.get(i);
+                if (tables.isEmpty() || !tables.get(tables.size() - 1).equals(table)) {
+                    offsets[tables.size()] = j;
+                    tables.add(table);
+                }
+                columns[j] = columnNames.get(i);
+                types[j] = ids.computeIfAbsent(typeNames.get(i), name -> add(dictionary, name));
+                extras[j] = ids.computeIfAbsent(extraNames.get(i), name -> add(dictionary, name));
+                comments[j] = commentNames.get(i);
+            }
+            offsets[tables.size()] = size;
+            return new ColumnIndex(tables.toArray(new String[0]), Arrays.copyOf(offsets, tables.size() + 1), columns, types, extras, comments, dictionary.toArray(new String[0]));
+        }
+
+        private static int add(List<String> dictionary, String name) {
+            dictionary.add(name);
+            return dictionary.size() - 1;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package yanagishima.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.exception.QueryErrorException;
+import yanagishima.service.PrestoService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static yanagishima.util.Constants.YANAGISHIMA_COMMENT;
+
+/**
+ * Decides what a caller may see of the table and column indexes, which are read with the user of the datasource.
+ * A caller presto knows as that user sees everything. For anyone else the schemas of a catalog are listed with
+ * SHOW SCHEMAS using their credentials, so the access control of presto applies, and only tables of those schemas
+ * are served. The schemas are kept per caller for index.access-cache-seconds. A catalog the caller can't list is hidden.
+ */
+@Singleton
+public class IndexAccessControl {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexAccessControl.class);
+
+    private final YanagishimaConfig config;
+    private final PrestoService prestoService;
+    private final Cache<String, Set<String>> visibleSchemas;
+
+    @Inject
+    public IndexAccessControl(YanagishimaConfig config, PrestoService prestoService) {
+        this.config = config;
+        this.prestoService = prestoService;
+        this.visibleSchemas = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.getIndexAccessCacheSeconds(), SECONDS)
+                .maximumSize(10_000)
+                .build();
+    }
+
+    /**
+     * Returns a filter of catalog.schema.table names the caller may see
+     */
+    public Predicate<String> tableFilter(String datasource, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
+        if (isIndexUser(datasource, userName, prestoUser, prestoPassword)) {
+            return name -> true;
+        }
+        Map<String, Set<String>> schemasByCatalog = new HashMap<>();
+        return name -> {
+            int catalogEnd = name.indexOf('.');
+            int schemaEnd = name.indexOf('.', catalogEnd + 1);
+            if (catalogEnd < 0 || schemaEnd < 0) {
+                return false;
+            }
+            String catalog = name.substring(0, catalogEnd);
+            Set<String> schemas = schemasByCatalog.computeIfAbsent(catalog, c -> getVisibleSchemas(datasource, c, userName, prestoUser, prestoPassword));
+            return schemas.contains(name.substring(catalogEnd + 1, schemaEnd));
+        };
+    }
+
+    public boolean canSee(String datasource, String catalog, String schema, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
+        return isIndexUser(datasource, userName, prestoUser, prestoPassword)
+                || getVisibleSchemas(datasource, catalog, userName, prestoUser, prestoPassword).contains(schema);
+    }
+
+    /**
+     * True if presto sees the caller as the user the indexes are read with, the same way PrestoService picks the user
+     */
+    private boolean isIndexUser(String datasource, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
+        if (prestoUser.isPresent() && prestoPassword.isPresent()) {
+            return false;
+        }
+        String indexUser = config.getUser(datasource);
+        return firstNonNull(userName, indexUser).equals(indexUser);
+    }
+
+    private Set<String> getVisibleSchemas(String datasource, String catalog, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
+        String key = String.join("\u0000", datasource, catalog, String.valueOf(userName), prestoUser.orElse(""), prestoPassword.map(DigestUtils::sha256Hex).orElse(""));
+        try {
+            return visibleSchemas.get(key, () -> {
+                Set<String> schemas = new HashSet<>();
+                String query = String.format("%sSHOW SCHEMAS FROM \"%s\"", YANAGISHIMA_COMMENT, catalog.replace("\"", "\"\""));
+                try {
+                    prestoService.doStreamingQuery(datasource, query, userName, prestoUser, prestoPassword, row -> {
+                        schemas.add(row.get(0));
+                        return true;
+                    });
+                } catch (QueryErrorException e) {
+                    // presto refused the caller, which is remembered like any other answer
+                    LOGGER.debug(String.format("%s can't list schemas of %s.%s: %s", userName, datasource, catalog, e.getMessage()));
+                    return Collections.emptySet();
+                }
+                return schemas;
+            });
+        } catch (ExecutionException | RuntimeException e) {
+            // the coordinator couldn't be asked, so nothing is shown and it is asked again next time
+            LOGGER.warn(String.format("failed to list schemas of %s.%s for %s: %s", datasource, catalog, userName, e.getMessage()));
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package yanagishima.cache;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static yanagishima.util.Constants.YANAGISHIMA_COMMENT;
+
+/**
+ * In-memory cache of metadata query results such as schema, table and partition lists.
+ * Entries are fresh for a TTL per datasource and catalog. After that they are served stale while a background
+ * thread refreshes them, and dropped once they are older than TTL + stale-seconds.
+ * The total estimated size is bounded and the least recently used entries are evicted first.
+ */
+@Singleton
+public class MetadataCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataCache.class);
+
+    private static final Pattern CATALOG_PATTERN = Pattern.compile(
+            "^(?:SHOW SCHEMAS FROM\\s+\"?(\\w+)|DESCRIBE\\s+\"?(\\w+)\"?\\.|.*\\bFROM\\s+\"?(\\w+)\"?\\.information_schema\\.)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final YanagishimaConfig config;
+    private final long maxBytes;
+    private final long staleMillis;
+    private final SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+    private final ScheduledExecutorService refresher;
+    private final Ticker ticker;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong refreshFailureCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    @Inject
+    public MetadataCache(YanagishimaConfig config) {
+        this(config, Ticker.systemTicker());
+    }
+
+    MetadataCache(YanagishimaConfig config, Ticker ticker) {
+        this.config = config;
+        this.ticker = ticker;
+        this.maxBytes = config.getMetadataCacheMaxBytes();
+        this.staleMillis = config.getMetadataCacheStaleSeconds() * 1000L;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(config.getMetadataCacheRefreshThreads(),
+                new ThreadFactoryBuilder().setNameFormat("metadata-cache-refresh-%d").setDaemon(true).build());
+        executor.setRemoveOnCancelPolicy(true);
+        this.refresher = executor;
+        refresher.scheduleWithFixedDelay(this::removeExpired, 60, 60, SECONDS);
+    }
+
+    /**
+     * Returns the cached value of key, loading it with loader when it is missing or too old.
+     * Concurrent loads of the same key share one call of loader even when caching is disabled.
+     * The key must identify everything the value depends on, including the credentials loader runs with.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(String datasource, String catalog, String key, Callable<V> loader, Weigher<V> weigher) throws Exception {
+        long ttlMillis = config.getMetadataCacheTtlSeconds(datasource, catalog) * 1000L;
+        if (ttlMillis <= 0) {
+            return (V) singleFlight.execute(key, loader::call);
+        }
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        long now = now();
+        if (entry != null) {
+            long age = now - entry.loadedAt;
+            if (age < ttlMillis) {
+                hitCount.incrementAndGet();
+                return (V) entry.value;
+            }
+            if (age < ttlMillis + staleMillis) {
+                staleHitCount.incrementAndGet();
+                refreshAsync(key, entry, loader, weigher);
+                return (V) entry.value;
+            }
+        }
+
+        missCount.incrementAndGet();
+        V value = (V) singleFlight.execute(key, loader::call);
+        put(key, value, weigher.weigh(value), ttlMillis);
+        return value;
+    }
+
+    public boolean isEnabled(String datasource, String catalog) {
+        return config.getMetadataCacheTtlSeconds(datasource, catalog) > 0;
+    }
+
+    public void invalidate(String key) {
+        synchronized (entries) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                totalBytes -= entry.bytes;
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("entryCount", entries.size());
+            stats.put("bytes", totalBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hitCount", hitCount.get());
+        stats.put("staleHitCount", staleHitCount.get());
+        stats.put("missCount", missCount.get());
+        stats.put("refreshCount", refreshCount.get());
+        stats.put("refreshFailureCount", refreshFailureCount.get());
+        stats.put("evictionCount", evictionCount.get());
+        return stats;
+    }
+
+    private <V> void refreshAsync(String key, Entry entry, Callable<V> loader, Weigher<V> weigher) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    @SuppressWarnings("unchecked")
+                    V value = (V) singleFlight.execute(key, loader::call);
+                    put(key, value, weigher.weigh(value), entry.ttlMillis);
+                    refreshCount.incrementAndGet();
+                } catch (Exception e) {
+                    refreshFailureCount.incrementAndGet();
+                    entry.refreshing.set(false);
+                    LOGGER.warn(String.format("failed to refresh metadata cache: %s", e.getMessage()));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private void put(String key, Object value, long bytes, long ttlMillis) {
+        if (bytes > maxBytes) {
+            invalidate(key);
+            return;
+        }
+        synchronized (entries) {
+            Entry old = entries.put(key, new Entry(value, bytes, now(), ttlMillis));
+            if (old != null) {
+                totalBytes -= old.bytes;
+            }
+            totalBytes += bytes;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                totalBytes -= eldest.bytes;
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    private long now() {
+        return NANOSECONDS.toMillis(ticker.read());
+    }
+
+    void removeExpired() {
+        long now = now();
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (now - entry.loadedAt >= entry.ttlMillis + staleMillis) {
+                    iterator.remove();
+                    totalBytes -= entry.bytes;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true for the hidden queries the UI issues to browse catalogs, schemas, tables and columns
+     */
+    public static boolean isMetadataQuery(String query) {
+        if (!query.startsWith(YANAGISHIMA_COMMENT)) {
+            return false;
+        }
+        String body = query.substring(YANAGISHIMA_COMMENT.length()).trim().toUpperCase();
+        return body.startsWith("SHOW CATALOGS") || body.startsWith("SHOW SCHEMAS") || body.startsWith("DESCRIBE") || body.contains(".INFORMATION_SCHEMA.");
+    }
+
+    /**
+     * Returns the catalog a metadata query reads, or null if it isn't known
+     */
+    public static String getCatalog(String query) {
+        String body = query.startsWith(YANAGISHIMA_COMMENT) ? query.substring(YANAGISHIMA_COMMENT.length()).trim() : query.trim();
+        Matcher matcher = CATALOG_PATTERN.matcher(body);
+        if (!matcher.find()) {
+            return null;
+        }
+        for (int i = 1; i <= matcher.groupCount(); i++) {
+            if (matcher.group(i) != null) {
+                return matcher.group(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rough heap size of a tabular result, used to bound the cache
+     */
+    public static long estimateBytes(List<String> columns, List<List<String>> records) {
+        long bytes = 64;
+        if (columns != null) {
+            for (String column : columns) {
+                bytes += 40 + 2L * column.length();
+            }
+        }
+        if (records != null) {
+            for (List<String> row : records) {
+                bytes += 40;
+                for (String value : row) {
+                    bytes += value == null ? 8 : 48 + 2L * value.length();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public interface Weigher<V> {
+        long weigh(V value);
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long bytes;
+        private final long loadedAt;
+        private final long ttlMillis;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Object value, long bytes, long loadedAt, long ttlMillis) {
+            this.value = value;
+            this.bytes = bytes;
+            this.loadedAt = loadedAt;
+            this.ttlMillis = ttlMillis;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package yanagishima.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.exception.QueryErrorException;
+import yanagishima.service.PrestoService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static yanagishima.util.Constants.YANAGISHIMA_COMMENT;
+import static yanagishima.util.PathUtil.getTableIndexFilePath;
+
+/**
+ * Keeps the tables and columns of every presto datasource which has been searched or described.
+ * information_schema.columns is crawled in the background one catalog at a time, and each catalog is replaced on its own
+ * in a {@link ColumnIndex}. The {@link TableNameIndex} is derived from the same rows whenever the tables of a catalog change.
+ * Each refresh lists information_schema.tables and crawls the columns only of catalogs whose tables changed,
+ * and of every catalog once per full-refresh-seconds, so a column added to an existing table shows up only then.
+ * The columns are saved under table_index/ and loaded on the first lookup after a restart.
+ * A datasource nobody read for idle-seconds is stopped and forgotten, so the next lookup starts over as after a restart
+ * and refreshes right away instead of waiting for the next interval.
+ * Everything is read with the user of the datasource, so callers filter the results with {@link IndexAccessControl}.
+ */
+@Singleton
+public class MetadataIndexer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataIndexer.class);
+
+    private final YanagishimaConfig config;
+    private final PrestoService prestoService;
+    private final MetadataNoteCache metadataNoteCache;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler;
+    private final Ticker ticker;
+    private final ConcurrentHashMap<String, DatasourceIndex> datasources = new ConcurrentHashMap<>();
+
+    @Inject
+    public MetadataIndexer(YanagishimaConfig config, PrestoService prestoService, MetadataNoteCache metadataNoteCache) {
+        this(config, prestoService, metadataNoteCache, Ticker.systemTicker());
+    }
+
+    MetadataIndexer(YanagishimaConfig config, PrestoService prestoService, MetadataNoteCache metadataNoteCache, Ticker ticker) {
+        this.config = config;
+        this.prestoService = prestoService;
+        this.metadataNoteCache = metadataNoteCache;
+        this.ticker = ticker;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("metadata-indexer-%d").setDaemon(true).build());
+    }
+
+    public boolean isEnabled(String datasource) {
+        return config.getTableIndexRefreshSeconds(datasource) > 0;
+    }
+
+    /**
+     * Returns the table name index of the datasource, empty until the snapshot is loaded or the first catalog is read
+     */
+    public Optional<TableNameIndex> getTableIndex(String datasource) {
+        return Optional.ofNullable(get(datasource).tables);
+    }
+
+    /**
+     * Returns the columns of catalog.schema.table in the same form as DESCRIBE, empty if the catalog isn't indexed yet
+     * or doesn't have the table
+     */
+    public Optional<List<List<String>>> getColumns(String datasource, String catalog, String schema, String table) {
+        ColumnIndex index = get(datasource).catalogs.get(catalog);
+        if (index == null) {
+            return Optional.empty();
+        }
+        return index.getColumns(catalog + "." + schema + "." + table);
+    }
+
+    /**
+     * Returns the notes of the table from the metadata service
+     */
+    public Optional<Map> getMetadata(String datasource, String schema, String table) {
+        return config.getMetadataServiceUrl(datasource).flatMap(url -> metadataNoteCache.get(url, schema, table));
+    }
+
+    /**
+     * Returns at most limit columns of visible tables whose name starts with prefix, as catalog.schema.table, column and type
+     */
+    public List<List<String>> searchColumns(String datasource, String prefix, int limit, Predicate<String> visible) {
+        List<List<String>> result = new ArrayList<>();
+        for (ColumnIndex index : get(datasource).catalogs.values()) {
+            result.addAll(index.searchColumns(prefix, limit, visible));
+        }
+        return result.stream()
+                .sorted(Comparator.comparing((List<String> row) -> row.get(1).toLowerCase()).thenComparing(row -> row.get(0)))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    public boolean isBuilding(String datasource) {
+        return get(datasource).tables == null;
+    }
+
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (DatasourceIndex index : datasources.values()) {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("datasource", index.datasource);
+            stat.put("catalogCount", index.catalogs.size());
+            stat.put("tableCount", index.catalogs.values().stream().mapToInt(ColumnIndex::getTableCount).sum());
+            stat.put("columnCount", index.catalogs.values().stream().mapToInt(ColumnIndex::getColumnCount).sum());
+            stat.put("refreshedAt", index.refreshedAt);
+            stat.put("refreshCount", index.refreshCount);
+            stat.put("crawlCount", index.crawlCount);
+            stat.put("failureCount", index.failureCount);
+            stats.add(stat);
+        }
+        return stats;
+    }
+
+    /**
+     * Refreshes the datasource once unless nobody read it for idle-seconds, in which case refreshing it stops.
+     * Returns false if the datasource isn't refreshed anymore.
+     */
+    boolean refreshOrStop(String datasource) {
+        DatasourceIndex index = datasources.get(datasource);
+        return index != null && refreshOrStop(index);
+    }
+
+    private boolean refreshOrStop(DatasourceIndex index) {
+        if (now() - index.lastReadAt >= config.getTableIndexIdleSeconds() * 1000L) {
+            datasources.remove(index.datasource, index);
+            if (index.future != null) {
+                index.future.cancel(false);
+            }
+            return false;
+        }
+        index.refresh();
+        return true;
+    }
+
+    private DatasourceIndex get(String datasource) {
+        DatasourceIndex index = datasources.computeIfAbsent(datasource, this::start);
+        index.lastReadAt = now();
+        return index;
+    }
+
+    private DatasourceIndex start(String datasource) {
+        DatasourceIndex index = new DatasourceIndex(datasource);
+        index.lastReadAt = now();
+        scheduler.execute(index::load);
+        long interval = config.getTableIndexRefreshSeconds(datasource);
+        index.future = scheduler.scheduleWithFixedDelay(() -> refreshOrStop(index), 0, interval, SECONDS);
+        return index;
+    }
+
+    private long now() {
+        return NANOSECONDS.toMillis(ticker.read());
+    }
+
+    private class DatasourceIndex {
+        private final String datasource;
+        private final Map<String, ColumnIndex> catalogs = new ConcurrentSkipListMap<>();
+        // ticker based time the columns of each catalog were crawled, the catalogs of a loaded snapshot have none
+        private final Map<String, Long> crawledAt = new ConcurrentHashMap<>();
+        private volatile TableNameIndex tables;
+        private volatile long lastReadAt;
+        private volatile ScheduledFuture<?> future;
+        // wall clock time for the stats and the snapshot, unlike the ticker based times
+        private volatile long refreshedAt;
+        private volatile long refreshCount;
+        private volatile long crawlCount;
+        private volatile long failureCount;
+
+        DatasourceIndex(String datasource) {
+            this.datasource = datasource;
+        }
+
+        void load() {
+            Path path = getTableIndexFilePath(datasource);
+            if (!path.toFile().exists()) {
+                return;
+            }
+            Map<String, ColumnIndex.Builder> builders = new LinkedHashMap<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(path)), UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    List<String> row = mapper.readValue(line, List.class);
+                    String table = row.get(0);
+                    builders.computeIfAbsent(table.substring(0, table.indexOf('.')), k -> new ColumnIndex.Builder())
+                            .add(table, row.get(1), row.get(2), row.get(3), row.get(4));
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn(String.format("failed to load table index of %s: %s", datasource, e.getMessage()));
+                return;
+            }
+            builders.forEach((catalog, builder) -> catalogs.putIfAbsent(catalog, builder.build()));
+            refreshedAt = path.toFile().lastModified();
+            publishTables();
+        }
+
+        synchronized void refresh() {
+            refreshCount++;
+            try {
+                List<String> catalogNames = new ArrayList<>();
+                prestoService.doStreamingQuery(datasource, YANAGISHIMA_COMMENT + "SHOW CATALOGS", null, Optional.empty(), Optional.empty(), row -> {
+                    if (!row.get(0).equals("system")) {
+                        catalogNames.add(row.get(0));
+                    }
+                    return true;
+                });
+                if (catalogs.keySet().retainAll(catalogNames) || tables == null) {
+                    publishTables();
+                }
+                crawledAt.keySet().retainAll(catalogNames);
+                for (String catalog : catalogNames) {
+                    List<String> invisibleSchemas = config.getInvisibleSchemas(datasource, catalog);
+                    String notin = "('" + String.join("','", invisibleSchemas) + "')";
+                    ColumnIndex.Builder builder = new ColumnIndex.Builder();
+                    try {
+                        if (!needsCrawl(catalog, notin)) {
+                            continue;
+                        }
+                        String query = String.format("%sSELECT table_catalog || '.' || table_schema || '.' || table_name, column_name, data_type, extra_info, comment FROM %s.information_schema.columns WHERE table_schema NOT IN %s ORDER BY 1, ordinal_position", YANAGISHIMA_COMMENT, catalog, notin);
+                        prestoService.doStreamingQuery(datasource, query, null, Optional.empty(), Optional.empty(), row -> {
+                            builder.add(row.get(0), row.get(1), row.get(2), row.get(3), row.get(4));
+                            return true;
+                        });
+                    } catch (Exception e) {
+                        // the previous columns of the catalog are kept
+                        failureCount++;
+                        LOGGER.warn(String.format("failed to read columns of %s.%s: %s", datasource, catalog, e.getMessage()));
+                        continue;
+                    }
+                    crawlCount++;
+                    crawledAt.put(catalog, now());
+                    ColumnIndex index = builder.build();
+                    ColumnIndex previous = catalogs.put(catalog, index);
+                    // table names are searched as soon as a catalog is read, but rebuilt only if its tables changed
+                    if (previous == null || !previous.getTables().equals(index.getTables())) {
+                        publishTables();
+                    }
+                }
+                refreshedAt = System.currentTimeMillis();
+                save();
+            } catch (Exception e) {
+                failureCount++;
+                LOGGER.warn(String.format("failed to refresh table index of %s: %s", datasource, e.getMessage()));
+            }
+        }
+
+        /**
+         * Returns true if the catalog wasn't crawled for full-refresh-seconds or its tables differ from the indexed ones
+         */
+        private boolean needsCrawl(String catalog, String notin) throws IOException, QueryErrorException {
+            ColumnIndex previous = catalogs.get(catalog);
+            Long crawled = crawledAt.get(catalog);
+            if (previous == null || crawled == null || now() - crawled >= config.getTableIndexFullRefreshSeconds() * 1000L) {
+                return true;
+            }
+            Set<String> tableNames = new HashSet<>();
+            String query = String.format("%sSELECT table_catalog || '.' || table_schema || '.' || table_name FROM %s.information_schema.tables WHERE table_schema NOT IN %s", YANAGISHIMA_COMMENT, catalog, notin);
+            prestoService.doStreamingQuery(datasource, query, null, Optional.empty(), Optional.empty(), row -> {
+                tableNames.add(row.get(0));
+                return true;
+            });
+            return !tableNames.equals(new HashSet<>(previous.getTables()));
+        }
+
+        private void publishTables() {
+            List<String> names = new ArrayList<>();
+            for (ColumnIndex index : catalogs.values()) {
+                names.addAll(index.getTables());
+            }
+            tables = new TableNameIndex(names);
+        }
+
+        private void save() throws IOException {
+            Path path = getTableIndexFilePath(datasource);
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(tmp)), UTF_8))) {
+                for (ColumnIndex index : catalogs.values()) {
+                    for (List<String> row : index.getRows()) {
+                        writer.write(mapper.writeValueAsString(row));
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+    }
+}
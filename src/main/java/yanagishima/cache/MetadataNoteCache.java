@@ -0,0 +1,140 @@
+package yanagishima.cache;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.util.MetadataUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Notes of tables from the metadata service, kept for ttl-seconds. A table the service doesn't know is remembered
+ * for negative-ttl-seconds, failures aren't cached. Concurrent lookups of the same table share one request.
+ * When the tables of a schema are listed, the notes of all of them are fetched in the background,
+ * so that expanding one of them doesn't wait for the service.
+ */
+@Singleton
+public class MetadataNoteCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataNoteCache.class);
+
+    private static final int MAX_PREFETCH_TABLES = 500;
+
+    private final YanagishimaConfig config;
+    private final Ticker ticker;
+    private final Cache<String, Entry> entries;
+    private final SingleFlight<String, Optional<Map>> singleFlight = new SingleFlight<>();
+    private final ThreadPoolExecutor prefetcher;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong negativeHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong prefetchCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+    @Inject
+    public MetadataNoteCache(YanagishimaConfig config) {
+        this(config, Ticker.systemTicker());
+    }
+
+    MetadataNoteCache(YanagishimaConfig config, Ticker ticker) {
+        this.config = config;
+        this.ticker = ticker;
+        this.entries = CacheBuilder.newBuilder().maximumSize(config.getMetadataServiceCacheMaxEntries()).build();
+        int threads = config.getMetadataServicePrefetchThreads();
+        this.prefetcher = new ThreadPoolExecutor(threads, threads, 60, SECONDS, new LinkedBlockingQueue<>(MAX_PREFETCH_TABLES * 4),
+                new ThreadFactoryBuilder().setNameFormat("metadata-note-prefetch-%d").setDaemon(true).build());
+        prefetcher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the notes of the table, empty if the service doesn't know it or failed
+     */
+    public Optional<Map> get(String metadataServiceUrl, String schema, String table) {
+        String key = SingleFlight.key(metadataServiceUrl, schema, table);
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null && entry.expiresAt > now()) {
+            (entry.metadata.isPresent() ? hitCount : negativeHitCount).incrementAndGet();
+            return entry.metadata;
+        }
+        missCount.incrementAndGet();
+        return load(key, metadataServiceUrl, schema, table);
+    }
+
+    /**
+     * Fetches the notes of the tables which aren't cached yet in the background
+     */
+    public void prefetch(String metadataServiceUrl, String schema, List<String> tables) {
+        long now = now();
+        for (String table : tables.subList(0, Math.min(tables.size(), MAX_PREFETCH_TABLES))) {
+            String key = SingleFlight.key(metadataServiceUrl, schema, table);
+            Entry entry = entries.getIfPresent(key);
+            if (entry != null && entry.expiresAt > now) {
+                continue;
+            }
+            try {
+                prefetcher.execute(() -> load(key, metadataServiceUrl, schema, table));
+                prefetchCount.incrementAndGet();
+            } catch (RejectedExecutionException e) {
+                // the queue is full, the rest is fetched when it is looked up
+                return;
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entryCount", entries.size());
+        stats.put("hitCount", hitCount.get());
+        stats.put("negativeHitCount", negativeHitCount.get());
+        stats.put("missCount", missCount.get());
+        stats.put("prefetchCount", prefetchCount.get());
+        stats.put("prefetchQueueSize", prefetcher.getQueue().size());
+        stats.put("failureCount", failureCount.get());
+        return stats;
+    }
+
+    private Optional<Map> load(String key, String metadataServiceUrl, String schema, String table) {
+        try {
+            Optional<Map> metadata = singleFlight.execute(key, () -> MetadataUtil.fetchMetadata(metadataServiceUrl, schema, table));
+            long ttlSeconds = metadata.isPresent() ? config.getMetadataServiceCacheTtlSeconds() : config.getMetadataServiceCacheNegativeTtlSeconds();
+            if (ttlSeconds > 0) {
+                entries.put(key, new Entry(metadata, now() + ttlSeconds * 1000L));
+            }
+            return metadata;
+        } catch (Exception e) {
+            failureCount.incrementAndGet();
+            LOGGER.warn(String.format("failed to get metadata of schema=%s, table=%s: %s", schema, table, e.getMessage()));
+            return Optional.empty();
+        }
+    }
+
+    private long now() {
+        return NANOSECONDS.toMillis(ticker.read());
+    }
+
+    private static class Entry {
+        private final Optional<Map> metadata;
+        private final long expiresAt;
+
+        Entry(Optional<Map> metadata, long expiresAt) {
+            this.metadata = metadata;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
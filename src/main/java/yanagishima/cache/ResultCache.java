@@ -0,0 +1,289 @@
+package yanagishima.cache;
+
+import com.google.common.base.Ticker;
+import me.geso.tinyorm.TinyORM;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.row.Query;
+import yanagishima.row.QueryCacheHit;
+import yanagishima.util.PathUtil;
+import yanagishima.util.QueryIdUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static yanagishima.util.Constants.YANAGISHIMA_COMMENT;
+import static yanagishima.util.QueryEngine.presto;
+
+/**
+ * Reuses the result of a recent successful presto query for an identical query of the same caller.
+ * Queries are identified by a fingerprint of the normalized query text, datasource, catalog, schema, the audit user
+ * and the presto user and password hash. Results are never shared between callers, whatever allow.other.read.result is,
+ * and a caller with presto credentials must still be accepted by the coordinator before a result is reused.
+ * A hit gets its own query id whose result file is a link to the cached one.
+ */
+@Singleton
+public class ResultCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultCache.class);
+
+    private final YanagishimaConfig config;
+    private final TinyORM db;
+    private final HttpClientRegistry httpClientRegistry;
+    private final Ticker ticker;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    @Inject
+    public ResultCache(YanagishimaConfig config, TinyORM db, HttpClientRegistry httpClientRegistry) {
+        this(config, db, httpClientRegistry, Ticker.systemTicker());
+    }
+
+    ResultCache(YanagishimaConfig config, TinyORM db, HttpClientRegistry httpClientRegistry, Ticker ticker) {
+        this.config = config;
+        this.db = db;
+        this.httpClientRegistry = httpClientRegistry;
+        this.ticker = ticker;
+    }
+
+    public boolean isEnabled(String datasource) {
+        return config.getResultCacheTtlSeconds(datasource) > 0;
+    }
+
+    /**
+     * Remembers the stored result of a finished query so that identical queries can reuse it until the TTL expires
+     */
+    public void put(String datasource, String query, String user, Optional<String> prestoUser, Optional<String> prestoPassword, String queryId) {
+        if (!isEnabled(datasource) || !isCacheable(query)) {
+            return;
+        }
+        long now = now();
+        if (entries.size() >= config.getResultCacheMaxEntries()) {
+            entries.values().removeIf(entry -> entry.isExpired(now));
+            if (entries.size() >= config.getResultCacheMaxEntries()) {
+                return;
+            }
+        }
+        long expiresAt = now + config.getResultCacheTtlSeconds(datasource) * 1000L;
+        entries.put(fingerprint(datasource, query, scope(user, prestoUser, prestoPassword)), new Entry(queryId, expiresAt));
+    }
+
+    /**
+     * Returns the history row of a new query id which shares the result of a cached query, or empty if nothing usable is cached
+     */
+    public Optional<Query> get(String datasource, String query, String user, Optional<String> prestoUser, Optional<String> prestoPassword) {
+        String fingerprint = fingerprint(datasource, query, scope(user, prestoUser, prestoPassword));
+        Optional<Entry> cached = lookup(datasource, query, fingerprint);
+        if (!cached.isPresent()) {
+            return Optional.empty();
+        }
+        Entry entry = cached.get();
+        if (!authenticate(datasource, entry.queryId, prestoUser, prestoPassword)) {
+            missCount.incrementAndGet();
+            return Optional.empty();
+        }
+
+        Optional<Query> source = db.single(Query.class).where("query_id=? and datasource=? and engine=?", entry.queryId, datasource, presto.name()).execute();
+        Path sourceFile = PathUtil.findResultFilePath(datasource, entry.queryId);
+        if (!source.isPresent() || !sourceFile.toFile().exists()) {
+            entries.remove(fingerprint, entry);
+            missCount.incrementAndGet();
+            return Optional.empty();
+        }
+
+        String queryId = QueryIdUtil.generate(datasource, query, presto.name());
+        try {
+            String fileName = sourceFile.getFileName().toString();
+            link(sourceFile, PathUtil.getResultFilePath(datasource, queryId, false).resolveSibling(queryId + fileName.substring(entry.queryId.length())));
+            Path sourceIndex = PathUtil.getResultIndexFilePath(datasource, entry.queryId);
+            if (sourceIndex.toFile().exists()) {
+                link(sourceIndex, PathUtil.getResultIndexFilePath(datasource, queryId));
+            }
+        } catch (IOException e) {
+            LOGGER.warn(String.format("failed to reuse result of %s in %s: %s", entry.queryId, datasource, e.getMessage()));
+            missCount.incrementAndGet();
+            return Optional.empty();
+        }
+
+        String hitTimeString = ZonedDateTime.now().toString();
+        db.insert(Query.class)
+                .value("datasource", datasource)
+                .value("engine", presto.name())
+                .value("query_id", queryId)
+                .value("fetch_result_time_string", hitTimeString)
+                .value("query_string", query)
+                .value("user", user)
+                .value("status", source.get().getStatus())
+                .value("elapsed_time_millis", 0)
+                .value("result_file_size", source.get().getResultFileSize())
+                .value("linenumber", source.get().getLinenumber())
+                .execute();
+        db.insert(QueryCacheHit.class)
+                .value("datasource", datasource)
+                .value("engine", presto.name())
+                .value("query_id", queryId)
+                .value("source_query_id", entry.queryId)
+                .value("hit_time_string", hitTimeString)
+                .execute();
+        hitCount.incrementAndGet();
+        LOGGER.info(String.format("%s in %s reused result of %s", queryId, datasource, entry.queryId));
+        return db.single(Query.class).where("query_id=? and datasource=? and engine=?", queryId, datasource, presto.name()).execute();
+    }
+
+    public Optional<QueryCacheHit> findHit(String datasource, String queryId) {
+        return db.single(QueryCacheHit.class).where("query_id=? and datasource=? and engine=?", queryId, datasource, presto.name()).execute();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entryCount", entries.size());
+        stats.put("hitCount", hitCount.get());
+        stats.put("missCount", missCount.get());
+        return stats;
+    }
+
+    /**
+     * Returns the id of the cached query for the fingerprint, without checking that its result still exists
+     */
+    Optional<String> getSourceQueryId(String datasource, String query, String user, Optional<String> prestoUser, Optional<String> prestoPassword) {
+        return lookup(datasource, query, fingerprint(datasource, query, scope(user, prestoUser, prestoPassword))).map(entry -> entry.queryId);
+    }
+
+    private Optional<Entry> lookup(String datasource, String query, String fingerprint) {
+        if (!isEnabled(datasource) || !isCacheable(query)) {
+            return Optional.empty();
+        }
+        Entry entry = entries.get(fingerprint);
+        if (entry == null || entry.isExpired(now())) {
+            if (entry != null) {
+                entries.remove(fingerprint, entry);
+            }
+            missCount.incrementAndGet();
+            return Optional.empty();
+        }
+        return Optional.of(entry);
+    }
+
+    /**
+     * Asks the coordinator for the cached query with the caller's credentials, so that a caller whose password is wrong
+     * or was changed since doesn't get the result. 404 only means the coordinator forgot the query, it was authenticated.
+     */
+    private boolean authenticate(String datasource, String sourceQueryId, Optional<String> prestoUser, Optional<String> prestoPassword) {
+        if (!prestoUser.isPresent() || !prestoPassword.isPresent()) {
+            return true;
+        }
+        Request request = new Request.Builder().url(config.getPrestoCoordinatorServer(datasource) + "/v1/query/" + sourceQueryId).build();
+        try (Response response = httpClientRegistry.getClient(datasource, prestoUser, prestoPassword).newCall(request).execute()) {
+            if (response.isSuccessful() || response.code() == 404) {
+                return true;
+            }
+            LOGGER.info(String.format("%s can't reuse result of %s in %s: code=%d", prestoUser.get(), sourceQueryId, datasource, response.code()));
+            return false;
+        } catch (IOException e) {
+            LOGGER.warn(String.format("failed to authenticate %s in %s: %s", prestoUser.get(), datasource, e.getMessage()));
+            return false;
+        }
+    }
+
+    private long now() {
+        return NANOSECONDS.toMillis(ticker.read());
+    }
+
+    private String fingerprint(String datasource, String query, String scope) {
+        return DigestUtils.sha256Hex(String.join("\u0000", datasource, String.valueOf(config.getCatalog(datasource)),
+                String.valueOf(config.getSchema(datasource)), scope, normalize(query)));
+    }
+
+    /**
+     * The caller who may read the result: the audit user, and the presto user with a hash of the password when given
+     */
+    private static String scope(String user, Optional<String> prestoUser, Optional<String> prestoPassword) {
+        boolean auth = prestoUser.isPresent() && prestoPassword.isPresent();
+        return String.join("\u0000", String.valueOf(user), auth ? prestoUser.get() : "", auth ? DigestUtils.sha256Hex(prestoPassword.get()) : "");
+    }
+
+    private static void link(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(source, target);
+        }
+    }
+
+    static boolean isCacheable(String query) {
+        if (query.startsWith(YANAGISHIMA_COMMENT)) {
+            return false;
+        }
+        String normalized = normalize(query).toLowerCase();
+        return normalized.startsWith("select") || normalized.startsWith("with") || normalized.startsWith("(");
+    }
+
+    /**
+     * Collapses whitespace outside of quoted literals and identifiers and strips trailing semicolons
+     */
+    static String normalize(String query) {
+        requireNonNull(query, "query is null");
+        StringBuilder builder = new StringBuilder(query.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                builder.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                pendingSpace = builder.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                builder.append(' ');
+                pendingSpace = false;
+            }
+            if (c == '\'' || c == '"') {
+                quote = c;
+            }
+            builder.append(c);
+        }
+        int end = builder.length();
+        while (end > 0 && (builder.charAt(end - 1) == ';' || builder.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        builder.setLength(end);
+        return builder.toString();
+    }
+
+    private static class Entry {
+        private final String queryId;
+        private final long expiresAt;
+
+        Entry(String queryId, long expiresAt) {
+            this.queryId = queryId;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package yanagishima.cache;
+
+import yanagishima.service.PrestoService.RowHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SingleFlight for streaming queries. The caller which starts the query gets the rows as they arrive, and the first
+ * maxReplayRows of them are also kept, so callers joining while it is in flight replay them and then follow the new
+ * ones. Past that many rows, callers arriving later start their own query, and rows are kept only until every
+ * follower has read them. Nothing is kept once the query completes. The query is stopped early only if nobody
+ * follows it.
+ */
+public class StreamingSingleFlight<K> {
+    private static final int DEFAULT_MAX_REPLAY_ROWS = 10_000;
+
+    private final ConcurrentHashMap<K, Flight> inFlight = new ConcurrentHashMap<>();
+    private final int maxReplayRows;
+
+    public StreamingSingleFlight() {
+        this(DEFAULT_MAX_REPLAY_ROWS);
+    }
+
+    public StreamingSingleFlight(int maxReplayRows) {
+        this.maxReplayRows = maxReplayRows;
+    }
+
+    public interface StreamingQuery {
+        void run(RowHandler handler) throws Exception;
+    }
+
+    public void execute(K key, StreamingQuery query, RowHandler handler) throws Exception {
+        while (true) {
+            Flight flight = new Flight(maxReplayRows);
+            Flight existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                lead(key, flight, query, handler);
+                return;
+            }
+            onJoin(key);
+            if (existing.follow(handler)) {
+                return;
+            }
+            // the flight stopped early or dropped its first rows, so they can't be replayed
+            inFlight.remove(key, existing);
+        }
+    }
+
+    /**
+     * Called before a caller starts following the query in flight for key
+     */
+    void onJoin(K key) {
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private void lead(K key, Flight flight, StreamingQuery query, RowHandler handler) throws Exception {
+        Leader leader = new Leader(flight, handler);
+        try {
+            query.run(leader);
+            flight.complete(null);
+        } catch (Throwable e) {
+            flight.complete(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+        if (leader.failure != null) {
+            throw leader.failure;
+        }
+    }
+
+    private static class Leader implements RowHandler {
+        private final Flight flight;
+        private final RowHandler handler;
+        private boolean following = true;
+        private IOException failure;
+
+        Leader(Flight flight, RowHandler handler) {
+            this.flight = flight;
+            this.handler = handler;
+        }
+
+        @Override
+        public void columns(List<String> columns) throws IOException {
+            flight.columns(columns);
+            try {
+                handler.columns(columns);
+            } catch (IOException e) {
+                stopFollowing(e);
+            }
+        }
+
+        @Override
+        public boolean row(List<String> row) {
+            flight.add(row);
+            if (following) {
+                try {
+                    following = handler.row(row);
+                } catch (IOException e) {
+                    stopFollowing(e);
+                }
+            }
+            return following || flight.keepRunning();
+        }
+
+        private void stopFollowing(IOException e) {
+            following = false;
+            failure = e;
+        }
+    }
+
+    private static class Flight {
+        private final int maxReplayRows;
+        private List<String> columns;
+        // rows not read by every follower yet, the first of them is row number firstRow
+        private final List<List<String>> rows = new ArrayList<>();
+        private long firstRow;
+        private final Set<Cursor> cursors = new HashSet<>();
+        private boolean replayable = true;
+        private boolean stopped;
+        private boolean completed;
+        private Throwable failure;
+
+        Flight(int maxReplayRows) {
+            this.maxReplayRows = maxReplayRows;
+        }
+
+        synchronized void columns(List<String> columns) {
+            this.columns = columns;
+            notifyAll();
+        }
+
+        synchronized void add(List<String> row) {
+            rows.add(row);
+            if (replayable && firstRow + rows.size() > maxReplayRows) {
+                replayable = false;
+            }
+            trim();
+            notifyAll();
+        }
+
+        /**
+         * Called when the leader doesn't want more rows. Returns true if followers still do, otherwise the flight
+         * stops and callers arriving later start their own query.
+         */
+        synchronized boolean keepRunning() {
+            if (!cursors.isEmpty()) {
+                return true;
+            }
+            stopped = true;
+            return false;
+        }
+
+        synchronized void complete(Throwable failure) {
+            this.completed = true;
+            this.failure = failure;
+            notifyAll();
+        }
+
+        /**
+         * Drops the rows every follower has read once late callers can't replay them anymore
+         */
+        private void trim() {
+            if (replayable) {
+                return;
+            }
+            long end = firstRow + rows.size();
+            for (Cursor cursor : cursors) {
+                end = Math.min(end, cursor.next);
+            }
+            rows.subList(0, (int) (end - firstRow)).clear();
+            firstRow = end;
+        }
+
+        /**
+         * Replays the rows read so far and follows the new ones. Returns false without handing anything to
+         * the handler if the flight already stopped early or can't replay its first rows.
+         */
+        boolean follow(RowHandler handler) throws Exception {
+            Cursor cursor = new Cursor();
+            synchronized (this) {
+                if (stopped || !replayable) {
+                    return false;
+                }
+                cursors.add(cursor);
+            }
+            try {
+                boolean columnsSent = false;
+                while (true) {
+                    List<String> currentColumns;
+                    List<List<String>> newRows;
+                    boolean done;
+                    Throwable currentFailure;
+                    synchronized (this) {
+                        while (!completed && cursor.next == firstRow + rows.size() && (columnsSent || columns == null)) {
+                            wait();
+                        }
+                        currentColumns = columns;
+                        newRows = new ArrayList<>(rows.subList((int) (cursor.next - firstRow), rows.size()));
+                        cursor.next = firstRow + rows.size();
+                        done = completed;
+                        currentFailure = failure;
+                        trim();
+                    }
+                    if (!columnsSent && currentColumns != null) {
+                        handler.columns(currentColumns);
+                        columnsSent = true;
+                    }
+                    for (List<String> row : newRows) {
+                        if (!handler.row(row)) {
+                            return true;
+                        }
+                    }
+                    if (done) {
+                        if (currentFailure instanceof Exception) {
+                            throw (Exception) currentFailure;
+                        }
+                        if (currentFailure instanceof Error) {
+                            throw (Error) currentFailure;
+                        }
+                        return true;
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    cursors.remove(cursor);
+                    trim();
+                }
+            }
+        }
+    }
+
+    private static class Cursor {
+        private long next;
+    }
+}
@@ -0,0 +1,213 @@
+package yanagishima.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable index of fully qualified table names for autocompletion.
+ * Names are kept in a sorted array, once by the whole name and once by the table part, so a prefix lookup is a binary search.
+ * Substring and misspelled lookups go through the trigram postings of the names.
+ * Matches are ranked by table name prefix, then whole name prefix, then substring, then shared trigrams.
+ */
+public class TableNameIndex {
+    public static final TableNameIndex EMPTY = new TableNameIndex(new ArrayList<>());
+
+    private static final int GRAM = 3;
+
+    // candidates looked at per lookup, so that a very common trigram can't make a search slow
+    private static final int MAX_CANDIDATES = 20_000;
+
+    private final String[] names;
+    private final String[] lowerNames;
+    // positions in names sorted by the lower case table part
+    private final int[] byTable;
+    private final String[] lowerTables;
+    private final Map<Long, int[]> postings;
+
+    public TableNameIndex(Collection<String> tableNames) {
+        // pairs of the lower case name and the name, so that each name is lowered once
+        String[][] sorted = tableNames.stream().distinct().map(name -> new String[] {name.toLowerCase(Locale.ROOT), name})
+                .sorted(Comparator.comparing((String[] pair) -> pair[0])).toArray(String[][]::new);
+        this.names = Arrays.stream(sorted).map(pair -> pair[1]).toArray(String[]::new);
+        this.lowerNames = Arrays.stream(sorted).map(pair -> pair[0]).toArray(String[]::new);
+        String[] tables = Arrays.stream(lowerNames).map(TableNameIndex::tablePart).toArray(String[]::new);
+        // the sort is stable, so names with the same table part stay in whole name order
+        this.byTable = IntStream.range(0, names.length).boxed()
+                .sorted(Comparator.comparing((Integer i) -> tables[i]))
+                .mapToInt(Integer::intValue).toArray();
+        this.lowerTables = Arrays.stream(byTable).mapToObj(i -> tables[i]).toArray(String[]::new);
+        this.postings = buildPostings(lowerNames);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns all names in sorted order, the array must not be modified
+     */
+    public String[] getNames() {
+        return names;
+    }
+
+    /**
+     * Returns at most limit names matching query, best first
+     */
+    public List<String> search(String query, int limit) {
+        return search(query, limit, name -> true);
+    }
+
+    /**
+     * Returns at most limit names matching query for which visible is true, best first
+     */
+    public List<String> search(String query, int limit, Predicate<String> visible) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        Set<Integer> hits = new LinkedHashSet<>();
+        if (q.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        for (int i = lowerBound(lowerTables, q); i < lowerTables.length && hits.size() < limit && lowerTables[i].startsWith(q); i++) {
+            if (visible.test(names[byTable[i]])) {
+                hits.add(byTable[i]);
+            }
+        }
+        for (int i = lowerBound(lowerNames, q); i < lowerNames.length && hits.size() < limit && lowerNames[i].startsWith(q); i++) {
+            if (visible.test(names[i])) {
+                hits.add(i);
+            }
+        }
+        if (hits.size() < limit && q.length() >= GRAM) {
+            addSubstringMatches(q, limit, visible, hits);
+        }
+        if (hits.size() < limit && q.length() >= GRAM) {
+            addSimilarMatches(q, limit, visible, hits);
+        }
+
+        List<String> result = new ArrayList<>(hits.size());
+        for (int i : hits) {
+            result.add(names[i]);
+        }
+        return result;
+    }
+
+    private void addSubstringMatches(String q, int limit, Predicate<String> visible, Set<Integer> hits) {
+        int[] rarest = null;
+        for (long gram : grams(q)) {
+            int[] posting = postings.get(gram);
+            if (posting == null) {
+                return;
+            }
+            if (rarest == null || posting.length < rarest.length) {
+                rarest = posting;
+            }
+        }
+        for (int j = 0; j < rarest.length && j < MAX_CANDIDATES && hits.size() < limit; j++) {
+            if (lowerNames[rarest[j]].contains(q) && visible.test(names[rarest[j]])) {
+                hits.add(rarest[j]);
+            }
+        }
+    }
+
+    private void addSimilarMatches(String q, int limit, Predicate<String> visible, Set<Integer> hits) {
+        Set<Long> queryGrams = grams(q);
+        Map<Integer, Integer> counts = new HashMap<>();
+        int scanned = 0;
+        for (long gram : queryGrams) {
+            int[] posting = postings.get(gram);
+            if (posting == null) {
+                continue;
+            }
+            for (int i : posting) {
+                if (scanned++ >= MAX_CANDIDATES) {
+                    break;
+                }
+                counts.merge(i, 1, Integer::sum);
+            }
+        }
+        // at least half of the trigrams of the query must be shared
+        int threshold = Math.max(1, (queryGrams.size() + 1) / 2);
+        counts.entrySet().stream()
+                .filter(e -> e.getValue() >= threshold && !hits.contains(e.getKey()) && visible.test(names[e.getKey()]))
+                .sorted(Comparator.comparing((Map.Entry<Integer, Integer> e) -> -e.getValue())
+                        .thenComparing(e -> lowerNames[e.getKey()].length())
+                        .thenComparing(Map.Entry::getKey))
+                .limit(limit - hits.size())
+                .forEach(e -> hits.add(e.getKey()));
+    }
+
+    private static Map<Long, int[]> buildPostings(String[] lowerNames) {
+        Map<Long, IntList> lists = new HashMap<>();
+        for (int i = 0; i < lowerNames.length; i++) {
+            String name = lowerNames[i];
+            for (int j = 0; j + GRAM <= name.length(); j++) {
+                // a name is added once even if it has the trigram more than once
+                lists.computeIfAbsent(gram(name, j), k -> new IntList()).addIfLast(i);
+            }
+        }
+        Map<Long, int[]> postings = new HashMap<>(lists.size() * 4 / 3 + 1);
+        for (Map.Entry<Long, IntList> entry : lists.entrySet()) {
+            postings.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return postings;
+    }
+
+    private static Set<Long> grams(String s) {
+        Set<Long> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= s.length(); i++) {
+            grams.add(gram(s, i));
+        }
+        return grams;
+    }
+
+    private static long gram(String s, int start) {
+        return ((long) s.charAt(start) << 32) | ((long) s.charAt(start + 1) << 16) | s.charAt(start + 2);
+    }
+
+    private static int lowerBound(String[] sorted, String key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    static String tablePart(String name) {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void addIfLast(int value) {
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
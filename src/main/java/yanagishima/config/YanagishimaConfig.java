@@ -176,6 +176,22 @@ public class YanagishimaConfig {
 		return PropertiesUtil.getParam(properties, "spark.jdbc.url." + datasource);
 	}
 
+	public List<String> getHiveJdbcUrls(String datasource) {
+		String property = properties.getProperty("hive.jdbc.urls." + datasource);
+		if (property == null) {
+			return Collections.singletonList(getHiveJdbcUrl(datasource));
+		}
+		return SPLITTER.splitToList(property);
+	}
+
+	public List<String> getSparkJdbcUrls(String datasource) {
+		String property = properties.getProperty("spark.jdbc.urls." + datasource);
+		if (property == null) {
+			return Collections.singletonList(getSparkJdbcUrl(datasource));
+		}
+		return SPLITTER.splitToList(property);
+	}
+
 	public String getSparkWebUrl(String datasource) {
 		return PropertiesUtil.getParam(properties, "spark.web.url." + datasource);
 	}
@@ -400,4 +416,229 @@ public class YanagishimaConfig {
 	public boolean isUseOldPresto(String datasource) {
 		return Boolean.parseBoolean(properties.getProperty("use.old.presto." + datasource));
 	}
+
+	public int getQueryExecutorPoolSize(String engine, String datasource) {
+		String property = properties.getProperty(engine + ".executor.pool-size." + datasource);
+		if(property == null) {
+			return Integer.parseInt(properties.getProperty(engine + ".executor.pool-size", "10"));
+		}
+		return Integer.parseInt(property);
+	}
+
+	public int getQueryExecutorQueueSize(String engine, String datasource) {
+		String property = properties.getProperty(engine + ".executor.queue-size." + datasource);
+		if(property == null) {
+			return Integer.parseInt(properties.getProperty(engine + ".executor.queue-size", "100"));
+		}
+		return Integer.parseInt(property);
+	}
+
+	public ExecutorMode getQueryExecutorMode(String engine, String datasource) {
+		String property = properties.getProperty(engine + ".executor.mode." + datasource);
+		if(property == null) {
+			property = properties.getProperty(engine + ".executor.mode", "platform");
+		}
+		return ExecutorMode.valueOf(property.toUpperCase());
+	}
+
+	public enum ExecutorMode {
+		PLATFORM,
+		VIRTUAL
+	}
+
+	public int getResultPipelineBatchSize() {
+		return Integer.parseInt(properties.getProperty("result.pipeline.batch-size", "1000"));
+	}
+
+	public long getResultPipelineBufferBytes() {
+		return Long.parseLong(properties.getProperty("result.pipeline.buffer-bytes", "1048576"));
+	}
+
+	public ResultFileCompression getResultFileCompression() {
+		return ResultFileCompression.valueOf(properties.getProperty("result.file.compression", "none").toUpperCase());
+	}
+
+	public enum ResultFileCompression {
+		NONE,
+		GZIP
+	}
+
+	public int getResultIndexInterval() {
+		return Integer.parseInt(properties.getProperty("result.index.interval", "1024"));
+	}
+
+	public int getResultCacheTtlSeconds(String datasource) {
+		String property = properties.getProperty("presto.result-cache.ttl-seconds." + datasource);
+		if(property == null) {
+			property = properties.getProperty("presto.result-cache.ttl-seconds", "0");
+		}
+		return Integer.parseInt(property);
+	}
+
+	public int getResultCacheMaxEntries() {
+		return Integer.parseInt(properties.getProperty("presto.result-cache.max-entries", "10000"));
+	}
+
+	public int getMetadataCacheTtlSeconds(String datasource, String catalog) {
+		String property = catalog == null ? null : properties.getProperty("metadata.cache.ttl-seconds." + datasource + "." + catalog);
+		if(property == null) {
+			property = properties.getProperty("metadata.cache.ttl-seconds." + datasource);
+		}
+		if(property == null) {
+			property = properties.getProperty("metadata.cache.ttl-seconds", "0");
+		}
+		return Integer.parseInt(property);
+	}
+
+	public int getMetadataCacheStaleSeconds() {
+		return Integer.parseInt(properties.getProperty("metadata.cache.stale-seconds", "600"));
+	}
+
+	public long getMetadataCacheMaxBytes() {
+		return Long.parseLong(properties.getProperty("metadata.cache.max-bytes", "67108864"));
+	}
+
+	public int getMetadataCacheRefreshThreads() {
+		return Integer.parseInt(properties.getProperty("metadata.cache.refresh-threads", "2"));
+	}
+
+	public int getQueryListPollIntervalMillis() {
+		return Integer.parseInt(properties.getProperty("presto.query-list.poll-interval-millis", "2000"));
+	}
+
+	public int getQueryListIdleSeconds() {
+		return Integer.parseInt(properties.getProperty("presto.query-list.idle-seconds", "60"));
+	}
+
+	public int getQueryWatcherIntervalMillis(String engine) {
+		String property = properties.getProperty("query-watcher.interval-millis." + engine);
+		if(property == null) {
+			property = engine.equals("presto") ? "1000" : "5000";
+		}
+		return Integer.parseInt(property);
+	}
+
+	public int getQueryWatcherThreads() {
+		return Integer.parseInt(properties.getProperty("query-watcher.threads", "4"));
+	}
+
+	public int getQueryEventsMaxDurationSeconds() {
+		return Integer.parseInt(properties.getProperty("query-events.max-duration-seconds", "300"));
+	}
+
+	public int getQueryEventsMaxConnections() {
+		return Integer.parseInt(properties.getProperty("query-events.max-connections", "1000"));
+	}
+
+	public int getHttpClientMaxIdleConnections() {
+		return Integer.parseInt(properties.getProperty("http-client.max-idle-connections", "20"));
+	}
+
+	public int getHttpClientKeepAliveSeconds() {
+		return Integer.parseInt(properties.getProperty("http-client.keep-alive-seconds", "300"));
+	}
+
+	public int getHttpClientMaxRequests() {
+		return Integer.parseInt(properties.getProperty("http-client.max-requests", "128"));
+	}
+
+	public int getHttpClientMaxRequestsPerHost() {
+		return Integer.parseInt(properties.getProperty("http-client.max-requests-per-host", "32"));
+	}
+
+	public int getHttpClientMaxCachedClients() {
+		return Integer.parseInt(properties.getProperty("http-client.max-cached-clients", "1000"));
+	}
+
+	public int getTableIndexRefreshSeconds(String datasource) {
+		String property = properties.getProperty("table-index.refresh-seconds." + datasource);
+		if(property == null) {
+			property = properties.getProperty("table-index.refresh-seconds", "0");
+		}
+		return Integer.parseInt(property);
+	}
+
+	public int getTableIndexIdleSeconds() {
+		return Integer.parseInt(properties.getProperty("table-index.idle-seconds", "86400"));
+	}
+
+	public int getTableIndexFullRefreshSeconds() {
+		return Integer.parseInt(properties.getProperty("table-index.full-refresh-seconds", "86400"));
+	}
+
+	public int getIndexAccessCacheSeconds() {
+		return Integer.parseInt(properties.getProperty("index.access-cache-seconds", "300"));
+	}
+
+	public int getMetadataServiceCacheTtlSeconds() {
+		return Integer.parseInt(properties.getProperty("metadata.service.cache.ttl-seconds", "600"));
+	}
+
+	public int getMetadataServiceCacheNegativeTtlSeconds() {
+		return Integer.parseInt(properties.getProperty("metadata.service.cache.negative-ttl-seconds", "60"));
+	}
+
+	public int getMetadataServiceCacheMaxEntries() {
+		return Integer.parseInt(properties.getProperty("metadata.service.cache.max-entries", "10000"));
+	}
+
+	public int getMetadataServicePrefetchThreads() {
+		return Integer.parseInt(properties.getProperty("metadata.service.prefetch-threads", "4"));
+	}
+
+	public int getYarnApplicationPollIntervalMillis() {
+		return Integer.parseInt(properties.getProperty("yarn.application-cache.poll-interval-millis", "0"));
+	}
+
+	public int getYarnApplicationIdleSeconds() {
+		return Integer.parseInt(properties.getProperty("yarn.application-cache.idle-seconds", "600"));
+	}
+
+	public int getYarnApplicationFullRefreshSeconds() {
+		return Integer.parseInt(properties.getProperty("yarn.application-cache.full-refresh-seconds", "3600"));
+	}
+
+	public int getYarnApplicationMaxApplications() {
+		return Integer.parseInt(properties.getProperty("yarn.application-cache.max-applications", "10000"));
+	}
+
+	public int getSparkProgressPollIntervalMillis() {
+		return Integer.parseInt(properties.getProperty("spark.progress.poll-interval-millis", "0"));
+	}
+
+	public int getSparkProgressIdleSeconds() {
+		return Integer.parseInt(properties.getProperty("spark.progress.idle-seconds", "600"));
+	}
+
+	public int getHiveProgressPollIntervalMillis() {
+		return Integer.parseInt(properties.getProperty("hive.progress.poll-interval-millis", "0"));
+	}
+
+	public int getHiveConnectionPoolMaxIdle() {
+		return Integer.parseInt(properties.getProperty("hive.connection-pool.max-idle", "0"));
+	}
+
+	public int getHiveConnectionPoolIdleSeconds() {
+		return Integer.parseInt(properties.getProperty("hive.connection-pool.idle-seconds", "300"));
+	}
+
+	public int getHiveConnectionPoolValidateAfterSeconds() {
+		return Integer.parseInt(properties.getProperty("hive.connection-pool.validate-after-seconds", "30"));
+	}
+
+	public int getHiveConnectionPoolDownSeconds() {
+		return Integer.parseInt(properties.getProperty("hive.connection-pool.down-seconds", "30"));
+	}
+
+	public int getElasticsearchConnectionPoolMaxIdle() {
+		return Integer.parseInt(properties.getProperty("elasticsearch.connection-pool.max-idle", "0"));
+	}
+
+	public int getElasticsearchConnectionPoolIdleSeconds() {
+		return Integer.parseInt(properties.getProperty("elasticsearch.connection-pool.idle-seconds", "300"));
+	}
+
+	public int getElasticsearchConnectionPoolValidateAfterSeconds() {
+		return Integer.parseInt(properties.getProperty("elasticsearch.connection-pool.validate-after-seconds", "30"));
+	}
 }
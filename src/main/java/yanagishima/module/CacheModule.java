@@ -0,0 +1,17 @@
+package yanagishima.module;
+
+import com.google.inject.AbstractModule;
+import yanagishima.cache.MetadataCache;
+import yanagishima.cache.MetadataIndexer;
+import yanagishima.cache.MetadataNoteCache;
+import yanagishima.cache.ResultCache;
+
+public class CacheModule extends AbstractModule {
+    @Override
+    protected void configure() {
+        bind(ResultCache.class);
+        bind(MetadataCache.class);
+        bind(MetadataNoteCache.class);
+        bind(MetadataIndexer.class);
+    }
+}
@@ -7,8 +7,10 @@ public class ElasticsearchServletModule extends ServletModule {
 	@Override
 	protected void configureServlets() {
 		bind(ElasticsearchServlet.class);
+		bind(ElasticsearchAsyncServlet.class);
 
 		serve("/elasticsearch").with(ElasticsearchServlet.class);
+		serve("/elasticsearchAsync").with(ElasticsearchAsyncServlet.class);
 		serve("/elasticsearchQueryStatus").with(ElasticsearchQueryStatusServlet.class);
 	}
 }
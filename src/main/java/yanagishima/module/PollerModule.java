@@ -0,0 +1,17 @@
+package yanagishima.module;
+
+import com.google.inject.AbstractModule;
+import yanagishima.poller.QueryListPoller;
+import yanagishima.poller.QueryWatcher;
+import yanagishima.poller.SparkProgressPoller;
+import yanagishima.poller.YarnApplicationPoller;
+
+public class PollerModule extends AbstractModule {
+    @Override
+    protected void configure() {
+        bind(QueryListPoller.class);
+        bind(QueryWatcher.class);
+        bind(YarnApplicationPoller.class);
+        bind(SparkProgressPoller.class);
+    }
+}
@@ -1,11 +1,27 @@
 package yanagishima.module;
 
 import com.google.inject.AbstractModule;
+import yanagishima.pipeline.ResultPipelineFactory;
+import yanagishima.pool.ElasticsearchClientPool;
+import yanagishima.pool.HiveConnectionPool;
+import yanagishima.pool.HiveProgressTracker;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.pool.PrestoQueryHandles;
+import yanagishima.pool.QueryExecutorPool;
+import yanagishima.pool.QueryWatchdog;
 import yanagishima.pool.StatementPool;
 
 public class PoolModule extends AbstractModule {
     @Override
     protected void configure() {
         bind(StatementPool.class);
+        bind(QueryExecutorPool.class);
+        bind(ResultPipelineFactory.class);
+        bind(HttpClientRegistry.class);
+        bind(QueryWatchdog.class);
+        bind(PrestoQueryHandles.class);
+        bind(HiveProgressTracker.class);
+        bind(HiveConnectionPool.class);
+        bind(ElasticsearchClientPool.class);
     }
 }
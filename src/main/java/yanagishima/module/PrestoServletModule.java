@@ -28,11 +28,17 @@ public class PrestoServletModule extends ServletModule {
 		bind(BookmarkUserServlet.class);
 		bind(ToValuesQueryServlet.class);
 		bind(TableListServlet.class);
+		bind(TableSearchServlet.class);
+		bind(ColumnSearchServlet.class);
 		bind(PrestoPartitionServlet.class);
 		bind(CommentServlet.class);
 		bind(ConvertPrestoServlet.class);
 		bind(LabelServlet.class);
 		bind(StarredSchemaServlet.class);
+		bind(MetricsServlet.class);
+		bind(HistoryPageServlet.class);
+		bind(QueryEventsServlet.class);
+		bind(HistoryStatusBatchServlet.class);
 
 		serve("/presto").with(PrestoServlet.class);
 		serve("/prestoAsync").with(PrestoAsyncServlet.class);
@@ -41,6 +47,7 @@ public class PrestoServletModule extends ServletModule {
 		serve("/format").with(FormatSqlServlet.class);
 		serve("/history").with(HistoryServlet.class);
 		serve("/historyStatus").with(HistoryStatusServlet.class);
+		serve("/historyPage").with(HistoryPageServlet.class);
 		serve("/share/shareHistory").with(ShareHistoryServlet.class);
 		serve("/publish").with(PublishServlet.class);
 		serve("/queryDetail").with(QueryDetailServlet.class);
@@ -56,10 +63,15 @@ public class PrestoServletModule extends ServletModule {
 		serve("/bookmarkUser").with(BookmarkUserServlet.class);
 		serve("/toValuesQuery").with(ToValuesQueryServlet.class);
 		serve("/tableList").with(TableListServlet.class);
+		serve("/tableSearch").with(TableSearchServlet.class);
+		serve("/columnSearch").with(ColumnSearchServlet.class);
 		serve("/prestoPartition").with(PrestoPartitionServlet.class);
 		serve("/comment").with(CommentServlet.class);
 		serve("/convertPresto").with(ConvertPrestoServlet.class);
 		serve("/label").with(LabelServlet.class);
 		serve("/starredSchema").with(StarredSchemaServlet.class);
+		serve("/metrics").with(MetricsServlet.class);
+		serve("/queryEvents").with(QueryEventsServlet.class);
+		serve("/historyStatusBatch").with(HistoryStatusBatchServlet.class);
 	}
 }
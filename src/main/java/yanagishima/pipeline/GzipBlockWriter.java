@@ -0,0 +1,59 @@
+package yanagishima.pipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes every block as an independent gzip member. The concatenation is a valid gzip file
+ * which GZIPInputStream and gunzip read as one stream.
+ */
+public class GzipBlockWriter {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final OutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[64 * 1024];
+    private final byte[] trailer = new byte[8];
+
+    public GzipBlockWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Compresses one block and returns the number of compressed bytes written.
+     */
+    public long writeBlock(byte[] data, int offset, int length) throws IOException {
+        long written = HEADER.length + trailer.length;
+        out.write(HEADER);
+
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+            written += n;
+        }
+
+        crc.reset();
+        crc.update(data, offset, length);
+        writeInt(trailer, 0, (int) crc.getValue());
+        writeInt(trailer, 4, length);
+        out.write(trailer);
+        return written;
+    }
+
+    public void end() {
+        deflater.end();
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+}
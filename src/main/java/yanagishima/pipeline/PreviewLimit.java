@@ -0,0 +1,34 @@
+package yanagishima.pipeline;
+
+/**
+ * Counts the rows of a preview. A preview is truncated only when a row beyond previewRows was read,
+ * so a result with exactly previewRows rows is complete.
+ */
+public final class PreviewLimit {
+    private final int previewRows;
+    private int rowCount;
+    private boolean truncated;
+
+    /**
+     * previewRows of 0 or less means no limit
+     */
+    public PreviewLimit(int previewRows) {
+        this.previewRows = previewRows;
+    }
+
+    /**
+     * Called for each row read. Returns false for the first row beyond the limit, which must not be written.
+     */
+    public boolean accept() {
+        if (previewRows > 0 && rowCount >= previewRows) {
+            truncated = true;
+            return false;
+        }
+        rowCount++;
+        return true;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+}
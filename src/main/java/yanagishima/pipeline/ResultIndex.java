@@ -0,0 +1,107 @@
+package yanagishima.pipeline;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Sidecar index of a result file. It stores the position of every interval-th data row as
+ * (offset of the block containing the row, offset of the row inside the uncompressed block).
+ * For plain tsv files the block is simply the batch written at that offset.
+ */
+public final class ResultIndex {
+    private static final int MAGIC = 0x59494458; // "YIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 12;
+
+    private ResultIndex() {}
+
+    /**
+     * Finds the indexed row at or before the given data row, reading only the header and one entry.
+     */
+    public static Optional<Position> find(Path indexPath, long row) throws IOException {
+        if (!indexPath.toFile().exists()) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (!readFully(channel, header, 0) || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                return Optional.empty();
+            }
+            int interval = header.getInt(8);
+            long entryCount = (channel.size() - HEADER_SIZE) / ENTRY_SIZE;
+            if (interval <= 0 || entryCount == 0) {
+                return Optional.empty();
+            }
+            long entry = Math.min(row / interval, entryCount - 1);
+            ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+            if (!readFully(channel, buffer, HEADER_SIZE + entry * ENTRY_SIZE)) {
+                return Optional.empty();
+            }
+            return Optional.of(new Position(entry * interval, buffer.getLong(0), buffer.getInt(8)));
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static class Position {
+        private final long row;
+        private final long blockOffset;
+        private final int offsetInBlock;
+
+        Position(long row, long blockOffset, int offsetInBlock) {
+            this.row = row;
+            this.blockOffset = blockOffset;
+            this.offsetInBlock = offsetInBlock;
+        }
+
+        public long getRow() {
+            return row;
+        }
+
+        public long getBlockOffset() {
+            return blockOffset;
+        }
+
+        public int getOffsetInBlock() {
+            return offsetInBlock;
+        }
+    }
+
+    static class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        Writer(Path indexPath, int interval) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(interval);
+        }
+
+        void add(long blockOffset, int offsetInBlock) throws IOException {
+            out.writeLong(blockOffset);
+            out.writeInt(offsetInBlock);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
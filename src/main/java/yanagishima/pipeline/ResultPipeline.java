@@ -0,0 +1,263 @@
+package yanagishima.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Hands result rows from the fetch thread to a dedicated writer thread in encoded batches. At most bufferBytes of
+ * encoded rows wait for the writer, so slow disk I/O only stalls fetching once that much is waiting to be written.
+ * A pipeline closed without finish() deletes the result file and its index, so a partial result is never served.
+ */
+public class ResultPipeline implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultPipeline.class);
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+    private static final int MAX_FREE_BATCHES = 16;
+    private static final TsvEncoder END_OF_DATA = new TsvEncoder("", 0);
+
+    private final Path path;
+    private final Path indexPath;
+    private final int indexInterval;
+    private final boolean compress;
+    private final int batchSize;
+    private final long bufferBytes;
+    private final BlockingQueue<TsvEncoder> queue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<TsvEncoder> freeBatches = new ArrayBlockingQueue<>(MAX_FREE_BATCHES);
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final ResultPipelineFactory factory;
+    private final CountDownLatch writerDone = new CountDownLatch(1);
+    // claimed by the writer when it starts, or by close() so that a writer which never started doesn't run later
+    private final AtomicBoolean writerClaimed = new AtomicBoolean();
+    private final Future<?> writerFuture;
+    private final long startNanos = System.nanoTime();
+
+    private TsvEncoder batch;
+    private int batchRows;
+    private boolean finished;
+    private volatile Throwable failure;
+
+    private long rowCount;
+    private long writtenBytes;
+    private volatile long storedBytes;
+    private long batchCount;
+    private long blockedNanos;
+    private long maxQueuedBytes;
+    private volatile long writeNanos;
+    private volatile long writerIdleNanos;
+
+    ResultPipeline(Path path, Path indexPath, int indexInterval, boolean compress, int batchSize, long bufferBytes, ExecutorService writerExecutor, ResultPipelineFactory factory) {
+        this.path = path;
+        this.indexPath = indexPath;
+        this.indexInterval = indexInterval;
+        this.compress = compress;
+        this.batchSize = batchSize;
+        this.bufferBytes = bufferBytes;
+        this.factory = factory;
+        this.batch = new TsvEncoder();
+        this.writerFuture = writerExecutor.submit(this::writeAll);
+    }
+
+    /**
+     * Encodes one row and returns the exact number of bytes it adds to the result file.
+     * Values are converted the same way as TypeCoerceUtil.objectToString.
+     */
+    public int write(List<?> row) throws IOException {
+        // the first record is the header, data rows are indexed from 0
+        if (indexInterval > 0 && rowCount > 0 && (rowCount - 1) % indexInterval == 0) {
+            batch.mark();
+        }
+        int bytes = batch.encodeRecord(row);
+        writtenBytes += bytes;
+        rowCount++;
+        if (++batchRows >= batchSize || batch.size() >= MAX_BATCH_BYTES) {
+            flushBatch();
+        }
+        return bytes;
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Waits until every row is written and the result file is closed.
+     */
+    public void finish() throws IOException {
+        if (batchRows > 0) {
+            enqueue(batch);
+            batch = null;
+        }
+        enqueue(END_OF_DATA);
+        finished = true;
+        awaitWriter();
+        if (failure != null) {
+            deleteFiles();
+            factory.recordAbort();
+            throw new IOException("Failed to write " + path, failure);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        factory.record(rowCount, writtenBytes, storedBytes, batchCount, blockedNanos, writeNanos, writerIdleNanos);
+        LOGGER.info(String.format("Wrote %d rows (%d bytes, %d stored) to %s in %d ms (%.0f rows/s, writer %d ms, fetch blocked %d ms, max queued %d/%d bytes)",
+                rowCount, writtenBytes, storedBytes, path.getFileName(), NANOSECONDS.toMillis(elapsedNanos),
+                elapsedNanos == 0 ? 0.0 : rowCount * 1_000_000_000.0 / elapsedNanos,
+                NANOSECONDS.toMillis(writeNanos), NANOSECONDS.toMillis(blockedNanos), maxQueuedBytes, bufferBytes));
+    }
+
+    @Override
+    public void close() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        queue.clear();
+        if (writerClaimed.compareAndSet(false, true)) {
+            writerFuture.cancel(false);
+        } else {
+            writerFuture.cancel(true);
+            awaitWriter();
+        }
+        deleteFiles();
+        factory.recordAbort();
+    }
+
+    private void flushBatch() throws IOException {
+        enqueue(batch);
+        awaitBuffer();
+        TsvEncoder free = freeBatches.poll();
+        batch = free == null ? new TsvEncoder() : free;
+        batchRows = 0;
+    }
+
+    private void enqueue(TsvEncoder encoded) throws IOException {
+        checkWriter();
+        if (encoded != END_OF_DATA) {
+            batchCount++;
+            maxQueuedBytes = Math.max(maxQueuedBytes, queuedBytes.addAndGet(encoded.size()));
+        }
+        queue.add(encoded);
+    }
+
+    private void awaitBuffer() throws IOException {
+        if (queuedBytes.get() < bufferBytes) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            synchronized (queuedBytes) {
+                while (queuedBytes.get() >= bufferBytes) {
+                    checkWriter();
+                    queuedBytes.wait(100);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for result writer of " + path);
+        } finally {
+            blockedNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void checkWriter() throws IOException {
+        if (failure != null) {
+            throw new IOException("Failed to write " + path, failure);
+        }
+    }
+
+    private void awaitWriter() {
+        try {
+            writerDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deleteFiles() {
+        deleteIfExists(path);
+        if (indexPath != null) {
+            deleteIfExists(indexPath);
+        }
+    }
+
+    private static void deleteIfExists(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete " + file, e);
+        }
+    }
+
+    private void writeAll() {
+        if (!writerClaimed.compareAndSet(false, true)) {
+            return;
+        }
+        GzipBlockWriter gzipWriter = null;
+        try (OutputStream out = compress ? new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024) : Files.newOutputStream(path);
+             ResultIndex.Writer indexWriter = indexPath == null ? null : new ResultIndex.Writer(indexPath, indexInterval)) {
+            if (compress) {
+                gzipWriter = new GzipBlockWriter(out);
+            }
+            while (true) {
+                long idleStart = System.nanoTime();
+                TsvEncoder encoded = queue.take();
+                long writeStart = System.nanoTime();
+                writerIdleNanos += writeStart - idleStart;
+                if (encoded == END_OF_DATA) {
+                    break;
+                }
+                if (indexWriter != null) {
+                    for (int i = 0; i < encoded.getMarkCount(); i++) {
+                        indexWriter.add(storedBytes, encoded.getMarks()[i]);
+                    }
+                }
+                if (gzipWriter == null) {
+                    out.write(encoded.getBuffer(), 0, encoded.size());
+                    storedBytes += encoded.size();
+                } else {
+                    storedBytes += gzipWriter.writeBlock(encoded.getBuffer(), 0, encoded.size());
+                }
+                int size = encoded.size();
+                encoded.reset();
+                freeBatches.offer(encoded);
+                if (queuedBytes.addAndGet(-size) < bufferBytes) {
+                    synchronized (queuedBytes) {
+                        queuedBytes.notifyAll();
+                    }
+                }
+                writeNanos += System.nanoTime() - writeStart;
+            }
+        } catch (InterruptedException e) {
+            failure = e;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            queue.clear();
+        } finally {
+            if (gzipWriter != null) {
+                gzipWriter.end();
+            }
+            writerDone.countDown();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package yanagishima.pipeline;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.config.YanagishimaConfig.ResultFileCompression;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static yanagishima.util.PathUtil.getCompressedResultFilePath;
+import static yanagishima.util.PathUtil.getResultFilePath;
+import static yanagishima.util.PathUtil.getResultIndexFilePath;
+
+@Singleton
+public class ResultPipelineFactory {
+    private final int batchSize;
+    private final long bufferBytes;
+    private final boolean compress;
+    private final int indexInterval;
+    private final ExecutorService writerExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("result-writer-%d").setDaemon(true).build());
+
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong abortedCount = new AtomicLong();
+    private final AtomicLong rowCount = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicLong writerIdleNanos = new AtomicLong();
+
+    @Inject
+    public ResultPipelineFactory(YanagishimaConfig config) {
+        this.batchSize = config.getResultPipelineBatchSize();
+        this.bufferBytes = config.getResultPipelineBufferBytes();
+        this.compress = config.getResultFileCompression() == ResultFileCompression.GZIP;
+        this.indexInterval = config.getResultIndexInterval();
+    }
+
+    public ResultPipeline open(String datasource, String queryId) {
+        Path resultPath = compress ? getCompressedResultFilePath(datasource, queryId) : getResultFilePath(datasource, queryId, false);
+        openedCount.incrementAndGet();
+        Path indexPath = indexInterval > 0 ? getResultIndexFilePath(datasource, queryId) : null;
+        return new ResultPipeline(resultPath, indexPath, indexInterval, compress, batchSize, bufferBytes, writerExecutor, this);
+    }
+
+    void record(long rows, long bytes, long stored, long batches, long blocked, long write, long writerIdle) {
+        completedCount.incrementAndGet();
+        rowCount.addAndGet(rows);
+        writtenBytes.addAndGet(bytes);
+        storedBytes.addAndGet(stored);
+        batchCount.addAndGet(batches);
+        blockedNanos.addAndGet(blocked);
+        writeNanos.addAndGet(write);
+        writerIdleNanos.addAndGet(writerIdle);
+    }
+
+    void recordAbort() {
+        abortedCount.incrementAndGet();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("compression", compress ? "gzip" : "none");
+        stats.put("batchSize", batchSize);
+        stats.put("bufferBytes", bufferBytes);
+        stats.put("activeCount", openedCount.get() - completedCount.get() - abortedCount.get());
+        stats.put("completedCount", completedCount.get());
+        stats.put("abortedCount", abortedCount.get());
+        stats.put("rowCount", rowCount.get());
+        stats.put("writtenBytes", writtenBytes.get());
+        stats.put("storedBytes", storedBytes.get());
+        stats.put("batchCount", batchCount.get());
+        stats.put("fetchBlockedMillis", NANOSECONDS.toMillis(blockedNanos.get()));
+        stats.put("writeMillis", NANOSECONDS.toMillis(writeNanos.get()));
+        stats.put("writerIdleMillis", NANOSECONDS.toMillis(writerIdleNanos.get()));
+        long writeMillis = NANOSECONDS.toMillis(writeNanos.get());
+        stats.put("writerRowsPerSecond", writeMillis == 0 ? 0 : rowCount.get() * 1000 / writeMillis);
+        return stats;
+    }
+}
@@ -0,0 +1,199 @@
+package yanagishima.pipeline;
+
+import yanagishima.util.TypeCoerceUtil;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encodes result rows as UTF-8 TSV directly into a reusable byte buffer.
+ * The output is byte-compatible with CSVPrinter using CSVFormat.EXCEL with a tab delimiter and "\N" as null string,
+ * including its minimal quoting rules, so existing result files and readers keep working.
+ */
+public class TsvEncoder {
+    private static final byte DELIMITER = '\t';
+    private static final byte QUOTE = '"';
+    private static final byte[] NULL_STRING = {'\\', 'N'};
+
+    private final byte[] recordSeparator;
+    private byte[] buffer;
+    private int size;
+    private int[] marks = new int[4];
+    private int markCount;
+
+    public TsvEncoder() {
+        this(System.getProperty("line.separator"), 8192);
+    }
+
+    public TsvEncoder(String recordSeparator, int initialCapacity) {
+        this.recordSeparator = recordSeparator.getBytes(UTF_8);
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Appends one record and returns the number of bytes it took.
+     */
+    public int encodeRecord(List<?> values) {
+        int start = size;
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                append(DELIMITER);
+            }
+            encodeValue(values.get(i), i == 0);
+        }
+        for (byte b : recordSeparator) {
+            append(b);
+        }
+        return size - start;
+    }
+
+    /**
+     * Remembers the offset where the next record starts
+     */
+    public void mark() {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, markCount * 2);
+        }
+        marks[markCount++] = size;
+    }
+
+    public int[] getMarks() {
+        return marks;
+    }
+
+    public int getMarkCount() {
+        return markCount;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+        markCount = 0;
+    }
+
+    private void encodeValue(Object value, boolean newRecord) {
+        if (value == null) {
+            for (byte b : NULL_STRING) {
+                append(b);
+            }
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            encodeLong(((Number) value).longValue());
+        } else if (value instanceof CharSequence) {
+            encodeString((CharSequence) value, newRecord);
+        } else {
+            encodeString(TypeCoerceUtil.objectToString(value), newRecord);
+        }
+    }
+
+    private void encodeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            encodeString(Long.toString(value), false);
+            return;
+        }
+        if (value < 0) {
+            append((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    private void encodeString(CharSequence value, boolean newRecord) {
+        int length = value.length();
+        if (length == 0) {
+            // CSVPrinter quotes an empty first value so that the record is not an empty line
+            if (newRecord) {
+                append(QUOTE);
+                append(QUOTE);
+            }
+            return;
+        }
+        if (!needsQuote(value, length, newRecord)) {
+            appendUtf8(value, length, false);
+            return;
+        }
+        append(QUOTE);
+        appendUtf8(value, length, true);
+        append(QUOTE);
+    }
+
+    private static boolean needsQuote(CharSequence value, int length, boolean newRecord) {
+        char c = value.charAt(0);
+        // RFC4180 TEXTDATA check commons-csv applies to the first value of a record
+        if (newRecord && (c < 0x20 || c == 0x22 || c == 0x2C || c > 0x7E)) {
+            return true;
+        }
+        if (c <= '#') {
+            return true;
+        }
+        for (int i = 0; i < length; i++) {
+            c = value.charAt(i);
+            if (c == '\n' || c == '\r' || c == '"' || c == '\t') {
+                return true;
+            }
+        }
+        return value.charAt(length - 1) <= ' ';
+    }
+
+    private void appendUtf8(CharSequence value, int length, boolean escapeQuote) {
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (size == buffer.length) {
+                    ensureCapacity(length - i);
+                }
+                buffer[size++] = (byte) c;
+                if (escapeQuote && c == '"') {
+                    append(QUOTE);
+                }
+            } else if (c < 0x800) {
+                ensureCapacity(2);
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensureCapacity(4);
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                append((byte) '?');
+            } else {
+                ensureCapacity(3);
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void append(byte b) {
+        ensureCapacity(1);
+        buffer[size++] = b;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+}
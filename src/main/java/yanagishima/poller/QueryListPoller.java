@@ -0,0 +1,264 @@
+package yanagishima.poller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HttpClientRegistry;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+
+/**
+ * Fetches /v1/query of each presto coordinator in the background and keeps the latest list,
+ * so that every open query list is served from one shared request instead of one per browser.
+ * A datasource is polled from its first read until nobody read it for idle-seconds. Then it is stopped and forgotten,
+ * so the next read after an idle period fetches a fresh list instead of getting the one from before.
+ */
+@Singleton
+public class QueryListPoller {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryListPoller.class);
+
+    private static final Comparator<Map<String, Object>> QUERY_ID_DESC = (a, b) -> String.valueOf(b.get("queryId")).compareTo(String.valueOf(a.get("queryId")));
+
+    private static final int TIMEOUT_SECONDS = 30;
+
+    private final YanagishimaConfig config;
+    private final HttpClientRegistry httpClientRegistry;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler;
+    private final Ticker ticker;
+    private final ConcurrentHashMap<String, DatasourcePoller> pollers = new ConcurrentHashMap<>();
+
+    @Inject
+    public QueryListPoller(YanagishimaConfig config, HttpClientRegistry httpClientRegistry) {
+        this(config, httpClientRegistry, Ticker.systemTicker());
+    }
+
+    QueryListPoller(YanagishimaConfig config, HttpClientRegistry httpClientRegistry, Ticker ticker) {
+        this.config = config;
+        this.httpClientRegistry = httpClientRegistry;
+        this.ticker = ticker;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("query-list-poller-%d").setDaemon(true).build());
+    }
+
+    public boolean isEnabled() {
+        return config.getQueryListPollIntervalMillis() > 0;
+    }
+
+    /**
+     * Returns the latest query list of the datasource, fetching it now if it has never been fetched
+     */
+    public Snapshot getSnapshot(String datasource) {
+        DatasourcePoller poller = pollers.computeIfAbsent(datasource, this::start);
+        poller.lastReadAt = now();
+        Snapshot snapshot = poller.snapshot;
+        if (snapshot == null) {
+            poller.poll();
+            snapshot = poller.snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the latest query list only if the datasource is already polled, without fetching anything
+     */
+    public Optional<Snapshot> peekSnapshot(String datasource) {
+        DatasourcePoller poller = pollers.get(datasource);
+        if (poller == null || poller.snapshot == null || poller.snapshot.isError()) {
+            return Optional.empty();
+        }
+        return Optional.of(poller.snapshot);
+    }
+
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (DatasourcePoller poller : pollers.values()) {
+            Snapshot snapshot = poller.snapshot;
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("datasource", poller.datasource);
+            stat.put("version", snapshot == null ? 0 : snapshot.getVersion());
+            stat.put("queryCount", snapshot == null ? 0 : snapshot.getQueries().size());
+            stat.put("fetchedAt", snapshot == null ? 0 : snapshot.getFetchedAt());
+            stat.put("pollCount", poller.pollCount);
+            stat.put("notModifiedCount", poller.notModifiedCount);
+            stat.put("failureCount", poller.failureCount);
+            stats.add(stat);
+        }
+        return stats;
+    }
+
+    /**
+     * Polls the datasource once unless nobody read it for idle-seconds, in which case polling it stops.
+     * Returns false if the datasource isn't polled anymore.
+     */
+    boolean pollOrStop(String datasource) {
+        DatasourcePoller poller = pollers.get(datasource);
+        return poller != null && pollOrStop(poller);
+    }
+
+    private boolean pollOrStop(DatasourcePoller poller) {
+        if (now() - poller.lastReadAt >= config.getQueryListIdleSeconds() * 1000L) {
+            pollers.remove(poller.datasource, poller);
+            if (poller.future != null) {
+                poller.future.cancel(false);
+            }
+            return false;
+        }
+        poller.poll();
+        return true;
+    }
+
+    private DatasourcePoller start(String datasource) {
+        DatasourcePoller poller = new DatasourcePoller(datasource);
+        poller.lastReadAt = now();
+        long interval = config.getQueryListPollIntervalMillis();
+        poller.future = scheduler.scheduleWithFixedDelay(() -> pollOrStop(poller), interval, interval, MILLISECONDS);
+        return poller;
+    }
+
+    private long now() {
+        return NANOSECONDS.toMillis(ticker.read());
+    }
+
+    private class DatasourcePoller {
+        private final String datasource;
+        private volatile Snapshot snapshot;
+        private volatile long lastReadAt;
+        private volatile ScheduledFuture<?> future;
+        private String coordinatorEtag;
+        private String bodyDigest;
+        private long version;
+        private long pollCount;
+        private long notModifiedCount;
+        private long failureCount;
+
+        DatasourcePoller(String datasource) {
+            this.datasource = datasource;
+        }
+
+        synchronized void poll() {
+            pollCount++;
+            Request.Builder builder = new Request.Builder().url(config.getPrestoCoordinatorServer(datasource) + "/v1/query");
+            if (coordinatorEtag != null) {
+                builder.header("If-None-Match", coordinatorEtag);
+            }
+            OkHttpClient httpClient = httpClientRegistry.getClient(datasource, Optional.empty(), Optional.empty(), TIMEOUT_SECONDS);
+            try (Response response = httpClient.newCall(builder.build()).execute()) {
+                if (response.code() == SC_NOT_MODIFIED && snapshot != null) {
+                    notModifiedCount++;
+                    snapshot = snapshot.touch(System.currentTimeMillis());
+                    return;
+                }
+                if (response.code() != SC_OK) {
+                    failed(response.code(), response.message());
+                    return;
+                }
+                String body = response.body().string();
+                coordinatorEtag = response.header("ETag");
+                String digest = DigestUtils.md5Hex(body);
+                if (digest.equals(bodyDigest) && snapshot != null) {
+                    notModifiedCount++;
+                    snapshot = snapshot.touch(System.currentTimeMillis());
+                    return;
+                }
+                bodyDigest = digest;
+                version++;
+                snapshot = new Snapshot(version, sort(mapper.readValue(body, List.class)), System.currentTimeMillis(), 0, null);
+            } catch (IOException | RuntimeException e) {
+                failed(0, e.getMessage());
+            }
+        }
+
+        private void failed(int code, String message) {
+            failureCount++;
+            LOGGER.warn(String.format("failed to fetch query list of %s: code=%d, message=%s", datasource, code, message));
+            if (snapshot == null || snapshot.isError()) {
+                snapshot = new Snapshot(0, Collections.emptyList(), System.currentTimeMillis(), code, message == null ? "failed to fetch query list" : message);
+            }
+        }
+    }
+
+    /**
+     * Running queries first, then the others, each newest first
+     */
+    public static List<Map<String, Object>> sort(List<Map<String, Object>> queries) {
+        List<Map<String, Object>> running = queries.stream().filter(m -> "RUNNING".equals(m.get("state"))).sorted(QUERY_ID_DESC).collect(Collectors.toList());
+        List<Map<String, Object>> notRunning = queries.stream().filter(m -> !"RUNNING".equals(m.get("state"))).sorted(QUERY_ID_DESC).collect(Collectors.toList());
+        List<Map<String, Object>> sorted = new ArrayList<>(running.size() + notRunning.size());
+        sorted.addAll(running);
+        sorted.addAll(notRunning);
+        return Collections.unmodifiableList(sorted);
+    }
+
+    public static class Snapshot {
+        private final long version;
+        private final List<Map<String, Object>> queries;
+        private final long fetchedAt;
+        private final int errorCode;
+        private final String errorMessage;
+
+        Snapshot(long version, List<Map<String, Object>> queries, long fetchedAt, int errorCode, String errorMessage) {
+            this.version = version;
+            this.queries = queries;
+            this.fetchedAt = fetchedAt;
+            this.errorCode = errorCode;
+            this.errorMessage = errorMessage;
+        }
+
+        Snapshot touch(long fetchedAt) {
+            return new Snapshot(version, queries, fetchedAt, errorCode, errorMessage);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Sorted queries shared by all readers, they must not be modified
+         */
+        public List<Map<String, Object>> getQueries() {
+            return queries;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        public boolean isError() {
+            return errorMessage != null || errorCode != 0;
+        }
+
+        public int getErrorCode() {
+            return errorCode;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package yanagishima.poller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.geso.tinyorm.TinyORM;
+import okhttp3.OkHttpClient;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.cache.ResultCache;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HiveProgressTracker;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.row.Query;
+import yanagishima.row.QueryCacheHit;
+import yanagishima.util.QueryStatusUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static yanagishima.util.QueryEngine.presto;
+
+/**
+ * Checks the state of each watched query with one upstream request per interval, however many clients subscribe to it.
+ * Subscribers get a status event whenever the state changes and a complete event once the query is stored in the history,
+ * then the watch ends. A watch without subscribers is stopped.
+ * Only subscribers with the same user and credentials share a watch, so nobody sees a status fetched with someone else's.
+ */
+@Singleton
+public class QueryWatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryWatcher.class);
+
+    // a query which ended without being stored is reported complete after this
+    private static final long STORE_WAIT_MILLIS = 30_000;
+
+    private static final int TIMEOUT_SECONDS = 30;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final YanagishimaConfig config;
+    private final TinyORM db;
+    private final ResultCache resultCache;
+    private final HiveProgressTracker hiveProgressTracker;
+    private final YarnApplicationPoller yarnApplicationPoller;
+    private final SparkProgressPoller sparkProgressPoller;
+    private final HttpClientRegistry httpClientRegistry;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Watch> watches = new HashMap<>();
+
+    private final AtomicLong checkCount = new AtomicLong();
+    private final AtomicLong eventCount = new AtomicLong();
+
+    @Inject
+    public QueryWatcher(YanagishimaConfig config, TinyORM db, ResultCache resultCache, HiveProgressTracker hiveProgressTracker, YarnApplicationPoller yarnApplicationPoller, SparkProgressPoller sparkProgressPoller, HttpClientRegistry httpClientRegistry) {
+        this.config = config;
+        this.db = db;
+        this.resultCache = resultCache;
+        this.hiveProgressTracker = hiveProgressTracker;
+        this.yarnApplicationPoller = yarnApplicationPoller;
+        this.sparkProgressPoller = sparkProgressPoller;
+        this.httpClientRegistry = httpClientRegistry;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(config.getQueryWatcherThreads(),
+                new ThreadFactoryBuilder().setNameFormat("query-watcher-%d").setDaemon(true).build());
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Starts watching the query with the given credentials unless it is already watched with them.
+     * The listener immediately gets the latest event if there is one.
+     */
+    public synchronized Subscription subscribe(String engine, String datasource, String queryid, String userName, Optional<String> user, Optional<String> password, Listener listener) {
+        if (!engine.equals(presto.name()) && !engine.equals("hive") && !engine.equals("spark")) {
+            throw new IllegalArgumentException(engine + " is illegal");
+        }
+        String key = String.join("\u0000", engine, datasource, queryid, String.valueOf(userName),
+                user.orElse(""), password.map(DigestUtils::sha256Hex).orElse(""));
+        Watch watch = watches.get(key);
+        if (watch == null) {
+            watch = new Watch(key, engine, datasource, queryid, userName, user, password);
+            watches.put(key, watch);
+            long interval = config.getQueryWatcherIntervalMillis(engine);
+            watch.future = scheduler.scheduleWithFixedDelay(watch::check, 0, interval, MILLISECONDS);
+        }
+        watch.listeners.add(listener);
+        QueryEvent lastEvent = watch.lastEvent;
+        if (lastEvent != null) {
+            listener.onEvent(lastEvent);
+        }
+        Watch subscribed = watch;
+        return () -> unsubscribe(subscribed, listener);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("watchCount", watches.size());
+        }
+        stats.put("checkCount", checkCount.get());
+        stats.put("eventCount", eventCount.get());
+        return stats;
+    }
+
+    private synchronized void unsubscribe(Watch watch, Listener listener) {
+        watch.listeners.remove(listener);
+        if (watch.listeners.isEmpty()) {
+            stop(watch);
+        }
+    }
+
+    private synchronized void stop(Watch watch) {
+        if (watch.future != null) {
+            watch.future.cancel(false);
+        }
+        watches.remove(watch.key, watch);
+    }
+
+    public interface Listener {
+        void onEvent(QueryEvent event);
+    }
+
+    public interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    public static class QueryEvent {
+        private final String queryid;
+        private final String type;
+        private final Map<String, Object> data;
+
+        QueryEvent(String queryid, String type, Map<String, Object> data) {
+            this.queryid = queryid;
+            this.type = type;
+            this.data = data;
+        }
+
+        public String getQueryid() {
+            return queryid;
+        }
+
+        /**
+         * status, complete or error
+         */
+        public String getType() {
+            return type;
+        }
+
+        public Map<String, Object> getData() {
+            return data;
+        }
+
+        public boolean isLast() {
+            return !type.equals("status");
+        }
+    }
+
+    private class Watch {
+        private final String key;
+        private final String engine;
+        private final String datasource;
+        private final String queryid;
+        private final String userName;
+        private final Optional<String> user;
+        private final OkHttpClient client;
+        private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+        private volatile ScheduledFuture<?> future;
+        private volatile QueryEvent lastEvent;
+        private Map<String, Object> lastStatus;
+        private long endedAt;
+
+        Watch(String key, String engine, String datasource, String queryid, String userName, Optional<String> user, Optional<String> password) {
+            this.key = key;
+            this.engine = engine;
+            this.datasource = datasource;
+            this.queryid = queryid;
+            this.userName = userName;
+            this.user = user;
+            this.client = httpClientRegistry.getClient(datasource, user, password, TIMEOUT_SECONDS);
+        }
+
+        void check() {
+            checkCount.incrementAndGet();
+            try {
+                Optional<Map<String, Object>> status = fetchStatus();
+                if (status.isPresent() && !Objects.equals(status.get(), lastStatus)) {
+                    lastStatus = status.get();
+                    publish(new QueryEvent(queryid, "status", status.get()));
+                }
+                // an empty hive status means the application is gone and the query is stored
+                String state = status.map(m -> String.valueOf(m.get("state"))).orElse("FINISHED");
+                if (!state.equals("FINISHED") && !state.equals("FAILED") && !state.equals("KILLED")) {
+                    return;
+                }
+                if (endedAt == 0) {
+                    endedAt = System.currentTimeMillis();
+                }
+                Optional<Query> query = db.single(Query.class).where("query_id=? and datasource=? and engine=?", queryid, datasource, engine).execute();
+                if (query.isPresent() || System.currentTimeMillis() - endedAt > STORE_WAIT_MILLIS) {
+                    Map<String, Object> data = new HashMap<>();
+                    data.put("status", query.isPresent() ? "ok" : "ng");
+                    query.ifPresent(q -> data.put("queryStatus", q.getStatus()));
+                    publish(new QueryEvent(queryid, "complete", data));
+                    stop(this);
+                }
+            } catch (Throwable e) {
+                LOGGER.warn(String.format("failed to check %s in %s: %s", queryid, datasource, e.getMessage()));
+                publish(new QueryEvent(queryid, "error", Collections.singletonMap("error", String.valueOf(e.getMessage()))));
+                stop(this);
+            }
+        }
+
+        private Optional<Map<String, Object>> fetchStatus() throws Exception {
+            if (engine.equals(presto.name())) {
+                Optional<QueryCacheHit> cacheHit = resultCache.findHit(datasource, queryid);
+                if (cacheHit.isPresent()) {
+                    return Optional.of(QueryStatusUtil.getCacheHitStatus(cacheHit.get()));
+                }
+                // the plan is skipped while reading the response, only the filtered status is parsed into a map
+                StringWriter status = new StringWriter();
+                QueryStatusUtil.writePrestoQueryStatus(client, config.getPrestoCoordinatorServer(datasource), queryid, status);
+                return Optional.of(OBJECT_MAPPER.readValue(status.toString(), Map.class));
+            }
+            return QueryStatusUtil.getHiveQueryStatus(config, db, hiveProgressTracker, yarnApplicationPoller, sparkProgressPoller, engine, datasource, queryid, userName, user);
+        }
+
+        private void publish(QueryEvent event) {
+            eventCount.incrementAndGet();
+            lastEvent = event;
+            for (Listener listener : listeners) {
+                listener.onEvent(event);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package yanagishima.poller;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.bean.SparkSqlJob;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.util.SparkUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Keeps the running jobs of the Spark Thrift Server of each datasource in memory with the statements of their job groups,
+ * so that progress and the job list are served without asking spark on every request.
+ * The application id is resolved once and again after a failure or APPLICATION_ID_TTL_MILLIS.
+ * Each poll fetches the running jobs from the REST API and scrapes the sqlserver page, which has the user and statement
+ * of a job group, so that statements which started and finished between two polls are in the job list too.
+ * A datasource is polled from its first read until nobody read it for idle-seconds. Then it is stopped and forgotten,
+ * so the next read after an idle period fetches the jobs again instead of getting those from before.
+ */
+@Singleton
+public class SparkProgressPoller {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SparkProgressPoller.class);
+
+    // the thrift server gets a new application id when it is restarted
+    private static final long APPLICATION_ID_TTL_MILLIS = 600_000;
+
+    private final YanagishimaConfig config;
+    private final HttpClientRegistry httpClientRegistry;
+    private final ScheduledExecutorService scheduler;
+    private final Ticker ticker;
+    private final ConcurrentHashMap<String, ProgressCache> caches = new ConcurrentHashMap<>();
+
+    @Inject
+    public SparkProgressPoller(YanagishimaConfig config, HttpClientRegistry httpClientRegistry) {
+        this(config, httpClientRegistry, Ticker.systemTicker());
+    }
+
+    SparkProgressPoller(YanagishimaConfig config, HttpClientRegistry httpClientRegistry, Ticker ticker) {
+        this.config = config;
+        this.httpClientRegistry = httpClientRegistry;
+        this.ticker = ticker;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("spark-progress-poller-%d").setDaemon(true).build());
+    }
+
+    public boolean isEnabled() {
+        return config.getSparkProgressPollIntervalMillis() > 0;
+    }
+
+    /**
+     * Returns the progress of the running statement of the user as last polled
+     */
+    public Optional<Double> getProgress(String datasource, String user) {
+        if (!isEnabled()) {
+            String resourceManagerUrl = config.getResourceManagerUrl(datasource);
+            String sparkJdbcApplicationId = getSparkJdbcApplicationId(datasource);
+            List<Map> runningList = SparkUtil.getSparkRunningJobListWithProgress(resourceManagerUrl, sparkJdbcApplicationId);
+            if (runningList.isEmpty()) {
+                return Optional.empty();
+            }
+            Map<String, SparkSqlJob> sparkSqlJobs = SparkUtil.indexByGroupId(SparkUtil.getSparkSqlJobFromSqlserver(resourceManagerUrl, sparkJdbcApplicationId));
+            return Optional.ofNullable(SparkUtil.getProgressByUser(runningList, sparkSqlJobs).get(user));
+        }
+        return Optional.ofNullable(getCache(datasource).snapshot.progressByUser.get(user));
+    }
+
+    public String getApplicationId(String datasource) {
+        if (!isEnabled()) {
+            return getSparkJdbcApplicationId(datasource);
+        }
+        String applicationId = getCache(datasource).snapshot.applicationId;
+        if (applicationId == null) {
+            return getSparkJdbcApplicationId(datasource);
+        }
+        return applicationId;
+    }
+
+    /**
+     * Returns the running jobs followed by at most limit finished statements as last polled
+     */
+    public List<Map> getJobList(String datasource, int limit) {
+        if (!isEnabled()) {
+            String resourceManagerUrl = config.getResourceManagerUrl(datasource);
+            String sparkJdbcApplicationId = getSparkJdbcApplicationId(datasource);
+            List<Map> runningList = SparkUtil.getSparkRunningJobListWithProgress(resourceManagerUrl, sparkJdbcApplicationId);
+            Map<String, SparkSqlJob> sparkSqlJobs = SparkUtil.indexByGroupId(SparkUtil.getSparkSqlJobFromSqlserver(resourceManagerUrl, sparkJdbcApplicationId));
+            return SparkUtil.getJobList(runningList, sparkSqlJobs, limit);
+        }
+        Snapshot snapshot = getCache(datasource).snapshot;
+        return SparkUtil.getJobList(snapshot.runningList, snapshot.sparkSqlJobs, limit);
+    }
+
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (ProgressCache cache : caches.values()) {
+            Snapshot snapshot = cache.snapshot;
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("datasource", cache.datasource);
+            stat.put("applicationId", snapshot.applicationId);
+            stat.put("runningJobCount", snapshot.runningList.size());
+            stat.put("statementCount", snapshot.sparkSqlJobs.size());
+            stat.put("polledAt", cache.polledAt);
+            stat.put("pollCount", cache.pollCount);
+            stat.put("sqlserverCount", cache.sqlserverCount);
+            stat.put("failureCount", cache.failureCount);
+            stats.add(stat);
+        }
+        return stats;
+    }
+
+    private String getSparkJdbcApplicationId(String datasource) {
+        return SparkUtil.getSparkJdbcApplicationId(httpClientRegistry.getClient(datasource, Optional.empty(), Optional.empty()), config.getSparkWebUrl(datasource));
+    }
+
+    /**
+     * Polls the datasource once unless nobody read it for idle-seconds, in which case polling it stops.
+     * Returns false if the datasource isn't polled anymore.
+     */
+    boolean pollOrStop(String datasource) {
+        ProgressCache cache = caches.get(datasource);
+        return cache != null && pollOrStop(cache);
+    }
+
+    private boolean pollOrStop(ProgressCache cache) {
+        if (now() - cache.lastReadAt >= config.getSparkProgressIdleSeconds() * 1000L) {
+            caches.remove(cache.datasource, cache);
+            if (cache.future != null) {
+                cache.future.cancel(false);
+            }
+            return false;
+        }
+        cache.poll();
+        return true;
+    }
+
+    private ProgressCache getCache(String datasource) {
+        ProgressCache cache = caches.computeIfAbsent(datasource, this::start);
+        cache.lastReadAt = now();
+        if (cache.polledAt == 0) {
+            cache.pollFirst();
+        }
+        return cache;
+    }
+
+    private ProgressCache start(String datasource) {
+        ProgressCache cache = new ProgressCache(datasource);
+        cache.lastReadAt = now();
+        long interval = config.getSparkProgressPollIntervalMillis();
+        cache.future = scheduler.scheduleWithFixedDelay(() -> pollOrStop(cache), interval, interval, MILLISECONDS);
+        return cache;
+    }
+
+    private long now() {
+        return NANOSECONDS.toMillis(ticker.read());
+    }
+
+    private static class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(null, Collections.emptyList(), Collections.emptyMap());
+
+        private final String applicationId;
+        private final List<Map> runningList;
+        private final Map<String, SparkSqlJob> sparkSqlJobs;
+        private final Map<String, Double> progressByUser;
+
+        Snapshot(String applicationId, List<Map> runningList, Map<String, SparkSqlJob> sparkSqlJobs) {
+            this.applicationId = applicationId;
+            this.runningList = runningList;
+            this.sparkSqlJobs = sparkSqlJobs;
+            this.progressByUser = SparkUtil.getProgressByUser(runningList, sparkSqlJobs);
+        }
+    }
+
+    private class ProgressCache {
+        private final String datasource;
+        private volatile Snapshot snapshot = Snapshot.EMPTY;
+        private volatile long lastReadAt;
+        private volatile ScheduledFuture<?> future;
+        // wall clock time for the stats, unlike the ticker based times
+        private volatile long polledAt;
+        private volatile long pollCount;
+        private volatile long sqlserverCount;
+        private volatile long failureCount;
+        private long applicationIdExpiresAt;
+
+        ProgressCache(String datasource) {
+            this.datasource = datasource;
+        }
+
+        synchronized void pollFirst() {
+            if (polledAt == 0) {
+                poll();
+            }
+        }
+
+        synchronized void poll() {
+            pollCount++;
+            long now = now();
+            String resourceManagerUrl = config.getResourceManagerUrl(datasource);
+            try {
+                String applicationId = snapshot.applicationId;
+                if (applicationId == null || now >= applicationIdExpiresAt) {
+                    applicationId = getSparkJdbcApplicationId(datasource);
+                    applicationIdExpiresAt = now + APPLICATION_ID_TTL_MILLIS;
+                }
+                List<Map> runningList = SparkUtil.getSparkJobs(resourceManagerUrl, applicationId, "status=running");
+                runningList.forEach(SparkUtil::setProgress);
+                Map<String, SparkSqlJob> sparkSqlJobs = SparkUtil.indexByGroupId(SparkUtil.getSparkSqlJobFromSqlserver(resourceManagerUrl, applicationId));
+                sqlserverCount++;
+                snapshot = new Snapshot(applicationId, runningList, sparkSqlJobs);
+                polledAt = System.currentTimeMillis();
+            } catch (IOException | RuntimeException e) {
+                failureCount++;
+                LOGGER.warn(String.format("failed to fetch spark jobs of %s: %s", datasource, e.getMessage()));
+                // the application id is resolved again by the next poll
+                applicationIdExpiresAt = now;
+                if (polledAt == 0) {
+                    polledAt = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+}
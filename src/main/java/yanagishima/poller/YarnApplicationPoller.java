@@ -0,0 +1,259 @@
+package yanagishima.poller;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.util.YarnUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static yanagishima.util.Constants.YANAGISHIAM_HIVE_JOB_PREFIX;
+
+/**
+ * Keeps the YARN applications of each resource manager in memory, indexed by id and by name.
+ * The name of the application of a hive query contains the query id and the user, so it is looked up by name.
+ * After the first full list each poll only fetches the active applications and those finished since the previous poll,
+ * so the cost doesn't grow with the number of finished applications the resource manager retains.
+ * The full list is fetched again every full-refresh-seconds to drop what was missed.
+ * A datasource is polled from its first read until nobody read it for idle-seconds. Then it is stopped and forgotten,
+ * so the next read after an idle period fetches the applications again instead of getting those from before.
+ */
+@Singleton
+public class YarnApplicationPoller {
+    private static final Logger LOGGER = LoggerFactory.getLogger(YarnApplicationPoller.class);
+
+    private static final String ACTIVE_STATES = "NEW,NEW_SAVING,SUBMITTED,ACCEPTED,RUNNING";
+
+    // finishedTimeBegin goes back this much more than the poll interval, for clock differences with the resource manager
+    private static final long SKEW_MILLIS = 60_000;
+
+    private final YanagishimaConfig config;
+    private final ScheduledExecutorService scheduler;
+    private final Ticker ticker;
+    private final ConcurrentHashMap<String, ApplicationCache> caches = new ConcurrentHashMap<>();
+
+    @Inject
+    public YarnApplicationPoller(YanagishimaConfig config) {
+        this(config, Ticker.systemTicker());
+    }
+
+    YarnApplicationPoller(YanagishimaConfig config, Ticker ticker) {
+        this.config = config;
+        this.ticker = ticker;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("yarn-application-poller-%d").setDaemon(true).build());
+    }
+
+    public boolean isEnabled() {
+        return config.getYarnApplicationPollIntervalMillis() > 0;
+    }
+
+    /**
+     * Returns the application of the hive query as last polled
+     */
+    public Optional<Map> getApplication(String datasource, String queryId, String userName) {
+        if (!isEnabled()) {
+            return YarnUtil.getApplication(config.getResourceManagerUrl(datasource), queryId, userName, config.getResourceManagerBegin(datasource));
+        }
+        return Optional.ofNullable(getCache(datasource).byName.get(YarnUtil.getApplicationName(queryId, userName)));
+    }
+
+    /**
+     * Same as getApplication, but asks the resource manager if the application isn't polled yet.
+     * For kill and redirect, which must not miss an application started after the last poll.
+     */
+    public Optional<Map> findApplication(String datasource, String queryId, String userName) {
+        Optional<Map> application = getApplication(datasource, queryId, userName);
+        if (application.isPresent() || !isEnabled()) {
+            return application;
+        }
+        return YarnUtil.getApplication(config.getResourceManagerUrl(datasource), queryId, userName, config.getResourceManagerBegin(datasource));
+    }
+
+    /**
+     * Returns all applications as last polled, the maps must not be modified
+     */
+    public List<Map> getApplications(String datasource) {
+        if (!isEnabled()) {
+            return YarnUtil.getJobList(config.getResourceManagerUrl(datasource), config.getResourceManagerBegin(datasource));
+        }
+        return new ArrayList<>(getCache(datasource).byId.values());
+    }
+
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (ApplicationCache cache : caches.values()) {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("datasource", cache.datasource);
+            stat.put("applicationCount", cache.byId.size());
+            stat.put("polledAt", cache.polledAt);
+            stat.put("pollCount", cache.pollCount);
+            stat.put("fullPollCount", cache.fullPollCount);
+            stat.put("failureCount", cache.failureCount);
+            stats.add(stat);
+        }
+        return stats;
+    }
+
+    /**
+     * Polls the datasource once unless nobody read it for idle-seconds, in which case polling it stops.
+     * Returns false if the datasource isn't polled anymore.
+     */
+    boolean pollOrStop(String datasource) {
+        ApplicationCache cache = caches.get(datasource);
+        return cache != null && pollOrStop(cache);
+    }
+
+    private boolean pollOrStop(ApplicationCache cache) {
+        if (now() - cache.lastReadAt >= config.getYarnApplicationIdleSeconds() * 1000L) {
+            caches.remove(cache.datasource, cache);
+            if (cache.future != null) {
+                cache.future.cancel(false);
+            }
+            return false;
+        }
+        cache.poll();
+        return true;
+    }
+
+    private ApplicationCache getCache(String datasource) {
+        ApplicationCache cache = caches.computeIfAbsent(datasource, this::start);
+        cache.lastReadAt = now();
+        if (cache.polledAt == 0) {
+            cache.pollFirst();
+        }
+        return cache;
+    }
+
+    private ApplicationCache start(String datasource) {
+        ApplicationCache cache = new ApplicationCache(datasource);
+        cache.lastReadAt = now();
+        long interval = config.getYarnApplicationPollIntervalMillis();
+        cache.future = scheduler.scheduleWithFixedDelay(() -> pollOrStop(cache), interval, interval, MILLISECONDS);
+        return cache;
+    }
+
+    private long now() {
+        return NANOSECONDS.toMillis(ticker.read());
+    }
+
+    private class ApplicationCache {
+        private final String datasource;
+        private final Map<String, Map> byId = new ConcurrentHashMap<>();
+        private final Map<String, Map> byName = new ConcurrentHashMap<>();
+        private volatile long lastReadAt;
+        private volatile ScheduledFuture<?> future;
+        // wall clock time of the resource manager's point of view, unlike the ticker based times
+        private volatile long polledAt;
+        private volatile long pollCount;
+        private volatile long fullPollCount;
+        private volatile long failureCount;
+        private long fullPolledAt;
+
+        ApplicationCache(String datasource) {
+            this.datasource = datasource;
+        }
+
+        synchronized void pollFirst() {
+            if (polledAt == 0) {
+                poll();
+            }
+        }
+
+        synchronized void poll() {
+            pollCount++;
+            String resourceManagerUrl = config.getResourceManagerUrl(datasource);
+            long now = System.currentTimeMillis();
+            Optional<String> begin = config.getResourceManagerBegin(datasource);
+            try {
+                if (fullPollCount == 0 || now() - fullPolledAt >= config.getYarnApplicationFullRefreshSeconds() * 1000L) {
+                    List<Map> applications = YarnUtil.getApplications(resourceManagerUrl, begin.map(b -> "startedTimeBegin=" + (now - Long.parseLong(b))).orElse(""));
+                    // replaced without clearing, so that readers never see an empty cache
+                    Set<Object> ids = new HashSet<>();
+                    for (Map application : applications) {
+                        put(application);
+                        ids.add(application.get("id"));
+                    }
+                    for (Map application : new ArrayList<>(byId.values())) {
+                        if (!ids.contains(application.get("id"))) {
+                            remove(application);
+                        }
+                    }
+                    fullPolledAt = now();
+                    fullPollCount++;
+                } else {
+                    YarnUtil.getApplications(resourceManagerUrl, "states=" + ACTIVE_STATES).forEach(this::put);
+                    long finishedTimeBegin = polledAt - config.getYarnApplicationPollIntervalMillis() - SKEW_MILLIS;
+                    YarnUtil.getApplications(resourceManagerUrl, "finishedTimeBegin=" + finishedTimeBegin).forEach(this::put);
+                    begin.ifPresent(b -> removeStartedBefore(now - Long.parseLong(b)));
+                }
+                evict();
+                polledAt = now;
+            } catch (IOException | RuntimeException e) {
+                failureCount++;
+                LOGGER.warn(String.format("failed to fetch yarn applications of %s: %s", datasource, e.getMessage()));
+                if (polledAt == 0) {
+                    // readers don't wait for the first poll again, the next one is scheduled
+                    polledAt = now;
+                }
+            }
+        }
+
+        private void put(Map application) {
+            byId.put((String) application.get("id"), application);
+            // only hive queries of yanagishima are looked up by name
+            String name = (String) application.get("name");
+            if (name != null && name.startsWith(YANAGISHIAM_HIVE_JOB_PREFIX)) {
+                byName.put(name, application);
+            }
+        }
+
+        private void remove(Map application) {
+            byId.remove(application.get("id"), application);
+            Object name = application.get("name");
+            if (name != null) {
+                byName.remove(name, application);
+            }
+        }
+
+        private void removeStartedBefore(long startedTimeBegin) {
+            for (Map application : new ArrayList<>(byId.values())) {
+                if (((Number) application.get("startedTime")).longValue() < startedTimeBegin) {
+                    remove(application);
+                }
+            }
+        }
+
+        /**
+         * Drops the oldest finished applications over max-applications
+         */
+        private void evict() {
+            int excess = byId.size() - config.getYarnApplicationMaxApplications();
+            if (excess <= 0) {
+                return;
+            }
+            byId.values().stream()
+                    .filter(application -> ((Number) application.get("finishedTime")).longValue() > 0)
+                    .sorted(Comparator.comparingLong(application -> ((Number) application.get("finishedTime")).longValue()))
+                    .limit(excess)
+                    .forEach(this::remove);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package yanagishima.pool;
+
+import com.github.wyukawa.elasticsearch.unofficial.jdbc.driver.ElasticsearchTranslateClient;
+import yanagishima.config.YanagishimaConfig;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.wyukawa.elasticsearch.unofficial.jdbc.driver.ElasticsearchDriver.DRIVER_URL_START;
+
+/**
+ * JDBC connections and translate clients of each elasticsearch datasource, reused across queries instead of being
+ * created for each one. A connection is returned to the {@link JdbcConnectionPool} only if its query succeeded.
+ */
+@Singleton
+public class ElasticsearchClientPool {
+    private final YanagishimaConfig config;
+    private final Connector connector;
+    private final JdbcConnectionPool<String> idleConnections;
+    private final ConcurrentHashMap<String, ElasticsearchTranslateClient> translateClients = new ConcurrentHashMap<>();
+
+    private final AtomicLong openCount = new AtomicLong();
+
+    interface Connector {
+        Connection connect(String url) throws SQLException;
+    }
+
+    @Inject
+    public ElasticsearchClientPool(YanagishimaConfig config) {
+        this(config, DriverManager::getConnection);
+    }
+
+    ElasticsearchClientPool(YanagishimaConfig config, Connector connector) {
+        this.config = config;
+        this.connector = connector;
+        this.idleConnections = new JdbcConnectionPool<>("elasticsearch-client-pool", config::getElasticsearchConnectionPoolMaxIdle,
+                config::getElasticsearchConnectionPoolIdleSeconds, config::getElasticsearchConnectionPoolValidateAfterSeconds);
+    }
+
+    public boolean isEnabled() {
+        return idleConnections.isEnabled();
+    }
+
+    /**
+     * Returns a connection to the datasource. The lease must be closed after the query.
+     */
+    public Lease getConnection(String datasource) throws SQLException {
+        Connection connection = idleConnections.poll(datasource);
+        if (connection == null) {
+            connection = connector.connect(config.getElasticsearchJdbcUrl(datasource));
+            openCount.incrementAndGet();
+        }
+        return new Lease(datasource, connection);
+    }
+
+    public ElasticsearchTranslateClient getTranslateClient(String datasource) {
+        if (!isEnabled()) {
+            return newTranslateClient(datasource);
+        }
+        return translateClients.computeIfAbsent(datasource, this::newTranslateClient);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(idleConnections.getStats());
+        stats.put("openCount", openCount.get());
+        stats.put("translateClientCount", translateClients.size());
+        return stats;
+    }
+
+    private ElasticsearchTranslateClient newTranslateClient(String datasource) {
+        String jdbcUrl = config.getElasticsearchJdbcUrl(datasource);
+        return new ElasticsearchTranslateClient("http://" + jdbcUrl.substring(DRIVER_URL_START.length()));
+    }
+
+    public class Lease implements AutoCloseable {
+        private final String datasource;
+        private final Connection connection;
+        private boolean reusable = true;
+
+        Lease(String datasource, Connection connection) {
+            this.datasource = datasource;
+            this.connection = connection;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Closes the connection instead of returning it, for a connection whose query failed
+         */
+        public void discard() {
+            reusable = false;
+        }
+
+        @Override
+        public void close() {
+            idleConnections.release(datasource, connection, reusable);
+        }
+    }
+}
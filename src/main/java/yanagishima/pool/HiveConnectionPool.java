@@ -0,0 +1,265 @@
+package yanagishima.pool;
+
+import com.google.common.base.Throwables;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+import static yanagishima.util.QueryEngine.hive;
+import static yanagishima.util.QueryEngine.spark;
+
+/**
+ * Connections to HiveServer2 and the Spark Thrift Server, kept per datasource, engine and credential so that a query
+ * doesn't pay for the thrift handshake and the setup queries of the datasource, which are run once per connection.
+ * Idle connections are kept in a {@link JdbcConnectionPool}, which validates and closes them.
+ * A connection whose session may have been changed by the query, or which failed, is closed instead of being returned.
+ * When several urls are configured for a datasource, connections are opened round robin and a url which couldn't be
+ * reached is skipped for down-seconds. Other failures, such as a wrong password, are thrown without trying the other urls.
+ */
+@Singleton
+public class HiveConnectionPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HiveConnectionPool.class);
+
+    private static final Pattern LEADING_COMMENTS = Pattern.compile("^(?:\\s|--[^\\n]*|/\\*.*?\\*/)*+", Pattern.DOTALL);
+
+    // statements which change the session, the connection isn't reused after them
+    private static final Pattern SESSION_STATEMENT = Pattern.compile("^(set|reset|use|add|delete|create\\s+temporary|drop\\s+temporary)\\b", Pattern.CASE_INSENSITIVE);
+
+    private final YanagishimaConfig config;
+    private final Connector connector;
+    private final JdbcConnectionPool<Key> idleConnections;
+    private final ConcurrentHashMap<String, Long> downUntil = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> nextUrl = new ConcurrentHashMap<>();
+
+    private final AtomicLong openCount = new AtomicLong();
+    private final AtomicLong failoverCount = new AtomicLong();
+
+    interface Connector {
+        Connection connect(String url, String user, String password) throws SQLException;
+    }
+
+    @Inject
+    public HiveConnectionPool(YanagishimaConfig config) {
+        this(config, (url, user, password) -> {
+            try {
+                Class.forName("org.apache.hive.jdbc.HiveDriver");
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+            return DriverManager.getConnection(url, user, password);
+        });
+    }
+
+    HiveConnectionPool(YanagishimaConfig config, Connector connector) {
+        this.config = config;
+        this.connector = connector;
+        this.idleConnections = new JdbcConnectionPool<>("hive-connection-pool", config::getHiveConnectionPoolMaxIdle,
+                config::getHiveConnectionPoolIdleSeconds, config::getHiveConnectionPoolValidateAfterSeconds);
+    }
+
+    public boolean isEnabled() {
+        return idleConnections.isEnabled();
+    }
+
+    /**
+     * Returns a connection with the setup queries of the datasource applied. The lease must be closed after the query.
+     *
+     * @param proxyUser the user to impersonate, null for none
+     */
+    public Lease getConnection(String engine, String datasource, String proxyUser, String user, String password) throws SQLException {
+        Key key = new Key(engine, datasource, proxyUser, user, password);
+        Connection connection = idleConnections.poll(key);
+        return new Lease(key, connection == null ? open(key) : connection);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(idleConnections.getStats());
+        stats.put("openCount", openCount.get());
+        stats.put("failoverCount", failoverCount.get());
+        stats.put("downUrls", downUntil.entrySet().stream().filter(e -> e.getValue() > System.currentTimeMillis()).map(Map.Entry::getKey).toArray());
+        return stats;
+    }
+
+    private Connection open(Key key) throws SQLException {
+        List<String> urls = orderUrls(key.datasource, getUrls(key.engine, key.datasource));
+        SQLException lastException = null;
+        for (String url : urls) {
+            String connectionUrl = key.proxyUser == null ? url : url + ";hive.server2.proxy.user=" + key.proxyUser;
+            Connection connection;
+            try {
+                connection = connector.connect(connectionUrl, key.user, key.password);
+            } catch (SQLException e) {
+                if (!isConnectionFailure(e)) {
+                    throw e;
+                }
+                if (urls.size() > 1) {
+                    failoverCount.incrementAndGet();
+                    downUntil.put(url, System.currentTimeMillis() + config.getHiveConnectionPoolDownSeconds() * 1000L);
+                    LOGGER.warn(format("failed to connect to %s of %s: %s", url, key.datasource, e.getMessage()));
+                }
+                lastException = e;
+                continue;
+            }
+            openCount.incrementAndGet();
+            try {
+                setup(key, connection);
+            } catch (SQLException e) {
+                JdbcConnectionPool.closeQuietly(connection);
+                throw e;
+            }
+            return connection;
+        }
+        throw lastException;
+    }
+
+    /**
+     * True if the server couldn't be reached, as opposed to a server which refused the credentials or the setup
+     */
+    static boolean isConnectionFailure(SQLException e) {
+        if (e.getSQLState() != null && e.getSQLState().startsWith("08")) {
+            return true;
+        }
+        for (Throwable cause : Throwables.getCausalChain(e)) {
+            if (cause instanceof IOException || cause instanceof TTransportException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if the query may change the session, comments before the statement are skipped
+     */
+    static boolean isSessionStatement(String query) {
+        return SESSION_STATEMENT.matcher(LEADING_COMMENTS.matcher(query).replaceFirst("")).find();
+    }
+
+    private void setup(Key key, Connection connection) throws SQLException {
+        if (!key.engine.equals(hive.name())) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String hiveSetupQuery : config.getHiveSetupQueryList(key.datasource)) {
+                statement.execute(hiveSetupQuery);
+            }
+        }
+    }
+
+    private List<String> getUrls(String engine, String datasource) {
+        if (engine.equals(hive.name())) {
+            return config.getHiveJdbcUrls(datasource);
+        }
+        if (engine.equals(spark.name())) {
+            return config.getSparkJdbcUrls(datasource);
+        }
+        throw new IllegalArgumentException(engine + " is illegal");
+    }
+
+    /**
+     * Rotates the urls of the datasource and moves the ones which are down to the end, they are tried only if all the others fail
+     */
+    private List<String> orderUrls(String datasource, List<String> urls) {
+        if (urls.size() == 1) {
+            return urls;
+        }
+        int start = Math.floorMod(nextUrl.computeIfAbsent(datasource, k -> new AtomicInteger()).getAndIncrement(), urls.size());
+        long now = System.currentTimeMillis();
+        List<String> up = new ArrayList<>();
+        List<String> down = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            String url = urls.get((start + i) % urls.size());
+            (downUntil.getOrDefault(url, 0L) > now ? down : up).add(url);
+        }
+        up.addAll(down);
+        return up;
+    }
+
+    public class Lease implements AutoCloseable {
+        private final Key key;
+        private final Connection connection;
+        private boolean reusable = true;
+
+        Lease(Key key, Connection connection) {
+            this.key = key;
+            this.connection = connection;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Called with every query run on the connection, which isn't reused if the query may have changed the session
+         */
+        public void onQuery(String query) {
+            if (isSessionStatement(query)) {
+                reusable = false;
+            }
+        }
+
+        /**
+         * Closes the connection instead of returning it, for a connection whose query failed
+         */
+        public void discard() {
+            reusable = false;
+        }
+
+        @Override
+        public void close() {
+            idleConnections.release(key, connection, reusable);
+        }
+    }
+
+    private static class Key {
+        private final String engine;
+        private final String datasource;
+        private final String proxyUser;
+        private final String user;
+        private final String password;
+
+        Key(String engine, String datasource, String proxyUser, String user, String password) {
+            this.engine = engine;
+            this.datasource = datasource;
+            this.proxyUser = proxyUser;
+            this.user = user;
+            this.password = password;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return engine.equals(key.engine) && datasource.equals(key.datasource) && Objects.equals(proxyUser, key.proxyUser)
+                    && Objects.equals(user, key.user) && Objects.equals(password, key.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(engine, datasource, proxyUser, user);
+        }
+    }
+}
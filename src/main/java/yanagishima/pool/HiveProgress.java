@@ -0,0 +1,97 @@
+package yanagishima.pool;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Progress of a hive query read from the operation log of HiveServer2.
+ * MapReduce logs "Launching Job 1 out of 2" and "Stage-1 map = 45%,  reduce = 0%" for each job,
+ * Tez and LLAP log the completed and total tasks of each vertex such as "Map 1: 3(+2)/10	Reducer 2: 0/1".
+ */
+public class HiveProgress {
+    private static final Pattern LAUNCHING_JOB = Pattern.compile("Launching Job (\\d+) out of (\\d+)");
+    private static final Pattern REDUCERS = Pattern.compile("Hadoop job information for (Stage-\\d+): number of mappers: \\d+; number of reducers: (\\d+)");
+    private static final Pattern MAP_REDUCE = Pattern.compile("(Stage-\\d+) map = (\\d+)%,\\s+reduce = (\\d+)%");
+    private static final Pattern VERTEX = Pattern.compile("((?:Map|Reducer|Union) \\d+): (-|\\d+)(?:\\([^)]*\\))?/(-|\\d+)");
+
+    private int job;
+    private int jobCount;
+    private boolean hasReducers = true;
+    private volatile String stage;
+    private volatile double progress;
+
+    /**
+     * Updates the progress with a line of the log, ignoring lines without progress
+     */
+    public void update(String line) {
+        Matcher matcher = LAUNCHING_JOB.matcher(line);
+        if (matcher.find()) {
+            job = Integer.parseInt(matcher.group(1));
+            jobCount = Integer.parseInt(matcher.group(2));
+            hasReducers = true;
+            setProgress(null, 0);
+            return;
+        }
+        matcher = REDUCERS.matcher(line);
+        if (matcher.find()) {
+            hasReducers = !matcher.group(2).equals("0");
+            return;
+        }
+        matcher = MAP_REDUCE.matcher(line);
+        if (matcher.find()) {
+            int map = Integer.parseInt(matcher.group(2));
+            int reduce = Integer.parseInt(matcher.group(3));
+            setProgress(matcher.group(1), hasReducers ? (map + reduce) / 2.0 : map);
+            return;
+        }
+        matcher = VERTEX.matcher(line);
+        int completed = 0;
+        int total = 0;
+        String running = null;
+        String last = null;
+        while (matcher.find()) {
+            last = matcher.group(1);
+            if (matcher.group(2).equals("-") || matcher.group(3).equals("-")) {
+                // the vertex isn't initialized yet
+                running = running == null ? last : running;
+                continue;
+            }
+            int vertexCompleted = Integer.parseInt(matcher.group(2));
+            int vertexTotal = Integer.parseInt(matcher.group(3));
+            completed += vertexCompleted;
+            total += vertexTotal;
+            if (running == null && vertexCompleted < vertexTotal) {
+                running = last;
+            }
+        }
+        if (last != null) {
+            stage = running == null ? last : running;
+            progress = total == 0 ? 0 : 100.0 * completed / total;
+        }
+    }
+
+    /**
+     * Returns the stage or vertex which is running, null before the first one starts
+     */
+    public String getStage() {
+        return stage;
+    }
+
+    /**
+     * Returns the progress of the whole query in percent
+     */
+    public double getProgress() {
+        return progress;
+    }
+
+    private void setProgress(String stage, double jobProgress) {
+        if (stage != null) {
+            this.stage = stage;
+        }
+        if (jobCount == 0) {
+            progress = jobProgress;
+        } else {
+            progress = (job - 1 + jobProgress / 100) / jobCount * 100;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package yanagishima.pool;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hive.jdbc.HiveStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static yanagishima.util.QueryEngine.hive;
+
+/**
+ * Keeps the progress of the hive queries running on this server, read from the operation log of their statement
+ * on a side thread while the query thread is blocked in execute or fetching rows.
+ * The status of a tracked query is served from here without asking the resource manager.
+ * An ended query is kept for RETENTION_MILLIS, so that the polls which follow it see its final state.
+ */
+@Singleton
+public class HiveProgressTracker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HiveProgressTracker.class);
+
+    private static final long RETENTION_MILLIS = 60_000;
+    private static final int LOG_FETCH_SIZE = 1000;
+
+    private final YanagishimaConfig config;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ConcurrentHashMap<String, Tracking> trackings = new ConcurrentHashMap<>();
+
+    private final AtomicLong logFetchCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+    @Inject
+    public HiveProgressTracker(YanagishimaConfig config) {
+        this.config = config;
+        this.scheduler = new ScheduledThreadPoolExecutor(2, new ThreadFactoryBuilder().setNameFormat("hive-progress-tracker-%d").setDaemon(true).build());
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    public boolean isEnabled() {
+        return config.getHiveProgressPollIntervalMillis() > 0;
+    }
+
+    /**
+     * Starts reading the progress of the hive query from the log of statement. The returned tracking must be closed when the query ends.
+     */
+    public Tracking track(String engine, String datasource, String queryId, Statement statement) {
+        Tracking tracking = new Tracking(key(datasource, queryId));
+        // the spark thrift server doesn't log progress
+        if (!isEnabled() || !engine.equals(hive.name()) || !(statement instanceof HiveStatement)) {
+            return tracking;
+        }
+        HiveStatement hiveStatement = (HiveStatement) statement;
+        trackings.put(tracking.key, tracking);
+        long interval = config.getHiveProgressPollIntervalMillis();
+        tracking.future = scheduler.scheduleWithFixedDelay(() -> fetchLog(tracking, hiveStatement), interval, interval, MILLISECONDS);
+        return tracking;
+    }
+
+    /**
+     * Returns the state of the query in the same form as the YARN application, empty if it isn't tracked
+     */
+    public Optional<Map<String, Object>> getStatus(String datasource, String queryId) {
+        Tracking tracking = trackings.get(key(datasource, queryId));
+        if (tracking == null) {
+            return Optional.empty();
+        }
+        Map<String, Object> status = new HashMap<>();
+        status.put("state", tracking.state);
+        status.put("progress", tracking.state.equals("FINISHED") ? 100 : tracking.progress.getProgress());
+        status.put("stage", tracking.progress.getStage());
+        status.put("elapsedTime", (tracking.endedAt == 0 ? System.currentTimeMillis() : tracking.endedAt) - tracking.startedAt);
+        return Optional.of(status);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackingCount", trackings.size());
+        stats.put("logFetchCount", logFetchCount.get());
+        stats.put("failureCount", failureCount.get());
+        return stats;
+    }
+
+    private void fetchLog(Tracking tracking, HiveStatement statement) {
+        try {
+            logFetchCount.incrementAndGet();
+            List<String> lines = statement.getQueryLog(true, LOG_FETCH_SIZE);
+            lines.forEach(tracking.progress::update);
+        } catch (SQLException | RuntimeException e) {
+            // there is no log before the operation starts and after the statement is closed
+            failureCount.incrementAndGet();
+            LOGGER.debug(format("failed to read the log of %s: %s", tracking.key, e.getMessage()));
+        }
+    }
+
+    private static String key(String datasource, String queryId) {
+        return datasource + "/" + queryId;
+    }
+
+    public class Tracking implements AutoCloseable {
+        private final String key;
+        private final HiveProgress progress = new HiveProgress();
+        private final long startedAt = System.currentTimeMillis();
+        private volatile String state = "RUNNING";
+        private volatile long endedAt;
+        private volatile ScheduledFuture<?> future;
+
+        Tracking(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Marks the query finished, otherwise it is reported failed when the tracking is closed
+         */
+        public void finish() {
+            end("FINISHED");
+        }
+
+        @Override
+        public void close() {
+            end("FAILED");
+        }
+
+        private synchronized void end(String endState) {
+            if (endedAt != 0) {
+                return;
+            }
+            endedAt = System.currentTimeMillis();
+            state = endState;
+            if (future != null) {
+                future.cancel(false);
+                scheduler.schedule(() -> trackings.remove(key, this), RETENTION_MILLIS, MILLISECONDS);
+            }
+        }
+    }
+}
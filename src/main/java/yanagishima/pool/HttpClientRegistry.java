@@ -0,0 +1,199 @@
+package yanagishima.pool;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import org.apache.commons.codec.digest.DigestUtils;
+import yanagishima.config.YanagishimaConfig;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.prestosql.client.OkHttpUtil.basicAuth;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Hands out OkHttp clients per datasource, credentials and timeout. All of them share one connection pool and
+ * one dispatcher, so keep-alive connections and their TLS sessions are reused across requests and users.
+ * Calls are made with execute(), which the dispatcher doesn't limit, so max-requests and max-requests-per-host
+ * are enforced by semaphores instead. A permit is held until the response headers arrive, because not every
+ * caller closes the body: the statement client sends its DELETE with enqueue() and never reads the response.
+ * A call which doesn't get a permit within the timeout of its client fails with an IOException.
+ */
+@Singleton
+public class HttpClientRegistry {
+    public static final int DEFAULT_TIMEOUT_SECONDS = 10;
+
+    private final OkHttpClient baseClient;
+    private final Cache<String, OkHttpClient> clients;
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+    private final int maxRequestsPerHost;
+    private final Semaphore requestPermits;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    // connections seen by the network interceptor, to tell new connections from reused ones
+    private final Set<Connection> knownConnections = Collections.newSetFromMap(new WeakHashMap<>());
+
+    @Inject
+    public HttpClientRegistry(YanagishimaConfig config) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getHttpClientMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getHttpClientMaxRequestsPerHost());
+        this.baseClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(config.getHttpClientMaxIdleConnections(), config.getHttpClientKeepAliveSeconds(), SECONDS))
+                .dispatcher(dispatcher)
+                .build();
+        this.clients = CacheBuilder.newBuilder().maximumSize(config.getHttpClientMaxCachedClients()).build();
+        this.maxRequestsPerHost = config.getHttpClientMaxRequestsPerHost();
+        this.requestPermits = new Semaphore(config.getHttpClientMaxRequests());
+    }
+
+    public OkHttpClient getClient(String datasource, Optional<String> user, Optional<String> password) {
+        return getClient(datasource, user, password, DEFAULT_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Returns the client for the datasource, with basic auth when both user and password are given
+     */
+    public OkHttpClient getClient(String datasource, Optional<String> user, Optional<String> password, int timeoutSeconds) {
+        boolean auth = user.isPresent() && password.isPresent();
+        String key = String.join("\u0000", datasource, String.valueOf(timeoutSeconds),
+                auth ? user.get() : "", auth ? DigestUtils.sha256Hex(password.get()) : "");
+        try {
+            return clients.get(key, () -> {
+                OkHttpClient.Builder builder = baseClient.newBuilder()
+                        .connectTimeout(timeoutSeconds, SECONDS)
+                        .readTimeout(timeoutSeconds, SECONDS)
+                        .writeTimeout(timeoutSeconds, SECONDS)
+                        .addInterceptor(new LimitInterceptor(timeoutSeconds))
+                        .addNetworkInterceptor(new StatsInterceptor(stats.computeIfAbsent(datasource, Stats::new)));
+                if (auth) {
+                    builder.addInterceptor(basicAuth(user.get(), password.get()));
+                }
+                return builder.build();
+            });
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public Map<String, Object> getPoolStats() {
+        Map<String, Object> poolStats = new LinkedHashMap<>();
+        poolStats.put("connectionCount", baseClient.connectionPool().connectionCount());
+        poolStats.put("idleConnectionCount", baseClient.connectionPool().idleConnectionCount());
+        poolStats.put("runningCallCount", baseClient.dispatcher().runningCallsCount());
+        poolStats.put("queuedCallCount", baseClient.dispatcher().queuedCallsCount());
+        poolStats.put("availableRequestPermits", requestPermits.availablePermits());
+        poolStats.put("cachedClientCount", clients.size());
+        return poolStats;
+    }
+
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Stats s : stats.values()) {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("datasource", s.datasource);
+            stat.put("requestCount", s.requestCount.get());
+            stat.put("newConnectionCount", s.newConnectionCount.get());
+            stat.put("reusedConnectionCount", s.requestCount.get() - s.newConnectionCount.get());
+            stat.put("tlsHandshakeCount", s.tlsHandshakeCount.get());
+            list.add(stat);
+        }
+        return list;
+    }
+
+    private boolean isNewConnection(Connection connection) {
+        synchronized (knownConnections) {
+            return knownConnections.add(connection);
+        }
+    }
+
+    private class LimitInterceptor implements Interceptor {
+        private final int timeoutSeconds;
+
+        LimitInterceptor(int timeoutSeconds) {
+            this.timeoutSeconds = timeoutSeconds;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            HttpUrl url = chain.request().url();
+            Semaphore host = hostPermits.computeIfAbsent(url.host() + ":" + url.port(), k -> new Semaphore(maxRequestsPerHost));
+            acquire(requestPermits, "too many http requests");
+            try {
+                acquire(host, "too many http requests to " + url.host());
+            } catch (IOException e) {
+                requestPermits.release();
+                throw e;
+            }
+            try {
+                return chain.proceed(chain.request());
+            } finally {
+                host.release();
+                requestPermits.release();
+            }
+        }
+
+        private void acquire(Semaphore semaphore, String message) throws IOException {
+            try {
+                if (!semaphore.tryAcquire(timeoutSeconds, SECONDS)) {
+                    throw new IOException(message);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(message);
+            }
+        }
+    }
+
+    private class StatsInterceptor implements Interceptor {
+        private final Stats stats;
+
+        StatsInterceptor(Stats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            stats.requestCount.incrementAndGet();
+            Connection connection = chain.connection();
+            if (connection != null && isNewConnection(connection)) {
+                stats.newConnectionCount.incrementAndGet();
+                if (connection.handshake() != null) {
+                    stats.tlsHandshakeCount.incrementAndGet();
+                }
+            }
+            return chain.proceed(chain.request());
+        }
+    }
+
+    private static class Stats {
+        private final String datasource;
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicLong newConnectionCount = new AtomicLong();
+        private final AtomicLong tlsHandshakeCount = new AtomicLong();
+
+        Stats(String datasource) {
+            this.datasource = datasource;
+        }
+    }
+}
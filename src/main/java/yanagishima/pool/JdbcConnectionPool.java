@@ -0,0 +1,164 @@
+package yanagishima.pool;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Idle JDBC connections by key, the most recently returned first. A connection idle for validate-after-seconds is
+ * checked with isValid before it is handed out again, and one idle for idle-seconds is closed in the background.
+ * At most max-idle connections are kept per key, 0 disables reuse.
+ */
+public class JdbcConnectionPool<K> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcConnectionPool.class);
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final IntSupplier maxIdle;
+    private final IntSupplier idleSeconds;
+    private final IntSupplier validateAfterSeconds;
+    private final Ticker ticker;
+    private final ConcurrentHashMap<K, Deque<Idle>> idleConnections = new ConcurrentHashMap<>();
+
+    private final AtomicLong reuseCount = new AtomicLong();
+    private final AtomicLong invalidCount = new AtomicLong();
+
+    public JdbcConnectionPool(String name, IntSupplier maxIdle, IntSupplier idleSeconds, IntSupplier validateAfterSeconds) {
+        this(maxIdle, idleSeconds, validateAfterSeconds, Ticker.systemTicker());
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::closeIdleConnections, 60, 60, SECONDS);
+    }
+
+    JdbcConnectionPool(IntSupplier maxIdle, IntSupplier idleSeconds, IntSupplier validateAfterSeconds, Ticker ticker) {
+        this.maxIdle = maxIdle;
+        this.idleSeconds = idleSeconds;
+        this.validateAfterSeconds = validateAfterSeconds;
+        this.ticker = ticker;
+    }
+
+    public boolean isEnabled() {
+        return maxIdle.getAsInt() > 0;
+    }
+
+    /**
+     * Returns a valid idle connection of the key, null if there is none
+     */
+    public Connection poll(K key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Deque<Idle> idles = idleConnections.computeIfAbsent(key, k -> new ArrayDeque<>());
+        while (true) {
+            Idle idle;
+            synchronized (idles) {
+                idle = idles.pollFirst();
+            }
+            if (idle == null) {
+                return null;
+            }
+            if (isValid(idle)) {
+                reuseCount.incrementAndGet();
+                return idle.connection;
+            }
+            invalidCount.incrementAndGet();
+            closeQuietly(idle.connection);
+        }
+    }
+
+    /**
+     * Keeps the connection for the next poll of the key, or closes it if it isn't reusable or the key has max-idle already
+     */
+    public void release(K key, Connection connection, boolean reusable) {
+        if (!reusable || !isEnabled()) {
+            closeQuietly(connection);
+            return;
+        }
+        Deque<Idle> idles = idleConnections.computeIfAbsent(key, k -> new ArrayDeque<>());
+        Idle evicted = null;
+        synchronized (idles) {
+            idles.addFirst(new Idle(connection, now()));
+            if (idles.size() > maxIdle.getAsInt()) {
+                evicted = idles.pollLast();
+            }
+        }
+        if (evicted != null) {
+            closeQuietly(evicted.connection);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("idleCount", idleConnections.values().stream().mapToInt(Deque::size).sum());
+        stats.put("reuseCount", reuseCount.get());
+        stats.put("invalidCount", invalidCount.get());
+        return stats;
+    }
+
+    void closeIdleConnections() {
+        long expiredAt = now() - idleSeconds.getAsInt() * 1000L;
+        for (Deque<Idle> idles : idleConnections.values()) {
+            List<Idle> expired = new ArrayList<>();
+            synchronized (idles) {
+                for (Iterator<Idle> iterator = idles.iterator(); iterator.hasNext(); ) {
+                    Idle idle = iterator.next();
+                    if (idle.returnedAt <= expiredAt) {
+                        expired.add(idle);
+                        iterator.remove();
+                    }
+                }
+            }
+            expired.forEach(idle -> closeQuietly(idle.connection));
+        }
+    }
+
+    private boolean isValid(Idle idle) {
+        if (now() - idle.returnedAt < validateAfterSeconds.getAsInt() * 1000L) {
+            return true;
+        }
+        try {
+            return !idle.connection.isClosed() && idle.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private long now() {
+        return NANOSECONDS.toMillis(ticker.read());
+    }
+
+    public static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.debug("failed to close a connection: " + e.getMessage());
+        }
+    }
+
+    private static class Idle {
+        private final Connection connection;
+        private final long returnedAt;
+
+        Idle(Connection connection, long returnedAt) {
+            this.connection = connection;
+            this.returnedAt = returnedAt;
+        }
+    }
+}
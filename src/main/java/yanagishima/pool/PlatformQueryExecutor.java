@@ -0,0 +1,57 @@
+package yanagishima.pool;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import yanagishima.config.YanagishimaConfig.ExecutorMode;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Runs each query on one of pool-size platform threads, extra queries wait in a bounded queue.
+ */
+public class PlatformQueryExecutor extends QueryExecutor {
+    private final ThreadPoolExecutor executor;
+
+    public PlatformQueryExecutor(String engine, String datasource, int poolSize, int queueSize) {
+        super(engine, datasource, poolSize, queueSize);
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, MILLISECONDS, queue,
+                new ThreadFactoryBuilder().setNameFormat(format("%s-%s-query-%%d", engine, datasource)).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    protected void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    @Override
+    protected ExecutorMode getMode() {
+        return ExecutorMode.PLATFORM;
+    }
+
+    @Override
+    protected int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    protected int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    protected long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,49 @@
+package yanagishima.pool;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.inject.Singleton;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static yanagishima.util.QueryEngine.presto;
+import static yanagishima.util.QueryIdUtil.generate;
+
+/**
+ * The coordinator assigns a presto query id only when the statement is submitted, so a query still waiting in the
+ * executor queue is answered with a handle of yanagishima. The handle maps to the id of the coordinator once the task
+ * submits the statement, and cancelling it while queued keeps the statement from being submitted at all.
+ */
+@Singleton
+public class PrestoQueryHandles {
+    private final Cache<String, CompletableFuture<String>> handles = CacheBuilder.newBuilder().expireAfterWrite(1, DAYS).build();
+
+    /**
+     * Returns a new handle which maps to the query id that queryId completes with
+     */
+    public String create(String datasource, String query, CompletableFuture<String> queryId) {
+        String handle = generate(datasource, query, presto.name());
+        handles.put(handle, queryId);
+        return handle;
+    }
+
+    /**
+     * Returns the query id of the coordinator if queryId is a handle, empty if it isn't one
+     */
+    public Optional<CompletableFuture<String>> get(String queryId) {
+        return Optional.ofNullable(handles.getIfPresent(queryId));
+    }
+
+    /**
+     * Returns the query id of the coordinator if queryId is a handle whose statement was submitted, otherwise queryId
+     */
+    public String resolve(String queryId) {
+        CompletableFuture<String> submitted = handles.getIfPresent(queryId);
+        if (submitted == null || !submitted.isDone() || submitted.isCompletedExceptionally()) {
+            return queryId;
+        }
+        return submitted.join();
+    }
+}
@@ -0,0 +1,127 @@
+package yanagishima.pool;
+
+import yanagishima.config.YanagishimaConfig.ExecutorMode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Bounded executor which runs the async queries of one engine in one datasource.
+ * Submissions beyond pool-size + queue-size are rejected instead of piling up.
+ */
+public abstract class QueryExecutor {
+    protected final String engine;
+    protected final String datasource;
+    protected final int poolSize;
+    protected final int queueSize;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final Set<String> queuedQueryIds = ConcurrentHashMap.newKeySet();
+
+    protected QueryExecutor(String engine, String datasource, int poolSize, int queueSize) {
+        this.engine = engine;
+        this.datasource = datasource;
+        this.poolSize = poolSize;
+        this.queueSize = queueSize;
+    }
+
+    public static QueryExecutor create(ExecutorMode mode, String engine, String datasource, int poolSize, int queueSize) {
+        switch (mode) {
+            case VIRTUAL:
+                return new VirtualQueryExecutor(engine, datasource, poolSize, queueSize);
+            case PLATFORM:
+                return new PlatformQueryExecutor(engine, datasource, poolSize, queueSize);
+            default:
+                throw new IllegalArgumentException("Unknown executor mode: " + mode);
+        }
+    }
+
+    public void submit(Runnable task) {
+        submit(null, task);
+    }
+
+    /**
+     * Submits the task of the query, which is reported queued by isQueued until the task starts
+     */
+    public void submit(String queryId, Runnable task) {
+        long queuedAt = System.nanoTime();
+        if (queryId != null) {
+            queuedQueryIds.add(queryId);
+        }
+        try {
+            execute(() -> {
+                if (queryId != null) {
+                    queuedQueryIds.remove(queryId);
+                }
+                recordWait(System.nanoTime() - queuedAt);
+                task.run();
+            });
+            submittedCount.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            if (queryId != null) {
+                queuedQueryIds.remove(queryId);
+            }
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException(format("Query rejected because %s executor in %s is full (running=%d, queued=%d)", engine, datasource, getActiveCount(), getQueueDepth()), e);
+        }
+    }
+
+    protected abstract void execute(Runnable task);
+
+    protected abstract ExecutorMode getMode();
+
+    protected abstract int getActiveCount();
+
+    protected abstract int getQueueDepth();
+
+    protected abstract long getCompletedCount();
+
+    public abstract void shutdown();
+
+    public boolean isQueued(String queryId) {
+        return queuedQueryIds.contains(queryId);
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public String getDatasource() {
+        return datasource;
+    }
+
+    public Map<String, Object> getStats() {
+        long started = startedCount.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("engine", engine);
+        stats.put("datasource", datasource);
+        stats.put("mode", getMode().name().toLowerCase());
+        stats.put("poolSize", poolSize);
+        stats.put("queueSize", queueSize);
+        stats.put("activeCount", getActiveCount());
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("submittedCount", submittedCount.get());
+        stats.put("rejectedCount", rejectedCount.get());
+        stats.put("completedCount", getCompletedCount());
+        stats.put("averageWaitMillis", started == 0 ? 0 : NANOSECONDS.toMillis(totalWaitNanos.get() / started));
+        stats.put("maxWaitMillis", NANOSECONDS.toMillis(maxWaitNanos.get()));
+        return stats;
+    }
+
+    private void recordWait(long waitNanos) {
+        startedCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+}
@@ -0,0 +1,47 @@
+package yanagishima.pool;
+
+import yanagishima.config.YanagishimaConfig;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+@Singleton
+public class QueryExecutorPool {
+    private final YanagishimaConfig config;
+    private final ConcurrentHashMap<String, QueryExecutor> executorMap = new ConcurrentHashMap<>();
+
+    @Inject
+    public QueryExecutorPool(YanagishimaConfig config) {
+        this.config = config;
+    }
+
+    public void submit(String engine, String datasource, Runnable task) {
+        getExecutor(engine, datasource).submit(task);
+    }
+
+    public void submit(String engine, String datasource, String queryId, Runnable task) {
+        getExecutor(engine, datasource).submit(queryId, task);
+    }
+
+    public boolean isQueued(String engine, String datasource, String queryId) {
+        return getExecutor(engine, datasource).isQueued(queryId);
+    }
+
+    public QueryExecutor getExecutor(String engine, String datasource) {
+        return executorMap.computeIfAbsent(engine + "." + datasource, key -> QueryExecutor.create(
+                config.getQueryExecutorMode(engine, datasource), engine, datasource,
+                config.getQueryExecutorPoolSize(engine, datasource),
+                config.getQueryExecutorQueueSize(engine, datasource)));
+    }
+
+    public List<Map<String, Object>> getStats() {
+        return executorMap.values().stream()
+                .sorted((a, b) -> (a.getEngine() + a.getDatasource()).compareTo(b.getEngine() + b.getDatasource()))
+                .map(QueryExecutor::getStats)
+                .collect(Collectors.toList());
+    }
+}
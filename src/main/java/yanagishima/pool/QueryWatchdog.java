@@ -0,0 +1,175 @@
+package yanagishima.pool;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.units.Duration;
+import me.geso.tinyorm.TinyORM;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static yanagishima.util.DbUtil.storeError;
+
+/**
+ * Keeps the deadline of every running query on one scheduler instead of checking the clock for each row.
+ * When a deadline passes, the timeout is stored in the history and the query is cancelled upstream.
+ * Queries which aren't stored in the history, such as metadata queries, are only cancelled.
+ * The thread running the query only reads a flag through {@link Watch#check()}.
+ */
+@Singleton
+public class QueryWatchdog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryWatchdog.class);
+
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int EXPIRED = 2;
+
+    private final TinyORM db;
+    private final Ticker ticker;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong cancelFailureCount = new AtomicLong();
+
+    @Inject
+    public QueryWatchdog(TinyORM db) {
+        this(db, Ticker.systemTicker());
+    }
+
+    QueryWatchdog(TinyORM db, Ticker ticker) {
+        this.db = db;
+        this.ticker = ticker;
+        this.scheduler = new ScheduledThreadPoolExecutor(2, new ThreadFactoryBuilder().setNameFormat("query-watchdog-%d").setDaemon(true).build());
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts watching a query which started at startMillis. The returned watch must be closed when the query ends.
+     */
+    public Watch watch(String engine, String datasource, String queryId, String query, String userName, long startMillis, Duration maxRunTime, Canceller canceller) {
+        Watch watch = new Watch(datasource, queryId, maxRunTime, canceller);
+        watch.history = () -> storeError(db, datasource, engine, queryId, query, userName, watch.message);
+        return schedule(watch, startMillis);
+    }
+
+    /**
+     * Same as watch for a query which isn't stored in the history, so its timeout only cancels it
+     */
+    public Watch watchUnstored(String datasource, String queryId, long startMillis, Duration maxRunTime, Canceller canceller) {
+        return schedule(new Watch(datasource, queryId, maxRunTime, canceller), startMillis);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("watchCount", scheduler.getQueue().size());
+        stats.put("expiredCount", expiredCount.get());
+        stats.put("cancelFailureCount", cancelFailureCount.get());
+        return stats;
+    }
+
+    /**
+     * Expires the watch if its deadline passed by the ticker, otherwise waits for the rest of it again.
+     * Returns true if the watch expired now.
+     */
+    boolean expireIfDue(Watch watch) {
+        if (watch.state.get() != RUNNING) {
+            return false;
+        }
+        long remaining = watch.deadline - now();
+        if (remaining > 0) {
+            watch.future = scheduler.schedule(() -> expireIfDue(watch), remaining, MILLISECONDS);
+            return false;
+        }
+        if (!watch.state.compareAndSet(RUNNING, EXPIRED)) {
+            return false;
+        }
+        expiredCount.incrementAndGet();
+        LOGGER.info(watch.message);
+        if (watch.history != null) {
+            try {
+                watch.history.run();
+            } catch (RuntimeException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        }
+        try {
+            watch.canceller.cancel();
+        } catch (Exception e) {
+            cancelFailureCount.incrementAndGet();
+            LOGGER.warn(format("failed to cancel %s in %s: %s", watch.queryId, watch.datasource, e.getMessage()));
+        }
+        return true;
+    }
+
+    private Watch schedule(Watch watch, long startMillis) {
+        // startMillis is wall clock time, so only the time left is taken from it
+        long delay = Math.max(startMillis + watch.maxRunTime.toMillis() - System.currentTimeMillis(), 0);
+        watch.deadline = now() + delay;
+        watch.future = scheduler.schedule(() -> expireIfDue(watch), delay, MILLISECONDS);
+        return watch;
+    }
+
+    private long now() {
+        return NANOSECONDS.toMillis(ticker.read());
+    }
+
+    public interface Canceller {
+        void cancel() throws Exception;
+    }
+
+    public static class Watch implements AutoCloseable {
+        private final String datasource;
+        private final String queryId;
+        private final Duration maxRunTime;
+        private final Canceller canceller;
+        private final String message;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private Runnable history;
+        private long deadline;
+        private volatile ScheduledFuture<?> future;
+
+        Watch(String datasource, String queryId, Duration maxRunTime, Canceller canceller) {
+            this.datasource = datasource;
+            this.queryId = queryId;
+            this.maxRunTime = maxRunTime;
+            this.canceller = canceller;
+            this.message = format("Query failed (#%s) in %s: Query exceeded maximum time limit of %s", queryId, datasource, maxRunTime.toString());
+        }
+
+        /**
+         * Throws if the query timed out. The timeout is already stored, so the caller must not store another error.
+         */
+        public void check() {
+            if (state.get() == EXPIRED) {
+                throw new RuntimeException(message);
+            }
+        }
+
+        /**
+         * Stops the watch before the result is stored, throwing if the query already timed out
+         */
+        public void complete() {
+            if (!state.compareAndSet(RUNNING, DONE)) {
+                check();
+            }
+            future.cancel(false);
+        }
+
+        @Override
+        public void close() {
+            state.compareAndSet(RUNNING, DONE);
+            future.cancel(false);
+        }
+    }
+}
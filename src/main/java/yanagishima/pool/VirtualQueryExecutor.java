@@ -0,0 +1,82 @@
+package yanagishima.pool;
+
+import yanagishima.config.YanagishimaConfig.ExecutorMode;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+
+/**
+ * Runs each query on its own virtual thread. A semaphore of pool-size permits limits how many
+ * queries talk to the datasource at once, the rest park on the semaphore without holding an OS thread.
+ */
+public class VirtualQueryExecutor extends QueryExecutor {
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final AtomicInteger admittedCount = new AtomicInteger();
+    private final AtomicLong completedCount = new AtomicLong();
+
+    public VirtualQueryExecutor(String engine, String datasource, int poolSize, int queueSize) {
+        super(engine, datasource, poolSize, queueSize);
+        this.permits = new Semaphore(poolSize, true);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(format("%s-%s-query-", engine, datasource), 0).factory());
+    }
+
+    @Override
+    protected void execute(Runnable task) {
+        if (admittedCount.incrementAndGet() > poolSize + queueSize) {
+            admittedCount.decrementAndGet();
+            throw new RejectedExecutionException();
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    permits.acquire();
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                        completedCount.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    admittedCount.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admittedCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    protected ExecutorMode getMode() {
+        return ExecutorMode.VIRTUAL;
+    }
+
+    @Override
+    protected int getActiveCount() {
+        return poolSize - permits.availablePermits();
+    }
+
+    @Override
+    protected int getQueueDepth() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    protected long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
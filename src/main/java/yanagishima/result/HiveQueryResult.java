@@ -18,6 +18,8 @@ public class HiveQueryResult {
 
     private DataSize rawDataSize;
 
+    private boolean truncated;
+
     public List<String> getColumns() {
         return columns;
     }
@@ -66,4 +68,12 @@ public class HiveQueryResult {
         this.rawDataSize = rawDataSize;
     }
 
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
 }
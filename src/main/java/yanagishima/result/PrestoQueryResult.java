@@ -20,6 +20,8 @@ public class PrestoQueryResult {
 
 	private DataSize rawDataSize;
 
+	private boolean truncated;
+
 	public String getUpdateType() {
 		return updateType;
 	}
@@ -72,4 +74,12 @@ public class PrestoQueryResult {
 		this.rawDataSize = rawDataSize;
 	}
 
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public void setTruncated(boolean truncated) {
+		this.truncated = truncated;
+	}
+
 }
@@ -0,0 +1,29 @@
+package yanagishima.row;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import me.geso.tinyorm.Row;
+import me.geso.tinyorm.annotations.Column;
+import me.geso.tinyorm.annotations.PrimaryKey;
+import me.geso.tinyorm.annotations.Table;
+
+@Table("preview")
+@Data
+@EqualsAndHashCode(callSuper = false)
+public class Preview extends Row<Preview> {
+
+    @PrimaryKey
+    @Column("datasource")
+    private String datasource;
+
+    @PrimaryKey
+    @Column("engine")
+    private String engine;
+
+    @PrimaryKey
+    @Column("query_id")
+    private String queryId;
+
+    @Column("row_count")
+    private Integer rowCount;
+}
@@ -0,0 +1,32 @@
+package yanagishima.row;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import me.geso.tinyorm.Row;
+import me.geso.tinyorm.annotations.Column;
+import me.geso.tinyorm.annotations.PrimaryKey;
+import me.geso.tinyorm.annotations.Table;
+
+@Table("query_cache_hit")
+@Data
+@EqualsAndHashCode(callSuper = false)
+public class QueryCacheHit extends Row<QueryCacheHit> {
+
+    @PrimaryKey
+    @Column("datasource")
+    private String datasource;
+
+    @PrimaryKey
+    @Column("engine")
+    private String engine;
+
+    @PrimaryKey
+    @Column("query_id")
+    private String queryId;
+
+    @Column("source_query_id")
+    private String sourceQueryId;
+
+    @Column("hit_time_string")
+    private String hitTimeString;
+}
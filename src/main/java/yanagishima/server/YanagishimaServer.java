@@ -42,8 +42,13 @@ public class YanagishimaServer {
         server.setAttribute("org.eclipse.jetty.server.Request.maxFormContentSize", -1);
 
         ServletContextHandler servletContextHandler = new ServletContextHandler(server, "/", ServletContextHandler.SESSIONS);
-        servletContextHandler.addFilter(new FilterHolder(new YanagishimaFilter(config.corsEnabled(), config.getAuditHttpHeaderName())), "/*", EnumSet.of(DispatcherType.REQUEST));
-        servletContextHandler.addFilter(GuiceFilter.class, "/*", EnumSet.allOf(DispatcherType.class));
+        // async support lets /queryEvents stream without holding a request thread
+        FilterHolder yanagishimaFilter = new FilterHolder(new YanagishimaFilter(config.corsEnabled(), config.getAuditHttpHeaderName()));
+        yanagishimaFilter.setAsyncSupported(true);
+        servletContextHandler.addFilter(yanagishimaFilter, "/*", EnumSet.of(DispatcherType.REQUEST));
+        FilterHolder guiceFilter = new FilterHolder(GuiceFilter.class);
+        guiceFilter.setAsyncSupported(true);
+        servletContextHandler.addFilter(guiceFilter, "/*", EnumSet.allOf(DispatcherType.class));
         servletContextHandler.addServlet(DefaultServlet.class, "/");
         servletContextHandler.setResourceBase(properties.getProperty("web.resource.dir", "web"));
 
@@ -73,6 +78,8 @@ public class YanagishimaServer {
                 new HiveServletModule(),
                 new DbModule(),
                 new PoolModule(),
+                new CacheModule(),
+                new PollerModule(),
                 new ElasticsearchServiceModule(),
                 new ElasticsearchServletModule());
     }
@@ -87,6 +94,8 @@ public class YanagishimaServer {
                     statement.executeUpdate("CREATE TABLE IF NOT EXISTS bookmark (bookmark_id integer primary key autoincrement, datasource text, engine text, query text, title text, user text)");
                     statement.executeUpdate("CREATE TABLE IF NOT EXISTS comment (datasource text, engine text, query_id text, content text, update_time_string text, user text, like_count integer, primary key(datasource, engine, query_id))");
                     statement.executeUpdate("CREATE TABLE IF NOT EXISTS label (datasource text, engine text, query_id text, label_name text, primary key(datasource, engine, query_id))");
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS query_cache_hit (datasource text, engine text, query_id text, source_query_id text, hit_time_string text, primary key(datasource, engine, query_id))");
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS preview (datasource text, engine text, query_id text, row_count integer, primary key(datasource, engine, query_id))");
                     break;
                 case MYSQL:
                     statement.executeUpdate("CREATE TABLE IF NOT EXISTS query (datasource varchar(256), engine varchar(256), query_id varchar(256), fetch_result_time_string varchar(256), query_string mediumtext, user varchar(256), status varchar(256), elapsed_time_millis integer, result_file_size integer, linenumber integer, primary key(datasource, engine, query_id))");
@@ -94,6 +103,8 @@ public class YanagishimaServer {
                     statement.executeUpdate("CREATE TABLE IF NOT EXISTS bookmark (bookmark_id integer primary key auto_increment, datasource varchar(256), engine varchar(256), query text, title varchar(256), user varchar(256))");
                     statement.executeUpdate("CREATE TABLE IF NOT EXISTS comment (datasource varchar(256), engine varchar(256), query_id varchar(256), content text, update_time_string varchar(256), user varchar(256), like_count integer, primary key(datasource, engine, query_id))");
                     statement.executeUpdate("CREATE TABLE IF NOT EXISTS label (datasource varchar(256), engine varchar(256), query_id varchar(256), label_name varchar(256), primary key(datasource, engine, query_id))");
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS query_cache_hit (datasource varchar(256), engine varchar(256), query_id varchar(256), source_query_id varchar(256), hit_time_string varchar(256), primary key(datasource, engine, query_id))");
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS preview (datasource varchar(256), engine varchar(256), query_id varchar(256), row_count integer, primary key(datasource, engine, query_id))");
                     statement.executeUpdate("CREATE TABLE IF NOT EXISTS starred_schema (starred_schema_id integer primary key auto_increment, datasource varchar(256) not null, engine varchar(256) not null, catalog varchar(256) not null, `schema` varchar(256) not null, user varchar(256))");
                     break;
                 default:
@@ -6,5 +6,7 @@ import yanagishima.result.ElasticsearchQueryResult;
 public interface ElasticsearchService {
     ElasticsearchQueryResult doQuery(String datasource, String query, String userName, boolean storeFlag, int limit) throws ElasticsearchQueryErrorException;
 
+    String doQueryAsync(String datasource, String query, String userName);
+
     ElasticsearchQueryResult doTranslate(String datasource, String query, String userName, boolean storeFlag, int limit) throws ElasticsearchQueryErrorException;
 }
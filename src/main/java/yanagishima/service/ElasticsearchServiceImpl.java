@@ -1,25 +1,24 @@
 package yanagishima.service;
 
-import com.github.wyukawa.elasticsearch.unofficial.jdbc.driver.ElasticsearchTranslateClient;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import me.geso.tinyorm.TinyORM;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
 import org.komamitsu.fluency.Fluency;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import yanagishima.config.YanagishimaConfig;
 import yanagishima.exception.ElasticsearchQueryErrorException;
+import yanagishima.pipeline.ResultPipeline;
+import yanagishima.pipeline.ResultPipelineFactory;
+import yanagishima.pool.ElasticsearchClientPool;
+import yanagishima.pool.QueryExecutorPool;
+import yanagishima.pool.QueryWatchdog;
 import yanagishima.result.ElasticsearchQueryResult;
+import yanagishima.row.Query;
 import yanagishima.util.QueryIdUtil;
 
 import javax.inject.Inject;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -27,27 +26,31 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import static com.github.wyukawa.elasticsearch.unofficial.jdbc.driver.ElasticsearchDriver.DRIVER_URL_START;
 import static yanagishima.util.DbUtil.insertQueryHistory;
 import static yanagishima.util.DbUtil.storeError;
 import static yanagishima.util.FluentdUtil.buildStaticFluency;
-import static yanagishima.util.PathUtil.getResultFilePath;
-import static yanagishima.util.TimeoutUtil.checkTimeout;
 import static yanagishima.util.QueryEngine.elasticsearch;
 import static yanagishima.util.TypeCoerceUtil.objectToString;
 
 public class ElasticsearchServiceImpl implements ElasticsearchService {
     private static final Logger LOGGER = LoggerFactory.getLogger(ElasticsearchServiceImpl.class);
-    private static final CSVFormat CSV_FORMAT = CSVFormat.EXCEL.withDelimiter('\t').withNullString("\\N").withRecordSeparator(System.getProperty("line.separator"));
 
     private final YanagishimaConfig yanagishimaConfig;
     private final TinyORM db;
     private final Fluency fluency;
+    private final ResultPipelineFactory resultPipelineFactory;
+    private final QueryWatchdog queryWatchdog;
+    private final QueryExecutorPool executorPool;
+    private final ElasticsearchClientPool clientPool;
 
     @Inject
-    public ElasticsearchServiceImpl(YanagishimaConfig yanagishimaConfig, TinyORM db) {
+    public ElasticsearchServiceImpl(YanagishimaConfig yanagishimaConfig, TinyORM db, ResultPipelineFactory resultPipelineFactory, QueryWatchdog queryWatchdog, QueryExecutorPool executorPool, ElasticsearchClientPool clientPool) {
         this.yanagishimaConfig = yanagishimaConfig;
         this.db = db;
+        this.resultPipelineFactory = resultPipelineFactory;
+        this.queryWatchdog = queryWatchdog;
+        this.executorPool = executorPool;
+        this.clientPool = clientPool;
         this.fluency = buildStaticFluency(yanagishimaConfig);
     }
 
@@ -57,45 +60,79 @@ public class ElasticsearchServiceImpl implements ElasticsearchService {
         return getElasticsearchQueryResult(queryId, datasource, query, storeFlag, limit, userName);
     }
 
+    @Override
+    public String doQueryAsync(String datasource, String query, String userName) {
+        String queryId = QueryIdUtil.generate(datasource, query, elasticsearch.name());
+        executorPool.submit(elasticsearch.name(), datasource, queryId, new Task(queryId, datasource, query, userName));
+        return queryId;
+    }
+
+    public class Task implements Runnable {
+        private final String queryId;
+        private final String datasource;
+        private final String query;
+        private final String userName;
+
+        public Task(String queryId, String datasource, String query, String userName) {
+            this.queryId = queryId;
+            this.datasource = datasource;
+            this.query = query;
+            this.userName = userName;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int limit = yanagishimaConfig.getSelectLimit();
+                getElasticsearchQueryResult(queryId, datasource, query, true, limit, userName);
+            } catch (ElasticsearchQueryErrorException e) {
+                LOGGER.warn(e.getCause().getMessage());
+            } catch (Throwable e) {
+                LOGGER.error(e.getMessage(), e);
+                // nobody waits for the task, so the failure must be in the history unless it was stored already
+                try {
+                    if (!db.single(Query.class).where("query_id=? and datasource=? and engine=?", queryId, datasource, elasticsearch.name()).execute().isPresent()) {
+                        storeError(db, datasource, elasticsearch.name(), queryId, query, userName, String.valueOf(e.getMessage()));
+                    }
+                } catch (Throwable storeFailure) {
+                    LOGGER.error(String.format("failed to store the error of %s: %s", queryId, storeFailure.getMessage()), storeFailure);
+                }
+            }
+        }
+    }
+
     @Override
     public ElasticsearchQueryResult doTranslate(String datasource, String query, String userName, boolean storeFlag, int limit) throws ElasticsearchQueryErrorException {
         String queryId = QueryIdUtil.generate(datasource, query, elasticsearch.name());
-        String jdbcUrl = yanagishimaConfig.getElasticsearchJdbcUrl(datasource);
-        String httpUrl = "http://" + jdbcUrl.substring(DRIVER_URL_START.length());
-        ElasticsearchTranslateClient translateClient = new ElasticsearchTranslateClient(httpUrl);
         try {
             long start = System.currentTimeMillis();
-            String luceneQuery = translateClient.translate(query);
+            String luceneQuery = clientPool.getTranslateClient(datasource).translate(query);
             ElasticsearchQueryResult result = new ElasticsearchQueryResult();
             result.setQueryId(queryId);
             List<String> columnNameList = new ArrayList<>();
             columnNameList.add("lucene_query");
-            Path dst = getResultFilePath(datasource, queryId, false);
             int lineNumber = 0;
             int maxResultFileByteSize = yanagishimaConfig.getElasticsearchMaxResultFileByteSize();
-            int resultBytes = 0;
-            try (BufferedWriter writer = Files.newBufferedWriter(dst, StandardCharsets.UTF_8);
-                 CSVPrinter printer = new CSVPrinter(writer, CSV_FORMAT)) {
-                printer.printRecord(columnNameList);
+            try (ResultPipeline pipeline = resultPipelineFactory.open(datasource, queryId)) {
+                pipeline.write(columnNameList);
                 lineNumber++;
                 result.setColumns(columnNameList);
                 List<List<String>> rowDataList = new ArrayList<>();
                 List<String> columnDataList = new ArrayList<>();
                 columnDataList.add(luceneQuery);
-                printer.printRecord(columnDataList);
+                pipeline.write(columnDataList);
                 lineNumber++;
-                resultBytes += columnDataList.toString().getBytes(StandardCharsets.UTF_8).length;
-                if (resultBytes > maxResultFileByteSize) {
+                if (pipeline.getWrittenBytes() > maxResultFileByteSize) {
                     String message = String.format("Result file size exceeded %s bytes. queryId=%s, datasource=%s", maxResultFileByteSize, queryId, datasource);
                     storeError(db, datasource, "elasticsearch", queryId, query, userName, message);
                     throw new RuntimeException(message);
                 }
                 rowDataList.add(columnDataList);
+                pipeline.finish();
                 result.setLineNumber(lineNumber);
                 result.setRecords(rowDataList);
 
-                long size = Files.size(dst);
-                DataSize rawDataSize = new DataSize(size, DataSize.Unit.BYTE);
+                DataSize rawDataSize = new DataSize(pipeline.getWrittenBytes(), DataSize.Unit.BYTE);
                 result.setRawDataSize(rawDataSize.convertToMostSuccinctDataSize());
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -117,13 +154,16 @@ public class ElasticsearchServiceImpl implements ElasticsearchService {
         checkSecretKeyword(query, datasource, queryId, userName);
         checkRequiredCondition(query, datasource, queryId, userName);
 
-        String url = yanagishimaConfig.getElasticsearchJdbcUrl(datasource);
-
-        try (Connection connection = DriverManager.getConnection(url)) {
+        try (ElasticsearchClientPool.Lease lease = clientPool.getConnection(datasource)) {
             long start = System.currentTimeMillis();
             ElasticsearchQueryResult result = new ElasticsearchQueryResult();
             result.setQueryId(queryId);
-            processData(datasource, query, limit, userName, connection, queryId, start, result);
+            try {
+                processData(datasource, query, limit, userName, lease.getConnection(), queryId, start, result);
+            } catch (SQLException | RuntimeException e) {
+                lease.discard();
+                throw e;
+            }
             if (storeFlag) {
                 insertQueryHistory(db, datasource, "elasticsearch", query, userName, queryId, result.getLineNumber());
             }
@@ -138,61 +178,82 @@ public class ElasticsearchServiceImpl implements ElasticsearchService {
 
     private void processData(String datasource, String query, int limit, String userName, Connection connection, String queryId, long start, ElasticsearchQueryResult result) throws SQLException {
         Duration queryMaxRunTime = new Duration(yanagishimaConfig.getElasticsearchQueryMaxRunTimeSeconds(datasource), TimeUnit.SECONDS);
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            try (ResultSet resultSet = statement.executeQuery()) {
-                ResultSetMetaData metadata = resultSet.getMetaData();
-                int columnCount = metadata.getColumnCount();
-                List<String> columnNameList = new ArrayList<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    columnNameList.add(metadata.getColumnName(i));
-                }
+        try (PreparedStatement statement = connection.prepareStatement(query);
+             QueryWatchdog.Watch watch = queryWatchdog.watch(elasticsearch.name(), datasource, queryId, query, userName, start, queryMaxRunTime, statement::cancel)) {
+            try {
+                processStatement(datasource, query, limit, userName, statement, watch, queryId, result);
+            } catch (SQLException e) {
+                // the statement fails when the watchdog cancels it, and the timeout is already stored
+                watch.check();
+                throw e;
+            }
+        }
+    }
 
-                Path dst = getResultFilePath(datasource, queryId, false);
-                int lineNumber = 0;
-                int maxResultFileByteSize = yanagishimaConfig.getElasticsearchMaxResultFileByteSize();
-                int resultBytes = 0;
-                try (BufferedWriter writer = Files.newBufferedWriter(dst, StandardCharsets.UTF_8);
-                     CSVPrinter printer = new CSVPrinter(writer, CSV_FORMAT)) {
-                    printer.printRecord(columnNameList);
-                    lineNumber++;
-                    result.setColumns(columnNameList);
-                    List<List<String>> rows = new ArrayList<>();
-                    while (resultSet.next()) {
-                        List<String> row = new ArrayList<>();
-                        for (int i = 1; i <= columnCount; i++) {
-                            row.add(objectToString(resultSet.getObject(i)));
-                        }
+    private void processStatement(String datasource, String query, int limit, String userName, PreparedStatement statement, QueryWatchdog.Watch watch, String queryId, ElasticsearchQueryResult result) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            ResultSetMetaData metadata = resultSet.getMetaData();
+            int columnCount = metadata.getColumnCount();
+            List<String> columnNameList = new ArrayList<>();
+            for (int i = 1; i <= columnCount; i++) {
+                columnNameList.add(metadata.getColumnName(i));
+            }
 
-                        printer.printRecord(row);
-                        lineNumber++;
-                        resultBytes += row.toString().getBytes(StandardCharsets.UTF_8).length;
-                        if (resultBytes > maxResultFileByteSize) {
-                            String message = String.format("Result file size exceeded %s bytes. queryId=%s, datasource=%s", maxResultFileByteSize, queryId, datasource);
-                            storeError(db, datasource, elasticsearch.name(), queryId, query, userName, message);
-                            throw new RuntimeException(message);
-                        }
+            int lineNumber = 0;
+            int maxResultFileByteSize = yanagishimaConfig.getElasticsearchMaxResultFileByteSize();
+            try (ResultPipeline pipeline = resultPipelineFactory.open(datasource, queryId)) {
+                pipeline.write(columnNameList);
+                lineNumber++;
+                result.setColumns(columnNameList);
+                List<List<String>> rows = new ArrayList<>();
+                List<Object> values = new ArrayList<>(columnCount);
+                boolean showQuery = query.toLowerCase().startsWith("show");
+                while (resultSet.next()) {
+                    values.clear();
+                    for (int i = 1; i <= columnCount; i++) {
+                        values.add(resultSet.getObject(i));
+                    }
 
-                        if (query.toLowerCase().startsWith("show") || rows.size() < limit) {
-                            rows.add(row);
-                        } else {
-                            result.setWarningMessage(String.format("now fetch size is %d. This is more than %d. So, fetch operation stopped.", rows.size(), limit));
-                        }
+                    // rows beyond the limit are only encoded into the result file
+                    boolean keepRow = showQuery || rows.size() < limit;
+                    List<String> row = keepRow ? toStringRow(values) : null;
+                    pipeline.write(keepRow ? row : values);
+                    lineNumber++;
+                    if (pipeline.getWrittenBytes() > maxResultFileByteSize) {
+                        String message = String.format("Result file size exceeded %s bytes. queryId=%s, datasource=%s", maxResultFileByteSize, queryId, datasource);
+                        storeError(db, datasource, elasticsearch.name(), queryId, query, userName, message);
+                        throw new RuntimeException(message);
+                    }
 
-                        checkTimeout(db, queryMaxRunTime, start, datasource, elasticsearch.name(), queryId, query, userName);
+                    if (keepRow) {
+                        rows.add(row);
+                    } else if (result.getWarningMessage() == null) {
+                        result.setWarningMessage(String.format("now fetch size is %d. This is more than %d. So, fetch operation stopped.", rows.size(), limit));
                     }
-                    result.setLineNumber(lineNumber);
-                    result.setRecords(rows);
-
-                    long size = Files.size(dst);
-                    DataSize rawDataSize = new DataSize(size, DataSize.Unit.BYTE);
-                    result.setRawDataSize(rawDataSize.convertToMostSuccinctDataSize());
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+
+                    watch.check();
                 }
+                watch.complete();
+                pipeline.finish();
+                result.setLineNumber(lineNumber);
+                result.setRecords(rows);
+
+                DataSize rawDataSize = new DataSize(pipeline.getWrittenBytes(), DataSize.Unit.BYTE);
+                result.setRawDataSize(rawDataSize.convertToMostSuccinctDataSize());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
         }
     }
 
+    private static List<String> toStringRow(List<Object> values) {
+        List<String> row = new ArrayList<>(values.size());
+        for (Object value : values) {
+            row.add(objectToString(value));
+        }
+        return row;
+    }
+
     private void checkDisallowedKeyword(String query, String datasource, String queryId, String username) {
         for (String keyword :  yanagishimaConfig.getElasticsearchDisallowedKeywords(datasource)) {
             if (query.trim().toLowerCase().startsWith(keyword)) {
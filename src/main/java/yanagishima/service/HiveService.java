@@ -9,4 +9,9 @@ public interface HiveService {
     HiveQueryResult doQuery(String engine, String datasource, String query, String userName, Optional<String> hiveUser, Optional<String> hivePassword, boolean storeFlag, int limit) throws HiveQueryErrorException;
 
     String doQueryAsync(String engine, String datasource, String query, String userName, Optional<String> hiveUser, Optional<String> hivePassword);
+
+    /**
+     * Runs the query until previewRows rows are fetched, then cancels it and stores the result as a truncated preview
+     */
+    String doPreviewQueryAsync(String engine, String datasource, String query, String userName, Optional<String> hiveUser, Optional<String> hivePassword, int previewRows);
 }
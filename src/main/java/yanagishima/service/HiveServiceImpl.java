@@ -3,61 +3,84 @@ package yanagishima.service;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import me.geso.tinyorm.TinyORM;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
 import org.komamitsu.fluency.Fluency;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import yanagishima.config.YanagishimaConfig;
 import yanagishima.exception.HiveQueryErrorException;
+import yanagishima.pipeline.PreviewLimit;
+import yanagishima.pipeline.ResultPipeline;
+import yanagishima.pipeline.ResultPipelineFactory;
+import yanagishima.poller.YarnApplicationPoller;
+import yanagishima.pool.HiveConnectionPool;
+import yanagishima.pool.HiveProgressTracker;
+import yanagishima.pool.QueryExecutorPool;
+import yanagishima.pool.QueryWatchdog;
 import yanagishima.pool.StatementPool;
 import yanagishima.result.HiveQueryResult;
 import yanagishima.util.QueryIdUtil;
+import yanagishima.util.YarnUtil;
 
 import javax.inject.Inject;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.*;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
 import static yanagishima.util.Constants.YANAGISHIAM_HIVE_JOB_PREFIX;
+import static yanagishima.util.DbUtil.insertPreview;
 import static yanagishima.util.DbUtil.insertQueryHistory;
 import static yanagishima.util.DbUtil.storeError;
 import static yanagishima.util.FluentdUtil.buildStaticFluency;
 import static yanagishima.util.PathUtil.getResultFilePath;
 import static yanagishima.util.QueryEngine.hive;
 import static yanagishima.util.QueryEngine.spark;
-import static yanagishima.util.TimeoutUtil.checkTimeout;
 import static yanagishima.util.TypeCoerceUtil.objectToString;
 
 public class HiveServiceImpl implements HiveService {
     private static final Logger LOGGER = LoggerFactory.getLogger(HiveServiceImpl.class);
 
     private final YanagishimaConfig yanagishimaConfig;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
+    private final QueryExecutorPool executorPool;
     private final TinyORM db;
     private final Fluency fluency;
     private final StatementPool statementPool;
+    private final ResultPipelineFactory resultPipelineFactory;
+    private final QueryWatchdog queryWatchdog;
+    private final HiveProgressTracker hiveProgressTracker;
+    private final HiveConnectionPool hiveConnectionPool;
+    private final YarnApplicationPoller yarnApplicationPoller;
 
     @Inject
-    public HiveServiceImpl(YanagishimaConfig yanagishimaConfig, TinyORM db, StatementPool statementPool) {
+    public HiveServiceImpl(YanagishimaConfig yanagishimaConfig, TinyORM db, StatementPool statementPool, QueryExecutorPool executorPool, ResultPipelineFactory resultPipelineFactory, QueryWatchdog queryWatchdog, HiveProgressTracker hiveProgressTracker, HiveConnectionPool hiveConnectionPool, YarnApplicationPoller yarnApplicationPoller) {
         this.yanagishimaConfig = yanagishimaConfig;
         this.db = db;
         this.fluency = buildStaticFluency(yanagishimaConfig);
         this.statementPool = statementPool;
+        this.executorPool = executorPool;
+        this.resultPipelineFactory = resultPipelineFactory;
+        this.queryWatchdog = queryWatchdog;
+        this.hiveProgressTracker = hiveProgressTracker;
+        this.hiveConnectionPool = hiveConnectionPool;
+        this.yarnApplicationPoller = yarnApplicationPoller;
     }
 
     @Override
     public String doQueryAsync(String engine, String datasource, String query, String userName, Optional<String> hiveUser, Optional<String> hivePassword) {
         String queryId = QueryIdUtil.generate(datasource, query, engine);
-        executorService.submit(new Task(queryId, engine, datasource, query, userName, hiveUser, hivePassword));
+        executorPool.submit(engine, datasource, queryId, new Task(queryId, engine, datasource, query, userName, hiveUser, hivePassword, 0));
+        return queryId;
+    }
+
+    @Override
+    public String doPreviewQueryAsync(String engine, String datasource, String query, String userName, Optional<String> hiveUser, Optional<String> hivePassword, int previewRows) {
+        if (previewRows <= 0) {
+            throw new IllegalArgumentException("previewRows must be positive");
+        }
+        String queryId = QueryIdUtil.generate(datasource, query, engine);
+        executorPool.submit(engine, datasource, queryId, new Task(queryId, engine, datasource, query, userName, hiveUser, hivePassword, previewRows));
         return queryId;
     }
 
@@ -69,8 +92,9 @@ public class HiveServiceImpl implements HiveService {
         private final String userName;
         private final Optional<String> hiveUser;
         private final Optional<String> hivePassword;
+        private final int previewRows;
 
-        public Task(String queryId, String engine, String datasource, String query, String userName, Optional<String> hiveUser, Optional<String> hivePassword) {
+        public Task(String queryId, String engine, String datasource, String query, String userName, Optional<String> hiveUser, Optional<String> hivePassword, int previewRows) {
             this.queryId = queryId;
             this.engine = engine;
             this.datasource = datasource;
@@ -78,13 +102,14 @@ public class HiveServiceImpl implements HiveService {
             this.userName = userName;
             this.hiveUser = hiveUser;
             this.hivePassword = hivePassword;
+            this.previewRows = previewRows;
         }
 
         @Override
         public void run() {
             try {
                 int limit = yanagishimaConfig.getSelectLimit();
-                getHiveQueryResult(queryId, engine, datasource, query, true, limit, userName, hiveUser, hivePassword, true);
+                getHiveQueryResult(queryId, engine, datasource, query, true, limit, previewRows, userName, hiveUser, hivePassword, true);
             } catch (HiveQueryErrorException e) {
                 LOGGER.warn(e.getCause().getMessage());
             } catch (Throwable e) {
@@ -96,29 +121,20 @@ public class HiveServiceImpl implements HiveService {
     @Override
     public HiveQueryResult doQuery(String engine, String datasource, String query, String userName, Optional<String> hiveUser, Optional<String> hivePassword, boolean storeFlag, int limit) throws HiveQueryErrorException {
         String queryId = QueryIdUtil.generate(datasource, query, engine);
-        return getHiveQueryResult(queryId, engine, datasource, query, storeFlag, limit, userName, hiveUser, hivePassword, false);
+        return getHiveQueryResult(queryId, engine, datasource, query, storeFlag, limit, 0, userName, hiveUser, hivePassword, false);
     }
 
-    private HiveQueryResult getHiveQueryResult(String queryId, String engine, String datasource, String query, boolean storeFlag, int limit, String userName, Optional<String> hiveUser, Optional<String> hivePassword, boolean async) throws HiveQueryErrorException {
+    private HiveQueryResult getHiveQueryResult(String queryId, String engine, String datasource, String query, boolean storeFlag, int limit, int previewRows, String userName, Optional<String> hiveUser, Optional<String> hivePassword, boolean async) throws HiveQueryErrorException {
         checkDisallowedKeyword(userName, query, datasource, queryId, engine);
         checkSecretKeyword(userName, query, datasource, queryId, engine);
         checkRequiredCondition(userName, query, datasource, queryId, engine);
 
-        try {
-            Class.forName("org.apache.hive.jdbc.HiveDriver");
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
-        }
-
-        String url = null;
+        String proxyUser = null;
         if (engine.equals(hive.name())) {
-            url = yanagishimaConfig.getHiveJdbcUrl(datasource);
             if (yanagishimaConfig.isHiveImpersonation(datasource)) {
-                url += ";hive.server2.proxy.user=" + userName;
+                proxyUser = userName;
             }
-        } else if (engine.equals(spark.name())) {
-            url = yanagishimaConfig.getSparkJdbcUrl(datasource);
-        } else {
+        } else if (!engine.equals(spark.name())) {
             throw new IllegalArgumentException(engine + " is illegal");
         }
         String user = yanagishimaConfig.getHiveJdbcUser(datasource);
@@ -129,13 +145,22 @@ public class HiveServiceImpl implements HiveService {
             password = hivePassword.get();
         }
 
-        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+        try (HiveConnectionPool.Lease lease = hiveConnectionPool.getConnection(engine, datasource, proxyUser, user, password)) {
             long start = System.currentTimeMillis();
             HiveQueryResult hiveQueryResult = new HiveQueryResult();
             hiveQueryResult.setQueryId(queryId);
-            processData(engine, datasource, query, limit, userName, connection, queryId, start, hiveQueryResult, async);
+            lease.onQuery(query);
+            try {
+                processData(engine, datasource, query, limit, previewRows, userName, lease.getConnection(), queryId, start, hiveQueryResult, async);
+            } catch (SQLException | RuntimeException e) {
+                lease.discard();
+                throw e;
+            }
             if (storeFlag) {
                 insertQueryHistory(db, datasource, engine, query, userName, queryId, hiveQueryResult.getLineNumber());
+                if (hiveQueryResult.isTruncated()) {
+                    insertPreview(db, datasource, engine, queryId, hiveQueryResult.getRecords().size());
+                }
             }
             emitExecutedEvent(userName, query, queryId, datasource, engine, System.currentTimeMillis() - start);
             return hiveQueryResult;
@@ -146,101 +171,149 @@ public class HiveServiceImpl implements HiveService {
         }
     }
 
-    private void processData(String engine, String datasource, String query, int limit, String userName, Connection connection, String queryId, long start, HiveQueryResult queryResult, boolean async) throws SQLException {
+    private void processData(String engine, String datasource, String query, int limit, int previewRows, String userName, Connection connection, String queryId, long start, HiveQueryResult queryResult, boolean async) throws SQLException {
         Duration queryMaxRunTime = new Duration(yanagishimaConfig.getHiveQueryMaxRunTimeSeconds(datasource), TimeUnit.SECONDS);
-        try (Statement statement = connection.createStatement()) {
-            int timeout = (int) queryMaxRunTime.toMillis() / 1000;
-            statement.setQueryTimeout(timeout);
-            if (engine.equals(hive.name())) {
-                String jobName = null;
-                if (userName == null) {
-                    jobName = YANAGISHIAM_HIVE_JOB_PREFIX + queryId;
-                } else {
-                    jobName = YANAGISHIAM_HIVE_JOB_PREFIX + userName + "-" + queryId;
-                }
-                statement.execute("set mapreduce.job.name=" + jobName);
-                List<String> hiveSetupQueryList = yanagishimaConfig.getHiveSetupQueryList(datasource);
-                for (String hiveSetupQuery : hiveSetupQueryList) {
-                    statement.execute(hiveSetupQuery);
-                }
-            }
-
-            if (async && yanagishimaConfig.isUseJdbcCancel(datasource)) {
-                statementPool.putStatement(datasource, queryId, statement);
+        try (Statement statement = connection.createStatement();
+             QueryWatchdog.Watch watch = queryWatchdog.watch(engine, datasource, queryId, query, userName, start, queryMaxRunTime,
+                     () -> cancel(engine, datasource, queryId, userName, statement));
+             HiveProgressTracker.Tracking tracking = hiveProgressTracker.track(engine, datasource, queryId, statement)) {
+            try {
+                processStatement(engine, datasource, query, limit, previewRows, userName, statement, watch, queryId, queryMaxRunTime, queryResult, async);
+                tracking.finish();
+            } catch (SQLException e) {
+                // the statement fails when the watchdog cancels it, and the timeout is already stored
+                watch.check();
+                throw e;
             }
+        }
+    }
 
-            boolean hasResultSet = statement.execute(query);
-            if (!hasResultSet) {
-                try {
-                    Path dst = getResultFilePath(datasource, queryId, false);
-                    dst.toFile().createNewFile();
-                    queryResult.setLineNumber(0);
-                    queryResult.setRawDataSize(new DataSize(0, DataSize.Unit.BYTE));
-                    queryResult.setRecords(new ArrayList<>());
-                    queryResult.setColumns(new ArrayList<>());
-                    return;
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+    private void processStatement(String engine, String datasource, String query, int limit, int previewRows, String userName, Statement statement, QueryWatchdog.Watch watch, String queryId, Duration queryMaxRunTime, HiveQueryResult queryResult, boolean async) throws SQLException {
+        int timeout = (int) queryMaxRunTime.toMillis() / 1000;
+        statement.setQueryTimeout(timeout);
+        if (engine.equals(hive.name())) {
+            String jobName = null;
+            if (userName == null) {
+                jobName = YANAGISHIAM_HIVE_JOB_PREFIX + queryId;
+            } else {
+                jobName = YANAGISHIAM_HIVE_JOB_PREFIX + userName + "-" + queryId;
             }
+            // the setup queries of the datasource are already applied to the connection
+            statement.execute("set mapreduce.job.name=" + jobName);
+        }
 
-            try (ResultSet resultSet = statement.getResultSet()) {
-                ResultSetMetaData metadata = resultSet.getMetaData();
-                int columnCount = metadata.getColumnCount();
-                List<String> columnNameList = new ArrayList<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    columnNameList.add(metadata.getColumnName(i));
-                }
+        if (async && yanagishimaConfig.isUseJdbcCancel(datasource)) {
+            statementPool.putStatement(datasource, queryId, statement);
+        }
 
+        boolean hasResultSet = statement.execute(query);
+        if (!hasResultSet) {
+            watch.complete();
+            try {
                 Path dst = getResultFilePath(datasource, queryId, false);
-                int lineNumber = 0;
-                int maxResultFileByteSize = yanagishimaConfig.getHiveMaxResultFileByteSize();
-                int resultBytes = 0;
-                try (BufferedWriter bw = Files.newBufferedWriter(dst, StandardCharsets.UTF_8);
-                     CSVPrinter printer = new CSVPrinter(bw, CSVFormat.EXCEL.withDelimiter('\t').withNullString("\\N").withRecordSeparator(System.getProperty("line.separator")))) {
-                    printer.printRecord(columnNameList);
-                    lineNumber++;
-                    queryResult.setColumns(columnNameList);
-
-                    List<List<String>> rows = new ArrayList<>();
-                    while (resultSet.next()) {
-                        List<String> row = new ArrayList<>();
-                        for (int i = 1; i <= columnCount; i++) {
-                            row.add(objectToString(resultSet.getObject(i)));
-                        }
+                dst.toFile().createNewFile();
+                queryResult.setLineNumber(0);
+                queryResult.setRawDataSize(new DataSize(0, DataSize.Unit.BYTE));
+                queryResult.setRecords(new ArrayList<>());
+                queryResult.setColumns(new ArrayList<>());
+                return;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
 
-                        printer.printRecord(row);
-                        lineNumber++;
-                        resultBytes += row.toString().getBytes(StandardCharsets.UTF_8).length;
-                        if (resultBytes > maxResultFileByteSize) {
-                            String message = format("Result file size exceeded %s bytes. queryId=%s, datasource=%s", maxResultFileByteSize, queryId, datasource);
-                            storeError(db, datasource, engine, queryId, query, userName, message);
-                            throw new RuntimeException(message);
-                        }
+        try (ResultSet resultSet = statement.getResultSet()) {
+            ResultSetMetaData metadata = resultSet.getMetaData();
+            int columnCount = metadata.getColumnCount();
+            List<String> columnNameList = new ArrayList<>();
+            for (int i = 1; i <= columnCount; i++) {
+                columnNameList.add(metadata.getColumnName(i));
+            }
 
-                        if (query.toLowerCase().startsWith("show") || rows.size() < limit) {
-                            rows.add(row);
-                        } else {
-                            queryResult.setWarningMessage(format("now fetch size is %d. This is more than %d. So, fetch operation stopped.", rows.size(), limit));
-                        }
+            int lineNumber = 0;
+            int maxResultFileByteSize = yanagishimaConfig.getHiveMaxResultFileByteSize();
+            try (ResultPipeline pipeline = resultPipelineFactory.open(datasource, queryId)) {
+                pipeline.write(columnNameList);
+                lineNumber++;
+                queryResult.setColumns(columnNameList);
+
+                List<List<String>> rows = new ArrayList<>();
+                List<Object> values = new ArrayList<>(columnCount);
+                boolean showQuery = query.toLowerCase().startsWith("show");
+                PreviewLimit previewLimit = new PreviewLimit(previewRows);
+                while (resultSet.next()) {
+                    if (!previewLimit.accept()) {
+                        queryResult.setTruncated(true);
+                        break;
+                    }
+                    values.clear();
+                    for (int i = 1; i <= columnCount; i++) {
+                        values.add(resultSet.getObject(i));
+                    }
 
-                        checkTimeout(db, queryMaxRunTime, start, datasource, engine, queryId, query, userName);
+                    // rows beyond the limit are only encoded into the result file
+                    boolean keepRow = showQuery || rows.size() < limit;
+                    List<String> row = keepRow ? toStringRow(values) : null;
+                    pipeline.write(keepRow ? row : values);
+                    lineNumber++;
+                    if (pipeline.getWrittenBytes() > maxResultFileByteSize) {
+                        String message = format("Result file size exceeded %s bytes. queryId=%s, datasource=%s", maxResultFileByteSize, queryId, datasource);
+                        storeError(db, datasource, engine, queryId, query, userName, message);
+                        throw new RuntimeException(message);
                     }
-                    queryResult.setLineNumber(lineNumber);
-                    queryResult.setRecords(rows);
-                    if (async && yanagishimaConfig.isUseJdbcCancel(datasource)) {
-                        statementPool.removeStatement(datasource, queryId);
+
+                    if (keepRow) {
+                        rows.add(row);
+                    } else if (queryResult.getWarningMessage() == null) {
+                        queryResult.setWarningMessage(format("now fetch size is %d. This is more than %d. So, fetch operation stopped.", rows.size(), limit));
                     }
 
-                    DataSize rawDataSize = new DataSize(Files.size(dst), DataSize.Unit.BYTE);
-                    queryResult.setRawDataSize(rawDataSize.convertToMostSuccinctDataSize());
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    watch.check();
+                }
+                watch.complete();
+                if (queryResult.isTruncated()) {
+                    cancelPreview(datasource, queryId, statement);
                 }
+                pipeline.finish();
+                queryResult.setLineNumber(lineNumber);
+                queryResult.setRecords(rows);
+                if (async && yanagishimaConfig.isUseJdbcCancel(datasource)) {
+                    statementPool.removeStatement(datasource, queryId);
+                }
+
+                DataSize rawDataSize = new DataSize(pipeline.getWrittenBytes(), DataSize.Unit.BYTE);
+                queryResult.setRawDataSize(rawDataSize.convertToMostSuccinctDataSize());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
         }
     }
 
+    private void cancelPreview(String datasource, String queryId, Statement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            LOGGER.warn(format("failed to cancel preview %s in %s: %s", queryId, datasource, e.getMessage()));
+        }
+    }
+
+    private void cancel(String engine, String datasource, String queryId, String userName, Statement statement) throws SQLException {
+        statement.cancel();
+        String resourceManagerUrl = yanagishimaConfig.getResourceManagerUrl(datasource);
+        if (engine.equals(hive.name()) && resourceManagerUrl != null) {
+            yarnApplicationPoller.findApplication(datasource, queryId, userName)
+                    .ifPresent(application -> YarnUtil.kill(resourceManagerUrl, (String) application.get("id")));
+        }
+    }
+
+    private static List<String> toStringRow(List<Object> values) {
+        List<String> row = new ArrayList<>(values.size());
+        for (Object value : values) {
+            row.add(objectToString(value));
+        }
+        return row;
+    }
+
     private void checkDisallowedKeyword(String userName, String query, String datasource, String queryId, String engine) {
         for (String keyword : yanagishimaConfig.getHiveDisallowedKeywords(datasource)) {
             if (query.trim().toLowerCase().startsWith(keyword)) {
@@ -8,13 +8,20 @@ import io.airlift.units.Duration;
 import com.facebook.presto.client.*;
 import me.geso.tinyorm.TinyORM;
 import okhttp3.OkHttpClient;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
+import okhttp3.Request;
+import okhttp3.Response;
 import org.komamitsu.fluency.Fluency;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import yanagishima.cache.ResultCache;
 import yanagishima.config.YanagishimaConfig;
 import yanagishima.exception.QueryErrorException;
+import yanagishima.pipeline.ResultPipeline;
+import yanagishima.pipeline.ResultPipelineFactory;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.pool.PrestoQueryHandles;
+import yanagishima.pool.QueryExecutorPool;
+import yanagishima.pool.QueryWatchdog;
 import yanagishima.result.PrestoQueryResult;
 import yanagishima.util.Constants;
 import yanagishima.util.TypeCoerceUtil;
@@ -28,75 +35,112 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.throwIfUnchecked;
 import static com.google.common.base.Verify.verify;
-import static com.facebook.presto.client.OkHttpUtil.basicAuth;
-import static com.facebook.presto.client.OkHttpUtil.setupTimeouts;
 import static java.lang.String.format;
 import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static yanagishima.util.DbUtil.insertQueryHistory;
 import static yanagishima.util.DbUtil.storeError;
 import static yanagishima.util.FluentdUtil.buildStaticFluency;
+import static yanagishima.util.PathUtil.findResultFilePath;
 import static yanagishima.util.PathUtil.getResultFilePath;
 import static yanagishima.util.QueryEngine.presto;
-import static yanagishima.util.TimeoutUtil.checkTimeout;
 
 public class OldPrestoServiceImpl implements OldPrestoService {
     private static final Logger LOGGER = LoggerFactory.getLogger(OldPrestoServiceImpl.class);
-    private static final CSVFormat CSV_FORMAT = CSVFormat.EXCEL.withDelimiter('\t').withNullString("\\N").withRecordSeparator(System.getProperty("line.separator"));
 
     private final YanagishimaConfig yanagishimaConfig;
-    private final OkHttpClient httpClient;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
+    private static final int STATEMENT_TIMEOUT_SECONDS = 5;
+    private static final long SUBMIT_WAIT_MILLIS = 1000;
+
+    private final HttpClientRegistry httpClientRegistry;
+    private final QueryWatchdog queryWatchdog;
+    private final PrestoQueryHandles queryHandles;
+    private final QueryExecutorPool executorPool;
+    private final ResultPipelineFactory resultPipelineFactory;
+    private final ResultCache resultCache;
     private final Fluency fluency;
     private final TinyORM db;
 
     @Inject
-    public OldPrestoServiceImpl(YanagishimaConfig yanagishimaConfig, TinyORM db) {
+    public OldPrestoServiceImpl(YanagishimaConfig yanagishimaConfig, TinyORM db, QueryExecutorPool executorPool, ResultPipelineFactory resultPipelineFactory, ResultCache resultCache, HttpClientRegistry httpClientRegistry, QueryWatchdog queryWatchdog, PrestoQueryHandles queryHandles) {
         this.yanagishimaConfig = yanagishimaConfig;
         this.db = db;
-        OkHttpClient.Builder builder = new OkHttpClient.Builder();
-        setupTimeouts(builder, 5, SECONDS);
-        httpClient = builder.build();
+        this.executorPool = executorPool;
+        this.resultPipelineFactory = resultPipelineFactory;
+        this.resultCache = resultCache;
+        this.httpClientRegistry = httpClientRegistry;
+        this.queryWatchdog = queryWatchdog;
+        this.queryHandles = queryHandles;
         this.fluency = buildStaticFluency(yanagishimaConfig);
     }
 
     @Override
     public String doQueryAsync(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
-        StatementClient client = getStatementClient(datasource, query, userName, prestoUser, prestoPassword);
-        executorService.submit(new Task(datasource, query, client, userName));
-        return client.currentStatusInfo().getId();
+        // the coordinator assigns the query id when the task submits the statement, so a query which waits in the queue
+        // is answered with a handle that maps to the id later
+        CompletableFuture<String> queryId = new CompletableFuture<>();
+        String handle = queryHandles.create(datasource, query, queryId);
+        executorPool.submit(presto.name(), datasource, handle, new Task(queryId, datasource, query, userName, prestoUser, prestoPassword));
+        try {
+            return queryId.get(SUBMIT_WAIT_MILLIS, MILLISECONDS);
+        } catch (TimeoutException e) {
+            return handle;
+        } catch (ExecutionException e) {
+            throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return handle;
+        }
     }
 
     public class Task implements Runnable {
+        private final CompletableFuture<String> queryId;
         private final String datasource;
         private final String query;
-        private final StatementClient client;
         private final String userName;
+        private final Optional<String> prestoUser;
+        private final Optional<String> prestoPassword;
 
-        public Task(String datasource, String query, StatementClient client, String userName) {
+        public Task(CompletableFuture<String> queryId, String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
+            this.queryId = queryId;
             this.datasource = datasource;
             this.query = query;
-            this.client = client;
             this.userName = userName;
+            this.prestoUser = prestoUser;
+            this.prestoPassword = prestoPassword;
         }
 
         @Override
         public void run() {
+            if (queryId.isCancelled()) {
+                return;
+            }
+            StatementClient client = null;
             try {
+                client = getStatementClient(datasource, query, userName, prestoUser, prestoPassword);
+                if (!queryId.complete(client.currentStatusInfo().getId())) {
+                    // cancelled while the statement was submitted, closing the client cancels the query
+                    return;
+                }
                 int limit = yanagishimaConfig.getSelectLimit();
-                getPrestoQueryResult(datasource, query, client, true, limit, userName);
+                getPrestoQueryResult(datasource, query, client, true, limit, userName, prestoUser, prestoPassword);
             } catch (QueryErrorException e) {
                 LOGGER.warn(e.getCause().getMessage());
             } catch (Throwable e) {
+                queryId.completeExceptionally(e);
                 LOGGER.error(e.getMessage(), e);
             } finally {
                 if(client != null) {
@@ -109,33 +153,36 @@ public class OldPrestoServiceImpl implements OldPrestoService {
     @Override
     public PrestoQueryResult doQuery(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, boolean storeFlag, int limit) throws QueryErrorException {
         try (StatementClient client = getStatementClient(datasource, query, userName, prestoUser, prestoPassword)) {
-            return getPrestoQueryResult(datasource, query, client, storeFlag, limit, userName);
+            return getPrestoQueryResult(datasource, query, client, storeFlag, limit, userName, prestoUser, prestoPassword);
         }
     }
 
-    private PrestoQueryResult getPrestoQueryResult(String datasource, String query, StatementClient client, boolean storeFlag, int limit, String userName) throws QueryErrorException {
+    private PrestoQueryResult getPrestoQueryResult(String datasource, String query, StatementClient client, boolean storeFlag, int limit, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) throws QueryErrorException {
         checkSecretKeyword(userName, query, client.currentStatusInfo().getId(), datasource);
         checkRequiredCondition(userName, query, client.currentStatusInfo().getId(), datasource);
 
         Duration queryMaxRunTime = new Duration(yanagishimaConfig.getQueryMaxRunTimeSeconds(datasource), SECONDS);
         long start = System.currentTimeMillis();
+        String id = client.currentStatusInfo().getId();
+        try (QueryWatchdog.Watch watch = queryWatchdog.watch(presto.name(), datasource, id, query, userName, start, queryMaxRunTime,
+                () -> cancelQuery(datasource, id, prestoUser, prestoPassword))) {
+            return getPrestoQueryResult(datasource, query, client, storeFlag, limit, userName, prestoUser, prestoPassword, start, watch);
+        }
+    }
+
+    private PrestoQueryResult getPrestoQueryResult(String datasource, String query, StatementClient client, boolean storeFlag, int limit, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, long start, QueryWatchdog.Watch watch) throws QueryErrorException {
         while (client.isRunning() && client.currentData().getData() == null) {
             try {
                 client.advance();
             } catch (RuntimeException e) {
+                watch.check();
                 QueryStatusInfo results = client.isRunning() ? client.currentStatusInfo() : client.finalStatusInfo();
                 String queryId = results.getId();
                 String message = format("Query failed (#%s) in %s: presto internal error message=%s", queryId, datasource, e.getMessage());
                 storeError(db, datasource, presto.name(), queryId, query, userName, message);
                 throw e;
             }
-
-            if(System.currentTimeMillis() - start > queryMaxRunTime.toMillis()) {
-                String queryId = client.currentStatusInfo().getId();
-                String message = format("Query failed (#%s) in %s: Query exceeded maximum time limit of %s", queryId, datasource, queryMaxRunTime.toString());
-                storeError(db, datasource, presto.name(), queryId, query, userName, message);
-                throw new RuntimeException(message);
-            }
+            watch.check();
         }
 
         PrestoQueryResult prestoQueryResult = new PrestoQueryResult();
@@ -150,8 +197,9 @@ public class OldPrestoServiceImpl implements OldPrestoService {
                 prestoQueryResult.setUpdateType(results.getUpdateType());
                 List<String> columns = Lists.transform(results.getColumns(), Column::getName);
                 prestoQueryResult.setColumns(columns);
-                List<List<String>> rows = processData(client, datasource, queryId, query, prestoQueryResult, columns, start, limit, userName);
+                List<List<String>> rows = processData(client, datasource, queryId, query, prestoQueryResult, columns, watch, limit, userName);
                 prestoQueryResult.setRecords(rows);
+                watch.complete();
                 if (storeFlag) {
                     insertQueryHistory(db, datasource, presto.name(), query, userName, queryId, prestoQueryResult.getLineNumber());
                 }
@@ -160,6 +208,7 @@ public class OldPrestoServiceImpl implements OldPrestoService {
             }
         }
 
+        watch.complete();
         checkState(!client.isRunning());
 
         if (client.isClientAborted()) {
@@ -177,7 +226,7 @@ public class OldPrestoServiceImpl implements OldPrestoService {
                 String message = format("Query failed (#%s) in %s: %s", queryId, datasource, results.getError().getMessage());
                 storeError(db, datasource, presto.name(), queryId, query, userName, message);
             } else {
-                Path successDst = getResultFilePath(datasource, prestoQueryResult.getQueryId(), false);
+                Path successDst = findResultFilePath(datasource, prestoQueryResult.getQueryId());
                 try {
                     Files.delete(successDst);
                 } catch (IOException e) {
@@ -196,51 +245,51 @@ public class OldPrestoServiceImpl implements OldPrestoService {
             emitFailedEvent(userName, query, datasource, results, System.currentTimeMillis() - start);
             throw resultsException(results, datasource);
         }
+        if (storeFlag && prestoQueryResult.getQueryId() != null && prestoQueryResult.getUpdateType() == null) {
+            resultCache.put(datasource, query, userName, prestoUser, prestoPassword, prestoQueryResult.getQueryId());
+        }
         return prestoQueryResult;
     }
 
-    private List<List<String>> processData(StatementClient client, String datasource, String queryId, String query, PrestoQueryResult queryResult, List<String> columns, long start, int limit, String userName) {
+    private List<List<String>> processData(StatementClient client, String datasource, String queryId, String query, PrestoQueryResult queryResult, List<String> columns, QueryWatchdog.Watch watch, int limit, String userName) {
         List<List<String>> rows = new ArrayList<>();
 
-        Duration queryMaxRunTime = new Duration(yanagishimaConfig.getQueryMaxRunTimeSeconds(datasource), SECONDS);
-        Path dst = getResultFilePath(datasource, queryId, false);
         int lineNumber = 0;
         int maxResultFileByteSize = yanagishimaConfig.getMaxResultFileByteSize();
-        int resultBytes = 0;
-        try (BufferedWriter writer = Files.newBufferedWriter(dst, StandardCharsets.UTF_8);
-             CSVPrinter printer = new CSVPrinter(writer, CSV_FORMAT)) {
-            printer.printRecord(columns);
+        try (ResultPipeline pipeline = resultPipelineFactory.open(datasource, queryId)) {
+            pipeline.write(columns);
             lineNumber++;
 
+            boolean showQuery = client.getQuery().toLowerCase().startsWith("show");
             while (client.isRunning()) {
                 Iterable<List<Object>> datum = client.currentData().getData();
                 if (datum != null) {
                     for (List<Object> data : datum) {
-                        List<String> row = data.stream().map(TypeCoerceUtil::objectToString).collect(Collectors.toList());
-                        printer.printRecord(row);
+                        boolean keepRow = showQuery || rows.size() < limit;
+                        List<String> row = keepRow ? data.stream().map(TypeCoerceUtil::objectToString).collect(Collectors.toList()) : null;
+                        pipeline.write(keepRow ? row : data);
 
                         lineNumber++;
-                        resultBytes += row.toString().getBytes(StandardCharsets.UTF_8).length;
-                        if(resultBytes > maxResultFileByteSize) {
+                        if(pipeline.getWrittenBytes() > maxResultFileByteSize) {
                             String message = format("Result file size exceeded %s bytes. queryId=%s, datasource=%s", maxResultFileByteSize, queryId, datasource);
                             storeError(db, datasource, presto.name(), client.currentStatusInfo().getId(), query, userName, message);
                             throw new RuntimeException(message);
                         }
 
-                        if (client.getQuery().toLowerCase().startsWith("show") || rows.size() < limit) {
+                        if (keepRow) {
                             rows.add(row);
-                        } else {
+                        } else if (queryResult.getWarningMessage() == null) {
                             queryResult.setWarningMessage(format("now fetch size is %d. This is more than %d. So, fetch operation stopped.", rows.size(), limit));
                         }
                     }
                 }
                 client.advance();
-                checkTimeout(db, queryMaxRunTime, start, datasource, presto.name(), queryId, query, userName);
+                watch.check();
             }
+            pipeline.finish();
 
             queryResult.setLineNumber(lineNumber);
-            long size = Files.size(dst);
-            DataSize rawDataSize = new DataSize(size, DataSize.Unit.BYTE);
+            DataSize rawDataSize = new DataSize(pipeline.getWrittenBytes(), DataSize.Unit.BYTE);
             queryResult.setRawDataSize(rawDataSize.convertToMostSuccinctDataSize());
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -319,6 +368,15 @@ public class OldPrestoServiceImpl implements OldPrestoService {
         }
     }
 
+    private void cancelQuery(String datasource, String queryId, Optional<String> prestoUser, Optional<String> prestoPassword) throws IOException {
+        Request request = new Request.Builder().url(yanagishimaConfig.getPrestoCoordinatorServer(datasource) + "/v1/query/" + queryId).delete().build();
+        try (Response response = httpClientRegistry.getClient(datasource, prestoUser, prestoPassword).newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException(format("code=%d, message=%s", response.code(), response.message()));
+            }
+        }
+    }
+
     private StatementClient getStatementClient(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
         String server = yanagishimaConfig.getPrestoCoordinatorServer(datasource);
         String catalog = yanagishimaConfig.getCatalog(datasource);
@@ -328,14 +386,13 @@ public class OldPrestoServiceImpl implements OldPrestoService {
         if (prestoUser.isPresent() && prestoPassword.isPresent()) {
             ClientSession clientSession = buildClientSession(server, prestoUser.get(), source, catalog, schema);
             checkArgument(clientSession.getServer().getScheme().equalsIgnoreCase("https"), "Authentication using username/password requires HTTPS to be enabled");
-            OkHttpClient.Builder clientBuilder = httpClient.newBuilder();
-            clientBuilder.addInterceptor(basicAuth(prestoUser.get(), prestoPassword.get()));
-            return StatementClientFactory.newStatementClient(clientBuilder.build(), clientSession, query);
+            OkHttpClient client = httpClientRegistry.getClient(datasource, prestoUser, prestoPassword, STATEMENT_TIMEOUT_SECONDS);
+            return StatementClientFactory.newStatementClient(client, clientSession, query);
         }
 
         String user = firstNonNull(userName, yanagishimaConfig.getUser(datasource));
         ClientSession clientSession = buildClientSession(server, user, source, catalog, schema);
-        return StatementClientFactory.newStatementClient(httpClient, clientSession, query);
+        return StatementClientFactory.newStatementClient(httpClientRegistry.getClient(datasource, Optional.empty(), Optional.empty(), STATEMENT_TIMEOUT_SECONDS), clientSession, query);
     }
 
     private static ClientSession buildClientSession(String server, String user, String source, String catalog, String schema) {
@@ -3,10 +3,31 @@ package yanagishima.service;
 import yanagishima.exception.QueryErrorException;
 import yanagishima.result.PrestoQueryResult;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 
 public interface PrestoService {
 	PrestoQueryResult doQuery(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, boolean storeFlag, int limit) throws QueryErrorException;
 
 	String doQueryAsync(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword);
+
+	/**
+	 * Runs the query until previewRows rows are fetched, then cancels it and stores the result as a truncated preview
+	 */
+	String doPreviewQueryAsync(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, int previewRows);
+
+	/**
+	 * Hands rows to the handler as the coordinator returns them, without writing a result file or the history
+	 */
+	void doStreamingQuery(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, RowHandler handler) throws QueryErrorException, IOException;
+
+	interface RowHandler {
+		default void columns(List<String> columns) throws IOException {}
+
+		/**
+		 * Returns false to stop fetching, then the query is cancelled
+		 */
+		boolean row(List<String> row) throws IOException;
+	}
 }
@@ -7,13 +7,21 @@ import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import me.geso.tinyorm.TinyORM;
 import okhttp3.OkHttpClient;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
+import okhttp3.Request;
+import okhttp3.Response;
 import org.komamitsu.fluency.Fluency;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import yanagishima.cache.ResultCache;
 import yanagishima.config.YanagishimaConfig;
 import yanagishima.exception.QueryErrorException;
+import yanagishima.pipeline.PreviewLimit;
+import yanagishima.pipeline.ResultPipeline;
+import yanagishima.pipeline.ResultPipelineFactory;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.pool.PrestoQueryHandles;
+import yanagishima.pool.QueryExecutorPool;
+import yanagishima.pool.QueryWatchdog;
 import yanagishima.result.PrestoQueryResult;
 import yanagishima.util.Constants;
 import yanagishima.util.TypeCoerceUtil;
@@ -27,86 +35,133 @@ import java.nio.file.Path;
 import java.sql.SQLException;
 import java.time.ZoneId;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.throwIfUnchecked;
 import static io.airlift.units.DataSize.Unit.BYTE;
-import static io.prestosql.client.OkHttpUtil.basicAuth;
-import static io.prestosql.client.OkHttpUtil.setupTimeouts;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Verify.verify;
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static yanagishima.util.DbUtil.insertPreview;
 import static yanagishima.util.DbUtil.insertQueryHistory;
 import static yanagishima.util.DbUtil.storeError;
 import static yanagishima.util.FluentdUtil.buildStaticFluency;
+import static yanagishima.util.PathUtil.findResultFilePath;
 import static yanagishima.util.PathUtil.getResultFilePath;
 import static yanagishima.util.QueryEngine.presto;
-import static yanagishima.util.TimeoutUtil.checkTimeout;
 
 public class PrestoServiceImpl implements PrestoService {
     private static final Logger LOGGER = LoggerFactory.getLogger(PrestoServiceImpl.class);
-    private static final CSVFormat CSV_FORMAT = CSVFormat.EXCEL
-            .withDelimiter('\t')
-            .withNullString("\\N")
-            .withRecordSeparator(System.getProperty("line.separator"));
 
     private final YanagishimaConfig config;
-    private final OkHttpClient httpClient;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
+    private static final int STATEMENT_TIMEOUT_SECONDS = 5;
+    private static final long SUBMIT_WAIT_MILLIS = 1000;
+
+    private final HttpClientRegistry httpClientRegistry;
+    private final QueryWatchdog queryWatchdog;
+    private final PrestoQueryHandles queryHandles;
+    private final QueryExecutorPool executorPool;
+    private final ResultPipelineFactory resultPipelineFactory;
+    private final ResultCache resultCache;
     private final Fluency fluency;
     private final TinyORM db;
 
     private final int maxResultFileByteSize;
 
     @Inject
-    public PrestoServiceImpl(YanagishimaConfig config, TinyORM db) {
+    public PrestoServiceImpl(YanagishimaConfig config, TinyORM db, QueryExecutorPool executorPool, ResultPipelineFactory resultPipelineFactory, ResultCache resultCache, HttpClientRegistry httpClientRegistry, QueryWatchdog queryWatchdog, PrestoQueryHandles queryHandles) {
         this.config = config;
         this.db = db;
-        OkHttpClient.Builder builder = new OkHttpClient.Builder();
-        setupTimeouts(builder, 5, SECONDS);
-        httpClient = builder.build();
+        this.executorPool = executorPool;
+        this.resultPipelineFactory = resultPipelineFactory;
+        this.resultCache = resultCache;
+        this.httpClientRegistry = httpClientRegistry;
+        this.queryWatchdog = queryWatchdog;
+        this.queryHandles = queryHandles;
         this.fluency = buildStaticFluency(config);
         this.maxResultFileByteSize = config.getMaxResultFileByteSize();
     }
 
     @Override
     public String doQueryAsync(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
-        StatementClient client = getStatementClient(datasource, query, userName, prestoUser, prestoPassword);
-        executorService.submit(new Task(client, datasource, query, userName));
-        return client.currentStatusInfo().getId();
+        return doQueryAsync(datasource, query, userName, prestoUser, prestoPassword, 0);
+    }
+
+    @Override
+    public String doPreviewQueryAsync(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, int previewRows) {
+        checkArgument(previewRows > 0, "previewRows must be positive");
+        return doQueryAsync(datasource, query, userName, prestoUser, prestoPassword, previewRows);
+    }
+
+    private String doQueryAsync(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, int previewRows) {
+        // the coordinator assigns the query id when the task submits the statement, so a query which waits in the queue
+        // is answered with a handle that maps to the id later
+        CompletableFuture<String> queryId = new CompletableFuture<>();
+        String handle = queryHandles.create(datasource, query, queryId);
+        executorPool.submit(presto.name(), datasource, handle, new Task(queryId, datasource, query, userName, prestoUser, prestoPassword, previewRows));
+        try {
+            return queryId.get(SUBMIT_WAIT_MILLIS, MILLISECONDS);
+        } catch (TimeoutException e) {
+            return handle;
+        } catch (ExecutionException e) {
+            throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return handle;
+        }
     }
 
     public class Task implements Runnable {
-        private final StatementClient client;
+        private final CompletableFuture<String> queryId;
         private final String datasource;
         private final String query;
         private final String userName;
+        private final Optional<String> prestoUser;
+        private final Optional<String> prestoPassword;
+        private final int previewRows;
 
-        Task(StatementClient client, String datasource, String query, String userName) {
-            this.client = client;
+        Task(CompletableFuture<String> queryId, String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, int previewRows) {
+            this.queryId = queryId;
             this.datasource = datasource;
             this.query = query;
             this.userName = userName;
+            this.prestoUser = prestoUser;
+            this.prestoPassword = prestoPassword;
+            this.previewRows = previewRows;
         }
 
         @Override
         public void run() {
+            if (queryId.isCancelled()) {
+                return;
+            }
+            StatementClient client = null;
             try {
-                getPrestoQueryResult(this.datasource, this.query, this.client, true, config.getSelectLimit(), this.userName);
+                client = getStatementClient(this.datasource, this.query, this.userName, this.prestoUser, this.prestoPassword);
+                if (!queryId.complete(client.currentStatusInfo().getId())) {
+                    // cancelled while the statement was submitted, closing the client cancels the query
+                    return;
+                }
+                getPrestoQueryResult(this.datasource, this.query, client, true, config.getSelectLimit(), this.previewRows, this.userName, this.prestoUser, this.prestoPassword);
             } catch (QueryErrorException e) {
                 LOGGER.warn(e.getCause().getMessage());
             } catch (Throwable e) {
+                queryId.completeExceptionally(e);
                 LOGGER.error(e.getMessage(), e);
             } finally {
-                if(this.client != null) {
-                    this.client.close();
+                if(client != null) {
+                    client.close();
                 }
             }
         }
@@ -115,32 +170,80 @@ public class PrestoServiceImpl implements PrestoService {
     @Override
     public PrestoQueryResult doQuery(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, boolean storeFlag, int limit) throws QueryErrorException {
         try (StatementClient client = getStatementClient(datasource, query, userName, prestoUser, prestoPassword)) {
-            return getPrestoQueryResult(datasource, query, client, storeFlag, limit, userName);
+            return getPrestoQueryResult(datasource, query, client, storeFlag, limit, 0, userName, prestoUser, prestoPassword);
+        }
+    }
+
+    @Override
+    public void doStreamingQuery(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, RowHandler handler) throws QueryErrorException, IOException {
+        try (StatementClient client = getStatementClient(datasource, query, userName, prestoUser, prestoPassword)) {
+            String id = client.currentStatusInfo().getId();
+            checkSecretKeyword(query, datasource, id, userName, config.getPrestoSecretKeywords(datasource));
+            checkRequiredCondition(datasource, query, id, userName, config.getPrestoMustSpecifyConditions(datasource));
+
+            Duration queryMaxRunTime = new Duration(config.getQueryMaxRunTimeSeconds(datasource), SECONDS);
+            // streamed queries aren't in the history, so their timeout is not stored there
+            try (QueryWatchdog.Watch watch = queryWatchdog.watchUnstored(datasource, id, System.currentTimeMillis(), queryMaxRunTime,
+                    () -> cancelQuery(datasource, id, prestoUser, prestoPassword))) {
+                boolean hasColumns = false;
+                while (client.isRunning()) {
+                    QueryStatusInfo statusInfo = client.currentStatusInfo();
+                    if (!hasColumns && statusInfo.getColumns() != null) {
+                        handler.columns(statusInfo.getColumns().stream().map(Column::getName).collect(Collectors.toList()));
+                        hasColumns = true;
+                    }
+                    Iterable<List<Object>> datum = client.currentData().getData();
+                    if (datum != null) {
+                        for (List<Object> data : datum) {
+                            if (!handler.row(data.stream().map(TypeCoerceUtil::objectToString).collect(Collectors.toList()))) {
+                                // closing the client cancels the rest of the query
+                                return;
+                            }
+                        }
+                    }
+                    client.advance();
+                    watch.check();
+                }
+                watch.complete();
+
+                checkState(!client.isClientAborted(), "Query aborted by user");
+                checkState(!client.isClientError(), "Query is gone (server restarted?)");
+                QueryStatusInfo results = client.finalStatusInfo();
+                if (results.getError() != null) {
+                    throw resultsException(results, datasource);
+                }
+                if (!hasColumns && results.getColumns() != null) {
+                    handler.columns(results.getColumns().stream().map(Column::getName).collect(Collectors.toList()));
+                }
+            }
         }
     }
 
-    private PrestoQueryResult getPrestoQueryResult(String datasource, String query, StatementClient client, boolean storeQueryHistory, int limit, String userName) throws QueryErrorException {
+    private PrestoQueryResult getPrestoQueryResult(String datasource, String query, StatementClient client, boolean storeQueryHistory, int limit, int previewRows, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) throws QueryErrorException {
         checkSecretKeyword(query, datasource, client.currentStatusInfo().getId(), userName, config.getPrestoSecretKeywords(datasource));
         checkRequiredCondition(datasource, query, client.currentStatusInfo().getId(), userName,  config.getPrestoMustSpecifyConditions(datasource));
 
         Duration queryMaxRunTime = new Duration(config.getQueryMaxRunTimeSeconds(datasource), SECONDS);
         long start = System.currentTimeMillis();
+        String id = client.currentStatusInfo().getId();
+        try (QueryWatchdog.Watch watch = queryWatchdog.watch(presto.name(), datasource, id, query, userName, start, queryMaxRunTime,
+                () -> cancelQuery(datasource, id, prestoUser, prestoPassword))) {
+            return getPrestoQueryResult(datasource, query, client, storeQueryHistory, limit, previewRows, userName, prestoUser, prestoPassword, start, watch);
+        }
+    }
+
+    private PrestoQueryResult getPrestoQueryResult(String datasource, String query, StatementClient client, boolean storeQueryHistory, int limit, int previewRows, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, long start, QueryWatchdog.Watch watch) throws QueryErrorException {
         while (client.isRunning() && client.currentData().getData() == null) {
             try {
                 client.advance();
             } catch (RuntimeException e) {
+                watch.check();
                 QueryStatusInfo statusInfo = client.isRunning() ? client.currentStatusInfo() : client.finalStatusInfo();
                 String message = format("Query failed (#%s) in %s: presto internal error message=%s", statusInfo.getId(), datasource, e.getMessage());
                 storeError(db, datasource, presto.name(), statusInfo.getId(), query, userName, message);
                 throw e;
             }
-
-            if (System.currentTimeMillis() - start > queryMaxRunTime.toMillis()) {
-                String queryId = client.currentStatusInfo().getId();
-                String message = format("Query failed (#%s) in %s: Query exceeded maximum time limit of %s", queryId, datasource, queryMaxRunTime.toString());
-                storeError(db, datasource, presto.name(), queryId, query, userName, message);
-                throw new RuntimeException(message);
-            }
+            watch.check();
         }
 
         PrestoQueryResult queryResult = new PrestoQueryResult();
@@ -154,14 +257,23 @@ public class PrestoServiceImpl implements PrestoService {
             queryResult.setUpdateType(results.getUpdateType());
             List<String> columnNames = results.getColumns().stream().map(Column::getName).collect(Collectors.toList());
             queryResult.setColumns(columnNames);
-            List<List<String>> rows = processData(client, datasource, results.getId(), queryResult, columnNames, start, limit, userName);
+            List<List<String>> rows = processData(client, datasource, results.getId(), queryResult, columnNames, watch, limit, previewRows, userName);
             queryResult.setRecords(rows);
+            watch.complete();
             if(storeQueryHistory) {
                 insertQueryHistory(db, datasource, presto.name(), query, userName, results.getId(), queryResult.getLineNumber());
+                if (queryResult.isTruncated()) {
+                    insertPreview(db, datasource, presto.name(), results.getId(), rows.size());
+                }
             }
             emitExecutedEvent(userName, query, results.getId(), datasource, System.currentTimeMillis() - start);
+            if (queryResult.isTruncated()) {
+                // the client was closed on purpose, so it is neither finished nor failed
+                return queryResult;
+            }
         }
 
+        watch.complete();
         checkState(!client.isRunning());
         checkState(!client.isClientAborted(), "Query aborted by user");
         checkState(!client.isClientError(), "Query is gone (server restarted?)");
@@ -173,7 +285,7 @@ public class PrestoServiceImpl implements PrestoService {
                 String message = format("Query failed (#%s) in %s: %s", results.getId(), datasource, results.getError().getMessage());
                 storeError(db, datasource, presto.name(), results.getId(), query, userName, message);
             } else {
-                Path successFile = getResultFilePath(datasource, queryResult.getQueryId(), false);
+                Path successFile = findResultFilePath(datasource, queryResult.getQueryId());
                 Path errorFile = getResultFilePath(datasource, queryResult.getQueryId(), true);
                 try {
                     Files.delete(successFile);
@@ -187,48 +299,60 @@ public class PrestoServiceImpl implements PrestoService {
             emitFailedEvent(userName, query, datasource, results, System.currentTimeMillis() - start);
             throw resultsException(results, datasource);
         }
+        if (storeQueryHistory && queryResult.getQueryId() != null && queryResult.getUpdateType() == null) {
+            resultCache.put(datasource, query, userName, prestoUser, prestoPassword, queryResult.getQueryId());
+        }
         return queryResult;
     }
 
-    private List<List<String>> processData(StatementClient client, String datasource, String queryId, PrestoQueryResult queryResult, List<String> columnNames, long startTime, int maxRowLimit, String userName) {
+    private List<List<String>> processData(StatementClient client, String datasource, String queryId, PrestoQueryResult queryResult, List<String> columnNames, QueryWatchdog.Watch watch, int maxRowLimit, int previewRows, String userName) {
         List<List<String>> rows = new ArrayList<>();
-        Duration queryMaxRunTime = new Duration(config.getQueryMaxRunTimeSeconds(datasource), SECONDS);
-        Path resultPath = getResultFilePath(datasource, queryId, false);
 
+        boolean showQuery = client.getQuery().toLowerCase().startsWith("show");
         int rowNumber = 0;
-        int resultBytes = 0;
-        try (BufferedWriter writer = Files.newBufferedWriter(resultPath, UTF_8);
-             CSVPrinter printer = new CSVPrinter(writer, CSV_FORMAT)) {
+        PreviewLimit previewLimit = new PreviewLimit(previewRows);
+        try (ResultPipeline pipeline = resultPipelineFactory.open(datasource, queryId)) {
 
-            printer.printRecord(columnNames);
+            pipeline.write(columnNames);
             rowNumber++;
 
             while (client.isRunning()) {
                 Iterable<List<Object>> datum = client.currentData().getData();
                 if (datum != null) {
                     for (List<Object> data : datum) {
-                        List<String> row = data.stream().map(TypeCoerceUtil::objectToString).collect(Collectors.toList());
-                        printer.printRecord(row);
-                        resultBytes += row.toString().getBytes(UTF_8).length;
-                        if (resultBytes > maxResultFileByteSize) {
+                        if (!previewLimit.accept()) {
+                            break;
+                        }
+                        // rows beyond the limit are only encoded into the result file
+                        boolean keepRow = showQuery || rows.size() < maxRowLimit;
+                        List<String> row = keepRow ? data.stream().map(TypeCoerceUtil::objectToString).collect(Collectors.toList()) : null;
+                        pipeline.write(keepRow ? row : data);
+                        if (pipeline.getWrittenBytes() > maxResultFileByteSize) {
                             String message = format("Result file size exceeded %s bytes. queryId=%s, datasource=%s", maxResultFileByteSize, queryId, datasource);
                             storeError(db, datasource, presto.name(), client.currentStatusInfo().getId(), client.getQuery(), userName, message);
                             throw new RuntimeException(message);
                         }
-                        if (client.getQuery().toLowerCase().startsWith("show") || rows.size() < maxRowLimit) {
+                        if (keepRow) {
                             rows.add(row);
-                        } else {
+                        } else if (queryResult.getWarningMessage() == null) {
                             queryResult.setWarningMessage(format("now fetch size is %d. This is more than %d. So, fetch operation stopped.", rows.size(), maxRowLimit));
                         }
                         rowNumber++;
                     }
                 }
+                if (previewLimit.isTruncated()) {
+                    // closing the client cancels the query on the coordinator
+                    client.close();
+                    queryResult.setTruncated(true);
+                    break;
+                }
                 client.advance();
-                checkTimeout(db, queryMaxRunTime, startTime, datasource, presto.name(), queryId, client.getQuery(), userName);
+                watch.check();
             }
+            pipeline.finish();
 
             queryResult.setLineNumber(rowNumber);
-            DataSize rawDataSize = new DataSize(Files.size(resultPath), BYTE);
+            DataSize rawDataSize = new DataSize(pipeline.getWrittenBytes(), BYTE);
             queryResult.setRawDataSize(rawDataSize.convertToMostSuccinctDataSize());
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -308,6 +432,15 @@ public class PrestoServiceImpl implements PrestoService {
         }
     }
 
+    private void cancelQuery(String datasource, String queryId, Optional<String> prestoUser, Optional<String> prestoPassword) throws IOException {
+        Request request = new Request.Builder().url(config.getPrestoCoordinatorServer(datasource) + "/v1/query/" + queryId).delete().build();
+        try (Response response = httpClientRegistry.getClient(datasource, prestoUser, prestoPassword).newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException(format("code=%d, message=%s", response.code(), response.message()));
+            }
+        }
+    }
+
     private StatementClient getStatementClient(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
         String server = config.getPrestoCoordinatorServer(datasource);
         String catalog = config.getCatalog(datasource);
@@ -317,14 +450,13 @@ public class PrestoServiceImpl implements PrestoService {
         if (prestoUser.isPresent() && prestoPassword.isPresent()) {
             ClientSession clientSession = buildClientSession(server, prestoUser.get(), source, catalog, schema);
             checkArgument(clientSession.getServer().getScheme().equalsIgnoreCase("https"), "Authentication using username/password requires HTTPS to be enabled");
-            OkHttpClient.Builder clientBuilder = httpClient.newBuilder();
-            clientBuilder.addInterceptor(basicAuth(prestoUser.get(), prestoPassword.get()));
-            return StatementClientFactory.newStatementClient(clientBuilder.build(), clientSession, query);
+            OkHttpClient client = httpClientRegistry.getClient(datasource, prestoUser, prestoPassword, STATEMENT_TIMEOUT_SECONDS);
+            return StatementClientFactory.newStatementClient(client, clientSession, query);
         }
 
         String user = firstNonNull(userName, config.getUser(datasource));
         ClientSession clientSession = buildClientSession(server, user, source, catalog, schema);
-        return StatementClientFactory.newStatementClient(httpClient, clientSession, query);
+        return StatementClientFactory.newStatementClient(httpClientRegistry.getClient(datasource, Optional.empty(), Optional.empty(), STATEMENT_TIMEOUT_SECONDS), clientSession, query);
     }
 
     private static ClientSession buildClientSession(String server, String user, String source, String catalog, String schema) {
@@ -0,0 +1,31 @@
+package yanagishima.servlet;
+
+import yanagishima.cache.IndexAccessControl;
+import yanagishima.cache.MetadataIndexer;
+import yanagishima.config.YanagishimaConfig;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+/**
+ * Completes column names from the in-memory index of the datasource.
+ * Each match is catalog.schema.table, column and type.
+ */
+@Singleton
+public class ColumnSearchServlet extends IndexSearchServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    @Inject
+    public ColumnSearchServlet(YanagishimaConfig yanagishimaConfig, MetadataIndexer metadataIndexer, IndexAccessControl indexAccessControl) {
+        super(yanagishimaConfig, metadataIndexer, indexAccessControl);
+    }
+
+    @Override
+    protected void search(String datasource, String q, int limit, Predicate<String> visible, HashMap<String, Object> retVal) {
+        retVal.put("columns", metadataIndexer.searchColumns(datasource, q, limit, visible));
+    }
+
+}
@@ -51,7 +51,7 @@ public class CsvDownloadServlet extends HttpServlet {
                 headerFlag = false;
             }
             if(yanagishimaConfig.isAllowOtherReadResult(datasource)) {
-                DownloadUtil.downloadCsv(response, fileName, datasource, queryid, encodeOptional.orElse("UTF-8"), headerFlag);
+                DownloadUtil.downloadCsv(request, response, fileName, datasource, queryid, encodeOptional.orElse("UTF-8"), headerFlag);
             } else {
                 String userName = request.getHeader(yanagishimaConfig.getAuditHttpHeaderName());
                 if (userName == null) {
@@ -59,7 +59,7 @@ public class CsvDownloadServlet extends HttpServlet {
                 }
                 Optional<Query> userQueryOptional = db.single(Query.class).where("query_id=? and datasource=? and user=?", queryidOptional.get(), datasource, userName).execute();
                 if(userQueryOptional.isPresent()) {
-                    DownloadUtil.downloadCsv(response, fileName, datasource, queryid, encodeOptional.orElse("UTF-8"), headerFlag);
+                    DownloadUtil.downloadCsv(request, response, fileName, datasource, queryid, encodeOptional.orElse("UTF-8"), headerFlag);
                 }
             }
         });
@@ -49,14 +49,14 @@ public class DownloadServlet extends HttpServlet {
         String header = Optional.ofNullable(request.getParameter("header")).orElse("true");
         boolean showHeader = Boolean.parseBoolean(header);
         if (config.isAllowOtherReadResult(datasource)) {
-            downloadTsv(response, fileName, datasource, queryId, encode, showHeader);
+            downloadTsv(request, response, fileName, datasource, queryId, encode, showHeader);
             return;
         }
         String userName = request.getHeader(config.getAuditHttpHeaderName());
         requireNonNull(userName, "Username must exist when auditing header name is enabled");
         Optional<Query> query = db.single(Query.class).where("query_id = ? AND datasource = ? AND user = ?", queryId, datasource, userName).execute();
         if (query.isPresent()) {
-            downloadTsv(response, fileName, datasource, queryId, encode, showHeader);
+            downloadTsv(request, response, fileName, datasource, queryId, encode, showHeader);
         }
     }
 }
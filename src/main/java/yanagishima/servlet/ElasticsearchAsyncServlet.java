@@ -0,0 +1,90 @@
+package yanagishima.servlet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.QueryExecutorPool;
+import yanagishima.service.ElasticsearchService;
+import yanagishima.util.JsonUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+import static yanagishima.util.AccessControlUtil.sendForbiddenError;
+import static yanagishima.util.AccessControlUtil.validateDatasource;
+import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
+import static yanagishima.util.QueryEngine.elasticsearch;
+
+@Singleton
+public class ElasticsearchAsyncServlet extends HttpServlet {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ElasticsearchAsyncServlet.class);
+
+    private static final long serialVersionUID = 1L;
+
+    private final YanagishimaConfig yanagishimaConfig;
+
+    private final ElasticsearchService elasticsearchService;
+
+    private final QueryExecutorPool executorPool;
+
+    @Inject
+    public ElasticsearchAsyncServlet(YanagishimaConfig yanagishimaConfig, ElasticsearchService elasticsearchService, QueryExecutorPool executorPool) {
+        this.yanagishimaConfig = yanagishimaConfig;
+        this.elasticsearchService = elasticsearchService;
+        this.executorPool = executorPool;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request,
+                          HttpServletResponse response) throws ServletException, IOException {
+
+        HashMap<String, Object> retVal = new HashMap<String, Object>();
+
+        Optional<String> queryOptional = Optional.ofNullable(request.getParameter("query"));
+        queryOptional.ifPresent(query -> {
+            try {
+                String userName = null;
+                if (yanagishimaConfig.isUseAuditHttpHeaderName()) {
+                    userName = request.getHeader(yanagishimaConfig.getAuditHttpHeaderName());
+                }
+                if (yanagishimaConfig.isUserRequired() && userName == null) {
+                    sendForbiddenError(response);
+                    return;
+                }
+
+                String datasource = getRequiredParameter(request, "datasource");
+                if (yanagishimaConfig.isCheckDatasource() && !validateDatasource(request, datasource)) {
+                    sendForbiddenError(response);
+                    return;
+                }
+                if (userName != null) {
+                    LOGGER.info(String.format("%s executed %s in %s", userName, query, datasource));
+                }
+                String queryid = elasticsearchService.doQueryAsync(datasource, query, userName);
+                retVal.put("queryid", queryid);
+                if (executorPool.isQueued(elasticsearch.name(), datasource, queryid)) {
+                    retVal.put("queued", true);
+                }
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn(e.getMessage());
+                retVal.put("rejected", true);
+                retVal.put("error", e.getMessage());
+            } catch (Throwable e) {
+                LOGGER.error(e.getMessage(), e);
+                retVal.put("error", e.getMessage());
+            }
+        });
+
+        JsonUtil.writeJSON(response, retVal);
+
+    }
+}
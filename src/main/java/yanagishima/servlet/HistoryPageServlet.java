@@ -0,0 +1,64 @@
+package yanagishima.servlet;
+
+import me.geso.tinyorm.TinyORM;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.row.Query;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.Optional;
+
+import static yanagishima.util.AccessControlUtil.sendForbiddenError;
+import static yanagishima.util.AccessControlUtil.validateDatasource;
+import static yanagishima.util.HistoryUtil.createHistoryPage;
+import static yanagishima.util.HttpRequestUtil.getOrDefaultParameter;
+import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
+import static yanagishima.util.JsonUtil.writeJSON;
+
+@Singleton
+public class HistoryPageServlet extends HttpServlet {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryPageServlet.class);
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_LIMIT = 100;
+
+    private final YanagishimaConfig config;
+    private final TinyORM db;
+
+    @Inject
+    public HistoryPageServlet(YanagishimaConfig config, TinyORM db) {
+        this.config = config;
+        this.db = db;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+        HashMap<String, Object> retVal = new HashMap<>();
+        try {
+            String datasource = getRequiredParameter(request, "datasource");
+            if (config.isCheckDatasource() && !validateDatasource(request, datasource)) {
+                sendForbiddenError(response);
+                return;
+            }
+            String queryId = getRequiredParameter(request, "queryid");
+            long offset = Math.max(0, Long.parseLong(Optional.ofNullable(request.getParameter("offset")).orElse("0")));
+            int limit = Math.max(1, Math.min(getOrDefaultParameter(request, "limit", DEFAULT_LIMIT), config.getSelectLimit()));
+
+            Optional<Query> queryOptional = db.single(Query.class).where("query_id = ? AND datasource = ?", queryId, datasource).execute();
+            queryOptional.ifPresent(query -> {
+                boolean resultVisible = config.isAllowOtherReadResult(datasource) || query.getUser() != null && query.getUser().equals(request.getHeader(config.getAuditHttpHeaderName()));
+                retVal.put("engine", query.getEngine());
+                createHistoryPage(retVal, offset, limit, datasource, query, resultVisible);
+            });
+        } catch (Throwable e) {
+            LOGGER.error(e.getMessage(), e);
+            retVal.put("error", e.getMessage());
+        }
+        writeJSON(response, retVal);
+    }
+}
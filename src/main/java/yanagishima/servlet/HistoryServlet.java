@@ -4,6 +4,7 @@ import me.geso.tinyorm.TinyORM;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import yanagishima.config.YanagishimaConfig;
+import yanagishima.row.Preview;
 import yanagishima.row.Query;
 import yanagishima.util.HistoryUtil;
 import yanagishima.util.JsonUtil;
@@ -72,6 +73,10 @@ public class HistoryServlet extends HttpServlet {
 
                 queryOptional.ifPresent(query -> {
                     retVal.put("engine", query.getEngine());
+                    db.single(Preview.class).where("query_id=? and datasource=? and engine=?", query.getQueryId(), datasource, query.getEngine()).execute().ifPresent(preview -> {
+                        retVal.put("preview", true);
+                        retVal.put("previewRowCount", preview.getRowCount());
+                    });
                     if(yanagishimaConfig.isAllowOtherReadResult(datasource)) {
                         HistoryUtil.createHistoryResult(retVal, yanagishimaConfig.getSelectLimit(), datasource, query, true);
                     } else {
@@ -0,0 +1,153 @@
+package yanagishima.servlet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.geso.tinyorm.TinyORM;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.poller.QueryListPoller;
+import yanagishima.row.Query;
+import yanagishima.util.JsonUtil;
+import yanagishima.util.QueryEngine;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static yanagishima.util.AccessControlUtil.validateDatasource;
+import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
+import static yanagishima.util.QueryEngine.presto;
+
+/**
+ * Answers historyStatus for many queries at once. queries is a JSON array of {"datasource", "engine", "queryid"}, all required.
+ * Stored queries are looked up with one IN query per datasource and engine. Presto queries which aren't stored yet
+ * get their state from the shared query list if it is already polled, no upstream request is made.
+ */
+@Singleton
+public class HistoryStatusBatchServlet extends HttpServlet {
+
+    private static Logger LOGGER = LoggerFactory
+            .getLogger(HistoryStatusBatchServlet.class);
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_QUERIES = 500;
+
+    private final TinyORM db;
+
+    private final YanagishimaConfig yanagishimaConfig;
+
+    private final QueryListPoller queryListPoller;
+
+    @Inject
+    public HistoryStatusBatchServlet(YanagishimaConfig yanagishimaConfig, TinyORM db, QueryListPoller queryListPoller) {
+        this.yanagishimaConfig = yanagishimaConfig;
+        this.db = db;
+        this.queryListPoller = queryListPoller;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request,
+                          HttpServletResponse response) throws ServletException, IOException {
+
+        HashMap<String, Object> retVal = new HashMap<String, Object>();
+
+        try {
+            List<Map<String, String>> queries = new ObjectMapper().readValue(getRequiredParameter(request, "queries"), List.class);
+            if (queries.size() > MAX_QUERIES) {
+                throw new IllegalArgumentException(String.format("queries must be less than or equal to %d", MAX_QUERIES));
+            }
+
+            // datasource -> engine -> queryids
+            Map<String, Map<String, List<String>>> groups = new LinkedHashMap<>();
+            for (Map<String, String> query : queries) {
+                String datasource = query.get("datasource");
+                String engine = query.get("engine");
+                String queryid = query.get("queryid");
+                if (datasource == null || engine == null || queryid == null) {
+                    throw new IllegalArgumentException("datasource, engine and queryid are required");
+                }
+                if (Arrays.stream(QueryEngine.values()).noneMatch(e -> e.name().equals(engine))) {
+                    throw new IllegalArgumentException("invalid engine: " + engine);
+                }
+                groups.computeIfAbsent(datasource, k -> new LinkedHashMap<>()).computeIfAbsent(engine, k -> new ArrayList<>()).add(queryid);
+            }
+
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (Map.Entry<String, Map<String, List<String>>> datasourceGroup : groups.entrySet()) {
+                String datasource = datasourceGroup.getKey();
+                boolean forbidden = yanagishimaConfig.isCheckDatasource() && !validateDatasource(request, datasource);
+                for (Map.Entry<String, List<String>> engineGroup : datasourceGroup.getValue().entrySet()) {
+                    String engine = engineGroup.getKey();
+                    List<String> queryids = engineGroup.getValue();
+                    Map<String, String> storedStatus = forbidden ? new HashMap<>() : findStoredStatus(datasource, engine, queryids);
+                    Map<String, Object> runningState = forbidden || !engine.equals(presto.name()) ? new HashMap<>() : findRunningState(datasource);
+                    for (String queryid : queryids) {
+                        Map<String, Object> result = new LinkedHashMap<>();
+                        result.put("datasource", datasource);
+                        result.put("engine", engine);
+                        result.put("queryid", queryid);
+                        if (forbidden) {
+                            result.put("status", "ng");
+                            result.put("error", "forbidden");
+                        } else if (storedStatus.containsKey(queryid)) {
+                            result.put("status", "ok");
+                            result.put("queryStatus", storedStatus.get(queryid));
+                        } else {
+                            result.put("status", "ng");
+                            if (runningState.containsKey(queryid)) {
+                                result.put("state", runningState.get(queryid));
+                            }
+                        }
+                        results.add(result);
+                    }
+                }
+            }
+            retVal.put("results", results);
+        } catch (Throwable e) {
+            LOGGER.error(e.getMessage(), e);
+            retVal.put("error", e.getMessage());
+        }
+
+        JsonUtil.writeJSON(response, retVal);
+
+    }
+
+    private Map<String, String> findStoredStatus(String datasource, String engine, List<String> queryids) {
+        String placeholder = queryids.stream().map(r -> "?").collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>();
+        params.add(datasource);
+        params.add(engine);
+        params.addAll(queryids);
+        List<Query> queryList = db.searchBySQL(Query.class,
+                "SELECT datasource, engine, query_id, status FROM query WHERE datasource=? and engine=? and query_id IN (" + placeholder + ")",
+                params);
+        Map<String, String> status = new HashMap<>();
+        for (Query query : queryList) {
+            status.put(query.getQueryId(), query.getStatus());
+        }
+        return status;
+    }
+
+    private Map<String, Object> findRunningState(String datasource) {
+        Map<String, Object> state = new HashMap<>();
+        queryListPoller.peekSnapshot(datasource).ifPresent(snapshot -> {
+            for (Map<String, Object> query : snapshot.getQueries()) {
+                state.put(String.valueOf(query.get("queryId")), query.get("state"));
+            }
+        });
+        return state;
+    }
+
+}
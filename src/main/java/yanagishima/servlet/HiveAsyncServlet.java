@@ -4,6 +4,7 @@ import me.geso.tinyorm.TinyORM;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.QueryExecutorPool;
 import yanagishima.service.HiveService;
 import yanagishima.util.JsonUtil;
 
@@ -16,6 +17,7 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 import static yanagishima.util.AccessControlUtil.sendForbiddenError;
 import static yanagishima.util.AccessControlUtil.validateDatasource;
@@ -36,10 +38,13 @@ public class HiveAsyncServlet extends HttpServlet {
 
     private final HiveService hiveService;
 
+    private final QueryExecutorPool executorPool;
+
     @Inject
-    public HiveAsyncServlet(YanagishimaConfig yanagishimaConfig, HiveService hiveService) {
+    public HiveAsyncServlet(YanagishimaConfig yanagishimaConfig, HiveService hiveService, QueryExecutorPool executorPool) {
         this.yanagishimaConfig = yanagishimaConfig;
         this.hiveService = hiveService;
+        this.executorPool = executorPool;
     }
 
     @Override
@@ -75,10 +80,21 @@ public class HiveAsyncServlet extends HttpServlet {
                 if (userName != null) {
                     LOGGER.info(String.format("%s executed %s in datasource=%s, engine=%s", userName, query, datasource, engine));
                 }
-                String queryid = hiveService.doQueryAsync(engine, datasource, query, userName, hiveUser, hivePassword);
+                String queryid;
+                if (Boolean.parseBoolean(request.getParameter("preview"))) {
+                    queryid = hiveService.doPreviewQueryAsync(engine, datasource, query, userName, hiveUser, hivePassword, yanagishimaConfig.getSelectLimit());
+                    retVal.put("preview", true);
+                } else {
+                    queryid = hiveService.doQueryAsync(engine, datasource, query, userName, hiveUser, hivePassword);
+                }
                 retVal.put("queryid", queryid);
-
-
+                if (executorPool.isQueued(engine, datasource, queryid)) {
+                    retVal.put("queued", true);
+                }
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn(e.getMessage());
+                retVal.put("rejected", true);
+                retVal.put("error", e.getMessage());
             } catch (Throwable e) {
                 LOGGER.error(e.getMessage(), e);
                 retVal.put("error", e.getMessage());
@@ -1,7 +1,10 @@
 package yanagishima.servlet;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import yanagishima.cache.MetadataCache;
+import yanagishima.cache.SingleFlight;
 import yanagishima.config.YanagishimaConfig;
 import yanagishima.result.HiveQueryResult;
 import yanagishima.service.HiveService;
@@ -32,10 +35,13 @@ public class HivePartitionServlet extends HttpServlet {
 
     private YanagishimaConfig yanagishimaConfig;
 
+    private MetadataCache metadataCache;
+
     @Inject
-    public HivePartitionServlet(HiveService hiveService, YanagishimaConfig yanagishimaConfig) {
+    public HivePartitionServlet(HiveService hiveService, YanagishimaConfig yanagishimaConfig, MetadataCache metadataCache) {
         this.hiveService = hiveService;
         this.yanagishimaConfig = yanagishimaConfig;
+        this.metadataCache = metadataCache;
     }
 
     @Override
@@ -70,7 +76,7 @@ public class HivePartitionServlet extends HttpServlet {
             String partitionValue = request.getParameter("partitionValue");
             if (partitionColumn == null || partitionValue == null) {
                 String query = String.format("SHOW PARTITIONS %s.`%s`", schema, table);
-                HiveQueryResult hiveQueryResult = hiveService.doQuery(engine, datasource, query, userName, hiveUser, hivePassword, false, Integer.MAX_VALUE);
+                HiveQueryResult hiveQueryResult = doQuery(engine, datasource, query, userName, hiveUser, hivePassword);
                 Set<String> partitions = new TreeSet<>();
                 List<List<String>> records = hiveQueryResult.getRecords();
                 String cell = records.get(0).get(0);// part1=val1/part2=val2/part3=val3'...
@@ -95,7 +101,7 @@ public class HivePartitionServlet extends HttpServlet {
                     }
                 }
                 String query = String.format("SHOW PARTITIONS %s.`%s` PARTITION(%s)", schema, table, String.join(", ", whereList));
-                HiveQueryResult hiveQueryResult = hiveService.doQuery(engine, datasource, query, userName, hiveUser, hivePassword, false, Integer.MAX_VALUE);
+                HiveQueryResult hiveQueryResult = doQuery(engine, datasource, query, userName, hiveUser, hivePassword);
                 List<List<String>> records = hiveQueryResult.getRecords();
                 String cell = records.get(0).get(0);// part1=val1/part2=val2/part3=val3'...
                 String[] keyValues = cell.split("/");
@@ -124,4 +130,14 @@ public class HivePartitionServlet extends HttpServlet {
 
     }
 
+    /**
+     * Served from the metadata cache, concurrent requests for the same query by the same credentials share one execution
+     */
+    private HiveQueryResult doQuery(String engine, String datasource, String query, String userName, Optional<String> hiveUser, Optional<String> hivePassword) throws Exception {
+        String key = SingleFlight.key(engine, datasource, query, userName, hiveUser.orElse(null), hivePassword.map(DigestUtils::sha256Hex).orElse(null));
+        return metadataCache.get(datasource, null, key,
+                () -> hiveService.doQuery(engine, datasource, query, userName, hiveUser, hivePassword, false, Integer.MAX_VALUE),
+                result -> MetadataCache.estimateBytes(result.getColumns(), result.getRecords()));
+    }
+
 }
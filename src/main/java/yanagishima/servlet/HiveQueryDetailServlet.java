@@ -1,8 +1,8 @@
 package yanagishima.servlet;
 
 import yanagishima.config.YanagishimaConfig;
-import yanagishima.util.SparkUtil;
-import yanagishima.util.YarnUtil;
+import yanagishima.poller.SparkProgressPoller;
+import yanagishima.poller.YarnApplicationPoller;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -25,9 +25,15 @@ public class HiveQueryDetailServlet extends HttpServlet {
 
     private YanagishimaConfig yanagishimaConfig;
 
+    private YarnApplicationPoller yarnApplicationPoller;
+
+    private SparkProgressPoller sparkProgressPoller;
+
     @Inject
-    public HiveQueryDetailServlet(YanagishimaConfig yanagishimaConfig) {
+    public HiveQueryDetailServlet(YanagishimaConfig yanagishimaConfig, YarnApplicationPoller yarnApplicationPoller, SparkProgressPoller sparkProgressPoller) {
         this.yanagishimaConfig = yanagishimaConfig;
+        this.yarnApplicationPoller = yarnApplicationPoller;
+        this.sparkProgressPoller = sparkProgressPoller;
     }
 
     @Override
@@ -60,7 +66,7 @@ public class HiveQueryDetailServlet extends HttpServlet {
                             userName = hiveUser.get();
                         }
                     }
-                    Optional<Map> applicationOptional = YarnUtil.getApplication(resourceManagerUrl, id, userName, yanagishimaConfig.getResourceManagerBegin(datasource));
+                    Optional<Map> applicationOptional = yarnApplicationPoller.findApplication(datasource, id, userName);
                     applicationOptional.ifPresent(application -> {
                         String applicationId = (String) application.get("id");
                         try {
@@ -77,7 +83,7 @@ public class HiveQueryDetailServlet extends HttpServlet {
                 String jobId = idOptinal.get();
                 try {
                     Integer.parseInt(jobId);
-                    String sparkJdbcApplicationId = SparkUtil.getSparkJdbcApplicationId(sparkWebUrl);
+                    String sparkJdbcApplicationId = sparkProgressPoller.getApplicationId(datasource);
                     response.sendRedirect(resourceManagerUrl + "/proxy/" + sparkJdbcApplicationId + "/jobs/job?id=" + jobId);
                 } catch (NumberFormatException e) {
                     // we can't specify spark jobId when user pushes info button in Query List tab
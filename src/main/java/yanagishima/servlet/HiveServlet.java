@@ -3,6 +3,7 @@ package yanagishima.servlet;
 import me.geso.tinyorm.TinyORM;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import yanagishima.cache.MetadataNoteCache;
 import yanagishima.config.YanagishimaConfig;
 import yanagishima.exception.HiveQueryErrorException;
 import yanagishima.result.HiveQueryResult;
@@ -41,10 +42,13 @@ public class HiveServlet extends HttpServlet {
 
     private final HiveService hiveService;
 
+    private final MetadataNoteCache metadataNoteCache;
+
     @Inject
-    public HiveServlet(YanagishimaConfig yanagishimaConfig, HiveService hiveService) {
+    public HiveServlet(YanagishimaConfig yanagishimaConfig, HiveService hiveService, MetadataNoteCache metadataNoteCache) {
         this.yanagishimaConfig = yanagishimaConfig;
         this.hiveService = hiveService;
+        this.metadataNoteCache = metadataNoteCache;
     }
 
     @Override
@@ -100,8 +104,9 @@ public class HiveServlet extends HttpServlet {
                     warningMessageOptinal.ifPresent(warningMessage -> {
                         retVal.put("warn", warningMessage);
                     });
+                    Optional<String> metadataServiceUrl = yanagishimaConfig.getMetadataServiceUrl(datasource);
                     if(query.startsWith("DESCRIBE")) {
-                        if(yanagishimaConfig.getMetadataServiceUrl(datasource).isPresent()) {
+                        if(metadataServiceUrl.isPresent()) {
                             String[] strings = query.substring("DESCRIBE ".length()).split("\\.");
                             String schema = strings[0];
                             String table = null;
@@ -112,8 +117,12 @@ public class HiveServlet extends HttpServlet {
                             } else {
                                 throw new IllegalArgumentException(engine + " is illegal");
                             }
-                            MetadataUtil.setMetadata(yanagishimaConfig.getMetadataServiceUrl(datasource).get(), retVal, schema, table, hiveQueryResult.getRecords());
+                            metadataNoteCache.get(metadataServiceUrl.get(), schema, table).ifPresent(metadata -> MetadataUtil.setMetadata(metadata, retVal, hiveQueryResult.getRecords()));
                         }
+                    } else if(query.startsWith("SHOW TABLES IN ") && metadataServiceUrl.isPresent()) {
+                        // the tables of a schema are listed before one of them is expanded
+                        String schema = query.substring("SHOW TABLES IN ".length()).trim();
+                        metadataNoteCache.prefetch(metadataServiceUrl.get(), schema, hiveQueryResult.getRecords().stream().map(row -> row.get(0)).collect(Collectors.toList()));
                     }
                 } catch (HiveQueryErrorException e) {
                     LOGGER.error(e.getMessage());
@@ -0,0 +1,95 @@
+package yanagishima.servlet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.cache.IndexAccessControl;
+import yanagishima.cache.MetadataIndexer;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.util.JsonUtil;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import static yanagishima.util.AccessControlUtil.sendForbiddenError;
+import static yanagishima.util.AccessControlUtil.validateDatasource;
+import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
+
+/**
+ * Base of the servlets completing names from the {@link MetadataIndexer} of a datasource.
+ * Only tables of schemas the caller can see are matched, and building is true while the index is not ready yet.
+ */
+public abstract class IndexSearchServlet extends HttpServlet {
+
+    private static Logger LOGGER = LoggerFactory
+            .getLogger(IndexSearchServlet.class);
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_LIMIT = 100;
+
+    protected final YanagishimaConfig yanagishimaConfig;
+
+    protected final MetadataIndexer metadataIndexer;
+
+    private final IndexAccessControl indexAccessControl;
+
+    protected IndexSearchServlet(YanagishimaConfig yanagishimaConfig, MetadataIndexer metadataIndexer, IndexAccessControl indexAccessControl) {
+        this.yanagishimaConfig = yanagishimaConfig;
+        this.metadataIndexer = metadataIndexer;
+        this.indexAccessControl = indexAccessControl;
+    }
+
+    /**
+     * Puts at most limit matches of q into retVal
+     */
+    protected abstract void search(String datasource, String q, int limit, Predicate<String> visible, HashMap<String, Object> retVal);
+
+    @Override
+    protected void doGet(HttpServletRequest request,
+                         HttpServletResponse response) throws ServletException, IOException {
+
+        HashMap<String, Object> retVal = new HashMap<String, Object>();
+
+        try {
+            String datasource = getRequiredParameter(request, "datasource");
+            if (yanagishimaConfig.isCheckDatasource() && !validateDatasource(request, datasource)) {
+                sendForbiddenError(response);
+                return;
+            }
+            if (yanagishimaConfig.getPrestoCoordinatorServerOrNull(datasource) == null || !metadataIndexer.isEnabled(datasource)) {
+                retVal.put("error", "search is not enabled for " + datasource);
+                JsonUtil.writeJSON(response, retVal);
+                return;
+            }
+
+            String userName = null;
+            Optional<String> prestoUser = Optional.ofNullable(request.getParameter("user"));
+            Optional<String> prestoPassword = Optional.ofNullable(request.getParameter("password"));
+            if(yanagishimaConfig.isUseAuditHttpHeaderName()) {
+                userName = request.getHeader(yanagishimaConfig.getAuditHttpHeaderName());
+            } else {
+                if (prestoUser.isPresent() && prestoPassword.isPresent()) {
+                    userName = prestoUser.get();
+                }
+            }
+
+            String q = getRequiredParameter(request, "q");
+            int limit = Math.min(Integer.parseInt(Optional.ofNullable(request.getParameter("limit")).orElse("20")), MAX_LIMIT);
+            retVal.put("building", metadataIndexer.isBuilding(datasource));
+            search(datasource, q, limit, indexAccessControl.tableFilter(datasource, userName, prestoUser, prestoPassword), retVal);
+        } catch (Throwable e) {
+            LOGGER.error(e.getMessage(), e);
+            retVal.put("error", e.getMessage());
+        }
+
+        JsonUtil.writeJSON(response, retVal);
+
+    }
+
+}
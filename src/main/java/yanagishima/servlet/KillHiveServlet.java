@@ -3,6 +3,7 @@ package yanagishima.servlet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import yanagishima.config.YanagishimaConfig;
+import yanagishima.poller.YarnApplicationPoller;
 import yanagishima.pool.StatementPool;
 import yanagishima.util.YarnUtil;
 
@@ -35,9 +36,12 @@ public class KillHiveServlet extends HttpServlet {
     @Inject
     private StatementPool statementPool;
 
+    private YarnApplicationPoller yarnApplicationPoller;
+
     @Inject
-    public KillHiveServlet(YanagishimaConfig yanagishimaConfig) {
+    public KillHiveServlet(YanagishimaConfig yanagishimaConfig, YarnApplicationPoller yarnApplicationPoller) {
         this.yanagishimaConfig = yanagishimaConfig;
+        this.yarnApplicationPoller = yarnApplicationPoller;
     }
 
     @Override
@@ -85,7 +89,7 @@ public class KillHiveServlet extends HttpServlet {
                         throw new RuntimeException(e);
                     }
                 } else {
-                    Optional<Map> applicationOptional = YarnUtil.getApplication(resourceManagerUrl, id, userName, yanagishimaConfig.getResourceManagerBegin(datasource));
+                    Optional<Map> applicationOptional = yarnApplicationPoller.findApplication(datasource, id, userName);
                     applicationOptional.ifPresent(application -> {
                         String applicationId = (String) application.get("id");
                         try {
@@ -0,0 +1,102 @@
+package yanagishima.servlet;
+
+import yanagishima.cache.MetadataCache;
+import yanagishima.cache.MetadataIndexer;
+import yanagishima.cache.MetadataNoteCache;
+import yanagishima.cache.ResultCache;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pipeline.ResultPipelineFactory;
+import yanagishima.poller.QueryListPoller;
+import yanagishima.poller.QueryWatcher;
+import yanagishima.poller.SparkProgressPoller;
+import yanagishima.poller.YarnApplicationPoller;
+import yanagishima.pool.ElasticsearchClientPool;
+import yanagishima.pool.HiveConnectionPool;
+import yanagishima.pool.HiveProgressTracker;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.pool.QueryExecutorPool;
+import yanagishima.pool.QueryWatchdog;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static yanagishima.util.AccessControlUtil.validateDatasource;
+import static yanagishima.util.JsonUtil.writeJSON;
+
+@Singleton
+public class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    private final YanagishimaConfig config;
+    private final QueryExecutorPool executorPool;
+    private final ResultPipelineFactory resultPipelineFactory;
+    private final ResultCache resultCache;
+    private final MetadataCache metadataCache;
+    private final QueryListPoller queryListPoller;
+    private final QueryWatcher queryWatcher;
+    private final HttpClientRegistry httpClientRegistry;
+    private final QueryWatchdog queryWatchdog;
+    private final MetadataIndexer metadataIndexer;
+    private final MetadataNoteCache metadataNoteCache;
+    private final YarnApplicationPoller yarnApplicationPoller;
+    private final SparkProgressPoller sparkProgressPoller;
+    private final HiveProgressTracker hiveProgressTracker;
+    private final HiveConnectionPool hiveConnectionPool;
+    private final ElasticsearchClientPool elasticsearchClientPool;
+
+    @Inject
+    public MetricsServlet(YanagishimaConfig config, QueryExecutorPool executorPool, ResultPipelineFactory resultPipelineFactory, ResultCache resultCache, MetadataCache metadataCache, QueryListPoller queryListPoller, QueryWatcher queryWatcher, HttpClientRegistry httpClientRegistry, QueryWatchdog queryWatchdog, MetadataIndexer metadataIndexer, MetadataNoteCache metadataNoteCache, YarnApplicationPoller yarnApplicationPoller, SparkProgressPoller sparkProgressPoller, HiveProgressTracker hiveProgressTracker, HiveConnectionPool hiveConnectionPool, ElasticsearchClientPool elasticsearchClientPool) {
+        this.config = config;
+        this.executorPool = executorPool;
+        this.resultPipelineFactory = resultPipelineFactory;
+        this.resultCache = resultCache;
+        this.metadataCache = metadataCache;
+        this.queryListPoller = queryListPoller;
+        this.queryWatcher = queryWatcher;
+        this.httpClientRegistry = httpClientRegistry;
+        this.queryWatchdog = queryWatchdog;
+        this.metadataIndexer = metadataIndexer;
+        this.metadataNoteCache = metadataNoteCache;
+        this.yarnApplicationPoller = yarnApplicationPoller;
+        this.sparkProgressPoller = sparkProgressPoller;
+        this.hiveProgressTracker = hiveProgressTracker;
+        this.hiveConnectionPool = hiveConnectionPool;
+        this.elasticsearchClientPool = elasticsearchClientPool;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("executors", filterByDatasource(request, executorPool.getStats()));
+        body.put("resultPipeline", resultPipelineFactory.getStats());
+        body.put("resultCache", resultCache.getStats());
+        body.put("metadataCache", metadataCache.getStats());
+        body.put("metadataNoteCache", metadataNoteCache.getStats());
+        body.put("queryListPollers", filterByDatasource(request, queryListPoller.getStats()));
+        body.put("queryWatcher", queryWatcher.getStats());
+        body.put("yarnApplicationPollers", filterByDatasource(request, yarnApplicationPoller.getStats()));
+        body.put("sparkProgressPollers", filterByDatasource(request, sparkProgressPoller.getStats()));
+        body.put("httpClientPool", httpClientRegistry.getPoolStats());
+        body.put("httpClients", filterByDatasource(request, httpClientRegistry.getStats()));
+        body.put("queryWatchdog", queryWatchdog.getStats());
+        body.put("hiveProgressTracker", hiveProgressTracker.getStats());
+        body.put("hiveConnectionPool", hiveConnectionPool.getStats());
+        body.put("elasticsearchClientPool", elasticsearchClientPool.getStats());
+        body.put("tableIndexes", filterByDatasource(request, metadataIndexer.getStats()));
+        writeJSON(response, body);
+    }
+
+    private List<Map<String, Object>> filterByDatasource(HttpServletRequest request, List<Map<String, Object>> stats) {
+        if (!config.isCheckDatasource()) {
+            return stats;
+        }
+        return stats.stream().filter(m -> validateDatasource(request, (String) m.get("datasource"))).collect(Collectors.toList());
+    }
+}
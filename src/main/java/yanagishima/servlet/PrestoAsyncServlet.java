@@ -3,7 +3,10 @@ package yanagishima.servlet;
 import io.prestosql.client.ClientException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import yanagishima.cache.ResultCache;
 import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.QueryExecutorPool;
+import yanagishima.row.Query;
 import yanagishima.service.OldPrestoService;
 import yanagishima.service.PrestoService;
 import yanagishima.util.JsonUtil;
@@ -17,10 +20,12 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 import static yanagishima.util.AccessControlUtil.sendForbiddenError;
 import static yanagishima.util.AccessControlUtil.validateDatasource;
 import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
+import static yanagishima.util.QueryEngine.presto;
 
 @Singleton
 public class PrestoAsyncServlet extends HttpServlet {
@@ -35,11 +40,17 @@ public class PrestoAsyncServlet extends HttpServlet {
 
 	private final YanagishimaConfig yanagishimaConfig;
 
+	private final ResultCache resultCache;
+
+	private final QueryExecutorPool executorPool;
+
 	@Inject
-	public PrestoAsyncServlet(OldPrestoService oldPrestoService, PrestoService prestoService, YanagishimaConfig yanagishimaConfig) {
+	public PrestoAsyncServlet(OldPrestoService oldPrestoService, PrestoService prestoService, YanagishimaConfig yanagishimaConfig, ResultCache resultCache, QueryExecutorPool executorPool) {
 		this.oldPrestoService = oldPrestoService;
 		this.prestoService = prestoService;
 		this.yanagishimaConfig = yanagishimaConfig;
+		this.resultCache = resultCache;
+		this.executorPool = executorPool;
 	}
 
 	@Override
@@ -81,13 +92,29 @@ public class PrestoAsyncServlet extends HttpServlet {
 					}
 				}
 				try {
+					Optional<Query> cachedQuery = resultCache.get(datasource, query, userName, prestoUser, prestoPassword);
+					if(cachedQuery.isPresent()) {
+						retVal.put("queryid", cachedQuery.get().getQueryId());
+						retVal.put("cacheHit", true);
+						return;
+					}
 					String queryid;
 					if(yanagishimaConfig.isUseOldPresto(datasource)) {
 						queryid = oldPrestoService.doQueryAsync(datasource, query, userName, prestoUser, prestoPassword);
+					} else if (Boolean.parseBoolean(request.getParameter("preview"))) {
+						queryid = prestoService.doPreviewQueryAsync(datasource, query, userName, prestoUser, prestoPassword, yanagishimaConfig.getSelectLimit());
+						retVal.put("preview", true);
 					} else {
 						queryid = prestoService.doQueryAsync(datasource, query, userName, prestoUser, prestoPassword);
 					}
 					retVal.put("queryid", queryid);
+					if (executorPool.isQueued(presto.name(), datasource, queryid)) {
+						retVal.put("queued", true);
+					}
+				} catch (RejectedExecutionException e) {
+					LOGGER.warn(e.getMessage());
+					retVal.put("rejected", true);
+					retVal.put("error", e.getMessage());
 				} catch (ClientException e) {
 					if(prestoUser.isPresent()) {
 						LOGGER.error(String.format("%s failed to be authenticated", prestoUser.get()));
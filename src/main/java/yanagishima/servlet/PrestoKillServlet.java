@@ -5,6 +5,8 @@ import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.pool.PrestoQueryHandles;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -16,7 +18,6 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.Optional;
 
-import static io.prestosql.client.OkHttpUtil.basicAuth;
 import static yanagishima.util.AccessControlUtil.sendForbiddenError;
 import static yanagishima.util.AccessControlUtil.validateDatasource;
 import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
@@ -28,11 +29,14 @@ public class PrestoKillServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
 	private final YanagishimaConfig config;
-	private final OkHttpClient httpClient = new OkHttpClient();
+	private final HttpClientRegistry httpClientRegistry;
+	private final PrestoQueryHandles queryHandles;
 
 	@Inject
-	public PrestoKillServlet(YanagishimaConfig config) {
+	public PrestoKillServlet(YanagishimaConfig config, HttpClientRegistry httpClientRegistry, PrestoQueryHandles queryHandles) {
 		this.config = config;
+		this.httpClientRegistry = httpClientRegistry;
+		this.queryHandles = queryHandles;
 	}
 
 	@Override
@@ -50,25 +54,28 @@ public class PrestoKillServlet extends HttpServlet {
 				return;
 			}
 
+			// a query still in the queue is never submitted
+			if (queryHandles.get(queryIdOptinal.get()).map(queryId -> queryId.cancel(false)).orElse(false)) {
+				writeJSON(response, Map.of("code", 200, "message", "Cancelled while queued"));
+				return;
+			}
+
 			String coordinatorUrl = config.getPrestoCoordinatorServer(datasource);
 			Optional<String> username = Optional.ofNullable(request.getParameter("user"));
 			Optional<String> password = Optional.ofNullable(request.getParameter("password"));
-			Response killResponse = getKillResponse(coordinatorUrl, queryIdOptinal.get(), username, password);
-			writeJSON(response, Map.of("code", killResponse.code(), "message", killResponse.message(), "url", killResponse.request().url()));
+			OkHttpClient client = httpClientRegistry.getClient(datasource, username, password);
+			try (Response killResponse = getKillResponse(client, coordinatorUrl, queryHandles.resolve(queryIdOptinal.get()))) {
+				writeJSON(response, Map.of("code", killResponse.code(), "message", killResponse.message(), "url", killResponse.request().url()));
+			}
 		} catch (Throwable e) {
 			LOGGER.error(e.getMessage(), e);
 			writeJSON(response, Map.of("error", e.getMessage()));
 		}
 	}
 
-	private Response getKillResponse(String coordinatorUrl, String queryId, Optional<String> username, Optional<String> password) throws IOException
+	private Response getKillResponse(OkHttpClient client, String coordinatorUrl, String queryId) throws IOException
 	{
 		okhttp3.Request request = new okhttp3.Request.Builder().url(coordinatorUrl + "/v1/query/" + queryId).delete().build();
-		if (username.isPresent() && password.isPresent()) {
-			OkHttpClient.Builder clientBuilder = httpClient.newBuilder();
-			clientBuilder.addInterceptor(basicAuth(username.get(), password.get()));
-			return clientBuilder.build().newCall(request).execute();
-		}
-		return httpClient.newCall(request).execute();
+		return client.newCall(request).execute();
 	}
 }
@@ -1,13 +1,19 @@
 package yanagishima.servlet;
 
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.codec.digest.DigestUtils;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import yanagishima.cache.MetadataCache;
+import yanagishima.cache.SingleFlight;
+import yanagishima.cache.StreamingSingleFlight;
 import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HttpClientRegistry;
 import yanagishima.result.PrestoQueryResult;
 import yanagishima.service.PrestoService;
 import yanagishima.util.JsonUtil;
@@ -21,12 +27,12 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.*;
 
-import static io.prestosql.client.OkHttpUtil.basicAuth;
 import static com.google.common.base.Preconditions.checkArgument;
 import static yanagishima.util.AccessControlUtil.sendForbiddenError;
 import static yanagishima.util.AccessControlUtil.validateDatasource;
 import static yanagishima.util.Constants.YANAGISHIMA_COMMENT;
 import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
+import static yanagishima.util.QueryEngine.presto;
 
 @Singleton
 public class PrestoPartitionServlet extends HttpServlet {
@@ -40,10 +46,18 @@ public class PrestoPartitionServlet extends HttpServlet {
 
     private YanagishimaConfig yanagishimaConfig;
 
+    private MetadataCache metadataCache;
+
+    private final StreamingSingleFlight<String> streamingSingleFlight = new StreamingSingleFlight<>();
+
+    private HttpClientRegistry httpClientRegistry;
+
     @Inject
-    public PrestoPartitionServlet(PrestoService prestoService, YanagishimaConfig yanagishimaConfig) {
+    public PrestoPartitionServlet(PrestoService prestoService, YanagishimaConfig yanagishimaConfig, MetadataCache metadataCache, HttpClientRegistry httpClientRegistry) {
         this.prestoService = prestoService;
         this.yanagishimaConfig = yanagishimaConfig;
+        this.metadataCache = metadataCache;
+        this.httpClientRegistry = httpClientRegistry;
     }
 
     @Override
@@ -78,13 +92,14 @@ public class PrestoPartitionServlet extends HttpServlet {
             String partitionColumn = request.getParameter("partitionColumn");
             String partitionColumnType = request.getParameter("partitionColumnType");
             String partitionValue = request.getParameter("partitionValue");
+            Optional<String> prefix = Optional.ofNullable(request.getParameter("prefix")).filter(p -> !p.isEmpty());
             if (partitionColumn == null || partitionValue == null) {
                 Optional<String> webhdfsUrlOptional = yanagishimaConfig.getWebhdfsUrl(datasource, catalog, schema, table);
                 if(webhdfsUrlOptional.isPresent()) {
                     if(webhdfsProxyUser.isPresent() && webhdfsProxyPassword.isPresent()) {
-                        setFirstPartitionWIthWebhdfs(retVal, webhdfsProxyUser, webhdfsProxyPassword, webhdfsUrlOptional.get());
+                        setFirstPartitionWIthWebhdfs(retVal, datasource, webhdfsProxyUser, webhdfsProxyPassword, webhdfsUrlOptional.get());
                     } else {
-                        setFirstPartitionWIthWebhdfs(retVal, prestoUser, prestoPassword, webhdfsUrlOptional.get());
+                        setFirstPartitionWIthWebhdfs(retVal, datasource, prestoUser, prestoPassword, webhdfsUrlOptional.get());
                     }
                 } else {
                     String query = null;
@@ -96,17 +111,8 @@ public class PrestoPartitionServlet extends HttpServlet {
                     if(userName != null) {
                         LOGGER.info(String.format("%s executed %s in %s", userName, query, datasource));
                     }
-                    PrestoQueryResult prestoQueryResult = prestoService.doQuery(datasource, query, userName, prestoUser, prestoPassword, false, Integer.MAX_VALUE);
-                    retVal.put("column", prestoQueryResult.getColumns().get(0));
-                    Set<String> partitions = new TreeSet<>();
-                    List<List<String>> records = prestoQueryResult.getRecords();
-                    for (List<String> row : records) {
-                        String data = row.get(0);
-                        if(data != null) {
-                            partitions.add(data);
-                        }
-                    }
-                    retVal.put("partitions", partitions);
+                    writePartitions(response, datasource, catalog, query, userName, prestoUser, prestoPassword, null, prefix);
+                    return;
                 }
             } else {
                 String[] partitionColumnArray = partitionColumn.split(",");
@@ -123,9 +129,9 @@ public class PrestoPartitionServlet extends HttpServlet {
                         pathList.add(String.format("%s=%s", partitionColumnArray[i], partitionValuesArray[i]));
                     }
                     if(webhdfsProxyUser.isPresent() && webhdfsProxyPassword.isPresent()) {
-                        setFirstPartitionWIthWebhdfs(retVal, webhdfsProxyUser, webhdfsProxyPassword, webhdfsUrlOptional.get() + "/" + String.join("/", pathList));
+                        setFirstPartitionWIthWebhdfs(retVal, datasource, webhdfsProxyUser, webhdfsProxyPassword, webhdfsUrlOptional.get() + "/" + String.join("/", pathList));
                     } else {
-                        setFirstPartitionWIthWebhdfs(retVal, prestoUser, prestoPassword, webhdfsUrlOptional.get() + "/" + String.join("/", pathList));
+                        setFirstPartitionWIthWebhdfs(retVal, datasource, prestoUser, prestoPassword, webhdfsUrlOptional.get() + "/" + String.join("/", pathList));
                     }
                 } else {
                     List whereList = new ArrayList<>();
@@ -145,25 +151,8 @@ public class PrestoPartitionServlet extends HttpServlet {
                     if(userName != null) {
                         LOGGER.info(String.format("%s executed %s in %s", userName, query, datasource));
                     }
-                    PrestoQueryResult prestoQueryResult = prestoService.doQuery(datasource, query, userName, prestoUser, prestoPassword, false, Integer.MAX_VALUE);
-                    List<String> columns = prestoQueryResult.getColumns();
-                    int index = 0;
-                    for (String column : columns) {
-                        if (column.equals(partitionColumnArray[partitionColumnArray.length-1])) {
-                            break;
-                        }
-                        index++;
-                    }
-                    retVal.put("column", columns.get(index + 1));
-                    Set<String> partitions = new TreeSet<>();
-                    List<List<String>> records = prestoQueryResult.getRecords();
-                    for (List<String> row : records) {
-                        String partition = row.get(index + 1);
-                        if(partition != null) {
-                            partitions.add(partition);
-                        }
-                    }
-                    retVal.put("partitions", partitions);
+                    writePartitions(response, datasource, catalog, query, userName, prestoUser, prestoPassword, partitionColumnArray[partitionColumnArray.length-1], prefix);
+                    return;
                 }
             }
         } catch (Throwable e) {
@@ -175,14 +164,62 @@ public class PrestoPartitionServlet extends HttpServlet {
 
     }
 
-    private void setFirstPartitionWIthWebhdfs(HashMap<String, Object> retVal, Optional<String> prestoUser, Optional<String> prestoPassword, String webhdfsUrl) throws IOException {
-        OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
+    /**
+     * Writes the distinct partition values of the column after previousColumn, or of the first column, in the order the query returns them.
+     * Values are written as they arrive, only the ones already written are kept to skip duplicates. An error is appended after the values.
+     */
+    private void writePartitions(HttpServletResponse response, String datasource, String catalog, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, String previousColumn, Optional<String> prefix) throws IOException {
+        try (JsonGenerator generator = JsonUtil.createGenerator(response)) {
+            generator.writeStartObject();
+            PartitionWriter writer = new PartitionWriter(generator, previousColumn, prefix);
+            try {
+                if (metadataCache.isEnabled(datasource, catalog)) {
+                    PrestoQueryResult prestoQueryResult = doQuery(datasource, catalog, query, userName, prestoUser, prestoPassword);
+                    writer.columns(prestoQueryResult.getColumns());
+                    for (List<String> row : prestoQueryResult.getRecords()) {
+                        writer.row(row);
+                    }
+                } else {
+                    doStreamingQuery(datasource, query, userName, prestoUser, prestoPassword, writer);
+                }
+                writer.finish();
+            } catch (Throwable e) {
+                LOGGER.error(e.getMessage(), e);
+                writer.finish();
+                generator.writeStringField("error", e.getMessage());
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Served from the metadata cache, concurrent requests for the same query by the same credentials share one execution
+     */
+    private PrestoQueryResult doQuery(String datasource, String catalog, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) throws Exception {
+        String key = key(datasource, query, userName, prestoUser, prestoPassword);
+        return metadataCache.get(datasource, catalog, key,
+                () -> prestoService.doQuery(datasource, query, userName, prestoUser, prestoPassword, false, Integer.MAX_VALUE),
+                result -> MetadataCache.estimateBytes(result.getColumns(), result.getRecords()));
+    }
+
+    /**
+     * Streamed without the metadata cache, concurrent requests for the same query by the same credentials still share one execution
+     */
+    private void doStreamingQuery(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, PrestoService.RowHandler handler) throws Exception {
+        streamingSingleFlight.execute(key(datasource, query, userName, prestoUser, prestoPassword),
+                h -> prestoService.doStreamingQuery(datasource, query, userName, prestoUser, prestoPassword, h), handler);
+    }
+
+    private static String key(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
+        return SingleFlight.key(presto.name(), datasource, query, userName, prestoUser.orElse(null), prestoPassword.map(DigestUtils::sha256Hex).orElse(null));
+    }
+
+    private void setFirstPartitionWIthWebhdfs(HashMap<String, Object> retVal, String datasource, Optional<String> prestoUser, Optional<String> prestoPassword, String webhdfsUrl) throws IOException {
         if (prestoUser.isPresent() && prestoPassword.isPresent()) {
             checkArgument(webhdfsUrl.startsWith("https"),
                     "Authentication using username/password requires HTTPS to be enabled");
-            clientBuilder.addInterceptor(basicAuth(prestoUser.get(), prestoPassword.get()));
         }
-        OkHttpClient client = clientBuilder.build();
+        OkHttpClient client = httpClientRegistry.getClient(datasource, prestoUser, prestoPassword);
         Request okhttpRequest = new Request.Builder().url(webhdfsUrl + "?op=LISTSTATUS").build();
         try (Response okhttpResponse = client.newCall(okhttpRequest).execute()) {
             if (!okhttpResponse.isSuccessful()) {
@@ -225,4 +262,51 @@ public class PrestoPartitionServlet extends HttpServlet {
         }
     }
 
+    private static class PartitionWriter implements PrestoService.RowHandler {
+        private final JsonGenerator generator;
+        private final String previousColumn;
+        private final Optional<String> prefix;
+        private final Set<String> written = new HashSet<>();
+        private int index;
+        private boolean started;
+        private boolean finished;
+
+        PartitionWriter(JsonGenerator generator, String previousColumn, Optional<String> prefix) {
+            this.generator = generator;
+            this.previousColumn = previousColumn;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void columns(List<String> columns) throws IOException {
+            if (previousColumn != null) {
+                checkArgument(columns.contains(previousColumn), "%s is not a partition column", previousColumn);
+                index = columns.indexOf(previousColumn) + 1;
+            }
+            generator.writeStringField("column", columns.get(index));
+            generator.writeArrayFieldStart("partitions");
+            started = true;
+        }
+
+        @Override
+        public boolean row(List<String> row) throws IOException {
+            String partition = row.get(index);
+            if (partition != null && prefix.map(partition::startsWith).orElse(true) && written.add(partition)) {
+                generator.writeString(partition);
+            }
+            return true;
+        }
+
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (!started) {
+                generator.writeArrayFieldStart("partitions");
+                started = true;
+            }
+            generator.writeEndArray();
+        }
+    }
 }
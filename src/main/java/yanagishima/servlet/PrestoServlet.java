@@ -1,13 +1,22 @@
 package yanagishima.servlet;
 
 import io.prestosql.client.ClientException;
+import org.apache.commons.codec.digest.DigestUtils;
 import me.geso.tinyorm.TinyORM;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import yanagishima.cache.IndexAccessControl;
+import yanagishima.cache.MetadataCache;
+import yanagishima.cache.MetadataIndexer;
+import yanagishima.cache.MetadataNoteCache;
+import yanagishima.cache.ResultCache;
+import yanagishima.cache.SingleFlight;
 import yanagishima.config.YanagishimaConfig;
 import yanagishima.exception.QueryErrorException;
 import yanagishima.result.PrestoQueryResult;
+import yanagishima.row.Query;
 import yanagishima.service.PrestoService;
+import yanagishima.util.HistoryUtil;
 import yanagishima.util.JsonUtil;
 import yanagishima.util.MetadataUtil;
 
@@ -19,12 +28,15 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static yanagishima.util.AccessControlUtil.sendForbiddenError;
 import static yanagishima.util.AccessControlUtil.validateDatasource;
 import static yanagishima.util.Constants.YANAGISHIMA_COMMENT;
 import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
+import static yanagishima.util.QueryEngine.presto;
 
 @Singleton
 public class PrestoServlet extends HttpServlet {
@@ -33,17 +45,34 @@ public class PrestoServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 
+	private static final Pattern SCHEMA_TABLES_PATTERN = Pattern.compile("information_schema\\.tables\\s+WHERE\\s+table_schema\\s*=\\s*'([^']+)'", Pattern.CASE_INSENSITIVE);
+
 	private final PrestoService prestoService;
 
 	private final YanagishimaConfig yanagishimaConfig;
 
+	private final ResultCache resultCache;
+
+	private final MetadataCache metadataCache;
+
+	private final MetadataIndexer metadataIndexer;
+
+	private final MetadataNoteCache metadataNoteCache;
+
+	private final IndexAccessControl indexAccessControl;
+
 	@Inject
 	private TinyORM db;
 
 	@Inject
-	public PrestoServlet(PrestoService prestoService, YanagishimaConfig yanagishimaConfig) {
+	public PrestoServlet(PrestoService prestoService, YanagishimaConfig yanagishimaConfig, ResultCache resultCache, MetadataCache metadataCache, MetadataIndexer metadataIndexer, MetadataNoteCache metadataNoteCache, IndexAccessControl indexAccessControl) {
 		this.prestoService = prestoService;
 		this.yanagishimaConfig = yanagishimaConfig;
+		this.resultCache = resultCache;
+		this.metadataCache = metadataCache;
+		this.metadataIndexer = metadataIndexer;
+		this.metadataNoteCache = metadataNoteCache;
+		this.indexAccessControl = indexAccessControl;
 	}
 
 	@Override
@@ -91,8 +120,21 @@ public class PrestoServlet extends HttpServlet {
 							return;
 						}
 					}
+					Optional<Query> cachedQuery = storeFlag ? resultCache.get(datasource, query, userName, prestoUser, prestoPassword) : Optional.empty();
+					if(cachedQuery.isPresent()) {
+						retVal.put("queryid", cachedQuery.get().getQueryId());
+						HistoryUtil.createHistoryResult(retVal, yanagishimaConfig.getSelectLimit(), datasource, cachedQuery.get(), true);
+						retVal.put("lineNumber", String.valueOf(cachedQuery.get().getLinenumber()));
+						retVal.put("cacheHit", true);
+						return;
+					}
+					if(!storeFlag && query.startsWith(YANAGISHIMA_COMMENT + "DESCRIBE") && describeFromIndex(datasource, query, userName, prestoUser, prestoPassword, retVal)) {
+						return;
+					}
 					PrestoQueryResult prestoQueryResult;
-					if(query.startsWith(YANAGISHIMA_COMMENT)) {
+					if(query.startsWith(YANAGISHIMA_COMMENT) && !storeFlag && MetadataCache.isMetadataQuery(query)) {
+						prestoQueryResult = doMetadataQuery(datasource, query, userName, prestoUser, prestoPassword);
+					} else if(query.startsWith(YANAGISHIMA_COMMENT)) {
 						prestoQueryResult = prestoService.doQuery(datasource, query, userName, prestoUser, prestoPassword, storeFlag, Integer.MAX_VALUE);
 					} else {
 						prestoQueryResult = prestoService.doQuery(datasource, query, userName, prestoUser, prestoPassword, storeFlag, yanagishimaConfig.getSelectLimit());
@@ -115,12 +157,17 @@ public class PrestoServlet extends HttpServlet {
 						warningMessageOptinal.ifPresent(warningMessage -> {
 							retVal.put("warn", warningMessage);
 						});
-						if(query.startsWith(YANAGISHIMA_COMMENT + "DESCRIBE")) {
-							if(yanagishimaConfig.getMetadataServiceUrl(datasource).isPresent()) {
-								String[] strings = query.substring(YANAGISHIMA_COMMENT.length() + "DESCRIBE ".length()).split("\\.");
-								String schema = strings[1];
-								String table = strings[2].substring(1, strings[2].length() - 1);
-								MetadataUtil.setMetadata(yanagishimaConfig.getMetadataServiceUrl(datasource).get(), retVal, schema, table, prestoQueryResult.getRecords());
+						Optional<String> metadataServiceUrl = yanagishimaConfig.getMetadataServiceUrl(datasource);
+						if(metadataServiceUrl.isPresent() && query.startsWith(YANAGISHIMA_COMMENT + "DESCRIBE")) {
+							String[] strings = query.substring(YANAGISHIMA_COMMENT.length() + "DESCRIBE ".length()).split("\\.");
+							String schema = unquote(strings[1]);
+							String table = unquote(strings[2]);
+							metadataNoteCache.get(metadataServiceUrl.get(), schema, table).ifPresent(metadata -> MetadataUtil.setMetadata(metadata, retVal, prestoQueryResult.getRecords()));
+						} else if(metadataServiceUrl.isPresent() && query.startsWith(YANAGISHIMA_COMMENT)) {
+							// the tables of a schema are listed before one of them is expanded
+							Matcher matcher = SCHEMA_TABLES_PATTERN.matcher(query);
+							if(matcher.find()) {
+								metadataNoteCache.prefetch(metadataServiceUrl.get(), matcher.group(1), prestoQueryResult.getRecords().stream().map(row -> row.get(0)).collect(Collectors.toList()));
 							}
 						}
 					}
@@ -148,4 +195,45 @@ public class PrestoServlet extends HttpServlet {
 
 	}
 
+	/**
+	 * Answers DESCRIBE "catalog"."schema"."table" from the metadata index, returns false if the table isn't indexed
+	 * or the caller can't see its schema, so presto answers with the credentials of the caller
+	 */
+	private boolean describeFromIndex(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, HashMap<String, Object> retVal) {
+		if(!metadataIndexer.isEnabled(datasource)) {
+			return false;
+		}
+		String[] strings = query.substring(YANAGISHIMA_COMMENT.length() + "DESCRIBE ".length()).trim().split("\\.");
+		if(strings.length != 3) {
+			return false;
+		}
+		String catalog = unquote(strings[0]);
+		String schema = unquote(strings[1]);
+		String table = unquote(strings[2]);
+		Optional<List<List<String>>> columns = metadataIndexer.getColumns(datasource, catalog, schema, table);
+		if(!columns.isPresent() || !indexAccessControl.canSee(datasource, catalog, schema, userName, prestoUser, prestoPassword)) {
+			return false;
+		}
+		retVal.put("headers", Arrays.asList("Column", "Type", "Extra", "Comment"));
+		retVal.put("results", columns.get());
+		retVal.put("lineNumber", Integer.toString(columns.get().size() + 1));
+		retVal.put("rawDataSize", "0");
+		metadataIndexer.getMetadata(datasource, schema, table).ifPresent(metadata -> MetadataUtil.setMetadata(metadata, retVal, columns.get()));
+		return true;
+	}
+
+	private static String unquote(String name) {
+		if(name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+			return name.substring(1, name.length() - 1).replace("\"\"", "\"");
+		}
+		return name;
+	}
+
+	private PrestoQueryResult doMetadataQuery(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) throws Exception {
+		String key = SingleFlight.key(presto.name(), datasource, query, userName, prestoUser.orElse(null), prestoPassword.map(DigestUtils::sha256Hex).orElse(null));
+		return metadataCache.get(datasource, MetadataCache.getCatalog(query), key,
+				() -> prestoService.doQuery(datasource, query, userName, prestoUser, prestoPassword, false, Integer.MAX_VALUE),
+				result -> MetadataCache.estimateBytes(result.getColumns(), result.getRecords()));
+	}
+
 }
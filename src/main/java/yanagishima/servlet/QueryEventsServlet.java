@@ -0,0 +1,310 @@
+package yanagishima.servlet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.poller.QueryWatcher;
+import yanagishima.poller.QueryWatcher.QueryEvent;
+import yanagishima.poller.QueryWatcher.Subscription;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+import static yanagishima.util.AccessControlUtil.sendForbiddenError;
+import static yanagishima.util.AccessControlUtil.validateDatasource;
+import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
+
+/**
+ * Streams state changes of the given queries as server-sent events until all of them are complete.
+ * Each event is named status, complete or error and carries the queryid and the same fields as the status servlets.
+ * Streams are asynchronous, so an open stream doesn't hold a request thread. Events and keepalives are written without
+ * blocking, so a slow client never delays the others, and at most max-connections streams are open at once.
+ */
+@Singleton
+public class QueryEventsServlet extends HttpServlet {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryEventsServlet.class);
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_QUERY_IDS = 20;
+
+    private static final long KEEPALIVE_SECONDS = 15;
+
+    private static final long MAX_PENDING_BYTES = 64 * 1024;
+
+    private final YanagishimaConfig yanagishimaConfig;
+
+    private final QueryWatcher queryWatcher;
+
+    private final ScheduledExecutorService keepaliveScheduler;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    @Inject
+    public QueryEventsServlet(YanagishimaConfig yanagishimaConfig, QueryWatcher queryWatcher) {
+        this.yanagishimaConfig = yanagishimaConfig;
+        this.queryWatcher = queryWatcher;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("query-events-%d").setDaemon(true).build());
+        executor.setRemoveOnCancelPolicy(true);
+        this.keepaliveScheduler = executor;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String datasource = getRequiredParameter(request, "datasource");
+        if (yanagishimaConfig.isCheckDatasource() && !validateDatasource(request, datasource)) {
+            sendForbiddenError(response);
+            return;
+        }
+        String engine = Optional.ofNullable(request.getParameter("engine")).orElse("presto");
+        Set<String> remaining = Arrays.stream(getRequiredParameter(request, "queryid").split(","))
+                .map(String::trim).filter(id -> !id.isEmpty()).collect(Collectors.toCollection(LinkedHashSet::new));
+        if (remaining.isEmpty() || remaining.size() > MAX_QUERY_IDS) {
+            response.sendError(SC_BAD_REQUEST, String.format("specify 1 to %d queryid", MAX_QUERY_IDS));
+            return;
+        }
+
+        String userName = null;
+        Optional<String> user = Optional.ofNullable(request.getParameter("user"));
+        Optional<String> password = Optional.ofNullable(request.getParameter("password"));
+        if (yanagishimaConfig.isUseAuditHttpHeaderName()) {
+            userName = request.getHeader(yanagishimaConfig.getAuditHttpHeaderName());
+        } else if (user.isPresent()) {
+            userName = user.get();
+        }
+
+        if (connectionCount.incrementAndGet() > yanagishimaConfig.getQueryEventsMaxConnections()) {
+            connectionCount.decrementAndGet();
+            response.sendError(SC_SERVICE_UNAVAILABLE, "too many event streams");
+            return;
+        }
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("X-Accel-Buffering", "no");
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(yanagishimaConfig.getQueryEventsMaxDurationSeconds() * 1000L);
+        EventStream stream = new EventStream(asyncContext, response.getOutputStream(), remaining);
+        asyncContext.addListener(stream);
+        stream.start(engine, datasource, userName, user, password);
+    }
+
+    private class EventStream implements AsyncListener, WriteListener {
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream out;
+        private final Set<String> remaining;
+        private final Queue<byte[]> pending = new ArrayDeque<>();
+        private final List<Subscription> subscriptions = new ArrayList<>();
+        private long pendingBytes;
+        private ScheduledFuture<?> keepalive;
+        private long eventId;
+        private boolean ending;
+        private boolean closed;
+
+        EventStream(AsyncContext asyncContext, ServletOutputStream out, Set<String> remaining) {
+            this.asyncContext = asyncContext;
+            this.out = out;
+            this.remaining = remaining;
+        }
+
+        void start(String engine, String datasource, String userName, Optional<String> user, Optional<String> password) throws IOException {
+            synchronized (this) {
+                // the container calls onWritePossible whenever the client can take more
+                out.setWriteListener(this);
+                send("retry: 3000\n\n");
+                try {
+                    for (String queryid : remaining) {
+                        subscriptions.add(queryWatcher.subscribe(engine, datasource, queryid, userName, user, password, this::onEvent));
+                    }
+                    if (!closed) {
+                        keepalive = keepaliveScheduler.scheduleWithFixedDelay(this::keepalive, KEEPALIVE_SECONDS, KEEPALIVE_SECONDS, SECONDS);
+                    }
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn(e.getMessage());
+                    send(String.format("event: error\ndata: %s\n\n", mapper.writeValueAsString(Map.of("error", e.getMessage()))));
+                    ending = true;
+                    flushPending();
+                }
+            }
+            closeSubscriptionsIfClosed();
+        }
+
+        // called by the watcher threads, which must not block on a slow client
+        private void onEvent(QueryEvent event) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                Map<String, Object> data = new LinkedHashMap<>();
+                data.put("queryid", event.getQueryid());
+                data.putAll(event.getData());
+                try {
+                    send(String.format("id: %d\nevent: %s\ndata: %s\n\n", ++eventId, event.getType(), mapper.writeValueAsString(data)));
+                } catch (IOException e) {
+                    LOGGER.warn(e.getMessage());
+                    close(true);
+                }
+                if (event.isLast()) {
+                    remaining.remove(event.getQueryid());
+                }
+                if (remaining.isEmpty() && !closed && !ending) {
+                    send("event: end\ndata: {}\n\n");
+                    ending = true;
+                    flushPending();
+                }
+            }
+            closeSubscriptionsIfClosed();
+        }
+
+        private void keepalive() {
+            synchronized (this) {
+                if (!closed) {
+                    send(": keepalive\n\n");
+                }
+            }
+            closeSubscriptionsIfClosed();
+        }
+
+        /**
+         * Queues the text and writes as much as the client takes without blocking. A client which lets more than
+         * MAX_PENDING_BYTES pile up is dropped, and the browser reconnects.
+         */
+        private synchronized void send(String text) {
+            if (closed) {
+                return;
+            }
+            byte[] bytes = text.getBytes(UTF_8);
+            pending.add(bytes);
+            pendingBytes += bytes.length;
+            if (pendingBytes > MAX_PENDING_BYTES) {
+                LOGGER.warn("dropped a slow event stream");
+                close(true);
+                return;
+            }
+            flushPending();
+        }
+
+        private synchronized void flushPending() {
+            try {
+                while (!closed && out.isReady()) {
+                    byte[] bytes = pending.poll();
+                    if (bytes == null) {
+                        if (ending) {
+                            close(true);
+                        } else {
+                            out.flush();
+                        }
+                        return;
+                    }
+                    pendingBytes -= bytes.length;
+                    out.write(bytes);
+                }
+            } catch (IOException e) {
+                close(true);
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            flushPending();
+            closeSubscriptionsIfClosed();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            close(true);
+            closeSubscriptionsIfClosed();
+        }
+
+        private synchronized void close(boolean complete) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.clear();
+            if (keepalive != null) {
+                keepalive.cancel(false);
+            }
+            connectionCount.decrementAndGet();
+            if (complete) {
+                try {
+                    asyncContext.complete();
+                } catch (IllegalStateException e) {
+                    // the request is already completed
+                }
+            }
+        }
+
+        /**
+         * Subscriptions are closed without holding the lock of the stream, because the watcher calls onEvent while
+         * holding its own
+         */
+        private void closeSubscriptionsIfClosed() {
+            List<Subscription> closing;
+            synchronized (this) {
+                if (!closed || subscriptions.isEmpty()) {
+                    return;
+                }
+                closing = new ArrayList<>(subscriptions);
+                subscriptions.clear();
+            }
+            closing.forEach(Subscription::close);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close(false);
+            closeSubscriptionsIfClosed();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // the browser reconnects
+            close(true);
+            closeSubscriptionsIfClosed();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close(true);
+            closeSubscriptionsIfClosed();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
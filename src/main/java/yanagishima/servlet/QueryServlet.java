@@ -5,7 +5,10 @@ import me.geso.tinyorm.TinyORM;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import org.apache.commons.codec.digest.DigestUtils;
 import yanagishima.config.YanagishimaConfig;
+import yanagishima.poller.QueryListPoller;
+import yanagishima.pool.HttpClientRegistry;
 import yanagishima.row.Query;
 
 import javax.inject.Inject;
@@ -19,7 +22,7 @@ import java.io.PrintWriter;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import static io.prestosql.client.OkHttpUtil.basicAuth;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 import static yanagishima.util.AccessControlUtil.sendForbiddenError;
 import static yanagishima.util.AccessControlUtil.validateDatasource;
@@ -36,11 +39,15 @@ public class QueryServlet extends HttpServlet {
 
 	private static final int LIMIT = 100;
 
-	private OkHttpClient httpClient = new OkHttpClient();
+	private HttpClientRegistry httpClientRegistry;
+
+	private QueryListPoller queryListPoller;
 
 	@Inject
-	public QueryServlet(YanagishimaConfig yanagishimaConfig) {
+	public QueryServlet(YanagishimaConfig yanagishimaConfig, QueryListPoller queryListPoller, HttpClientRegistry httpClientRegistry) {
 		this.yanagishimaConfig = yanagishimaConfig;
+		this.queryListPoller = queryListPoller;
+		this.httpClientRegistry = httpClientRegistry;
 	}
 
 	@Override
@@ -60,65 +67,53 @@ public class QueryServlet extends HttpServlet {
 			return;
 		}
 
-		String originalJson = null;
-		Request prestoRequest = new Request.Builder().url(prestoCoordinatorServer + "/v1/query").build();
-
 		Optional<String> prestoUser = Optional.ofNullable(request.getParameter("user"));
 		Optional<String> prestoPassword = Optional.ofNullable(request.getParameter("password"));
-		if (prestoUser.isPresent() && prestoPassword.isPresent()) {
-			if(prestoUser.get().length() == 0) {
-				HashMap<String, Object> retVal = new HashMap<String, Object>();
-				retVal.put("error", "user is empty");
-				ObjectMapper mapper = new ObjectMapper();
-				String json = mapper.writeValueAsString(retVal);
-				writer.println(json);
+		if (prestoUser.isPresent() && prestoPassword.isPresent() && prestoUser.get().length() == 0) {
+			HashMap<String, Object> retVal = new HashMap<String, Object>();
+			retVal.put("error", "user is empty");
+			ObjectMapper mapper = new ObjectMapper();
+			String json = mapper.writeValueAsString(retVal);
+			writer.println(json);
+			return;
+		}
+
+		List<Map<String, Object>> list;
+		Optional<QueryListPoller.Snapshot> snapshot = Optional.empty();
+		// the shared list is fetched without credentials, so authenticated users still fetch their own
+		if (queryListPoller.isEnabled() && !(prestoUser.isPresent() && prestoPassword.isPresent())) {
+			snapshot = Optional.of(queryListPoller.getSnapshot(datasource));
+			if (snapshot.get().isError()) {
+				writeError(writer, snapshot.get().getErrorCode(), snapshot.get().getErrorMessage());
 				return;
 			}
-			OkHttpClient.Builder clientBuilder = httpClient.newBuilder();
-			clientBuilder.addInterceptor(basicAuth(prestoUser.get(), prestoPassword.get()));
-			try (Response prestoResponse = clientBuilder.build().newCall(prestoRequest).execute()) {
-				originalJson = prestoResponse.body().string();
-				int code = prestoResponse.code();
-				if(code != SC_OK) {
-					HashMap<String, Object> retVal = new HashMap<String, Object>();
-					retVal.put("code", code);
-					retVal.put("error", prestoResponse.message());
-					ObjectMapper mapper = new ObjectMapper();
-					String json = mapper.writeValueAsString(retVal);
-					writer.println(json);
-					return;
-				}
-			}
+			list = snapshot.get().getQueries();
 		} else {
-			try (Response prestoResponse = httpClient.newCall(prestoRequest).execute()) {
+			Request prestoRequest = new Request.Builder().url(prestoCoordinatorServer + "/v1/query").build();
+			OkHttpClient client = httpClientRegistry.getClient(datasource, prestoUser, prestoPassword);
+			String originalJson;
+			try (Response prestoResponse = client.newCall(prestoRequest).execute()) {
 				originalJson = prestoResponse.body().string();
 				int code = prestoResponse.code();
 				if(code != SC_OK) {
-					HashMap<String, Object> retVal = new HashMap<String, Object>();
-					retVal.put("code", code);
-					retVal.put("error", prestoResponse.message());
-					ObjectMapper mapper = new ObjectMapper();
-					String json = mapper.writeValueAsString(retVal);
-					writer.println(json);
+					writeError(writer, code, prestoResponse.message());
 					return;
 				}
-
 			}
+			list = QueryListPoller.sort(new ObjectMapper().readValue(originalJson, List.class));
 		}
 
-		ObjectMapper mapper = new ObjectMapper();
-		List<Map> list = mapper.readValue(originalJson, List.class);
-		List<Map> runningList = list.stream().filter(m -> m.get("state").equals("RUNNING")).collect(Collectors.toList());;
-		List<Map> notRunningList = list.stream().filter(m -> !m.get("state").equals("RUNNING")).collect(Collectors.toList());;
-		runningList.sort((a,b)-> String.class.cast(b.get("queryId")).compareTo(String.class.cast(a.get("queryId"))));
-		notRunningList.sort((a,b)-> String.class.cast(b.get("queryId")).compareTo(String.class.cast(a.get("queryId"))));
-
-		List<Map> limitedList = new ArrayList<>();
-		limitedList.addAll(runningList);
-		if(list.size() > LIMIT) {
-			limitedList.addAll(notRunningList.subList(0, LIMIT - runningList.size()));
-		} else {
-			limitedList.addAll(notRunningList.subList(0, list.size() - runningList.size()));
+		Optional<String> filterUser = Optional.ofNullable(request.getParameter("filterUser")).filter(user -> !user.isEmpty());
+		if (filterUser.isPresent()) {
+			list = list.stream().filter(m -> m.get("session") instanceof Map && filterUser.get().equals(((Map) m.get("session")).get("user"))).collect(Collectors.toList());
+		}
+
+		// running queries come first and are always listed
+		long runningCount = list.stream().filter(m -> "RUNNING".equals(m.get("state"))).count();
+		List<Map<String, Object>> limitedList = new ArrayList<>();
+		for (Map<String, Object> m : list.subList(0, (int) Math.min(list.size(), Math.max(LIMIT, runningCount)))) {
+			// snapshot entries are shared between requests
+			limitedList.add(new LinkedHashMap<>(m));
 		}
 
 		List<String> queryidList = new ArrayList<>();
@@ -126,14 +121,15 @@ public class QueryServlet extends HttpServlet {
 			queryidList.add((String)m.get("queryId"));
 		}
 
-		String placeholder = queryidList.stream().map(r -> "?").collect(Collectors.joining(", "));
-		List<Query> queryList = db.searchBySQL(Query.class,
-				"SELECT engine, query_id, fetch_result_time_string, query_string FROM query WHERE engine='presto' and datasource=\'" + datasource + "\' and query_id IN (" + placeholder + ")",
-				queryidList.stream().collect(Collectors.toList()));
-
 		List<String> existdbQueryidList = new ArrayList<>();
-		for(Query query : queryList) {
-			existdbQueryidList.add(query.getQueryId());
+		if (!queryidList.isEmpty()) {
+			String placeholder = queryidList.stream().map(r -> "?").collect(Collectors.joining(", "));
+			List<Query> queryList = db.searchBySQL(Query.class,
+					"SELECT engine, query_id, fetch_result_time_string, query_string FROM query WHERE engine='presto' and datasource=\'" + datasource + "\' and query_id IN (" + placeholder + ")",
+					queryidList.stream().collect(Collectors.toList()));
+			for(Query query : queryList) {
+				existdbQueryidList.add(query.getQueryId());
+			}
 		}
 		for(Map m : limitedList) {
 			String queryid = (String)m.get("queryId");
@@ -143,8 +139,28 @@ public class QueryServlet extends HttpServlet {
 				m.put("existdb", false);
 			}
 		}
+
+		if (snapshot.isPresent()) {
+			String etag = String.format("\"%d-%d-%s\"", snapshot.get().getVersion(), existdbQueryidList.size(), DigestUtils.md5Hex(filterUser.orElse("")));
+			response.setHeader("ETag", etag);
+			if (etag.equals(request.getHeader("If-None-Match"))) {
+				response.setStatus(SC_NOT_MODIFIED);
+				return;
+			}
+		}
+
+		ObjectMapper mapper = new ObjectMapper();
 		String json = mapper.writeValueAsString(limitedList);
 		writer.println(json);
 	}
 
+	private void writeError(PrintWriter writer, int code, String message) throws IOException {
+		HashMap<String, Object> retVal = new HashMap<String, Object>();
+		retVal.put("code", code);
+		retVal.put("error", message);
+		ObjectMapper mapper = new ObjectMapper();
+		String json = mapper.writeValueAsString(retVal);
+		writer.println(json);
+	}
+
 }
@@ -1,12 +1,15 @@
 package yanagishima.servlet;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.OkHttpClient;
-import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import yanagishima.cache.ResultCache;
 import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.pool.PrestoQueryHandles;
+import yanagishima.row.QueryCacheHit;
+import yanagishima.util.QueryStatusUtil;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -16,11 +19,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
-import static io.prestosql.client.OkHttpUtil.basicAuth;
 import static yanagishima.util.AccessControlUtil.sendForbiddenError;
 import static yanagishima.util.AccessControlUtil.validateDatasource;
 import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
@@ -34,11 +35,18 @@ public class QueryStatusServlet extends HttpServlet {
 
 	private YanagishimaConfig yanagishimaConfig;
 
-	private OkHttpClient httpClient = new OkHttpClient();
+	private ResultCache resultCache;
+
+	private HttpClientRegistry httpClientRegistry;
+
+	private PrestoQueryHandles queryHandles;
 
 	@Inject
-	public QueryStatusServlet(YanagishimaConfig yanagishimaConfig) {
+	public QueryStatusServlet(YanagishimaConfig yanagishimaConfig, ResultCache resultCache, HttpClientRegistry httpClientRegistry, PrestoQueryHandles queryHandles) {
 		this.yanagishimaConfig = yanagishimaConfig;
+		this.resultCache = resultCache;
+		this.httpClientRegistry = httpClientRegistry;
+		this.queryHandles = queryHandles;
 	}
 
 	@Override
@@ -55,62 +63,21 @@ public class QueryStatusServlet extends HttpServlet {
 		String prestoCoordinatorServer = yanagishimaConfig.getPrestoCoordinatorServer(datasource);
 		response.setContentType("application/json");
 		PrintWriter writer = response.getWriter();
-		String json = null;
-		okhttp3.Request prestoRequest = new okhttp3.Request.Builder().url(prestoCoordinatorServer + "/v1/query/" + queryid).build();
-		Optional<String> prestoUser = Optional.ofNullable(request.getParameter("user"));
-		Optional<String> prestoPassword = Optional.ofNullable(request.getParameter("password"));
-		if (prestoUser.isPresent() && prestoPassword.isPresent()) {
-			OkHttpClient.Builder clientBuilder = httpClient.newBuilder();
-			clientBuilder.addInterceptor(basicAuth(prestoUser.get(), prestoPassword.get()));
-			try (Response prestoResponse = clientBuilder.build().newCall(prestoRequest).execute()) {
-				if(prestoResponse.isSuccessful()) {
-					json = prestoResponse.body().string();
-				} else {
-					writer.println(getError(prestoResponse.code(), prestoResponse.message()));
-					return;
-				}
-			}
-		} else {
-			try (Response prestoResponse = httpClient.newCall(prestoRequest).execute()) {
-				if(prestoResponse.isSuccessful()) {
-					json = prestoResponse.body().string();
-				} else {
-					writer.println(getError(prestoResponse.code(), prestoResponse.message()));
-					return;
-				}
-			}
-		}
-
-		Map map = null;
-		ObjectMapper mapper = new ObjectMapper();
-		try {
-			map = mapper.readValue(json, Map.class);
-			if(map.containsKey("outputStage")) {
-				map.remove("outputStage");
-			}
-			if(map.containsKey("session")) {
-				map.remove("session");
-			}
-		} catch (IOException e) {
-			LOGGER.error(e.getMessage(), e);
-			map = new HashMap();
-			map.put("state", "FAILED");
-			map.put("failureInfo", "");
+		Optional<QueryCacheHit> cacheHit = resultCache.findHit(datasource, queryid);
+		if (cacheHit.isPresent()) {
+			writer.println(new ObjectMapper().writeValueAsString(QueryStatusUtil.getCacheHitStatus(cacheHit.get())));
+			return;
 		}
-		writer.println(mapper.writeValueAsString(map));
-	}
-
-	private String getError(int code, String message) {
-		try {
-			Map<String, Object> map = new HashMap<String, Object>();
-			map.put("state", "FAILED");
-			map.put("failureInfo", "");
-			map.put("error", String.format("code=%d, message=%s", code, message));
-			ObjectMapper mapper = new ObjectMapper();
-			return mapper.writeValueAsString(map);
-		} catch (JsonProcessingException e) {
-			throw new RuntimeException(e);
+		Optional<Map<String, Object>> queuedStatus = queryHandles.get(queryid).flatMap(queryId -> QueryStatusUtil.getQueuedStatus(queryid, queryId));
+		if (queuedStatus.isPresent()) {
+			writer.println(new ObjectMapper().writeValueAsString(queuedStatus.get()));
+			return;
 		}
+		Optional<String> prestoUser = Optional.ofNullable(request.getParameter("user"));
+		Optional<String> prestoPassword = Optional.ofNullable(request.getParameter("password"));
+		OkHttpClient client = httpClientRegistry.getClient(datasource, prestoUser, prestoPassword);
+		QueryStatusUtil.writePrestoQueryStatus(client, prestoCoordinatorServer, queryHandles.resolve(queryid), writer);
+		writer.println();
 	}
 
 }
@@ -37,7 +37,7 @@ public class ShareCsvDownloadServlet extends HttpServlet {
             Optional<String> encode = Optional.ofNullable(request.getParameter("encode"));
             String fileName = publishId + ".csv";
             boolean showHeader = getOrDefaultParameter(request, "header", true);
-            downloadCsv(response, fileName, publish.getDatasource(), publish.getQueryId(), encode.orElse(DEFAULT_ENCODE), showHeader);
+            downloadCsv(request, response, fileName, publish.getDatasource(), publish.getQueryId(), encode.orElse(DEFAULT_ENCODE), showHeader);
         });
     }
 }
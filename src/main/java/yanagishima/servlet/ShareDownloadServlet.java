@@ -36,7 +36,7 @@ public class ShareDownloadServlet extends HttpServlet {
             Optional<String> encode = Optional.ofNullable(request.getParameter("encode"));
             boolean showHeader = getOrDefaultParameter(request, "header", true);
             String fileName = publishId.get() + ".tsv";
-            downloadTsv(response, fileName, publish.getDatasource(), publish.getQueryId(), encode.orElse(DEFAULT_ENCODE), showHeader);
+            downloadTsv(request, response, fileName, publish.getDatasource(), publish.getQueryId(), encode.orElse(DEFAULT_ENCODE), showHeader);
         });
     }
 }
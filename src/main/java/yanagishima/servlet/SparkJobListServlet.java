@@ -2,9 +2,8 @@ package yanagishima.servlet;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import me.geso.tinyorm.TinyORM;
-import yanagishima.bean.SparkSqlJob;
 import yanagishima.config.YanagishimaConfig;
-import yanagishima.util.SparkUtil;
+import yanagishima.poller.SparkProgressPoller;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -14,11 +13,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import static yanagishima.util.AccessControlUtil.sendForbiddenError;
 import static yanagishima.util.AccessControlUtil.validateDatasource;
@@ -33,11 +29,14 @@ public class SparkJobListServlet extends HttpServlet {
 	@Inject
 	private TinyORM db;
 
+	private SparkProgressPoller sparkProgressPoller;
+
 	private static final int LIMIT = 100;
 
 	@Inject
-	public SparkJobListServlet(YanagishimaConfig yanagishimaConfig) {
+	public SparkJobListServlet(YanagishimaConfig yanagishimaConfig, SparkProgressPoller sparkProgressPoller) {
 		this.yanagishimaConfig = yanagishimaConfig;
+		this.sparkProgressPoller = sparkProgressPoller;
 	}
 
 	@Override
@@ -49,39 +48,9 @@ public class SparkJobListServlet extends HttpServlet {
 			sendForbiddenError(response);
 			return;
 		}
-		String resourceManagerUrl = yanagishimaConfig.getResourceManagerUrl(datasource);
 		response.setContentType("application/json");
 		PrintWriter writer = response.getWriter();
-		String sparkJdbcApplicationId = SparkUtil.getSparkJdbcApplicationId(yanagishimaConfig.getSparkWebUrl(datasource));
-		List<Map> runningList = SparkUtil.getSparkRunningJobListWithProgress(resourceManagerUrl, sparkJdbcApplicationId);
-		List<SparkSqlJob> sparkSqlJobList = SparkUtil.getSparkSqlJobFromSqlserver(resourceManagerUrl, sparkJdbcApplicationId);
-		for(Map m : runningList) {
-			String groupId = (String)m.get("jobGroup");
-			for(SparkSqlJob ssj : sparkSqlJobList) {
-				if(ssj.getGroupId().equals(groupId)) {
-					m.put("jobIds", ssj.getJobIds());
-					m.put("user", ssj.getUser());
-					m.put("query", ssj.getStatement());
-					m.put("duration", ssj.getDuration());
-					break;
-				}
-			}
-		}
-		List<SparkSqlJob> notRunningList = sparkSqlJobList.stream().filter(j -> j.getJobIds().size() > 0).filter(j -> j.getState().equals("FINISHED") || j.getState().equals("FAILED")).sorted((a,b)-> b.getStartTime().compareTo(a.getStartTime())).limit(LIMIT).collect(Collectors.toList());;
-
-		List<Map> limitedList = new ArrayList<>();;
-		limitedList.addAll(runningList);
-		for(SparkSqlJob ssj : notRunningList) {
-			Map<String, Object> m = new HashMap<>();
-			m.put("jobGroup", ssj.getGroupId());
-			m.put("jobIds", ssj.getJobIds());
-			m.put("user", ssj.getUser());
-			m.put("query", ssj.getStatement());
-			m.put("status", ssj.getState());
-			m.put("submissionTime", ssj.getStartTime());
-			m.put("duration", ssj.getDuration());
-			limitedList.add(m);
-		}
+		List<Map> limitedList = sparkProgressPoller.getJobList(datasource, LIMIT);
 
 		ObjectMapper mapper = new ObjectMapper();
 		String json = mapper.writeValueAsString(limitedList);
@@ -1,9 +1,15 @@
 package yanagishima.servlet;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import io.prestosql.client.ClientException;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import yanagishima.cache.MetadataCache;
+import yanagishima.cache.SingleFlight;
+import yanagishima.cache.StreamingSingleFlight;
 import yanagishima.config.YanagishimaConfig;
+import yanagishima.result.PrestoQueryResult;
 import yanagishima.service.PrestoService;
 import yanagishima.util.JsonUtil;
 
@@ -17,12 +23,12 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import static yanagishima.util.AccessControlUtil.sendForbiddenError;
 import static yanagishima.util.AccessControlUtil.validateDatasource;
 import static yanagishima.util.Constants.YANAGISHIMA_COMMENT;
 import static yanagishima.util.HttpRequestUtil.getRequiredParameter;
+import static yanagishima.util.QueryEngine.presto;
 
 @Singleton
 public class TableListServlet extends HttpServlet {
@@ -36,10 +42,15 @@ public class TableListServlet extends HttpServlet {
 
     private YanagishimaConfig yanagishimaConfig;
 
+    private MetadataCache metadataCache;
+
+    private final StreamingSingleFlight<String> streamingSingleFlight = new StreamingSingleFlight<>();
+
     @Inject
-    public TableListServlet(PrestoService prestoService, YanagishimaConfig yanagishimaConfig) {
+    public TableListServlet(PrestoService prestoService, YanagishimaConfig yanagishimaConfig, MetadataCache metadataCache) {
         this.prestoService = prestoService;
         this.yanagishimaConfig = yanagishimaConfig;
+        this.metadataCache = metadataCache;
     }
 
     @Override
@@ -83,19 +94,44 @@ public class TableListServlet extends HttpServlet {
             List<String> invisibleSchemas = yanagishimaConfig.getInvisibleSchemas(datasource, catalog);
             String notin = "('" + String.join("','", invisibleSchemas) + "')";
             String query = String.format("%sSELECT table_catalog || '.' || table_schema || '.' || table_name FROM %s.information_schema.tables WHERE table_schema NOT IN %s", YANAGISHIMA_COMMENT, catalog, notin);
-            try {
-                List<String> tables = prestoService.doQuery(datasource, query, userName, prestoUser, prestoPassword, false, Integer.MAX_VALUE).getRecords().stream().map(list -> list.get(0)).collect(Collectors.toList());
-                retVal.put("tableList", tables);
-            } catch (ClientException e) {
-                if(prestoUser.isPresent()) {
-                    LOGGER.error(String.format("%s failed to be authenticated", prestoUser.get()));
+            // matched against schema.table
+            Optional<String> prefix = Optional.ofNullable(request.getParameter("prefix")).filter(p -> !p.isEmpty()).map(p -> catalog + "." + p);
+
+            // table names are written as they arrive, an error is appended after the list
+            try (JsonGenerator generator = JsonUtil.createGenerator(response)) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("tableList");
+                PrestoService.RowHandler handler = row -> {
+                    String table = row.get(0);
+                    if (table != null && prefix.map(table::startsWith).orElse(true)) {
+                        generator.writeString(table);
+                    }
+                    return true;
+                };
+                try {
+                    if (metadataCache.isEnabled(datasource, catalog)) {
+                        for (List<String> row : doQuery(datasource, catalog, query, userName, prestoUser, prestoPassword).getRecords()) {
+                            handler.row(row);
+                        }
+                    } else {
+                        doStreamingQuery(datasource, query, userName, prestoUser, prestoPassword, handler);
+                    }
+                    generator.writeEndArray();
+                } catch (ClientException e) {
+                    if(prestoUser.isPresent()) {
+                        LOGGER.error(String.format("%s failed to be authenticated", prestoUser.get()));
+                    }
+                    LOGGER.error(e.getMessage(), e);
+                    generator.writeEndArray();
+                    generator.writeStringField("error", e.getMessage());
+                } catch (Throwable e) {
+                    LOGGER.error(e.getMessage(), e);
+                    generator.writeEndArray();
+                    generator.writeStringField("error", e.getMessage());
                 }
-                LOGGER.error(e.getMessage(), e);
-                retVal.put("error", e.getMessage());
-            } catch (Throwable e) {
-                LOGGER.error(e.getMessage(), e);
-                retVal.put("error", e.getMessage());
+                generator.writeEndObject();
             }
+            return;
 
         } catch (Throwable e) {
             LOGGER.error(e.getMessage(), e);
@@ -106,4 +142,26 @@ public class TableListServlet extends HttpServlet {
 
     }
 
+    /**
+     * Served from the metadata cache, concurrent requests for the same query by the same credentials share one execution
+     */
+    private PrestoQueryResult doQuery(String datasource, String catalog, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) throws Exception {
+        String key = key(datasource, query, userName, prestoUser, prestoPassword);
+        return metadataCache.get(datasource, catalog, key,
+                () -> prestoService.doQuery(datasource, query, userName, prestoUser, prestoPassword, false, Integer.MAX_VALUE),
+                result -> MetadataCache.estimateBytes(result.getColumns(), result.getRecords()));
+    }
+
+    /**
+     * Streamed without the metadata cache, concurrent requests for the same query by the same credentials still share one execution
+     */
+    private void doStreamingQuery(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword, PrestoService.RowHandler handler) throws Exception {
+        streamingSingleFlight.execute(key(datasource, query, userName, prestoUser, prestoPassword),
+                h -> prestoService.doStreamingQuery(datasource, query, userName, prestoUser, prestoPassword, h), handler);
+    }
+
+    private static String key(String datasource, String query, String userName, Optional<String> prestoUser, Optional<String> prestoPassword) {
+        return SingleFlight.key(presto.name(), datasource, query, userName, prestoUser.orElse(null), prestoPassword.map(DigestUtils::sha256Hex).orElse(null));
+    }
+
 }
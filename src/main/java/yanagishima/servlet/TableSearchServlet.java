@@ -0,0 +1,31 @@
+package yanagishima.servlet;
+
+import yanagishima.cache.IndexAccessControl;
+import yanagishima.cache.MetadataIndexer;
+import yanagishima.config.YanagishimaConfig;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+/**
+ * Completes table names from the in-memory index of the datasource. Matches are catalog.schema.table, best first.
+ */
+@Singleton
+public class TableSearchServlet extends IndexSearchServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    @Inject
+    public TableSearchServlet(YanagishimaConfig yanagishimaConfig, MetadataIndexer metadataIndexer, IndexAccessControl indexAccessControl) {
+        super(yanagishimaConfig, metadataIndexer, indexAccessControl);
+    }
+
+    @Override
+    protected void search(String datasource, String q, int limit, Predicate<String> visible, HashMap<String, Object> retVal) {
+        retVal.put("tables", metadataIndexer.getTableIndex(datasource).map(index -> index.search(q, limit, visible)).orElse(new ArrayList<>()));
+    }
+
+}
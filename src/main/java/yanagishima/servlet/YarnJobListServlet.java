@@ -3,8 +3,8 @@ package yanagishima.servlet;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import me.geso.tinyorm.TinyORM;
 import yanagishima.config.YanagishimaConfig;
+import yanagishima.poller.YarnApplicationPoller;
 import yanagishima.row.Query;
-import yanagishima.util.YarnUtil;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -35,9 +35,12 @@ public class YarnJobListServlet extends HttpServlet {
 
 	private static final int LIMIT = 100;
 
+	private YarnApplicationPoller yarnApplicationPoller;
+
 	@Inject
-	public YarnJobListServlet(YanagishimaConfig yanagishimaConfig) {
+	public YarnJobListServlet(YanagishimaConfig yanagishimaConfig, YarnApplicationPoller yarnApplicationPoller) {
 		this.yanagishimaConfig = yanagishimaConfig;
+		this.yarnApplicationPoller = yarnApplicationPoller;
 	}
 
 	@Override
@@ -49,10 +52,9 @@ public class YarnJobListServlet extends HttpServlet {
 			sendForbiddenError(response);
 			return;
 		}
-		String resourceManagerUrl = yanagishimaConfig.getResourceManagerUrl(datasource);
 		response.setContentType("application/json");
 		PrintWriter writer = response.getWriter();
-		List<Map> yarnJobList = YarnUtil.getJobList(resourceManagerUrl, yanagishimaConfig.getResourceManagerBegin(datasource));
+		List<Map> yarnJobList = yarnApplicationPoller.getApplications(datasource);
 		List<Map> runningList = yarnJobList.stream().filter(m -> m.get("state").equals("RUNNING")).collect(Collectors.toList());;
 		List<Map> notRunningList = yarnJobList.stream().filter(m -> !m.get("state").equals("RUNNING")).collect(Collectors.toList());;
 		runningList.sort((a,b)-> String.class.cast(b.get("id")).compareTo(String.class.cast(a.get("id"))));
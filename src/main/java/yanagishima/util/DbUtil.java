@@ -1,6 +1,7 @@
 package yanagishima.util;
 
 import me.geso.tinyorm.TinyORM;
+import yanagishima.row.Preview;
 import yanagishima.row.Query;
 
 import java.io.BufferedWriter;
@@ -58,7 +59,7 @@ public final class DbUtil {
             ZonedDateTime fetchResultTime = ZonedDateTime.parse(fetchResultTimeString);
             long elapsedTimeMillis = ChronoUnit.MILLIS.between(submitTimeZdt, fetchResultTime);
 
-            Path resultFilePath = PathUtil.getResultFilePath(datasource, queryId, false);
+            Path resultFilePath = PathUtil.findResultFilePath(datasource, queryId);
             long resultFileSize = Files.size(resultFilePath);
             db.insert(Query.class)
                     .value("datasource", datasource)
@@ -76,4 +77,16 @@ public final class DbUtil {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Marks a stored result as a preview which was stopped after rowCount rows
+     */
+    public static void insertPreview(TinyORM db, String datasource, String engine, String queryId, int rowCount) {
+        db.insert(Preview.class)
+                .value("datasource", datasource)
+                .value("engine", engine)
+                .value("query_id", queryId)
+                .value("row_count", rowCount)
+                .execute();
+    }
 }
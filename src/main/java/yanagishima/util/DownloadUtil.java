@@ -5,47 +5,55 @@ import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 public final class DownloadUtil {
     private static final byte[] BOM = new byte[]{ (byte) 0xef, (byte) 0xbb, (byte) 0xbf };
 
     private DownloadUtil() {}
 
-    public static void downloadTsv(HttpServletResponse response, String fileName, String datasource, String queryid, String encode, boolean showHeader) {
-        Path filePath = PathUtil.getResultFilePath(datasource, queryid, false);
+    public static void downloadTsv(HttpServletRequest request, HttpServletResponse response, String fileName, String datasource, String queryid, String encode, boolean showHeader) {
+        Path filePath = PathUtil.findResultFilePath(datasource, queryid);
         if(!filePath.toFile().exists()) {
             throw new RuntimeException(filePath.toFile().getName());
         }
         response.setContentType("application/octet-stream");
         response.setHeader("Content-Disposition", "inline; filename=\"" + fileName + "\"");
 
-        download(response, filePath, encode, showHeader, '\t');
+        download(request, response, filePath, encode, showHeader, '\t');
     }
 
-    public static void downloadCsv(HttpServletResponse response, String fileName, String datasource, String queryid, String encode, boolean showHeader) {
-        Path filePath = PathUtil.getResultFilePath(datasource, queryid, false);
+    public static void downloadCsv(HttpServletRequest request, HttpServletResponse response, String fileName, String datasource, String queryid, String encode, boolean showHeader) {
+        Path filePath = PathUtil.findResultFilePath(datasource, queryid);
         if(!filePath.toFile().exists()) {
             throw new RuntimeException(filePath.toFile().getName());
         }
         response.setContentType("text/csv");
         response.setHeader("Content-Disposition", "inline; filename=\"" + fileName + "\"");
 
-        download(response, filePath, encode, showHeader, ',');
+        download(request, response, filePath, encode, showHeader, ',');
     }
 
-    private static void download(HttpServletResponse response, Path resultFilePath, String encode, boolean showHeader, char delimiter) {
-        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(response.getOutputStream(), encode))) {
-            try(BufferedReader reader = Files.newBufferedReader(resultFilePath);
+    private static void download(HttpServletRequest request, HttpServletResponse response, Path resultFilePath, String encode, boolean showHeader, char delimiter) {
+        // the stored file can't be sent as is because null strings, header and charset are converted, so compress on the fly
+        boolean gzip = acceptsGzip(request);
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+            response.addHeader("Vary", "Accept-Encoding");
+        }
+        try (OutputStream out = gzip ? new GZIPOutputStream(response.getOutputStream(), 64 * 1024) : response.getOutputStream();
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, encode))) {
+            try(BufferedReader reader = ResultFileUtil.newBufferedReader(resultFilePath);
                 CSVPrinter printer = new CSVPrinter(writer, CSVFormat.EXCEL.withDelimiter(delimiter).withRecordSeparator(System.getProperty("line.separator")))) {
                 CSVParser parser = CSVFormat.EXCEL.withDelimiter('\t').withNullString("\\N").parse(reader);
 
-                response.getOutputStream().write(BOM);
+                out.write(BOM);
                 int rowNumber = 0;
                 for (CSVRecord record : parser) {
                     List<String> columns = new ArrayList<>();
@@ -61,4 +69,9 @@ public final class DownloadUtil {
             throw new RuntimeException(e);
         }
     }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
 }
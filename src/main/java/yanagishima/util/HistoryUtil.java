@@ -4,18 +4,20 @@ import io.airlift.units.DataSize;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import yanagishima.pipeline.ResultIndex;
 import yanagishima.row.Query;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Optional;
 
 public class HistoryUtil {
+    private static final CSVFormat RESULT_FORMAT = CSVFormat.EXCEL.withDelimiter('\t').withNullString("\\N");
 
     public static void createHistoryResult(HashMap<String, Object> retVal, int limit, String datasource, Query query, boolean resultVisible) {
         String queryid = query.getQueryId();
@@ -42,12 +44,12 @@ public class HistoryUtil {
             if (resultVisible) {
                 List<List<String>> rowDataList = new ArrayList<List<String>>();
                 int lineNumber = 0;
-                Path resultFilePath = PathUtil.getResultFilePath(datasource, queryid, false);
+                Path resultFilePath = PathUtil.findResultFilePath(datasource, queryid);
                 if(!resultFilePath.toFile().exists()) {
                     retVal.put("error", String.format("%s is not found", resultFilePath.getFileName()));
                     return;
                 }
-                try (BufferedReader br = Files.newBufferedReader(resultFilePath, StandardCharsets.UTF_8)) {
+                try (BufferedReader br = ResultFileUtil.newBufferedReader(resultFilePath)) {
                     CSVParser parse = CSVFormat.EXCEL.withDelimiter('\t').withNullString("\\N").parse(br);
                     for (CSVRecord csvRecord : parse) {
                         List<String> columnList = new ArrayList<>();
@@ -75,4 +77,75 @@ public class HistoryUtil {
             }
         }
     }
+
+    /**
+     * Reads rows [offset, offset + limit) of a stored result, starting from the nearest indexed row
+     */
+    public static void createHistoryPage(HashMap<String, Object> retVal, long offset, int limit, String datasource, Query query, boolean resultVisible) {
+        String queryid = query.getQueryId();
+        retVal.put("queryString", query.getQueryString());
+        retVal.put("lineNumber", query.getLinenumber());
+        retVal.put("offset", offset);
+        retVal.put("limit", limit);
+
+        Path errorFilePath = PathUtil.getResultFilePath(datasource, queryid, true);
+        if (errorFilePath.toFile().exists()) {
+            try {
+                retVal.put("error", String.join(System.getProperty("line.separator"), Files.readAllLines(errorFilePath)));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+        if (!resultVisible) {
+            retVal.put("error", "you can't see query result which other submitted");
+            return;
+        }
+        Path resultFilePath = PathUtil.findResultFilePath(datasource, queryid);
+        if (!resultFilePath.toFile().exists()) {
+            retVal.put("error", String.format("%s is not found", resultFilePath.getFileName()));
+            return;
+        }
+
+        try {
+            try (BufferedReader br = ResultFileUtil.newBufferedReader(resultFilePath)) {
+                for (CSVRecord csvRecord : RESULT_FORMAT.parse(br)) {
+                    retVal.put("headers", toList(csvRecord));
+                    break;
+                }
+            }
+
+            Optional<ResultIndex.Position> position = ResultIndex.find(PathUtil.getResultIndexFilePath(datasource, queryid), offset);
+            // row -1 is the header when reading from the beginning of the file
+            long row = position.map(ResultIndex.Position::getRow).orElse(-1L);
+            List<List<String>> rowDataList = new ArrayList<>();
+            boolean hasNext = false;
+            try (BufferedReader br = position.isPresent()
+                    ? ResultFileUtil.newBufferedReader(resultFilePath, position.get().getBlockOffset(), position.get().getOffsetInBlock())
+                    : ResultFileUtil.newBufferedReader(resultFilePath)) {
+                for (CSVRecord csvRecord : RESULT_FORMAT.parse(br)) {
+                    if (row >= offset) {
+                        if (rowDataList.size() == limit) {
+                            hasNext = true;
+                            break;
+                        }
+                        rowDataList.add(toList(csvRecord));
+                    }
+                    row++;
+                }
+            }
+            retVal.put("results", rowDataList);
+            retVal.put("hasNext", hasNext);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<String> toList(CSVRecord csvRecord) {
+        List<String> columnList = new ArrayList<>();
+        for (String column : csvRecord) {
+            columnList.add(column);
+        }
+        return columnList;
+    }
 }
@@ -12,6 +12,11 @@ public final class HttpRequestUtil {
         return value == null ? defaultValue : Boolean.parseBoolean(value);
     }
 
+    public static int getOrDefaultParameter(HttpServletRequest request, String key, int defaultValue) {
+        String value = request.getParameter(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
     public static String getRequiredParameter(HttpServletRequest request, String key) {
         String value = request.getParameter(key);
         if (value == null) {
@@ -0,0 +1,49 @@
+package yanagishima.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Set;
+
+public final class JsonFilterUtil {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private JsonFilterUtil() {}
+
+    /**
+     * Copies the JSON document token by token, skipping the given fields of the top level object without reading them into memory.
+     * Throws IOException if the input is empty or not a complete document, after which out may hold a partial copy.
+     */
+    public static void copyWithoutFields(InputStream in, Writer out, Set<String> excludedFields) throws IOException {
+        JsonGenerator generator = JSON_FACTORY.createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            int depth = 0;
+            boolean empty = true;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && depth == 1 && excludedFields.contains(parser.getCurrentName())) {
+                    parser.nextToken();
+                    parser.skipChildren();
+                    continue;
+                }
+                if (token.isStructStart()) {
+                    depth++;
+                } else if (token.isStructEnd()) {
+                    depth--;
+                }
+                generator.copyCurrentEvent(parser);
+                empty = false;
+            }
+            if (empty || depth != 0) {
+                throw new IOException("incomplete JSON document");
+            }
+        }
+        generator.flush();
+    }
+}
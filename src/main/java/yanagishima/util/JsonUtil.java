@@ -5,11 +5,14 @@ import java.io.OutputStream;
 
 import javax.servlet.http.HttpServletResponse;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.http.entity.ContentType;
 import org.codehaus.jackson.map.ObjectMapper;
 
 public final class JsonUtil {
 	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
 
 	private JsonUtil() {}
 
@@ -22,4 +25,13 @@ public final class JsonUtil {
 			throw new RuntimeException(e);
 		}
 	}
+
+	/**
+	 * For responses which are too large to build in memory. The caller writes the document and closes the generator.
+	 */
+	public static JsonGenerator createGenerator(HttpServletResponse response) throws IOException {
+		response.setContentType(ContentType.APPLICATION_JSON.getMimeType());
+		response.setCharacterEncoding("UTF-8");
+		return JSON_FACTORY.createGenerator(response.getOutputStream());
+	}
 }
@@ -3,52 +3,78 @@ package yanagishima.util;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.fluent.Request;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 
 public final class MetadataUtil {
-    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataUtil.class);
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
     private MetadataUtil() {}
 
-    public static void setMetadata(String metadataServiceUrl, HashMap<String, Object> retVal, String schema, String table, List<List<String>> records) {
-        try {
-            String json = Request.Get(String.format("%s/%s/%s", metadataServiceUrl, schema, table)).execute().returnContent().asString(UTF_8);
-            Map map = OBJECT_MAPPER.readValue(json, Map.class);
-            List<Map> columns = (List) map.get("columns");
-            List<List<String>> newRecordList = new ArrayList<List<String>>();
+    /**
+     * Adds the column notes of metadata to records as the last column, and the table note as note.
+     * Records may be shared with a cache, so they aren't modified, each row is wrapped instead of copied.
+     */
+    public static void setMetadata(Map metadata, HashMap<String, Object> retVal, List<List<String>> records) {
+        List<Map> columns = (List) metadata.get("columns");
+        if (columns != null && !columns.isEmpty()) {
+            List<List<String>> notedRecords = new ArrayList<>(records.size());
             for (int i = 0; i < records.size(); i++) {
-                List<String> newColumnList = new ArrayList<>();
-                for (String column : records.get(i)) {
-                    newColumnList.add(column);
-                }
-                if(i < columns.size()) {
+                if (i < columns.size()) {
                     Object n = columns.get(i).get("note");
-                    if (n == null) {
-                        newColumnList.add(null);
-                    } else {
-                        newColumnList.add((String) ((Map) n).get("note"));
-                    }
+                    notedRecords.add(new NotedRow(records.get(i), n == null ? null : (String) ((Map) n).get("note")));
+                } else {
+                    notedRecords.add(records.get(i));
                 }
-                newRecordList.add(newColumnList);
-            }
-            retVal.put("results", newRecordList);
-            if (map.get("note") != null) {
-                retVal.put("note", ((Map) map.get("note")).get("note"));
             }
+            retVal.put("results", notedRecords);
+        }
+        if (metadata.get("note") != null) {
+            retVal.put("note", ((Map) metadata.get("note")).get("note"));
+        }
+    }
+
+    /**
+     * Returns the notes of the table from the metadata service, empty if it doesn't know the table
+     */
+    public static Optional<Map> fetchMetadata(String metadataServiceUrl, String schema, String table) throws IOException {
+        try {
+            String json = Request.Get(String.format("%s/%s/%s", metadataServiceUrl, schema, table)).execute().returnContent().asString(UTF_8);
+            return Optional.of(OBJECT_MAPPER.readValue(json, Map.class));
         } catch (HttpResponseException e) {
-            LOGGER.warn(String.format("schema=%s, table=%s, status code=%d", schema, table, e.getStatusCode()));
-        } catch (IOException e) {
-            LOGGER.error(e.getMessage(), e);
+            if (e.getStatusCode() == SC_NOT_FOUND) {
+                return Optional.empty();
+            }
+            throw e;
+        }
+    }
+
+    private static class NotedRow extends AbstractList<String> {
+        private final List<String> row;
+        private final String note;
+
+        NotedRow(List<String> row, String note) {
+            this.row = row;
+            this.note = note;
+        }
+
+        @Override
+        public String get(int index) {
+            return index == row.size() ? note : row.get(index);
+        }
+
+        @Override
+        public int size() {
+            return row.size() + 1;
         }
     }
 }
@@ -21,4 +21,33 @@ public final class PathUtil {
 		String extension = error ? "err" : "tsv";
 		return Paths.get(format("%s/%s.%s", directory, queryId, extension));
 	}
+
+	public static Path getCompressedResultFilePath(String datasource, String queryId) {
+		Path path = getResultFilePath(datasource, queryId, false);
+		return path.resolveSibling(path.getFileName() + ".gz");
+	}
+
+	public static Path getResultIndexFilePath(String datasource, String queryId) {
+		Path path = getResultFilePath(datasource, queryId, false);
+		return path.resolveSibling(queryId + ".idx");
+	}
+
+	public static Path getTableIndexFilePath(String datasource) {
+		File directory = new File(format("%s/table_index", CURRENT_PATH));
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+		return Paths.get(format("%s/%s.columns.gz", directory, datasource));
+	}
+
+	/**
+	 * Returns the compressed result file if it exists, otherwise the plain tsv path
+	 */
+	public static Path findResultFilePath(String datasource, String queryId) {
+		Path compressed = getCompressedResultFilePath(datasource, queryId);
+		if (compressed.toFile().exists()) {
+			return compressed;
+		}
+		return getResultFilePath(datasource, queryId, false);
+	}
 }
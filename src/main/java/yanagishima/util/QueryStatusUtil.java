@@ -0,0 +1,165 @@
+package yanagishima.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import me.geso.tinyorm.TinyORM;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.poller.SparkProgressPoller;
+import yanagishima.poller.YarnApplicationPoller;
+import yanagishima.pool.HiveProgressTracker;
+import yanagishima.row.Query;
+import yanagishima.row.QueryCacheHit;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public final class QueryStatusUtil {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryStatusUtil.class);
+
+    private static final Set<String> EXCLUDED_QUERY_FIELDS = ImmutableSet.of("outputStage", "session");
+
+    private QueryStatusUtil() {}
+
+    /**
+     * Writes /v1/query/[queryid] of the coordinator to out without outputStage and session, or a FAILED state with the error.
+     * The plan is skipped while parsing, so memory use doesn't depend on its size. The filtered status is buffered and
+     * written only when the whole response was parsed, so out never gets a partial document.
+     */
+    public static void writePrestoQueryStatus(OkHttpClient httpClient, String prestoCoordinatorServer, String queryid, Writer out) throws IOException {
+        Request prestoRequest = new Request.Builder().url(prestoCoordinatorServer + "/v1/query/" + queryid).build();
+        ObjectMapper mapper = new ObjectMapper();
+        try (Response prestoResponse = httpClient.newCall(prestoRequest).execute()) {
+            if (!prestoResponse.isSuccessful()) {
+                Map<String, Object> map = new HashMap<>();
+                map.put("state", "FAILED");
+                map.put("failureInfo", "");
+                map.put("error", String.format("code=%d, message=%s", prestoResponse.code(), prestoResponse.message()));
+                mapper.writeValue(out, map);
+                return;
+            }
+            StringWriter status = new StringWriter();
+            try {
+                JsonFilterUtil.copyWithoutFields(prestoResponse.body().byteStream(), status, EXCLUDED_QUERY_FIELDS);
+            } catch (IOException e) {
+                LOGGER.error(e.getMessage(), e);
+                Map<String, Object> map = new HashMap<>();
+                map.put("state", "FAILED");
+                map.put("failureInfo", "");
+                mapper.writeValue(out, map);
+                return;
+            }
+            out.write(status.toString());
+        }
+    }
+
+    /**
+     * Returns the state of a query known by its handle until the coordinator accepts the statement, empty once it did
+     */
+    public static Optional<Map<String, Object>> getQueuedStatus(String handle, CompletableFuture<String> queryId) {
+        if (queryId.isDone() && !queryId.isCompletedExceptionally()) {
+            return Optional.empty();
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("queryId", handle);
+        if (!queryId.isDone()) {
+            map.put("state", "QUEUED");
+            return Optional.of(map);
+        }
+        map.put("state", "FAILED");
+        map.put("failureInfo", "");
+        try {
+            queryId.join();
+        } catch (CompletionException e) {
+            map.put("error", e.getCause().getMessage());
+        } catch (CancellationException e) {
+            map.put("error", "Query was cancelled while queued");
+        }
+        return Optional.of(map);
+    }
+
+    /**
+     * Reused results never ran on the coordinator, so they are reported as finished
+     */
+    public static Map<String, Object> getCacheHitStatus(QueryCacheHit cacheHit) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("queryId", cacheHit.getQueryId());
+        map.put("state", "FINISHED");
+        map.put("cacheHit", true);
+        map.put("sourceQueryId", cacheHit.getSourceQueryId());
+        return map;
+    }
+
+    /**
+     * Returns the state of a hive or spark query. For hive it is the progress read from the log if the query runs on this server,
+     * otherwise the YARN application if it is still known, empty if the application is gone and the query is already stored.
+     */
+    public static Optional<Map<String, Object>> getHiveQueryStatus(YanagishimaConfig yanagishimaConfig, TinyORM db, HiveProgressTracker hiveProgressTracker, YarnApplicationPoller yarnApplicationPoller, SparkProgressPoller sparkProgressPoller, String engine, String datasource, String queryid, String userName, Optional<String> hiveUser) {
+        if (engine.equals("hive")) {
+            Optional<Map<String, Object>> tracked = hiveProgressTracker.getStatus(datasource, queryid);
+            if (tracked.isPresent()) {
+                return tracked;
+            }
+        }
+        Optional<Query> queryOptional = db.single(Query.class).where("query_id=? and datasource=? and engine=?", queryid, datasource, engine).execute();
+        if (engine.equals("hive")) {
+            Optional<Map> applicationOptional = yarnApplicationPoller.getApplication(datasource, queryid, userName);
+            if (applicationOptional.isPresent()) {
+                return Optional.of((Map<String, Object>) applicationOptional.get());
+            }
+            if (queryOptional.isPresent()) {
+                return Optional.empty();
+            }
+            HashMap<String, Object> retVal = new HashMap<String, Object>();
+            retVal.put("state", "RUNNING");
+            retVal.put("progress", 0);
+            retVal.put("elapsedTime", 0);
+            return Optional.of(retVal);
+        } else if (engine.equals("spark")) {
+            HashMap<String, Object> retVal = new HashMap<String, Object>();
+            if (queryOptional.isPresent()) {
+                if (queryOptional.get().getStatus().equals(Status.SUCCEED.name())) {
+                    retVal.put("state", "FINISHED");
+                } else if (queryOptional.get().getStatus().equals(Status.FAILED.name())) {
+                    retVal.put("state", "FAILED");
+                } else {
+                    throw new IllegalArgumentException(String.format("unknown status=%s", queryOptional.get().getStatus()));
+                }
+            } else {
+                retVal.put("state", "RUNNING");
+
+                Optional<Double> progress = sparkProgressPoller.getProgress(datasource, hiveUser.orElse(null));
+                if (progress.isPresent()) {
+                    retVal.put("progress", progress.get());
+                } else {
+                    retVal.put("progress", 0);
+                }
+
+                LocalDateTime submitTimeLdt = LocalDateTime.parse(queryid.substring(0, "yyyyMMdd_HHmmss".length()), DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+                ZonedDateTime submitTimeZdt = submitTimeLdt.atZone(ZoneId.of("GMT", ZoneId.SHORT_IDS));
+                long elapsedTimeMillis = ChronoUnit.MILLIS.between(submitTimeZdt, ZonedDateTime.now(ZoneId.of("GMT")));
+                retVal.put("elapsedTime", elapsedTimeMillis);
+            }
+            return Optional.of(retVal);
+        } else {
+            throw new IllegalArgumentException(engine + " is illegal");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package yanagishima.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+public final class ResultFileUtil {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ResultFileUtil() {}
+
+    public static boolean isCompressed(Path resultFilePath) {
+        return resultFilePath.getFileName().toString().endsWith(".gz");
+    }
+
+    /**
+     * Opens a result file as uncompressed tsv, whether it is stored as .tsv or .tsv.gz
+     */
+    public static InputStream newInputStream(Path resultFilePath) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(resultFilePath), BUFFER_SIZE);
+        if (isCompressed(resultFilePath)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    public static BufferedReader newBufferedReader(Path resultFilePath) throws IOException {
+        return new BufferedReader(new InputStreamReader(newInputStream(resultFilePath), UTF_8));
+    }
+
+    /**
+     * Opens a result file at a row position taken from its sidecar index without reading the preceding bytes.
+     * Compressed files are positioned on the gzip member containing the row.
+     */
+    public static BufferedReader newBufferedReader(Path resultFilePath, long blockOffset, int offsetInBlock) throws IOException {
+        FileChannel channel = FileChannel.open(resultFilePath, READ);
+        try {
+            InputStream in;
+            if (isCompressed(resultFilePath)) {
+                channel.position(blockOffset);
+                in = new GZIPInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE), BUFFER_SIZE);
+                in.skipNBytes(offsetInBlock);
+            } else {
+                channel.position(blockOffset + offsetInBlock);
+                in = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+            }
+            return new BufferedReader(new InputStreamReader(in, UTF_8));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+}
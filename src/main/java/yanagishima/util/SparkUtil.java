@@ -13,6 +13,8 @@ import yanagishima.bean.SparkSqlJob;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -23,8 +25,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public final class SparkUtil {
     private SparkUtil() {}
 
-    public static String getSparkJdbcApplicationId(String sparkWebUrl) {
-        OkHttpClient client = new OkHttpClient();
+    public static String getSparkJdbcApplicationId(OkHttpClient client, String sparkWebUrl) {
         Request okhttpRequest = new Request.Builder().url(sparkWebUrl).build();
         try (Response okhttpResponse = client.newCall(okhttpRequest).execute()) {
             HttpUrl url = okhttpResponse.request().url();
@@ -79,8 +80,18 @@ public final class SparkUtil {
 
     public static List<Map> getSparkJobList(String resourceManagerUrl, String sparkJdbcApplicationId) {
         try {
-            String originalJson = org.apache.http.client.fluent.Request.Get(resourceManagerUrl + "/proxy/" + sparkJdbcApplicationId + "/api/v1/applications/" + sparkJdbcApplicationId + "/jobs")
-                    .execute().returnContent().asString(UTF_8);
+            return getSparkJobs(resourceManagerUrl, sparkJdbcApplicationId, "");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the jobs of the application from the REST API, parameters is the query string such as status=running
+     */
+    public static List<Map> getSparkJobs(String resourceManagerUrl, String sparkJdbcApplicationId, String parameters) throws IOException {
+        String originalJson = org.apache.http.client.fluent.Request.Get(resourceManagerUrl + "/proxy/" + sparkJdbcApplicationId + "/api/v1/applications/" + sparkJdbcApplicationId + "/jobs" + (parameters.isEmpty() ? "" : "?" + parameters))
+                .execute().returnContent().asString(UTF_8);
 /*
 [ {
   "jobId" : 15,
@@ -121,22 +132,77 @@ public final class SparkUtil {
 },
 ...
 */
-            ObjectMapper mapper = new ObjectMapper();
-            List<Map> jobList = mapper.readValue(originalJson, List.class);
-            return jobList;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        ObjectMapper mapper = new ObjectMapper();
+        List<Map> jobList = mapper.readValue(originalJson, List.class);
+        return jobList;
     }
 
     public static List<Map> getSparkRunningJobListWithProgress(String resourceManagerUrl, String sparkJdbcApplicationId) {
         List<Map> jobList = getSparkJobList(resourceManagerUrl, sparkJdbcApplicationId).stream().filter(m -> m.get("status").equals("RUNNING")).collect(Collectors.toList());
-        for (Map m : jobList) {
-            int numTasks = (int) m.get("numTasks");
-            int numCompletedTasks = (int) m.get("numCompletedTasks");
-            double progress = ((double) numCompletedTasks / numTasks) * 100;
-            m.put("progress", progress);
+        jobList.forEach(SparkUtil::setProgress);
+        return jobList;
+    }
+
+    public static void setProgress(Map job) {
+        int numTasks = (int) job.get("numTasks");
+        int numCompletedTasks = (int) job.get("numCompletedTasks");
+        double progress = ((double) numCompletedTasks / numTasks) * 100;
+        job.put("progress", progress);
+    }
+
+    /**
+     * Returns the progress of the running statement of each user, the last one if a user runs several
+     */
+    public static Map<String, Double> getProgressByUser(List<Map> runningList, Map<String, SparkSqlJob> sparkSqlJobs) {
+        Map<String, Double> progressByUser = new HashMap<>();
+        for (Map m : runningList) {
+            SparkSqlJob ssj = sparkSqlJobs.get((String) m.get("jobGroup"));
+            if (ssj != null && !ssj.getJobIds().isEmpty()) {
+                progressByUser.put(ssj.getUser(), (Double) m.get("progress"));
+            }
+        }
+        return progressByUser;
+    }
+
+    /**
+     * Returns the running jobs with the user and statement of their group, followed by at most limit finished statements
+     */
+    public static List<Map> getJobList(List<Map> runningList, Map<String, SparkSqlJob> sparkSqlJobs, int limit) {
+        List<Map> jobList = new ArrayList<>();
+        for (Map running : runningList) {
+            Map<String, Object> m = new HashMap<>(running);
+            SparkSqlJob ssj = sparkSqlJobs.get((String) running.get("jobGroup"));
+            if (ssj != null) {
+                m.put("jobIds", ssj.getJobIds());
+                m.put("user", ssj.getUser());
+                m.put("query", ssj.getStatement());
+                m.put("duration", ssj.getDuration());
+            }
+            jobList.add(m);
+        }
+        List<SparkSqlJob> notRunningList = sparkSqlJobs.values().stream().filter(j -> j.getJobIds().size() > 0).filter(j -> j.getState().equals("FINISHED") || j.getState().equals("FAILED")).sorted((a, b) -> b.getStartTime().compareTo(a.getStartTime())).limit(limit).collect(Collectors.toList());
+        for (SparkSqlJob ssj : notRunningList) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("jobGroup", ssj.getGroupId());
+            m.put("jobIds", ssj.getJobIds());
+            m.put("user", ssj.getUser());
+            m.put("query", ssj.getStatement());
+            m.put("status", ssj.getState());
+            m.put("submissionTime", ssj.getStartTime());
+            m.put("duration", ssj.getDuration());
+            jobList.add(m);
         }
         return jobList;
     }
+
+    /**
+     * Indexes the statements of the sqlserver page by job group
+     */
+    public static Map<String, SparkSqlJob> indexByGroupId(List<SparkSqlJob> sparkSqlJobs) {
+        Map<String, SparkSqlJob> index = new LinkedHashMap<>();
+        for (SparkSqlJob ssj : sparkSqlJobs) {
+            index.put(ssj.getGroupId(), ssj);
+        }
+        return index;
+    }
 }
@@ -6,6 +6,7 @@ import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHeader;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,11 +36,8 @@ public final class YarnUtil {
 
     public static Optional<Map> getApplication(String resourceManagerUrl, String queryId, String userName, Optional<String> beginOptional) {
         List<Map> yarnJoblist = getJobList(resourceManagerUrl, beginOptional);
-        if(userName == null) {
-            return yarnJoblist.stream().filter(m -> m.get("name").equals(YANAGISHIAM_HIVE_JOB_PREFIX + queryId)).findFirst();
-        } else {
-            return yarnJoblist.stream().filter(m -> m.get("name").equals(YANAGISHIAM_HIVE_JOB_PREFIX + userName + "-" + queryId)).findFirst();
-        }
+        String name = getApplicationName(queryId, userName);
+        return yarnJoblist.stream().filter(m -> m.get("name").equals(name)).findFirst();
 
     }
 
@@ -106,4 +104,28 @@ public final class YarnUtil {
         }
     }
 
+    /**
+     * Returns the applications matching the query parameters of /ws/v1/cluster/apps such as states or finishedTimeBegin
+     */
+    public static List<Map> getApplications(String resourceManagerUrl, String parameters) throws IOException {
+        String json = Request.Get(resourceManagerUrl + "/ws/v1/cluster/apps" + (parameters.isEmpty() ? "" : "?" + parameters))
+                .execute().returnContent().asString(UTF_8);
+        Map apps = (Map) new ObjectMapper().readValue(json, Map.class).get("apps");
+        // apps is null when nothing matches
+        if (apps == null || apps.get("app") == null) {
+            return Collections.emptyList();
+        }
+        return (List) apps.get("app");
+    }
+
+    /**
+     * Returns the name yanagishima gives to the YARN application of a hive query
+     */
+    public static String getApplicationName(String queryId, String userName) {
+        if (userName == null) {
+            return YANAGISHIAM_HIVE_JOB_PREFIX + queryId;
+        }
+        return YANAGISHIAM_HIVE_JOB_PREFIX + userName + "-" + queryId;
+    }
+
 }
@@ -0,0 +1,60 @@
+package yanagishima.cache;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColumnIndexTest {
+    private final ColumnIndex index = new ColumnIndex.Builder()
+            .add("hive.sales.orders", "order_id", "bigint", "", null)
+            .add("hive.default.users", "user_id", "bigint", "", "id of the user")
+            .add("hive.sales.orders", "user_id", "bigint", "", null)
+            .add("hive.default.users", "name", "varchar", "", "")
+            .add("hive.sales.orders", "dt", "varchar", "partition key", null)
+            .build();
+
+    @Test
+    public void testGetColumns() {
+        assertEquals(Optional.of(ImmutableList.of(
+                Arrays.asList("order_id", "bigint", "", null),
+                Arrays.asList("user_id", "bigint", "", null),
+                Arrays.asList("dt", "varchar", "partition key", null))), index.getColumns("hive.sales.orders"));
+        assertEquals(Optional.of(ImmutableList.of(
+                Arrays.asList("user_id", "bigint", "", "id of the user"),
+                Arrays.asList("name", "varchar", "", null))), index.getColumns("hive.default.users"));
+        assertEquals(Optional.empty(), index.getColumns("hive.default.orders"));
+        assertEquals(2, index.getTableCount());
+        assertEquals(5, index.getColumnCount());
+    }
+
+    @Test
+    public void testSearchColumns() {
+        assertEquals(ImmutableList.of(
+                Arrays.asList("hive.default.users", "user_id", "bigint"),
+                Arrays.asList("hive.sales.orders", "user_id", "bigint")), index.searchColumns("USER", 10));
+        assertEquals(1, index.searchColumns("user", 1).size());
+        assertEquals(ImmutableList.of(), index.searchColumns("x", 10));
+    }
+
+    @Test
+    public void testInvisibleTablesSkipped() {
+        assertEquals(ImmutableList.of(Arrays.asList("hive.sales.orders", "user_id", "bigint")),
+                index.searchColumns("user", 1, table -> table.startsWith("hive.sales.")));
+    }
+
+    @Test
+    public void testGetTables() {
+        assertEquals(ImmutableList.of("hive.default.users", "hive.sales.orders"), index.getTables());
+    }
+
+    @Test
+    public void testGetRows() {
+        ColumnIndex.Builder builder = new ColumnIndex.Builder();
+        index.getRows().forEach(row -> builder.add(row.get(0), row.get(1), row.get(2), row.get(3), row.get(4)));
+        assertEquals(index.getRows(), builder.build().getRows());
+    }
+}
@@ -0,0 +1,60 @@
+package yanagishima.cache;
+
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.exception.QueryErrorException;
+import yanagishima.service.PrestoService;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+public class IndexAccessControlTest {
+    private final PrestoService prestoService = mock(PrestoService.class);
+    private final IndexAccessControl accessControl = new IndexAccessControl(new YanagishimaConfig(new Properties()), prestoService);
+
+    @Test
+    public void testIndexUserSeesEverything() throws Exception {
+        assertTrue(accessControl.tableFilter("datasource", null, Optional.empty(), Optional.empty()).test("hive.secret.users"));
+        assertTrue(accessControl.canSee("datasource", "hive", "secret", "yanagishima", Optional.empty(), Optional.empty()));
+        verifyNoInteractions(prestoService);
+    }
+
+    @Test
+    public void testOtherUserSeesListedSchemas() throws Exception {
+        doAnswer(invocation -> {
+            PrestoService.RowHandler handler = invocation.getArgument(5);
+            handler.row(Collections.singletonList("default"));
+            return null;
+        }).when(prestoService).doStreamingQuery(eq("datasource"), contains("SHOW SCHEMAS FROM \"hive\""), eq("alice"), any(), any(), any());
+
+        Predicate<String> visible = accessControl.tableFilter("datasource", "alice", Optional.of("alice"), Optional.of("password"));
+        assertTrue(visible.test("hive.default.users"));
+        assertFalse(visible.test("hive.secret.users"));
+        assertTrue(accessControl.canSee("datasource", "hive", "default", "alice", Optional.of("alice"), Optional.of("password")));
+        // the schemas are listed once for the caller
+        verify(prestoService, times(1)).doStreamingQuery(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void testDeniedCatalogIsHidden() throws Exception {
+        doThrow(new QueryErrorException(new SQLException("Access Denied")))
+                .when(prestoService).doStreamingQuery(any(), any(), eq("bob"), any(), any(), any());
+        assertFalse(accessControl.tableFilter("datasource", "bob", Optional.empty(), Optional.empty()).test("hive.default.users"));
+        assertFalse(accessControl.canSee("datasource", "hive", "default", "bob", Optional.empty(), Optional.empty()));
+    }
+}
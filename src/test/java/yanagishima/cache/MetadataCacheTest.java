@@ -0,0 +1,110 @@
+package yanagishima.cache;
+
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.util.FakeTicker;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static yanagishima.util.Constants.YANAGISHIMA_COMMENT;
+
+public class MetadataCacheTest {
+    @Test
+    public void testIsMetadataQuery() {
+        assertTrue(MetadataCache.isMetadataQuery(YANAGISHIMA_COMMENT + "SHOW CATALOGS"));
+        assertTrue(MetadataCache.isMetadataQuery(YANAGISHIMA_COMMENT + "SHOW SCHEMAS FROM hive"));
+        assertTrue(MetadataCache.isMetadataQuery(YANAGISHIMA_COMMENT + "DESCRIBE hive.default.\"t\""));
+        assertTrue(MetadataCache.isMetadataQuery(YANAGISHIMA_COMMENT + "SELECT table_name FROM hive.information_schema.tables"));
+        assertFalse(MetadataCache.isMetadataQuery(YANAGISHIMA_COMMENT + "SELECT * FROM hive.default.t LIMIT 100"));
+        assertFalse(MetadataCache.isMetadataQuery("SHOW CATALOGS"));
+    }
+
+    @Test
+    public void testGetCatalog() {
+        assertEquals("hive", MetadataCache.getCatalog(YANAGISHIMA_COMMENT + "SHOW SCHEMAS FROM hive"));
+        assertEquals("hive", MetadataCache.getCatalog(YANAGISHIMA_COMMENT + "DESCRIBE hive.default.\"t\""));
+        assertEquals("tpch", MetadataCache.getCatalog(YANAGISHIMA_COMMENT + "SELECT table_name, table_type FROM tpch.information_schema.tables WHERE table_schema = 'tiny'"));
+        assertNull(MetadataCache.getCatalog(YANAGISHIMA_COMMENT + "SHOW CATALOGS"));
+    }
+
+    @Test
+    public void testHitAndExpiry() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        MetadataCache cache = new MetadataCache(config("60", "30", "1000000"), ticker);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("value1", cache.get("datasource", "hive", "key", () -> "value" + loads.incrementAndGet(), value -> 100));
+        ticker.advance(59);
+        assertEquals("value1", cache.get("datasource", "hive", "key", () -> "value" + loads.incrementAndGet(), value -> 100));
+        assertEquals(1, loads.get());
+
+        // older than TTL + stale-seconds, so loaded again before returning
+        ticker.advance(31);
+        assertEquals("value2", cache.get("datasource", "hive", "key", () -> "value" + loads.incrementAndGet(), value -> 100));
+        assertEquals(2, loads.get());
+
+        ticker.advance(90);
+        cache.removeExpired();
+        assertEquals(0, cache.getStats().get("entryCount"));
+    }
+
+    @Test
+    public void testStaleWhileRefreshing() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        MetadataCache cache = new MetadataCache(config("60", "30", "1000000"), ticker);
+        cache.get("datasource", "hive", "key", () -> "old", value -> 100);
+
+        ticker.advance(60);
+        CountDownLatch refreshed = new CountDownLatch(1);
+        assertEquals("old", cache.get("datasource", "hive", "key", () -> {
+            refreshed.countDown();
+            return "new";
+        }, value -> 100));
+        assertTrue(refreshed.await(10, SECONDS));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!cache.getStats().get("refreshCount").equals(1L) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("new", cache.get("datasource", "hive", "key", () -> "unexpected", value -> 100));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        MetadataCache cache = new MetadataCache(config("60", "30", "300"), new FakeTicker());
+        cache.get("datasource", "hive", "a", () -> "a", value -> 100);
+        cache.get("datasource", "hive", "b", () -> "b", value -> 100);
+        cache.get("datasource", "hive", "c", () -> "c", value -> 100);
+        // reading a makes b the least recently used
+        cache.get("datasource", "hive", "a", () -> "unexpected", value -> 100);
+        cache.get("datasource", "hive", "d", () -> "d", value -> 100);
+
+        assertEquals(3, cache.getStats().get("entryCount"));
+        assertEquals(300L, cache.getStats().get("bytes"));
+        assertEquals(1L, cache.getStats().get("evictionCount"));
+        assertEquals("a", cache.get("datasource", "hive", "a", () -> "reloaded", value -> 100));
+        assertEquals("reloaded", cache.get("datasource", "hive", "b", () -> "reloaded", value -> 100));
+    }
+
+    @Test
+    public void testTooLargeValueIsNotKept() throws Exception {
+        MetadataCache cache = new MetadataCache(config("60", "30", "300"), new FakeTicker());
+        assertEquals("large", cache.get("datasource", "hive", "key", () -> "large", value -> 301));
+        assertEquals(0, cache.getStats().get("entryCount"));
+    }
+
+    private static YanagishimaConfig config(String ttlSeconds, String staleSeconds, String maxBytes) {
+        Properties properties = new Properties();
+        properties.setProperty("metadata.cache.ttl-seconds", ttlSeconds);
+        properties.setProperty("metadata.cache.stale-seconds", staleSeconds);
+        properties.setProperty("metadata.cache.max-bytes", maxBytes);
+        return new YanagishimaConfig(properties);
+    }
+}
@@ -0,0 +1,138 @@
+package yanagishima.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.service.PrestoService;
+import yanagishima.util.FakeTicker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static yanagishima.util.PathUtil.getTableIndexFilePath;
+
+public class MetadataIndexerTest {
+    private static final String DATASOURCE = "metadata-indexer-test";
+
+    private final PrestoService prestoService = mock(PrestoService.class);
+    private final FakeTicker ticker = new FakeTicker();
+    private final List<List<String>> columns = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        Files.deleteIfExists(getTableIndexFilePath(DATASOURCE));
+        columns.add(column("hive.default.users", "id"));
+        doAnswer(invocation -> {
+            PrestoService.RowHandler handler = invocation.getArgument(5);
+            handler.row(Arrays.asList("hive"));
+            handler.row(Arrays.asList("system"));
+            return null;
+        }).when(prestoService).doStreamingQuery(eq(DATASOURCE), contains("SHOW CATALOGS"), any(), any(), any(), any());
+        doAnswer(invocation -> {
+            PrestoService.RowHandler handler = invocation.getArgument(5);
+            for (String table : new LinkedHashSet<>(columns.stream().map(column -> column.get(0)).collect(Collectors.toList()))) {
+                handler.row(Arrays.asList(table));
+            }
+            return null;
+        }).when(prestoService).doStreamingQuery(eq(DATASOURCE), contains("hive.information_schema.tables"), any(), any(), any(), any());
+        doAnswer(invocation -> {
+            PrestoService.RowHandler handler = invocation.getArgument(5);
+            for (List<String> column : columns) {
+                handler.row(column);
+            }
+            return null;
+        }).when(prestoService).doStreamingQuery(eq(DATASOURCE), contains("hive.information_schema.columns"), any(), any(), any(), any());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(getTableIndexFilePath(DATASOURCE));
+    }
+
+    @Test
+    public void testRefreshCrawlsChangedCatalogs() throws Exception {
+        MetadataIndexer indexer = indexer();
+        awaitColumns(indexer, "users");
+
+        // the tables didn't change, so the columns aren't read again
+        ticker.advance(10);
+        assertTrue(indexer.refreshOrStop(DATASOURCE));
+        verify(prestoService, times(1)).doStreamingQuery(any(), contains("information_schema.tables"), any(), any(), any(), any());
+        verify(prestoService, times(1)).doStreamingQuery(any(), contains("information_schema.columns"), any(), any(), any(), any());
+
+        // a new table makes the catalog crawled again
+        columns.add(column("hive.default.orders", "id"));
+        ticker.advance(10);
+        assertTrue(indexer.refreshOrStop(DATASOURCE));
+        verify(prestoService, times(2)).doStreamingQuery(any(), contains("information_schema.columns"), any(), any(), any(), any());
+        assertTrue(indexer.getColumns(DATASOURCE, "hive", "default", "orders").isPresent());
+
+        // a new column of an existing table shows up with the full refresh
+        columns.add(column("hive.default.users", "name"));
+        ticker.advance(10);
+        assertTrue(indexer.refreshOrStop(DATASOURCE));
+        assertEquals(1, indexer.getColumns(DATASOURCE, "hive", "default", "users").get().size());
+        ticker.advance(3600);
+        assertTrue(indexer.refreshOrStop(DATASOURCE));
+        assertEquals(2, indexer.getColumns(DATASOURCE, "hive", "default", "users").get().size());
+        assertEquals(3L, indexer.getStats().get(0).get("crawlCount"));
+    }
+
+    @Test
+    public void testIdleStopsRefreshing() throws Exception {
+        MetadataIndexer indexer = indexer();
+        awaitColumns(indexer, "users");
+
+        // nobody read it for idle-seconds, so refreshing stops
+        ticker.advance(7200);
+        assertFalse(indexer.refreshOrStop(DATASOURCE));
+        assertEquals(0, indexer.getStats().size());
+        verify(prestoService, times(1)).doStreamingQuery(any(), contains("SHOW CATALOGS"), any(), any(), any(), any());
+
+        // the next lookup starts over and refreshes right away
+        columns.add(column("hive.default.orders", "id"));
+        awaitColumns(indexer, "orders");
+        ticker.advance(10);
+        assertTrue(indexer.refreshOrStop(DATASOURCE));
+        verify(prestoService, times(2)).doStreamingQuery(any(), contains("information_schema.columns"), any(), any(), any(), any());
+    }
+
+    private MetadataIndexer indexer() {
+        Properties properties = new Properties();
+        // long enough that only the first refresh runs in the background
+        properties.setProperty("table-index.refresh-seconds", "3600");
+        properties.setProperty("table-index.idle-seconds", "7200");
+        properties.setProperty("table-index.full-refresh-seconds", "3600");
+        return new MetadataIndexer(new YanagishimaConfig(properties), prestoService, mock(MetadataNoteCache.class), ticker);
+    }
+
+    private static void awaitColumns(MetadataIndexer indexer, String table) throws InterruptedException {
+        long deadline = System.nanoTime() + SECONDS.toNanos(10);
+        while (!indexer.getColumns(DATASOURCE, "hive", "default", table).isPresent()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<String> column(String table, String column) {
+        return Arrays.asList(table, column, "varchar", "", "");
+    }
+}
@@ -0,0 +1,134 @@
+package yanagishima.cache;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.util.FakeTicker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetadataNoteCacheTest {
+    private HttpServer service;
+    private String url;
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private volatile int failureStatus;
+
+    @Before
+    public void setUp() throws IOException {
+        service = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        service.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requestCounts.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+            int status = 200;
+            byte[] body = "{\"note\":{\"note\":\"orders of the shop\"}}".getBytes(UTF_8);
+            if (path.endsWith("/unknown")) {
+                status = 404;
+                body = new byte[0];
+            } else if (failureStatus != 0) {
+                status = failureStatus;
+                body = new byte[0];
+            }
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        service.start();
+        url = "http://localhost:" + service.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        service.stop(0);
+    }
+
+    @Test
+    public void testHitAndExpiry() {
+        FakeTicker ticker = new FakeTicker();
+        MetadataNoteCache cache = new MetadataNoteCache(config(), ticker);
+
+        Optional<Map> metadata = cache.get(url, "sales", "orders");
+        assertEquals("orders of the shop", ((Map) metadata.get().get("note")).get("note"));
+        assertEquals(metadata, cache.get(url, "sales", "orders"));
+        assertEquals(1, count("/sales/orders"));
+
+        ticker.advance(600);
+        assertTrue(cache.get(url, "sales", "orders").isPresent());
+        assertEquals(2, count("/sales/orders"));
+    }
+
+    @Test
+    public void testUnknownTableIsRememberedShorter() {
+        FakeTicker ticker = new FakeTicker();
+        MetadataNoteCache cache = new MetadataNoteCache(config(), ticker);
+
+        assertFalse(cache.get(url, "sales", "unknown").isPresent());
+        ticker.advance(59);
+        assertFalse(cache.get(url, "sales", "unknown").isPresent());
+        assertEquals(1, count("/sales/unknown"));
+
+        ticker.advance(1);
+        assertFalse(cache.get(url, "sales", "unknown").isPresent());
+        assertEquals(2, count("/sales/unknown"));
+        assertEquals(1L, cache.getStats().get("negativeHitCount"));
+    }
+
+    @Test
+    public void testFailureIsNotCached() {
+        MetadataNoteCache cache = new MetadataNoteCache(config(), new FakeTicker());
+
+        failureStatus = 500;
+        assertFalse(cache.get(url, "sales", "orders").isPresent());
+        assertEquals(1L, cache.getStats().get("failureCount"));
+
+        failureStatus = 0;
+        assertTrue(cache.get(url, "sales", "orders").isPresent());
+        assertEquals(2, count("/sales/orders"));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        MetadataNoteCache cache = new MetadataNoteCache(config(), new FakeTicker());
+        cache.get(url, "sales", "orders");
+
+        cache.prefetch(url, "sales", Arrays.asList("orders", "items", "users"));
+        assertEquals(2L, cache.getStats().get("prefetchCount"));
+        // the prefetched notes are cached once both are fetched
+        for (int i = 0; i < 200 && (long) cache.getStats().get("entryCount") < 3; i++) {
+            Thread.sleep(50);
+        }
+
+        assertTrue(cache.get(url, "sales", "items").isPresent());
+        assertTrue(cache.get(url, "sales", "users").isPresent());
+        assertEquals(1, count("/sales/orders"));
+        assertEquals(1, count("/sales/items"));
+        assertEquals(1, count("/sales/users"));
+    }
+
+    private int count(String path) {
+        AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private static YanagishimaConfig config() {
+        Properties properties = new Properties();
+        properties.setProperty("metadata.service.cache.ttl-seconds", "600");
+        properties.setProperty("metadata.service.cache.negative-ttl-seconds", "60");
+        return new YanagishimaConfig(properties);
+    }
+}
@@ -0,0 +1,84 @@
+package yanagishima.cache;
+
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.util.FakeTicker;
+
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static yanagishima.util.Constants.YANAGISHIMA_COMMENT;
+
+public class ResultCacheTest {
+    @Test
+    public void testNormalize() {
+        assertEquals("SELECT * FROM t WHERE c = 1", ResultCache.normalize("  SELECT *\n\tFROM t\r\nWHERE  c = 1 ;; "));
+        assertEquals("SELECT 'a  b', \"x\ty\" FROM t", ResultCache.normalize("SELECT 'a  b',\n\"x\ty\"  FROM t;"));
+        assertEquals("SELECT 'it''s' FROM t", ResultCache.normalize("SELECT  'it''s'  FROM t"));
+    }
+
+    @Test
+    public void testIsCacheable() {
+        assertTrue(ResultCache.isCacheable("select 1"));
+        assertTrue(ResultCache.isCacheable("\n WITH a AS (SELECT 1) SELECT * FROM a"));
+        assertFalse(ResultCache.isCacheable("INSERT INTO t SELECT 1"));
+        assertFalse(ResultCache.isCacheable("SHOW CATALOGS"));
+        assertFalse(ResultCache.isCacheable(YANAGISHIMA_COMMENT + "SELECT 1"));
+    }
+
+    @Test
+    public void testScopedByCaller() {
+        for (String allowOtherReadResult : new String[] {"true", "false"}) {
+            Properties properties = properties();
+            properties.setProperty("presto.result-cache.ttl-seconds", "60");
+            properties.setProperty("allow.other.read.result.datasource", allowOtherReadResult);
+            ResultCache cache = new ResultCache(new YanagishimaConfig(properties), null, null, new FakeTicker());
+            cache.put("datasource", "SELECT 1", "alice", Optional.empty(), Optional.empty(), "alice_query");
+            cache.put("datasource", "SELECT 1", null, Optional.of("bob"), Optional.of("secret"), "bob_query");
+
+            assertEquals(Optional.of("alice_query"), cache.getSourceQueryId("datasource", "SELECT  1;", "alice", Optional.empty(), Optional.empty()));
+            assertEquals(Optional.empty(), cache.getSourceQueryId("datasource", "SELECT 1", "carol", Optional.empty(), Optional.empty()));
+            // an unauthenticated caller gets nothing
+            assertEquals(Optional.empty(), cache.getSourceQueryId("datasource", "SELECT 1", null, Optional.empty(), Optional.empty()));
+            assertEquals(Optional.empty(), cache.getSourceQueryId("other", "SELECT 1", "alice", Optional.empty(), Optional.empty()));
+
+            assertEquals(Optional.of("bob_query"), cache.getSourceQueryId("datasource", "SELECT 1", null, Optional.of("bob"), Optional.of("secret")));
+            assertEquals(Optional.empty(), cache.getSourceQueryId("datasource", "SELECT 1", null, Optional.of("bob"), Optional.of("wrong")));
+            assertEquals(Optional.empty(), cache.getSourceQueryId("datasource", "SELECT 1", null, Optional.of("bob"), Optional.empty()));
+        }
+    }
+
+    @Test
+    public void testExpiry() {
+        Properties properties = properties();
+        properties.setProperty("presto.result-cache.ttl-seconds", "60");
+        FakeTicker ticker = new FakeTicker();
+        ResultCache cache = new ResultCache(new YanagishimaConfig(properties), null, null, ticker);
+        cache.put("datasource", "SELECT 1", "alice", Optional.empty(), Optional.empty(), "alice_query");
+
+        ticker.advance(59);
+        assertEquals(Optional.of("alice_query"), cache.getSourceQueryId("datasource", "SELECT 1", "alice", Optional.empty(), Optional.empty()));
+        ticker.advance(1);
+        assertEquals(Optional.empty(), cache.getSourceQueryId("datasource", "SELECT 1", "alice", Optional.empty(), Optional.empty()));
+        assertEquals(0, cache.getStats().get("entryCount"));
+    }
+
+    @Test
+    public void testDisabled() {
+        ResultCache cache = new ResultCache(new YanagishimaConfig(properties()), null, null, new FakeTicker());
+        cache.put("datasource", "SELECT 1", "alice", Optional.empty(), Optional.empty(), "alice_query");
+        assertEquals(Optional.empty(), cache.getSourceQueryId("datasource", "SELECT 1", "alice", Optional.empty(), Optional.empty()));
+    }
+
+    private static Properties properties() {
+        Properties properties = new Properties();
+        for (String datasource : new String[] {"datasource", "other"}) {
+            properties.setProperty("catalog." + datasource, "hive");
+            properties.setProperty("schema." + datasource, "default");
+        }
+        return properties;
+    }
+}
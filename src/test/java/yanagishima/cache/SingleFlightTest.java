@@ -0,0 +1,66 @@
+package yanagishima.cache;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    @Test
+    public void testConcurrentCallsShareExecution() throws Exception {
+        CountDownLatch joined = new CountDownLatch(1);
+        SingleFlight<String, String> singleFlight = new SingleFlight<String, String>() {
+            @Override
+            void onJoin(String key) {
+                joined.countDown();
+            }
+        };
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> singleFlight.execute("key", () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "value";
+            }));
+            assertTrue(started.await(10, SECONDS));
+            Future<String> second = executor.submit(() -> singleFlight.execute("key", () -> {
+                calls.incrementAndGet();
+                return "other";
+            }));
+            assertTrue(joined.await(10, SECONDS));
+            release.countDown();
+            assertEquals("value", first.get());
+            assertEquals("value", second.get());
+            assertEquals(1, calls.get());
+            assertEquals(0, singleFlight.getInFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExceptionIsNotKept() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        try {
+            singleFlight.execute("key", () -> {
+                throw new IllegalStateException("failed");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals("value", singleFlight.execute("key", () -> "value"));
+    }
+}
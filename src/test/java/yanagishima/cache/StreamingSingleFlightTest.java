@@ -0,0 +1,198 @@
+package yanagishima.cache;
+
+import org.junit.Test;
+import yanagishima.service.PrestoService.RowHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamingSingleFlightTest {
+    @Test
+    public void testFollowerReplaysAndFollows() throws Exception {
+        CountDownLatch joined = new CountDownLatch(1);
+        StreamingSingleFlight<String> singleFlight = new StreamingSingleFlight<String>() {
+            @Override
+            void onJoin(String key) {
+                joined.countDown();
+            }
+        };
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch firstRow = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Collector leader = new Collector();
+            Future<?> first = executor.submit(() -> {
+                singleFlight.execute("key", handler -> {
+                    calls.incrementAndGet();
+                    handler.columns(Collections.singletonList("name"));
+                    handler.row(Collections.singletonList("a"));
+                    firstRow.countDown();
+                    release.await();
+                    handler.row(Collections.singletonList("b"));
+                }, leader);
+                return null;
+            });
+            assertTrue(firstRow.await(10, SECONDS));
+            Collector follower = new Collector();
+            Future<?> second = executor.submit(() -> {
+                singleFlight.execute("key", handler -> calls.incrementAndGet(), follower);
+                return null;
+            });
+            assertTrue(joined.await(10, SECONDS));
+            release.countDown();
+            first.get();
+            second.get();
+
+            assertEquals(1, calls.get());
+            assertEquals(Arrays.asList("name", "a", "b"), leader.values);
+            assertEquals(Arrays.asList("name", "a", "b"), follower.values);
+            assertEquals(0, singleFlight.getInFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFollowerPastReplayRows() throws Exception {
+        // rows past the first one are kept only until the follower reads them
+        StreamingSingleFlight<String> singleFlight = new StreamingSingleFlight<>(1);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch firstRow = new CountDownLatch(1);
+        CountDownLatch replayed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Collector leader = new Collector();
+            Future<?> first = executor.submit(() -> {
+                singleFlight.execute("key", handler -> {
+                    calls.incrementAndGet();
+                    handler.row(Collections.singletonList("a"));
+                    firstRow.countDown();
+                    release.await();
+                    for (String value : Arrays.asList("b", "c", "d")) {
+                        handler.row(Collections.singletonList(value));
+                    }
+                }, leader);
+                return null;
+            });
+            assertTrue(firstRow.await(10, SECONDS));
+            Collector follower = new Collector() {
+                @Override
+                public boolean row(List<String> row) {
+                    replayed.countDown();
+                    return super.row(row);
+                }
+            };
+            Future<?> second = executor.submit(() -> {
+                singleFlight.execute("key", handler -> calls.incrementAndGet(), follower);
+                return null;
+            });
+            assertTrue(replayed.await(10, SECONDS));
+            release.countDown();
+            first.get();
+            second.get();
+
+            assertEquals(1, calls.get());
+            assertEquals(Arrays.asList("a", "b", "c", "d"), follower.values);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLateCallerPastReplayRows() throws Exception {
+        StreamingSingleFlight<String> singleFlight = new StreamingSingleFlight<>(2);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch rowsRead = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Collector leader = new Collector();
+            Future<?> first = executor.submit(() -> {
+                singleFlight.execute("key", handler -> {
+                    calls.incrementAndGet();
+                    handler.columns(Collections.singletonList("name"));
+                    handler.row(Collections.singletonList("a"));
+                    handler.row(Collections.singletonList("b"));
+                    handler.row(Collections.singletonList("c"));
+                    rowsRead.countDown();
+                    release.await();
+                }, leader);
+                return null;
+            });
+            assertTrue(rowsRead.await(10, SECONDS));
+            // the first row was dropped, so the late caller runs its own query
+            Collector late = new Collector();
+            singleFlight.execute("key", handler -> {
+                calls.incrementAndGet();
+                handler.columns(Collections.singletonList("name"));
+                handler.row(Collections.singletonList("a"));
+            }, late);
+            release.countDown();
+            first.get();
+
+            assertEquals(2, calls.get());
+            assertEquals(Arrays.asList("name", "a", "b", "c"), leader.values);
+            assertEquals(Arrays.asList("name", "a"), late.values);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStopWithoutFollowers() throws Exception {
+        StreamingSingleFlight<String> singleFlight = new StreamingSingleFlight<>();
+        List<Boolean> answers = new ArrayList<>();
+        singleFlight.execute("key", handler -> {
+            answers.add(handler.row(Collections.singletonList("a")));
+            answers.add(handler.row(Collections.singletonList("b")));
+        }, row -> false);
+        // nobody else wants the rows, so the query is stopped
+        assertEquals(Arrays.asList(false, false), answers);
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void testFailureIsNotKept() throws Exception {
+        StreamingSingleFlight<String> singleFlight = new StreamingSingleFlight<>();
+        try {
+            singleFlight.execute("key", handler -> {
+                throw new IllegalStateException("failed");
+            }, new Collector());
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        Collector collector = new Collector();
+        singleFlight.execute("key", handler -> handler.row(Collections.singletonList("a")), collector);
+        assertEquals(Collections.singletonList("a"), collector.values);
+    }
+
+    private static class Collector implements RowHandler {
+        private final List<String> values = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void columns(List<String> columns) {
+            values.addAll(columns);
+        }
+
+        @Override
+        public boolean row(List<String> row) {
+            values.addAll(row);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package yanagishima.cache;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TableNameIndexTest {
+    private final TableNameIndex index = new TableNameIndex(ImmutableList.of(
+            "hive.default.user_events",
+            "hive.default.users",
+            "hive.sales.orders",
+            "hive.sales.order_items",
+            "mysql.app.users",
+            "hive.default.users"));
+
+    @Test
+    public void testTablePrefixFirst() {
+        assertEquals(ImmutableList.of("hive.default.users", "mysql.app.users", "hive.default.user_events"), index.search("users", 3));
+        assertEquals(ImmutableList.of("hive.sales.order_items", "hive.sales.orders"), index.search("Order", 10).subList(0, 2));
+    }
+
+    @Test
+    public void testWholeNamePrefix() {
+        assertEquals(ImmutableList.of("hive.sales.order_items", "hive.sales.orders"), index.search("hive.sales.", 10));
+    }
+
+    @Test
+    public void testSubstring() {
+        assertEquals(ImmutableList.of("hive.default.user_events"), index.search("_eve", 10));
+        assertEquals(ImmutableList.of("hive.default.user_events", "hive.default.users"), index.search("ult.user", 2));
+    }
+
+    @Test
+    public void testInvisibleSkipped() {
+        assertEquals(ImmutableList.of("mysql.app.users"), index.search("users", 10, name -> !name.startsWith("hive.default.")));
+        assertEquals(ImmutableList.of(), index.search("user_evnets", 10, name -> !name.startsWith("hive.default.")));
+    }
+
+    @Test
+    public void testMisspelled() {
+        assertEquals(ImmutableList.of("hive.default.user_events"), index.search("user_evnets", 10));
+        assertEquals("hive.sales.orders", index.search("sales_orders", 1).get(0));
+    }
+
+    @Test
+    public void testLimitAndEmpty() {
+        assertEquals(1, index.search("hive", 1).size());
+        assertTrue(index.search("", 10).isEmpty());
+        assertTrue(TableNameIndex.EMPTY.search("users", 10).isEmpty());
+        assertEquals(5, index.size());
+    }
+}
@@ -25,6 +25,9 @@ public class YanagishimaConfigTest {
         assertEquals(List.of(), config.getElasticsearchDisallowedKeywords("datasource"));
         assertTrue(config.isAllowOtherReadResult("datasource"));
         assertTrue(config.isUseNewShowPartitions("datasource"));
+        assertEquals(10, config.getQueryExecutorPoolSize("presto", "datasource"));
+        assertEquals(100, config.getQueryExecutorQueueSize("presto", "datasource"));
+        assertEquals(YanagishimaConfig.ExecutorMode.PLATFORM, config.getQueryExecutorMode("presto", "datasource"));
     }
 
     @Test
@@ -42,6 +45,13 @@ public class YanagishimaConfigTest {
         properties.setProperty("elasticsearch.disallowed.keywords.datasource", "disallowed1, disallowed2");
         properties.setProperty("allow.other.read.result.datasource", "false");
         properties.setProperty("use.new.show.partitions.datasource", "false");
+        properties.setProperty("hive.executor.pool-size", "5");
+        properties.setProperty("hive.executor.pool-size.datasource", "20");
+        properties.setProperty("hive.executor.queue-size", "50");
+        properties.setProperty("presto.executor.mode.datasource", "virtual");
+        properties.setProperty("hive.jdbc.url.datasource", "jdbc:hive2://hs2a:10000/default");
+        properties.setProperty("hive.jdbc.urls.datasource", "jdbc:hive2://hs2a:10000/default, jdbc:hive2://hs2b:10000/default");
+        properties.setProperty("hive.jdbc.url.other", "jdbc:hive2://hs2c:10000/default");
 
         YanagishimaConfig config = new YanagishimaConfig(properties);
         assertEquals(List.of("_hidden_schema1", "_hidden_schema2"), config.getInvisibleSchemas("datasource", "catalog"));
@@ -56,5 +66,12 @@ public class YanagishimaConfigTest {
         assertEquals(List.of("disallowed1", "disallowed2"), config.getElasticsearchDisallowedKeywords("datasource"));
         assertFalse(config.isAllowOtherReadResult("datasource"));
         assertFalse(config.isUseNewShowPartitions("datasource"));
+        assertEquals(20, config.getQueryExecutorPoolSize("hive", "datasource"));
+        assertEquals(5, config.getQueryExecutorPoolSize("hive", "other"));
+        assertEquals(50, config.getQueryExecutorQueueSize("hive", "datasource"));
+        assertEquals(YanagishimaConfig.ExecutorMode.VIRTUAL, config.getQueryExecutorMode("presto", "datasource"));
+        assertEquals(YanagishimaConfig.ExecutorMode.PLATFORM, config.getQueryExecutorMode("presto", "other"));
+        assertEquals(List.of("jdbc:hive2://hs2a:10000/default", "jdbc:hive2://hs2b:10000/default"), config.getHiveJdbcUrls("datasource"));
+        assertEquals(List.of("jdbc:hive2://hs2c:10000/default"), config.getHiveJdbcUrls("other"));
     }
 }
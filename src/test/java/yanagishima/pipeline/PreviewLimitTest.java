@@ -0,0 +1,72 @@
+package yanagishima.pipeline;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreviewLimitTest {
+    private static final int PREVIEW_ROWS = 3;
+
+    @Test
+    public void testFewerRows() {
+        PreviewLimit limit = new PreviewLimit(PREVIEW_ROWS);
+        assertEquals(2, read(limit, Collections.singletonList(2)));
+        assertFalse(limit.isTruncated());
+    }
+
+    @Test
+    public void testExactRows() {
+        PreviewLimit limit = new PreviewLimit(PREVIEW_ROWS);
+        assertEquals(3, read(limit, Collections.singletonList(3)));
+        assertFalse(limit.isTruncated());
+
+        // the last row of the preview ends a batch and the query ends without another one
+        limit = new PreviewLimit(PREVIEW_ROWS);
+        assertEquals(3, read(limit, Arrays.asList(2, 1, 0)));
+        assertFalse(limit.isTruncated());
+    }
+
+    @Test
+    public void testMoreRows() {
+        PreviewLimit limit = new PreviewLimit(PREVIEW_ROWS);
+        assertEquals(3, read(limit, Collections.singletonList(4)));
+        assertTrue(limit.isTruncated());
+
+        // the row beyond the preview comes in the next batch
+        limit = new PreviewLimit(PREVIEW_ROWS);
+        assertEquals(3, read(limit, Arrays.asList(3, 1)));
+        assertTrue(limit.isTruncated());
+    }
+
+    @Test
+    public void testNoLimit() {
+        PreviewLimit limit = new PreviewLimit(0);
+        assertEquals(100, read(limit, Collections.singletonList(100)));
+        assertFalse(limit.isTruncated());
+    }
+
+    /**
+     * Reads batches of the given sizes the way the services do and returns the number of written rows
+     */
+    private static int read(PreviewLimit limit, List<Integer> batches) {
+        int written = 0;
+        for (int batch : batches) {
+            for (int i = 0; i < batch; i++) {
+                if (!limit.accept()) {
+                    break;
+                }
+                written++;
+            }
+            if (limit.isTruncated()) {
+                break;
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,73 @@
+package yanagishima.pipeline;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.After;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.util.PathUtil;
+import yanagishima.util.ResultFileUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResultIndexTest {
+    private static final String DATASOURCE = "index-test";
+    private static final String QUERY_ID = "20190102_000000_00000_abcde";
+
+    @After
+    public void tearDown() throws IOException {
+        Path directory = Paths.get(new File(".").getAbsolutePath(), "result", DATASOURCE);
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testPlainResult() throws IOException {
+        assertRowsAreReachable("none");
+    }
+
+    @Test
+    public void testCompressedResult() throws IOException {
+        assertRowsAreReachable("gzip");
+    }
+
+    private void assertRowsAreReachable(String compression) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("result.file.compression", compression);
+        properties.setProperty("result.index.interval", "100");
+        properties.setProperty("result.pipeline.batch-size", "64");
+        ResultPipelineFactory factory = new ResultPipelineFactory(new YanagishimaConfig(properties));
+
+        try (ResultPipeline pipeline = factory.open(DATASOURCE, QUERY_ID)) {
+            pipeline.write(Arrays.asList("id", "value"));
+            for (int i = 0; i < 1000; i++) {
+                pipeline.write(Arrays.asList(i, i % 3 == 0 ? "multi\nline " + i : "value " + i));
+            }
+            pipeline.finish();
+        }
+
+        Path resultFilePath = PathUtil.findResultFilePath(DATASOURCE, QUERY_ID);
+        Path indexPath = PathUtil.getResultIndexFilePath(DATASOURCE, QUERY_ID);
+        for (long row : new long[] {0, 99, 100, 555, 999, 5000}) {
+            ResultIndex.Position position = ResultIndex.find(indexPath, row).get();
+            assertEquals(Math.min(row, 999) / 100 * 100, position.getRow());
+            try (BufferedReader reader = ResultFileUtil.newBufferedReader(resultFilePath, position.getBlockOffset(), position.getOffsetInBlock())) {
+                Iterator<CSVRecord> records = CSVFormat.EXCEL.withDelimiter('\t').withNullString("\\N").parse(reader).iterator();
+                assertEquals(String.valueOf(position.getRow()), records.next().get(0));
+            }
+        }
+    }
+}
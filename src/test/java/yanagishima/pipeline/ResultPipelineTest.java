@@ -0,0 +1,101 @@
+package yanagishima.pipeline;
+
+import org.junit.After;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.util.PathUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ResultPipelineTest {
+    private static final String DATASOURCE = "pipeline-test";
+    private static final String QUERY_ID = "20190102_000000_00001_abcde";
+
+    @After
+    public void tearDown() throws IOException {
+        Path directory = Paths.get(new File(".").getAbsolutePath(), "result", DATASOURCE);
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testBufferSmallerThanBatch() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("result.index.interval", "0");
+        properties.setProperty("result.pipeline.batch-size", "10");
+        // every batch fills the buffer, so fetching waits for the writer after each one
+        properties.setProperty("result.pipeline.buffer-bytes", "1");
+        ResultPipelineFactory factory = new ResultPipelineFactory(new YanagishimaConfig(properties));
+
+        long writtenBytes = 0;
+        try (ResultPipeline pipeline = factory.open(DATASOURCE, QUERY_ID)) {
+            writtenBytes += pipeline.write(Arrays.asList("id", "value"));
+            for (int i = 0; i < 1000; i++) {
+                writtenBytes += pipeline.write(Arrays.asList(i, "value " + i));
+            }
+            pipeline.finish();
+            assertEquals(writtenBytes, pipeline.getWrittenBytes());
+        }
+
+        Path resultFilePath = PathUtil.findResultFilePath(DATASOURCE, QUERY_ID);
+        assertEquals(writtenBytes, Files.size(resultFilePath));
+        List<String> lines = Files.readAllLines(resultFilePath, UTF_8);
+        assertEquals(1001, lines.size());
+        assertEquals("999\tvalue 999", lines.get(1000));
+    }
+
+    @Test
+    public void testCloseDeletesPartialResult() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("result.index.interval", "10");
+        ResultPipelineFactory factory = new ResultPipelineFactory(new YanagishimaConfig(properties));
+        try (ResultPipeline pipeline = factory.open(DATASOURCE, QUERY_ID)) {
+            pipeline.write(Arrays.asList("id", "value"));
+            for (int i = 0; i < 100; i++) {
+                pipeline.write(Arrays.asList(i, "value " + i));
+            }
+        }
+        assertFalse(Files.exists(PathUtil.getResultFilePath(DATASOURCE, QUERY_ID, false)));
+        assertFalse(Files.exists(PathUtil.getResultIndexFilePath(DATASOURCE, QUERY_ID)));
+        assertEquals(1L, factory.getStats().get("abortedCount"));
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseBeforeWriterStarts() throws Exception {
+        ExecutorService writerExecutor = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        writerExecutor.submit(() -> {
+            release.await();
+            return null;
+        });
+        try {
+            ResultPipelineFactory factory = new ResultPipelineFactory(new YanagishimaConfig(new Properties()));
+            Path path = PathUtil.getResultFilePath(DATASOURCE, QUERY_ID, false);
+            ResultPipeline pipeline = new ResultPipeline(path, null, 0, false, 10, 1024, writerExecutor, factory);
+            pipeline.write(Arrays.asList("id", "value"));
+            // the writer is still queued behind the busy thread, so closing must not wait for it
+            pipeline.close();
+            assertEquals(1L, factory.getStats().get("abortedCount"));
+        } finally {
+            release.countDown();
+            writerExecutor.shutdown();
+        }
+    }
+}
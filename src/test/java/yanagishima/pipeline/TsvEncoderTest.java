@@ -0,0 +1,59 @@
+package yanagishima.pipeline;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.junit.Test;
+import yanagishima.util.TypeCoerceUtil;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+public class TsvEncoderTest {
+    private static final CSVFormat CSV_FORMAT = CSVFormat.EXCEL.withDelimiter('\t').withNullString("\\N").withRecordSeparator("\n");
+
+    @Test
+    public void testCompatibleWithCsvPrinter() throws IOException {
+        List<List<Object>> rows = Arrays.asList(
+                Arrays.asList("a", "b", "c"),
+                Arrays.asList(1L, -1L, Long.MIN_VALUE, 0, 1.5d, 1.0E-10d, Double.NaN, true),
+                Arrays.asList(null, "", null),
+                Arrays.asList("", "x", ""),
+                Arrays.asList("-1", "#comment", " leading", "trailing ", "tab\there", "new\nline", "cr\rhere", "quote\"here", "\"quoted\""),
+                Arrays.asList("\"first", ",first", "!first", "\u00e9", "\u3042\u3044", "\ud83c\udf63"),
+                Arrays.asList("\u3042", "\\N", "x\u0001"),
+                Arrays.asList("_col0", "{\"key\": [1, 2]}", "2019-01-01 00:00:00.000"));
+
+        TsvEncoder encoder = new TsvEncoder("\n", 4);
+        for (List<Object> row : rows) {
+            List<String> stringRow = row.stream().map(TypeCoerceUtil::objectToString).collect(Collectors.toList());
+            int before = encoder.size();
+            int bytes = encoder.encodeRecord(row);
+            String expected = printWithCsvPrinter(stringRow);
+            assertEquals(expected, new String(encoder.getBuffer(), before, bytes, UTF_8));
+            assertEquals(expected.getBytes(UTF_8).length, bytes);
+        }
+    }
+
+    @Test
+    public void testReset() {
+        TsvEncoder encoder = new TsvEncoder("\n", 16);
+        encoder.encodeRecord(Arrays.asList("a", "b"));
+        encoder.reset();
+        assertEquals(2, encoder.encodeRecord(Arrays.asList("c")));
+        assertEquals("c\n", new String(encoder.getBuffer(), 0, encoder.size(), UTF_8));
+    }
+
+    private static String printWithCsvPrinter(List<String> row) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (CSVPrinter printer = new CSVPrinter(writer, CSV_FORMAT)) {
+            printer.printRecord(row);
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package yanagishima.poller;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.util.FakeTicker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryListPollerTest {
+    private HttpServer coordinator;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile String queries = "[{\"queryId\":\"q1\",\"state\":\"RUNNING\"}]";
+
+    @Before
+    public void setUp() throws IOException {
+        coordinator = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        coordinator.createContext("/v1/query", exchange -> {
+            requestCount.incrementAndGet();
+            byte[] body = queries.getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        coordinator.start();
+    }
+
+    @After
+    public void tearDown() {
+        coordinator.stop(0);
+    }
+
+    @Test
+    public void testStartStopAndExpiry() {
+        FakeTicker ticker = new FakeTicker();
+        YanagishimaConfig config = config();
+        QueryListPoller poller = new QueryListPoller(config, new HttpClientRegistry(config), ticker);
+        assertFalse(poller.peekSnapshot("datasource").isPresent());
+
+        // the first read fetches synchronously and starts polling
+        assertEquals(1, poller.getSnapshot("datasource").getQueries().size());
+        assertEquals(1, requestCount.get());
+        assertTrue(poller.peekSnapshot("datasource").isPresent());
+        assertEquals(1, poller.getStats().size());
+
+        ticker.advance(59);
+        assertTrue(poller.pollOrStop("datasource"));
+        assertEquals(2, requestCount.get());
+
+        // nobody read it for idle-seconds, so polling stops
+        ticker.advance(1);
+        assertFalse(poller.pollOrStop("datasource"));
+        assertEquals(2, requestCount.get());
+        assertFalse(poller.peekSnapshot("datasource").isPresent());
+        assertEquals(0, poller.getStats().size());
+
+        // the next read after the idle period doesn't get the old list
+        queries = "[{\"queryId\":\"q1\",\"state\":\"FINISHED\"},{\"queryId\":\"q2\",\"state\":\"RUNNING\"}]";
+        ticker.advance(600);
+        QueryListPoller.Snapshot snapshot = poller.getSnapshot("datasource");
+        assertEquals(3, requestCount.get());
+        assertEquals(2, snapshot.getQueries().size());
+        assertEquals("q2", snapshot.getQueries().get(0).get("queryId"));
+    }
+
+    private YanagishimaConfig config() {
+        Properties properties = new Properties();
+        properties.setProperty("presto.coordinator.server.datasource", "http://localhost:" + coordinator.getAddress().getPort());
+        // long enough that only the test polls
+        properties.setProperty("presto.query-list.poll-interval-millis", "3600000");
+        properties.setProperty("presto.query-list.idle-seconds", "60");
+        return new YanagishimaConfig(properties);
+    }
+}
@@ -0,0 +1,112 @@
+package yanagishima.poller;
+
+import com.sun.net.httpserver.HttpServer;
+import me.geso.tinyorm.TinyORM;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import yanagishima.cache.ResultCache;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HiveProgressTracker;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.row.Query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class QueryWatcherTest {
+    private HttpServer coordinator;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile String status = "{\"queryId\":\"q1\",\"state\":\"RUNNING\",\"outputStage\":{\"plan\":{}}}";
+    private final TinyORM db = mock(TinyORM.class, RETURNS_DEEP_STUBS);
+
+    @Before
+    public void setUp() throws IOException {
+        coordinator = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        coordinator.createContext("/v1/query", exchange -> {
+            requestCount.incrementAndGet();
+            byte[] body = status.getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        coordinator.start();
+    }
+
+    @After
+    public void tearDown() {
+        coordinator.stop(0);
+    }
+
+    @Test
+    public void testSubscribersShareOneWatch() throws Exception {
+        QueryWatcher watcher = watcher();
+        BlockingQueue<QueryWatcher.QueryEvent> first = new LinkedBlockingQueue<>();
+        QueryWatcher.Subscription firstSubscription = watcher.subscribe("presto", "datasource", "q1", null, Optional.empty(), Optional.empty(), first::add);
+        QueryWatcher.QueryEvent event = first.poll(10, SECONDS);
+        assertEquals("status", event.getType());
+        assertEquals("RUNNING", event.getData().get("state"));
+        // the plan is skipped
+        assertFalse(event.getData().containsKey("outputStage"));
+
+        // the second subscriber gets the latest event without another request
+        BlockingQueue<QueryWatcher.QueryEvent> second = new LinkedBlockingQueue<>();
+        QueryWatcher.Subscription secondSubscription = watcher.subscribe("presto", "datasource", "q1", null, Optional.empty(), Optional.empty(), second::add);
+        assertEquals("status", second.poll(10, SECONDS).getType());
+        assertEquals(1, requestCount.get());
+        assertEquals(1, watcher.getStats().get("watchCount"));
+
+        firstSubscription.close();
+        assertEquals(1, watcher.getStats().get("watchCount"));
+        secondSubscription.close();
+        assertEquals(0, watcher.getStats().get("watchCount"));
+    }
+
+    @Test
+    public void testCompleteOnceStored() throws Exception {
+        status = "{\"queryId\":\"q1\",\"state\":\"FINISHED\"}";
+        Query query = new Query();
+        query.setStatus("SUCCEED");
+        when(db.single(Query.class).where(anyString(), any(Object[].class)).execute()).thenReturn(Optional.of(query));
+        QueryWatcher watcher = watcher();
+        BlockingQueue<QueryWatcher.QueryEvent> events = new LinkedBlockingQueue<>();
+        watcher.subscribe("presto", "datasource", "q1", null, Optional.empty(), Optional.empty(), events::add);
+
+        assertEquals("status", events.poll(10, SECONDS).getType());
+        QueryWatcher.QueryEvent complete = events.poll(10, SECONDS);
+        assertEquals("complete", complete.getType());
+        assertEquals("ok", complete.getData().get("status"));
+        assertEquals("SUCCEED", complete.getData().get("queryStatus"));
+        assertEquals(0, watcher.getStats().get("watchCount"));
+        assertNull(events.poll(100, MILLISECONDS));
+    }
+
+    private QueryWatcher watcher() {
+        Properties properties = new Properties();
+        properties.setProperty("presto.coordinator.server.datasource", "http://localhost:" + coordinator.getAddress().getPort());
+        // long enough that only the first check runs
+        properties.setProperty("query-watcher.interval-millis.presto", "3600000");
+        YanagishimaConfig config = new YanagishimaConfig(properties);
+        return new QueryWatcher(config, db, mock(ResultCache.class), mock(HiveProgressTracker.class), mock(YarnApplicationPoller.class),
+                mock(SparkProgressPoller.class), new HttpClientRegistry(config));
+    }
+}
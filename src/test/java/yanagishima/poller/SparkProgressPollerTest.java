@@ -0,0 +1,137 @@
+package yanagishima.poller;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.util.FakeTicker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SparkProgressPollerTest {
+    private static final String APPLICATION_ID = "application_1_0001";
+
+    private HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile String runningJobs;
+
+    @Before
+    public void setUp() throws IOException {
+        runningJobs = "[" + job(1, "group1", 4, 1) + "]";
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // the thrift server redirects to the proxy of the resource manager
+        server.createContext("/", exchange -> {
+            requests.add("redirect");
+            exchange.getResponseHeaders().set("Location", baseUrl() + "/proxy/redirect/" + APPLICATION_ID + "/");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.createContext("/proxy/redirect/", exchange -> send(exchange, "ok"));
+        server.createContext("/proxy/" + APPLICATION_ID + "/api/v1/applications/" + APPLICATION_ID + "/jobs", exchange -> {
+            requests.add("jobs");
+            send(exchange, runningJobs);
+        });
+        server.createContext("/proxy/" + APPLICATION_ID + "/sqlserver", exchange -> {
+            requests.add("sqlserver");
+            send(exchange, "<html><body><table><tbody>"
+                    + "<tr><td>alice</td><td><a>[1]</a> </td><td>group1</td><td>2019/02/21 02:23:54</td><td></td><td>1 s</td>"
+                    + "<td>SELECT 1</td><td>STARTED</td><td></td></tr>"
+                    + "</tbody></table></body></html>");
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testPoll() {
+        FakeTicker ticker = new FakeTicker();
+        SparkProgressPoller poller = poller(ticker);
+
+        // the first read resolves the application and fetches the jobs synchronously
+        assertEquals(Optional.of(25.0), poller.getProgress("datasource", "alice"));
+        assertEquals(APPLICATION_ID, poller.getApplicationId("datasource"));
+        assertEquals(3, requests.size());
+
+        // later polls reuse the application id
+        runningJobs = "[" + job(1, "group1", 4, 3) + "]";
+        ticker.advance(10);
+        assertTrue(poller.pollOrStop("datasource"));
+        assertEquals(5, requests.size());
+        assertEquals(Optional.of(75.0), poller.getProgress("datasource", "alice"));
+        assertEquals(1, poller.getJobList("datasource", 10).size());
+        assertEquals(2L, poller.getStats().get(0).get("pollCount"));
+
+        // the application id is resolved again after its ttl
+        ticker.advance(600);
+        assertTrue(poller.pollOrStop("datasource"));
+        assertEquals(8, requests.size());
+        assertEquals("redirect", requests.get(5));
+    }
+
+    @Test
+    public void testIdleStopsPolling() {
+        FakeTicker ticker = new FakeTicker();
+        SparkProgressPoller poller = poller(ticker);
+        assertEquals(Optional.of(25.0), poller.getProgress("datasource", "alice"));
+        assertEquals(1, poller.getStats().size());
+
+        // nobody read it for idle-seconds, so polling stops
+        ticker.advance(900);
+        assertFalse(poller.pollOrStop("datasource"));
+        assertEquals(3, requests.size());
+        assertEquals(0, poller.getStats().size());
+        assertFalse(poller.pollOrStop("datasource"));
+
+        // the next read after the idle period doesn't get the old progress
+        runningJobs = "[]";
+        assertEquals(Optional.empty(), poller.getProgress("datasource", "alice"));
+        assertEquals(6, requests.size());
+        assertEquals("redirect", requests.get(3));
+    }
+
+    private SparkProgressPoller poller(FakeTicker ticker) {
+        Properties properties = new Properties();
+        properties.setProperty("spark.web.url.datasource", baseUrl() + "/");
+        properties.setProperty("resource.manager.url.datasource", baseUrl());
+        // long enough that only the test polls
+        properties.setProperty("spark.progress.poll-interval-millis", "3600000");
+        properties.setProperty("spark.progress.idle-seconds", "900");
+        YanagishimaConfig config = new YanagishimaConfig(properties);
+        return new SparkProgressPoller(config, new HttpClientRegistry(config), ticker);
+    }
+
+    private String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private static String job(int jobId, String jobGroup, int numTasks, int numCompletedTasks) {
+        return String.format("{\"jobId\":%d,\"jobGroup\":\"%s\",\"status\":\"RUNNING\",\"numTasks\":%d,\"numCompletedTasks\":%d}",
+                jobId, jobGroup, numTasks, numCompletedTasks);
+    }
+
+    private static void send(HttpExchange exchange, String content) throws IOException {
+        byte[] body = content.getBytes(UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package yanagishima.poller;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.util.FakeTicker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class YarnApplicationPollerTest {
+    private HttpServer resourceManager;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile String allApps;
+    private volatile String activeApps = "{\"apps\":null}";
+    private volatile String finishedApps = "{\"apps\":null}";
+
+    @Before
+    public void setUp() throws IOException {
+        allApps = apps(app("application_1_0001", "yanagishima-hive-alice-20190102_000000_1", "RUNNING", 0));
+        resourceManager = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        resourceManager.createContext("/ws/v1/cluster/apps", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            requests.add(query == null ? "" : query);
+            String json = allApps;
+            if (query != null && query.startsWith("states=")) {
+                json = activeApps;
+            } else if (query != null && query.startsWith("finishedTimeBegin=")) {
+                json = finishedApps;
+            }
+            byte[] body = json.getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        resourceManager.start();
+    }
+
+    @After
+    public void tearDown() {
+        resourceManager.stop(0);
+    }
+
+    @Test
+    public void testIncrementalAndFullPolls() {
+        FakeTicker ticker = new FakeTicker();
+        YarnApplicationPoller poller = new YarnApplicationPoller(config(), ticker);
+
+        // the first read fetches every application synchronously
+        Map application = poller.getApplication("datasource", "20190102_000000_1", "alice").get();
+        assertEquals("application_1_0001", application.get("id"));
+        assertEquals(1, requests.size());
+        assertEquals("", requests.get(0));
+
+        // later polls only ask for active and recently finished applications
+        activeApps = apps(app("application_1_0002", "yanagishima-hive-bob-20190102_000000_2", "RUNNING", 0));
+        finishedApps = apps(app("application_1_0001", "yanagishima-hive-alice-20190102_000000_1", "FINISHED", 2000));
+        ticker.advance(10);
+        assertTrue(poller.pollOrStop("datasource"));
+        assertEquals(3, requests.size());
+        assertTrue(requests.get(1).startsWith("states="));
+        assertTrue(requests.get(2).startsWith("finishedTimeBegin="));
+        assertEquals("FINISHED", poller.getApplication("datasource", "20190102_000000_1", "alice").get().get("state"));
+        assertTrue(poller.getApplication("datasource", "20190102_000000_2", "bob").isPresent());
+        assertEquals(2, poller.getApplications("datasource").size());
+
+        // the full list drops what the resource manager doesn't retain anymore
+        allApps = apps(app("application_1_0002", "yanagishima-hive-bob-20190102_000000_2", "FINISHED", 3000));
+        ticker.advance(3600);
+        assertTrue(poller.pollOrStop("datasource"));
+        assertEquals("", requests.get(3));
+        assertFalse(poller.getApplication("datasource", "20190102_000000_1", "alice").isPresent());
+        assertEquals(1, poller.getApplications("datasource").size());
+    }
+
+    @Test
+    public void testIdleStopsPolling() {
+        FakeTicker ticker = new FakeTicker();
+        YarnApplicationPoller poller = new YarnApplicationPoller(config(), ticker);
+        assertTrue(poller.getApplication("datasource", "20190102_000000_1", "alice").isPresent());
+        assertEquals(1, poller.getStats().size());
+
+        // nobody read it for idle-seconds, so polling stops
+        ticker.advance(600);
+        assertFalse(poller.pollOrStop("datasource"));
+        assertEquals(1, requests.size());
+        assertEquals(0, poller.getStats().size());
+
+        // the next read after the idle period doesn't get the old applications
+        allApps = apps(app("application_1_0001", "yanagishima-hive-alice-20190102_000000_1", "KILLED", 4000));
+        ticker.advance(600);
+        assertEquals("KILLED", poller.getApplication("datasource", "20190102_000000_1", "alice").get().get("state"));
+        assertEquals(2, requests.size());
+        assertEquals("", requests.get(1));
+    }
+
+    private static String apps(String... apps) {
+        return "{\"apps\":{\"app\":[" + String.join(",", apps) + "]}}";
+    }
+
+    private static String app(String id, String name, String state, long finishedTime) {
+        return String.format("{\"id\":\"%s\",\"name\":\"%s\",\"state\":\"%s\",\"startedTime\":1000,\"finishedTime\":%d}", id, name, state, finishedTime);
+    }
+
+    private YanagishimaConfig config() {
+        Properties properties = new Properties();
+        properties.setProperty("resource.manager.url.datasource", "http://localhost:" + resourceManager.getAddress().getPort());
+        // long enough that only the test polls
+        properties.setProperty("yarn.application-cache.poll-interval-millis", "3600000");
+        properties.setProperty("yarn.application-cache.idle-seconds", "600");
+        properties.setProperty("yarn.application-cache.full-refresh-seconds", "3600");
+        return new YanagishimaConfig(properties);
+    }
+}
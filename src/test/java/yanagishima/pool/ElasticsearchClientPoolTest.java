@@ -0,0 +1,49 @@
+package yanagishima.pool;
+
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class ElasticsearchClientPoolTest {
+    private final List<String> connectedUrls = new ArrayList<>();
+
+    @Test
+    public void testReuseAndDiscard() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("elasticsearch.jdbc.url.datasource", "jdbc:es://localhost:9200");
+        properties.setProperty("elasticsearch.connection-pool.max-idle", "1");
+        ElasticsearchClientPool pool = new ElasticsearchClientPool(new YanagishimaConfig(properties), url -> {
+            connectedUrls.add(url);
+            return mock(Connection.class);
+        });
+
+        Connection connection;
+        try (ElasticsearchClientPool.Lease lease = pool.getConnection("datasource")) {
+            connection = lease.getConnection();
+        }
+        try (ElasticsearchClientPool.Lease lease = pool.getConnection("datasource")) {
+            assertSame(connection, lease.getConnection());
+            // the query failed, so the connection isn't returned
+            lease.discard();
+        }
+        verify(connection).close();
+        try (ElasticsearchClientPool.Lease lease = pool.getConnection("datasource")) {
+            assertNotSame(connection, lease.getConnection());
+        }
+
+        assertEquals(2, connectedUrls.size());
+        assertEquals("jdbc:es://localhost:9200", connectedUrls.get(0));
+        assertEquals(2L, pool.getStats().get("openCount"));
+        assertEquals(1L, pool.getStats().get("reuseCount"));
+    }
+}
@@ -0,0 +1,129 @@
+package yanagishima.pool;
+
+import org.apache.thrift.transport.TTransportException;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+
+import java.net.ConnectException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class HiveConnectionPoolTest {
+    private final List<String> connectedUrls = new ArrayList<>();
+    private final Set<String> unreachable = ConcurrentHashMap.newKeySet();
+
+    private final HiveConnectionPool.Connector connector = (url, user, password) -> {
+        connectedUrls.add(url);
+        if (unreachable.contains(url)) {
+            throw new SQLException("Could not open client transport", "08S01", new TTransportException("connection refused"));
+        }
+        if ("wrong".equals(password)) {
+            throw new SQLException("Peer indicated failure: Error validating the login");
+        }
+        return mock(Connection.class);
+    };
+
+    @Test
+    public void testReuse() throws Exception {
+        HiveConnectionPool pool = new HiveConnectionPool(config("jdbc:hive2://a:10000"), connector);
+        Connection connection;
+        try (HiveConnectionPool.Lease lease = pool.getConnection("hive", "datasource", null, "alice", "password")) {
+            connection = lease.getConnection();
+            lease.onQuery("SELECT 1");
+        }
+        try (HiveConnectionPool.Lease lease = pool.getConnection("hive", "datasource", null, "alice", "password")) {
+            assertSame(connection, lease.getConnection());
+        }
+        // another user gets its own connection
+        try (HiveConnectionPool.Lease lease = pool.getConnection("hive", "datasource", null, "bob", "password")) {
+            assertNotSame(connection, lease.getConnection());
+        }
+        assertEquals(2L, pool.getStats().get("openCount"));
+        assertEquals(1L, pool.getStats().get("reuseCount"));
+    }
+
+    @Test
+    public void testSessionStatementIsNotReused() throws Exception {
+        HiveConnectionPool pool = new HiveConnectionPool(config("jdbc:hive2://a:10000"), connector);
+        Connection connection;
+        try (HiveConnectionPool.Lease lease = pool.getConnection("hive", "datasource", null, "alice", "password")) {
+            connection = lease.getConnection();
+            lease.onQuery("/* yanagishima */\n-- switch\nuse sales");
+        }
+        verify(connection).close();
+        try (HiveConnectionPool.Lease lease = pool.getConnection("hive", "datasource", null, "alice", "password")) {
+            assertNotSame(connection, lease.getConnection());
+        }
+    }
+
+    @Test
+    public void testIsSessionStatement() {
+        assertTrue(HiveConnectionPool.isSessionStatement("SET hive.execution.engine=tez"));
+        assertTrue(HiveConnectionPool.isSessionStatement("  \n use sales"));
+        assertTrue(HiveConnectionPool.isSessionStatement("/* yanagishima */SET x=1"));
+        assertTrue(HiveConnectionPool.isSessionStatement("-- comment\n/* multi\nline */\nadd jar a.jar"));
+        assertFalse(HiveConnectionPool.isSessionStatement("SELECT 'set'"));
+        assertFalse(HiveConnectionPool.isSessionStatement("/* set */ SELECT 1"));
+        assertFalse(HiveConnectionPool.isSessionStatement("-- use\nSELECT 1"));
+        assertFalse(HiveConnectionPool.isSessionStatement("settings"));
+    }
+
+    @Test
+    public void testFailoverToReachableUrl() throws Exception {
+        unreachable.add("jdbc:hive2://a:10000");
+        HiveConnectionPool pool = new HiveConnectionPool(config("jdbc:hive2://a:10000,jdbc:hive2://b:10000"), connector);
+        try (HiveConnectionPool.Lease lease = pool.getConnection("hive", "datasource", null, "alice", "password")) {
+            lease.discard();
+        }
+        try (HiveConnectionPool.Lease lease = pool.getConnection("hive", "datasource", null, "alice", "password")) {
+            lease.discard();
+        }
+        // the unreachable url is tried once, then skipped for down-seconds
+        assertEquals(List.of("jdbc:hive2://a:10000", "jdbc:hive2://b:10000", "jdbc:hive2://b:10000"), connectedUrls);
+        assertEquals(1L, pool.getStats().get("failoverCount"));
+    }
+
+    @Test
+    public void testNoFailoverOnRejectedCredentials() throws Exception {
+        HiveConnectionPool pool = new HiveConnectionPool(config("jdbc:hive2://a:10000,jdbc:hive2://b:10000"), connector);
+        try {
+            pool.getConnection("hive", "datasource", null, "alice", "wrong");
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("Error validating the login"));
+        }
+        assertEquals(1, connectedUrls.size());
+        assertEquals(0L, pool.getStats().get("failoverCount"));
+        assertEquals(0, ((Object[]) pool.getStats().get("downUrls")).length);
+    }
+
+    @Test
+    public void testIsConnectionFailure() {
+        assertTrue(HiveConnectionPool.isConnectionFailure(new SQLException("refused", "08S01")));
+        assertTrue(HiveConnectionPool.isConnectionFailure(new SQLException("refused", null, new TTransportException("refused"))));
+        assertTrue(HiveConnectionPool.isConnectionFailure(new SQLException("refused", null, new RuntimeException(new ConnectException("refused")))));
+        assertFalse(HiveConnectionPool.isConnectionFailure(new SQLException("Error validating the login", "42000")));
+    }
+
+    private static YanagishimaConfig config(String urls) {
+        Properties properties = new Properties();
+        properties.setProperty("hive.jdbc.urls.datasource", urls);
+        properties.setProperty("hive.connection-pool.max-idle", "2");
+        properties.setProperty("hive.connection-pool.down-seconds", "3600");
+        return new YanagishimaConfig(properties);
+    }
+}
@@ -0,0 +1,44 @@
+package yanagishima.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HiveProgressTest {
+    @Test
+    public void testMapReduce() {
+        HiveProgress progress = new HiveProgress();
+        progress.update("INFO  : Compiling command(queryId=hive_20190221022354_1): SELECT count(*) FROM users");
+        assertNull(progress.getStage());
+        assertEquals(0, progress.getProgress(), 0);
+
+        progress.update("INFO  : Launching Job 1 out of 2");
+        progress.update("INFO  : Hadoop job information for Stage-1: number of mappers: 2; number of reducers: 1");
+        progress.update("INFO  : 2019-02-21 02:23:54,513 Stage-1 map = 50%,  reduce = 0%, Cumulative CPU 3.2 sec");
+        assertEquals("Stage-1", progress.getStage());
+        assertEquals(12.5, progress.getProgress(), 0.001);
+
+        progress.update("INFO  : Launching Job 2 out of 2");
+        progress.update("INFO  : Hadoop job information for Stage-2: number of mappers: 1; number of reducers: 0");
+        progress.update("INFO  : 2019-02-21 02:24:10,001 Stage-2 map = 100%,  reduce = 0%");
+        assertEquals("Stage-2", progress.getStage());
+        assertEquals(100, progress.getProgress(), 0.001);
+    }
+
+    @Test
+    public void testTez() {
+        HiveProgress progress = new HiveProgress();
+        progress.update("INFO  : Map 1: -/-\tReducer 2: 0/1");
+        assertEquals("Map 1", progress.getStage());
+        assertEquals(0, progress.getProgress(), 0);
+
+        progress.update("INFO  : Map 1: 4/4\tReducer 2: 0(+1,-1)/1");
+        assertEquals("Reducer 2", progress.getStage());
+        assertEquals(80, progress.getProgress(), 0.001);
+
+        progress.update("INFO  : Map 1: 4/4\tReducer 2: 1/1");
+        assertEquals("Reducer 2", progress.getStage());
+        assertEquals(100, progress.getProgress(), 0.001);
+    }
+}
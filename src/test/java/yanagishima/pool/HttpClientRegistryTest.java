@@ -0,0 +1,141 @@
+package yanagishima.pool;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.airlift.units.Duration;
+import io.prestosql.client.ClientSession;
+import io.prestosql.client.StatementClient;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.ZoneId;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.prestosql.client.StatementClientFactory.newStatementClient;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpClientRegistryTest {
+    private HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private volatile CountDownLatch respond = new CountDownLatch(0);
+    private final AtomicInteger deleteCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try {
+                respond.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            send(exchange, 200, "ok");
+        });
+        server.createContext("/v1/statement", exchange -> {
+            if (exchange.getRequestMethod().equals("DELETE")) {
+                deleteCount.incrementAndGet();
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+                return;
+            }
+            String base = "http://localhost:" + server.getAddress().getPort();
+            send(exchange, 200, "{\"id\":\"q1\",\"infoUri\":\"" + base + "/ui/query.html?q1\","
+                    + "\"nextUri\":\"" + base + "/v1/statement/q1/1\","
+                    + "\"stats\":{\"state\":\"RUNNING\",\"queued\":false,\"scheduled\":true}}");
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testMaxRequestsPerHost() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("http-client.max-requests-per-host", "1");
+        HttpClientRegistry registry = new HttpClientRegistry(new YanagishimaConfig(properties));
+        OkHttpClient client = registry.getClient("datasource", Optional.empty(), Optional.empty(), 1);
+        Request request = new Request.Builder().url("http://localhost:" + server.getAddress().getPort() + "/").build();
+
+        respond = new CountDownLatch(1);
+        Future<String> first = executor.submit(() -> {
+            try (Response response = client.newCall(request).execute()) {
+                return response.body().string();
+            }
+        });
+        // the permit is held until the server answers the first request
+        while (registry.getPoolStats().get("availableRequestPermits").equals(128)) {
+            Thread.sleep(10);
+        }
+        try {
+            client.newCall(request).execute().close();
+            fail("expected the second request to wait and fail");
+        } catch (IOException e) {
+            assertEquals("too many http requests to localhost", e.getMessage());
+        }
+        respond.countDown();
+        assertEquals("ok", first.get(10, SECONDS));
+
+        try (Response second = client.newCall(request).execute()) {
+            assertEquals("ok", second.body().string());
+        }
+    }
+
+    @Test
+    public void testAbortedStatementsReleasePermits() throws Exception {
+        HttpClientRegistry registry = new HttpClientRegistry(new YanagishimaConfig(new Properties()));
+        OkHttpClient client = registry.getClient("datasource", Optional.empty(), Optional.empty(), 1);
+        ClientSession session = new ClientSession(URI.create("http://localhost:" + server.getAddress().getPort()), "user", "source",
+                Optional.empty(), ImmutableSet.of(), null, "hive", "default", null, ZoneId.systemDefault(), Locale.getDefault(),
+                ImmutableMap.of(), ImmutableMap.of(), emptyMap(), emptyMap(), ImmutableMap.of(), null, new Duration(2, MINUTES));
+
+        // more than max-requests-per-host, each closed while running so the client sends its DELETE with enqueue()
+        for (int i = 0; i < 40; i++) {
+            try (StatementClient statement = newStatementClient(client, session, "select 1")) {
+                assertTrue(statement.isRunning());
+            }
+        }
+        long deadline = System.nanoTime() + SECONDS.toNanos(10);
+        while (deleteCount.get() < 40 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(40, deleteCount.get());
+    }
+
+    private static void send(HttpExchange exchange, int status, String content) throws IOException {
+        byte[] body = content.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package yanagishima.pool;
+
+import org.junit.Test;
+import yanagishima.util.FakeTicker;
+
+import java.sql.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JdbcConnectionPoolTest {
+    private final FakeTicker ticker = new FakeTicker();
+    // max-idle 2, idle-seconds 300, validate-after-seconds 30
+    private final JdbcConnectionPool<String> pool = new JdbcConnectionPool<>(() -> 2, () -> 300, () -> 30, ticker);
+
+    @Test
+    public void testMostRecentFirstAndMaxIdle() throws Exception {
+        Connection first = mock(Connection.class);
+        Connection second = mock(Connection.class);
+        Connection third = mock(Connection.class);
+        pool.release("key", first, true);
+        pool.release("key", second, true);
+        pool.release("key", third, true);
+        // the oldest is closed over max-idle
+        verify(first).close();
+
+        assertSame(third, pool.poll("key"));
+        assertSame(second, pool.poll("key"));
+        assertNull(pool.poll("key"));
+        assertNull(pool.poll("other"));
+        assertEquals(2L, pool.getStats().get("reuseCount"));
+    }
+
+    @Test
+    public void testNotReusable() throws Exception {
+        Connection connection = mock(Connection.class);
+        pool.release("key", connection, false);
+        verify(connection).close();
+        assertNull(pool.poll("key"));
+    }
+
+    @Test
+    public void testValidatedAfterIdle() throws Exception {
+        Connection valid = mock(Connection.class);
+        Connection invalid = mock(Connection.class);
+        when(valid.isValid(anyInt())).thenReturn(true);
+        pool.release("key", valid, true);
+        pool.release("key", invalid, true);
+
+        ticker.advance(29);
+        assertSame(invalid, pool.poll("key"));
+        verify(invalid, never()).isValid(anyInt());
+        pool.release("key", invalid, true);
+
+        ticker.advance(30);
+        assertSame(valid, pool.poll("key"));
+        verify(invalid).close();
+        assertEquals(1L, pool.getStats().get("invalidCount"));
+    }
+
+    @Test
+    public void testCloseIdleConnections() throws Exception {
+        Connection old = mock(Connection.class);
+        Connection recent = mock(Connection.class);
+        pool.release("key", old, true);
+        ticker.advance(200);
+        pool.release("key", recent, true);
+
+        ticker.advance(100);
+        pool.closeIdleConnections();
+        verify(old).close();
+        verify(recent, never()).close();
+        assertEquals(1, pool.getStats().get("idleCount"));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        JdbcConnectionPool<String> disabled = new JdbcConnectionPool<>(() -> 0, () -> 300, () -> 30, ticker);
+        Connection connection = mock(Connection.class);
+        disabled.release("key", connection, true);
+        verify(connection).close();
+        assertNull(disabled.poll("key"));
+    }
+}
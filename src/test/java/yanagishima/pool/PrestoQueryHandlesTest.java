@@ -0,0 +1,39 @@
+package yanagishima.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class PrestoQueryHandlesTest {
+    @Test
+    public void testResolve() {
+        PrestoQueryHandles handles = new PrestoQueryHandles();
+        CompletableFuture<String> queryId = new CompletableFuture<>();
+        String handle = handles.create("datasource", "select 1", queryId);
+        assertSame(queryId, handles.get(handle).get());
+
+        // still queued
+        assertEquals(handle, handles.resolve(handle));
+        queryId.complete("20190101_000000_00001_abcde");
+        assertEquals("20190101_000000_00001_abcde", handles.resolve(handle));
+
+        // ids of the coordinator aren't handles
+        assertFalse(handles.get("20190101_000000_00001_abcde").isPresent());
+        assertEquals("20190101_000000_00001_abcde", handles.resolve("20190101_000000_00001_abcde"));
+    }
+
+    @Test
+    public void testFailedWhileQueued() {
+        PrestoQueryHandles handles = new PrestoQueryHandles();
+        CompletableFuture<String> queryId = new CompletableFuture<>();
+        String handle = handles.create("datasource", "select 1", queryId);
+        assertNotEquals(handle, handles.create("datasource", "select 1", new CompletableFuture<>()));
+        queryId.cancel(false);
+        assertEquals(handle, handles.resolve(handle));
+    }
+}
@@ -0,0 +1,59 @@
+package yanagishima.pool;
+
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig.ExecutorMode;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryExecutorTest {
+    @Test
+    public void testQueuedPerQuery() throws Exception {
+        testQueuedPerQuery(ExecutorMode.PLATFORM);
+        testQueuedPerQuery(ExecutorMode.VIRTUAL);
+    }
+
+    private void testQueuedPerQuery(ExecutorMode mode) throws Exception {
+        QueryExecutor executor = QueryExecutor.create(mode, "hive", "datasource", 1, 1);
+        try {
+            CountDownLatch running = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch finished = new CountDownLatch(1);
+            executor.submit("first", () -> {
+                running.countDown();
+                await(release);
+            });
+            assertTrue(running.await(10, SECONDS));
+            executor.submit("second", finished::countDown);
+
+            assertFalse(executor.isQueued("first"));
+            assertTrue(executor.isQueued("second"));
+
+            try {
+                executor.submit("third", () -> {});
+                fail("expected rejection");
+            } catch (RejectedExecutionException e) {
+                assertFalse(executor.isQueued("third"));
+            }
+
+            release.countDown();
+            assertTrue(finished.await(10, SECONDS));
+            assertFalse(executor.isQueued("second"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
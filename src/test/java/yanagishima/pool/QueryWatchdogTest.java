@@ -0,0 +1,113 @@
+package yanagishima.pool;
+
+import io.airlift.units.Duration;
+import me.geso.tinyorm.TinyORM;
+import org.junit.Test;
+import yanagishima.row.Query;
+import yanagishima.util.FakeTicker;
+
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class QueryWatchdogTest {
+    private final TinyORM db = mock(TinyORM.class, RETURNS_DEEP_STUBS);
+    private final FakeTicker ticker = new FakeTicker();
+    private final QueryWatchdog watchdog = new QueryWatchdog(db, ticker);
+
+    @Test
+    public void testPrestoExpires() {
+        AtomicInteger cancelCount = new AtomicInteger();
+        QueryWatchdog.Watch watch = watch("presto", "20190102_000000_00001_abcde", cancelCount::incrementAndGet);
+        assertExpires(watch);
+        assertEquals(1, cancelCount.get());
+        verify(db).insert(Query.class);
+    }
+
+    @Test
+    public void testHiveExpires() throws Exception {
+        Statement statement = mock(Statement.class);
+        QueryWatchdog.Watch watch = watch("hive", "20190102_000000_1", statement::cancel);
+        assertExpires(watch);
+        verify(statement).cancel();
+        verify(db).insert(Query.class);
+    }
+
+    @Test
+    public void testElasticsearchExpires() throws Exception {
+        Statement statement = mock(Statement.class);
+        QueryWatchdog.Watch watch = watch("elasticsearch", "20190102_000000_2", statement::cancel);
+        assertExpires(watch);
+        verify(statement).cancel();
+        verify(db).insert(Query.class);
+    }
+
+    @Test
+    public void testUnstoredExpires() {
+        AtomicInteger cancelCount = new AtomicInteger();
+        QueryWatchdog.Watch watch = watchdog.watchUnstored("datasource", "20190102_000000_00002_abcde", System.currentTimeMillis(), new Duration(60, SECONDS), cancelCount::incrementAndGet);
+        assertExpires(watch);
+        assertEquals(1, cancelCount.get());
+        // a metadata query has no history row to fail
+        verify(db, never()).insert(Query.class);
+    }
+
+    @Test
+    public void testCompletedDoesNotExpire() throws Exception {
+        Statement statement = mock(Statement.class);
+        QueryWatchdog.Watch watch = watch("hive", "20190102_000000_3", statement::cancel);
+        watch.complete();
+        ticker.advance(61);
+        assertFalse(watchdog.expireIfDue(watch));
+        watch.check();
+        verify(statement, never()).cancel();
+        verify(db, never()).insert(Query.class);
+    }
+
+    @Test
+    public void testCancelFailureIsCounted() {
+        QueryWatchdog.Watch watch = watch("presto", "20190102_000000_00003_abcde", () -> {
+            throw new IllegalStateException("coordinator is gone");
+        });
+        assertExpires(watch);
+        assertEquals(1L, watchdog.getStats().get("cancelFailureCount"));
+    }
+
+    private QueryWatchdog.Watch watch(String engine, String queryId, QueryWatchdog.Canceller canceller) {
+        return watchdog.watch(engine, "datasource", queryId, "SELECT 1", "alice", System.currentTimeMillis(), new Duration(60, SECONDS), canceller);
+    }
+
+    private void assertExpires(QueryWatchdog.Watch watch) {
+        // the deadline is taken from the ticker, not from when the scheduler runs
+        ticker.advance(30);
+        assertFalse(watchdog.expireIfDue(watch));
+        watch.check();
+
+        ticker.advance(31);
+        assertTrue(watchdog.expireIfDue(watch));
+        assertFalse(watchdog.expireIfDue(watch));
+        assertEquals(1L, watchdog.getStats().get("expiredCount"));
+        try {
+            watch.check();
+            fail("expected the expired watch to throw");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("exceeded maximum time limit"));
+        }
+        try {
+            watch.complete();
+            fail("expected completing the expired watch to throw");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("exceeded maximum time limit"));
+        }
+        watch.close();
+    }
+}
@@ -0,0 +1,60 @@
+package yanagishima.service;
+
+import me.geso.tinyorm.TinyORM;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pipeline.ResultPipelineFactory;
+import yanagishima.pool.ElasticsearchClientPool;
+import yanagishima.pool.QueryExecutorPool;
+import yanagishima.pool.QueryWatchdog;
+import yanagishima.row.Query;
+
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ElasticsearchServiceImplTest {
+    private final TinyORM db = mock(TinyORM.class, RETURNS_DEEP_STUBS);
+    private final QueryExecutorPool executorPool = mock(QueryExecutorPool.class);
+    private final ElasticsearchClientPool clientPool = mock(ElasticsearchClientPool.class);
+
+    @Test
+    public void testUnexpectedFailureIsStored() throws Exception {
+        when(clientPool.getConnection("datasource")).thenThrow(new IllegalStateException("pool is broken"));
+        runAsync("SELECT * FROM logs", new Properties());
+
+        // the history gets the failure, otherwise the query would look running forever
+        verify(db).insert(Query.class);
+    }
+
+    @Test
+    public void testStoredFailureIsNotStoredAgain() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("elasticsearch.disallowed.keywords.datasource", "delete");
+        when(db.single(Query.class).where(anyString(), any(Object[].class)).execute()).thenReturn(Optional.of(new Query()));
+        runAsync("DELETE FROM logs", properties);
+
+        verify(db, times(1)).insert(Query.class);
+        verify(clientPool, never()).getConnection(anyString());
+    }
+
+    private void runAsync(String query, Properties properties) {
+        YanagishimaConfig config = new YanagishimaConfig(properties);
+        ElasticsearchServiceImpl service = new ElasticsearchServiceImpl(config, db, new ResultPipelineFactory(config), mock(QueryWatchdog.class), executorPool, clientPool);
+        String queryId = service.doQueryAsync("datasource", query, "alice");
+
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorPool).submit(eq("elasticsearch"), eq("datasource"), eq(queryId), task.capture());
+        task.getValue().run();
+    }
+}
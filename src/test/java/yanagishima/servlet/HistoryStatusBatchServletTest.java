@@ -0,0 +1,117 @@
+package yanagishima.servlet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.geso.tinyorm.TinyORM;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.poller.QueryListPoller;
+import yanagishima.row.Query;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static yanagishima.util.Constants.DATASOURCE_HEADER;
+
+public class HistoryStatusBatchServletTest {
+    private final TinyORM db = mock(TinyORM.class);
+    private final QueryListPoller queryListPoller = mock(QueryListPoller.class);
+
+    @Test
+    public void testStoredRunningAndForbidden() throws Exception {
+        when(db.searchBySQL(eq(Query.class), anyString(), eq(Arrays.asList("hive-ds", "hive", "h1", "h2"))))
+                .thenReturn(Collections.singletonList(query("hive-ds", "hive", "h1", "SUCCEED")));
+        when(db.searchBySQL(eq(Query.class), anyString(), eq(Arrays.asList("presto-ds", "presto", "p1"))))
+                .thenReturn(Collections.emptyList());
+        QueryListPoller.Snapshot snapshot = mock(QueryListPoller.Snapshot.class);
+        when(snapshot.getQueries()).thenReturn(Collections.singletonList(Map.of("queryId", "p1", "state", "RUNNING")));
+        when(queryListPoller.peekSnapshot("presto-ds")).thenReturn(Optional.of(snapshot));
+
+        Map<String, Object> body = post("hive-ds,presto-ds", "["
+                + "{\"datasource\":\"hive-ds\",\"engine\":\"hive\",\"queryid\":\"h1\"},"
+                + "{\"datasource\":\"hive-ds\",\"engine\":\"hive\",\"queryid\":\"h2\"},"
+                + "{\"datasource\":\"presto-ds\",\"engine\":\"presto\",\"queryid\":\"p1\"},"
+                + "{\"datasource\":\"other-ds\",\"engine\":\"presto\",\"queryid\":\"o1\"}]");
+
+        assertNull(body.get("error"));
+        List<Map<String, Object>> results = (List<Map<String, Object>>) body.get("results");
+        assertEquals(4, results.size());
+        assertEquals("ok", results.get(0).get("status"));
+        assertEquals("SUCCEED", results.get(0).get("queryStatus"));
+        assertEquals("ng", results.get(1).get("status"));
+        assertFalse(results.get(1).containsKey("state"));
+        assertEquals("ng", results.get(2).get("status"));
+        assertEquals("RUNNING", results.get(2).get("state"));
+        assertEquals("other-ds", results.get(3).get("datasource"));
+        assertEquals("forbidden", results.get(3).get("error"));
+    }
+
+    @Test
+    public void testMissingEngine() throws Exception {
+        Map<String, Object> body = post("*", "[{\"datasource\":\"presto-ds\",\"queryid\":\"p1\"}]");
+        assertEquals("datasource, engine and queryid are required", body.get("error"));
+        verifyNoInteractions(db);
+    }
+
+    @Test
+    public void testInvalidEngine() throws Exception {
+        Map<String, Object> body = post("*", "[{\"datasource\":\"presto-ds\",\"engine\":\"mysql\",\"queryid\":\"p1\"}]");
+        assertEquals("invalid engine: mysql", body.get("error"));
+        verifyNoInteractions(db);
+    }
+
+    private Map<String, Object> post(String datasources, String queries) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("check.datasource", "true");
+        HistoryStatusBatchServlet servlet = new HistoryStatusBatchServlet(new YanagishimaConfig(properties), db, queryListPoller);
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader(DATASOURCE_HEADER)).thenReturn(datasources);
+        when(request.getParameter("queries")).thenReturn(queries);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                out.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        });
+
+        servlet.doPost(request, response);
+        return new ObjectMapper().readValue(out.toByteArray(), Map.class);
+    }
+
+    private static Query query(String datasource, String engine, String queryId, String status) {
+        Query query = new Query();
+        query.setDatasource(datasource);
+        query.setEngine(engine);
+        query.setQueryId(queryId);
+        query.setStatus(status);
+        return query;
+    }
+}
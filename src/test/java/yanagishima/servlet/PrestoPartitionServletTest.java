@@ -0,0 +1,110 @@
+package yanagishima.servlet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import yanagishima.cache.MetadataCache;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.pool.HttpClientRegistry;
+import yanagishima.service.PrestoService;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PrestoPartitionServletTest {
+    private final PrestoService prestoService = mock(PrestoService.class);
+
+    @Test
+    public void testPartitionsInQueryOrder() throws Exception {
+        stream("dt", "hour", "2019-01-02", "00", "2019-01-01", "00", "2019-01-02", "01", null, "00");
+        Map<String, Object> body = post(mock(HttpServletRequest.class));
+        assertNull(body.get("error"));
+        assertEquals("dt", body.get("column"));
+        assertEquals(Arrays.asList("2019-01-02", "2019-01-01"), body.get("partitions"));
+    }
+
+    @Test
+    public void testPartitionsOfNextColumn() throws Exception {
+        stream("dt", "hour", "2019-01-02", "01", "2019-01-02", "00", "2019-01-02", "01");
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("partitionColumn")).thenReturn("dt");
+        when(request.getParameter("partitionColumnType")).thenReturn("varchar");
+        when(request.getParameter("partitionValue")).thenReturn("2019-01-02");
+        Map<String, Object> body = post(request);
+        assertEquals("hour", body.get("column"));
+        assertEquals(Arrays.asList("01", "00"), body.get("partitions"));
+    }
+
+    @Test
+    public void testErrorAfterPartitions() throws Exception {
+        doAnswer(invocation -> {
+            PrestoService.RowHandler handler = invocation.getArgument(5);
+            handler.columns(Arrays.asList("dt"));
+            handler.row(Arrays.asList("2019-01-02"));
+            throw new IllegalStateException("failed");
+        }).when(prestoService).doStreamingQuery(eq("datasource"), anyString(), any(), any(), any(), any());
+        Map<String, Object> body = post(mock(HttpServletRequest.class));
+        assertEquals(Arrays.asList("2019-01-02"), body.get("partitions"));
+        assertEquals("failed", body.get("error"));
+    }
+
+    /**
+     * Makes the coordinator return the columns followed by rows of the same width
+     */
+    private void stream(String column1, String column2, String... values) throws Exception {
+        doAnswer(invocation -> {
+            PrestoService.RowHandler handler = invocation.getArgument(5);
+            handler.columns(Arrays.asList(column1, column2));
+            for (int i = 0; i < values.length; i += 2) {
+                handler.row(Arrays.asList(values[i], values[i + 1]));
+            }
+            return null;
+        }).when(prestoService).doStreamingQuery(eq("datasource"), anyString(), any(), any(), any(), any());
+    }
+
+    private Map<String, Object> post(HttpServletRequest request) throws Exception {
+        YanagishimaConfig config = new YanagishimaConfig(new Properties());
+        MetadataCache metadataCache = mock(MetadataCache.class);
+        when(metadataCache.isEnabled("datasource", "hive")).thenReturn(false);
+        PrestoPartitionServlet servlet = new PrestoPartitionServlet(prestoService, config, metadataCache, mock(HttpClientRegistry.class));
+
+        when(request.getParameter("datasource")).thenReturn("datasource");
+        when(request.getParameter("catalog")).thenReturn("hive");
+        when(request.getParameter("schema")).thenReturn("default");
+        when(request.getParameter("table")).thenReturn("access_log");
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                out.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        });
+
+        servlet.doPost(request, response);
+        return new ObjectMapper().readValue(out.toByteArray(), Map.class);
+    }
+}
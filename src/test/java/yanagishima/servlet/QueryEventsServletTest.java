@@ -0,0 +1,145 @@
+package yanagishima.servlet;
+
+import org.junit.Before;
+import org.junit.Test;
+import yanagishima.config.YanagishimaConfig;
+import yanagishima.poller.QueryWatcher;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueryEventsServletTest {
+    private final QueryWatcher queryWatcher = mock(QueryWatcher.class);
+    private final Map<String, QueryWatcher.Listener> listeners = new ConcurrentHashMap<>();
+    private final Map<String, QueryWatcher.Subscription> subscriptions = new ConcurrentHashMap<>();
+    private QueryEventsServlet servlet;
+
+    @Before
+    public void setUp() {
+        when(queryWatcher.subscribe(anyString(), anyString(), anyString(), any(), any(), any(), any())).thenAnswer(invocation -> {
+            String queryid = invocation.getArgument(2);
+            listeners.put(queryid, invocation.getArgument(6));
+            QueryWatcher.Subscription subscription = mock(QueryWatcher.Subscription.class);
+            subscriptions.put(queryid, subscription);
+            return subscription;
+        });
+        servlet = new QueryEventsServlet(new YanagishimaConfig(new Properties()), queryWatcher);
+    }
+
+    @Test
+    public void testEventsUntilComplete() throws Exception {
+        FakeOutputStream out = new FakeOutputStream();
+        AsyncContext asyncContext = open("q1", out);
+
+        listeners.get("q1").onEvent(event("q1", "status", "RUNNING"));
+        listeners.get("q1").onEvent(event("q1", "complete", "FINISHED"));
+
+        String written = out.toString();
+        assertTrue(written.startsWith("retry: 3000\n\n"));
+        assertTrue(written.contains("id: 1\nevent: status\ndata: {\"queryid\":\"q1\",\"state\":\"RUNNING\"}\n\n"));
+        assertTrue(written.contains("id: 2\nevent: complete\n"));
+        assertTrue(written.endsWith("event: end\ndata: {}\n\n"));
+        verify(asyncContext).complete();
+        verify(subscriptions.get("q1")).close();
+    }
+
+    @Test
+    public void testWritesWhenClientCatchesUp() throws Exception {
+        FakeOutputStream out = new FakeOutputStream();
+        AsyncContext asyncContext = open("q1", out);
+
+        out.ready = false;
+        listeners.get("q1").onEvent(event("q1", "status", "RUNNING"));
+        assertFalse(out.toString().contains("event: status"));
+
+        out.ready = true;
+        out.listener.onWritePossible();
+        assertTrue(out.toString().contains("event: status"));
+        verify(asyncContext, never()).complete();
+    }
+
+    @Test(timeout = 10000)
+    public void testSlowClientIsDropped() throws Exception {
+        FakeOutputStream slow = new FakeOutputStream();
+        AsyncContext slowContext = open("q1", slow);
+        FakeOutputStream fast = new FakeOutputStream();
+        AsyncContext fastContext = open("q2", fast);
+
+        // the client of q1 stopped reading, events to it must neither block nor pile up
+        slow.ready = false;
+        String state = "RUNNING" + new String(new char[1024]).replace('\0', ' ');
+        for (int i = 0; i < 100; i++) {
+            listeners.get("q1").onEvent(event("q1", "status", state));
+        }
+        verify(slowContext).complete();
+        verify(subscriptions.get("q1")).close();
+
+        listeners.get("q2").onEvent(event("q2", "status", "RUNNING"));
+        assertTrue(fast.toString().contains("\"queryid\":\"q2\""));
+        verify(fastContext, never()).complete();
+    }
+
+    private AsyncContext open(String queryid, ServletOutputStream out) throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("datasource")).thenReturn("datasource");
+        when(request.getParameter("queryid")).thenReturn(queryid);
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(request.startAsync()).thenReturn(asyncContext);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(out);
+        servlet.doGet(request, response);
+        return asyncContext;
+    }
+
+    private static QueryWatcher.QueryEvent event(String queryid, String type, String state) {
+        QueryWatcher.QueryEvent event = mock(QueryWatcher.QueryEvent.class);
+        when(event.getQueryid()).thenReturn(queryid);
+        when(event.getType()).thenReturn(type);
+        when(event.getData()).thenReturn(Map.of("state", state));
+        when(event.isLast()).thenReturn(!type.equals("status"));
+        return event;
+    }
+
+    private static class FakeOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private volatile boolean ready = true;
+        private WriteListener listener;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            this.listener = writeListener;
+        }
+
+        @Override
+        public void write(int b) {
+            written.write(b);
+        }
+
+        @Override
+        public String toString() {
+            return new String(written.toByteArray(), UTF_8);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package yanagishima.util;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Ticker which only moves when a test advances it
+ */
+public class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong(SECONDS.toNanos(1000));
+
+    @Override
+    public long read() {
+        return nanos.get();
+    }
+
+    public void advance(long seconds) {
+        nanos.addAndGet(SECONDS.toNanos(seconds));
+    }
+}
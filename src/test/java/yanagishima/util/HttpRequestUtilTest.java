@@ -20,6 +20,10 @@ public class HttpRequestUtilTest {
         when(request.getParameter("key1")).thenReturn("false");
         assertFalse(getOrDefaultParameter(request, "key1", true));
         assertTrue(getOrDefaultParameter(request, "not-found-key1", true));
+
+        when(request.getParameter("key2")).thenReturn("100");
+        assertEquals(100, getOrDefaultParameter(request, "key2", 10));
+        assertEquals(10, getOrDefaultParameter(request, "not-found-key2", 10));
     }
 
     @Test
@@ -0,0 +1,43 @@
+package yanagishima.util;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JsonFilterUtilTest {
+    @Test
+    public void testCopyWithoutFields() throws IOException {
+        String json = "{\"queryId\":\"20190102_000000_00000_abcde\",\"session\":{\"user\":\"a\",\"properties\":{}},"
+                + "\"state\":\"RUNNING\",\"outputStage\":{\"plan\":{\"root\":[1,2,{\"outputStage\":3}]},\"subStages\":[]},"
+                + "\"queryStats\":{\"session\":1.5,\"progress\":null,\"done\":false}}";
+        StringWriter writer = new StringWriter();
+        JsonFilterUtil.copyWithoutFields(new ByteArrayInputStream(json.getBytes(UTF_8)), writer, ImmutableSet.of("outputStage", "session"));
+        assertEquals("{\"queryId\":\"20190102_000000_00000_abcde\",\"state\":\"RUNNING\",\"queryStats\":{\"session\":1.5,\"progress\":null,\"done\":false}}", writer.toString());
+    }
+
+    @Test
+    public void testCopyWithoutFieldsNonObject() throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonFilterUtil.copyWithoutFields(new ByteArrayInputStream("[{\"session\":1},\"x\"]".getBytes(UTF_8)), writer, ImmutableSet.of("session"));
+        assertEquals("[{\"session\":1},\"x\"]", writer.toString());
+    }
+
+    @Test
+    public void testCopyWithoutFieldsIncomplete() {
+        for (String json : new String[] {"", "{\"state\":\"RUNNING\",\"queryStats\":{\"done\":false", "{\"state\":\"RUN"}) {
+            try {
+                JsonFilterUtil.copyWithoutFields(new ByteArrayInputStream(json.getBytes(UTF_8)), new StringWriter(), ImmutableSet.of("session"));
+                fail("expected IOException for " + json);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package yanagishima.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetadataUtilTest {
+    @Test
+    public void testSetMetadata() {
+        List<List<String>> records = ImmutableList.of(
+                Arrays.asList("id", "bigint", "", ""),
+                Arrays.asList("name", "varchar", "", ""),
+                Arrays.asList("dt", "varchar", "partition key", ""));
+        Map metadata = ImmutableMap.of(
+                "note", ImmutableMap.of("note", "users"),
+                "columns", ImmutableList.of(ImmutableMap.of("note", ImmutableMap.of("note", "user id")), Collections.emptyMap()));
+        HashMap<String, Object> retVal = new HashMap<>();
+        MetadataUtil.setMetadata(metadata, retVal, records);
+
+        assertEquals(ImmutableList.of(
+                Arrays.asList("id", "bigint", "", "", "user id"),
+                Arrays.asList("name", "varchar", "", "", null),
+                Arrays.asList("dt", "varchar", "partition key", "")), retVal.get("results"));
+        assertEquals("users", retVal.get("note"));
+        // the records may be cached, so they are left as they are
+        assertEquals(4, records.get(0).size());
+    }
+}
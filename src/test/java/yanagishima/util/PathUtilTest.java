@@ -32,4 +32,17 @@ public class PathUtilTest {
         assertEquals(expected, actual);
         assertTrue(Files.deleteIfExists(actual.getParent()));
     }
+
+    @Test
+    public void testFindResultFilePath() throws IOException {
+        Path plain = Paths.get(CURRENT_PATH, "result/test/20190102/20190102_abcdef.tsv");
+        Path compressed = Paths.get(CURRENT_PATH, "result/test/20190102/20190102_abcdef.tsv.gz");
+        assertEquals(compressed, PathUtil.getCompressedResultFilePath("test", "20190102_abcdef"));
+        assertEquals(plain, PathUtil.findResultFilePath("test", "20190102_abcdef"));
+
+        Files.createFile(compressed);
+        assertEquals(compressed, PathUtil.findResultFilePath("test", "20190102_abcdef"));
+        assertTrue(Files.deleteIfExists(compressed));
+        assertTrue(Files.deleteIfExists(compressed.getParent()));
+    }
 }
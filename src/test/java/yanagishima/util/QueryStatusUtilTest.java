@@ -0,0 +1,85 @@
+package yanagishima.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryStatusUtilTest {
+    private HttpServer coordinator;
+    private volatile String status;
+
+    @Before
+    public void setUp() throws IOException {
+        coordinator = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        coordinator.createContext("/v1/query", exchange -> {
+            byte[] body = status.getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        coordinator.start();
+    }
+
+    @After
+    public void tearDown() {
+        coordinator.stop(0);
+    }
+
+    @Test
+    public void testWritePrestoQueryStatus() throws IOException {
+        status = "{\"queryId\":\"q1\",\"state\":\"RUNNING\",\"outputStage\":{\"plan\":{}},\"session\":{\"user\":\"a\"}}";
+        assertEquals("{\"queryId\":\"q1\",\"state\":\"RUNNING\"}", write());
+    }
+
+    @Test
+    public void testWritePrestoQueryStatusIncomplete() throws IOException {
+        // the parse error comes after the first fields were read, but none of them are written
+        status = "{\"queryId\":\"q1\",\"state\":\"RUNNING\",\"queryStats\":{\"done\":";
+        Map<String, Object> written = new ObjectMapper().readValue(write(), Map.class);
+        assertEquals("FAILED", written.get("state"));
+        assertFalse(written.containsKey("queryId"));
+    }
+
+    @Test
+    public void testQueuedStatus() {
+        CompletableFuture<String> queryId = new CompletableFuture<>();
+        Map<String, Object> queued = QueryStatusUtil.getQueuedStatus("handle", queryId).get();
+        assertEquals("handle", queued.get("queryId"));
+        assertEquals("QUEUED", queued.get("state"));
+
+        queryId.complete("q1");
+        assertFalse(QueryStatusUtil.getQueuedStatus("handle", queryId).isPresent());
+
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("failed"));
+        Map<String, Object> failedStatus = QueryStatusUtil.getQueuedStatus("handle", failed).get();
+        assertEquals("FAILED", failedStatus.get("state"));
+        assertEquals("failed", failedStatus.get("error"));
+
+        CompletableFuture<String> cancelled = new CompletableFuture<>();
+        assertTrue(cancelled.cancel(false));
+        assertEquals("FAILED", QueryStatusUtil.getQueuedStatus("handle", cancelled).get().get("state"));
+    }
+
+    private String write() throws IOException {
+        StringWriter out = new StringWriter();
+        QueryStatusUtil.writePrestoQueryStatus(new OkHttpClient(), "http://localhost:" + coordinator.getAddress().getPort(), "q1", out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package yanagishima.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import yanagishima.bean.SparkSqlJob;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SparkUtilTest {
+    @Test
+    public void testGetProgressByUser() {
+        Map<String, SparkSqlJob> sparkSqlJobs = SparkUtil.indexByGroupId(ImmutableList.of(
+                sqlJob("group1", "alice", Arrays.asList(1, 2), "RUNNING"),
+                sqlJob("group2", "bob", Collections.emptyList(), "STARTED")));
+        List<Map> runningList = ImmutableList.of(runningJob("group1", 4, 1), runningJob("group2", 10, 5), runningJob("group3", 2, 1));
+
+        Map<String, Double> progressByUser = SparkUtil.getProgressByUser(runningList, sparkSqlJobs);
+        assertEquals(ImmutableMap.of("alice", 25.0), progressByUser);
+        assertNull(progressByUser.get(null));
+    }
+
+    @Test
+    public void testGetJobList() {
+        Map<String, SparkSqlJob> sparkSqlJobs = SparkUtil.indexByGroupId(ImmutableList.of(
+                sqlJob("group1", "alice", Arrays.asList(1, 2), "RUNNING"),
+                sqlJob("group2", "bob", Arrays.asList(0), "FINISHED")));
+        Map running = runningJob("group1", 4, 1);
+        List<Map> jobList = SparkUtil.getJobList(ImmutableList.of(running), sparkSqlJobs, 10);
+
+        assertEquals(2, jobList.size());
+        assertEquals("alice", jobList.get(0).get("user"));
+        assertEquals(25.0, jobList.get(0).get("progress"));
+        assertEquals("group2", jobList.get(1).get("jobGroup"));
+        assertEquals("FINISHED", jobList.get(1).get("status"));
+        // the polled jobs may be shared, so they are left as they are
+        assertNull(running.get("user"));
+    }
+
+    private static SparkSqlJob sqlJob(String groupId, String user, List<Integer> jobIds, String state) {
+        SparkSqlJob sparkSqlJob = new SparkSqlJob();
+        sparkSqlJob.setGroupId(groupId);
+        sparkSqlJob.setUser(user);
+        sparkSqlJob.setJobIds(jobIds);
+        sparkSqlJob.setState(state);
+        sparkSqlJob.setStartTime("2019/02/21 02:23:54");
+        sparkSqlJob.setStatement("SELECT 1");
+        return sparkSqlJob;
+    }
+
+    private static Map runningJob(String jobGroup, int numTasks, int numCompletedTasks) {
+        Map<String, Object> job = new HashMap<>();
+        job.put("jobGroup", jobGroup);
+        job.put("status", "RUNNING");
+        job.put("numTasks", numTasks);
+        job.put("numCompletedTasks", numCompletedTasks);
+        SparkUtil.setProgress(job);
+        return job;
+    }
+}
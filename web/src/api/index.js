@@ -55,7 +55,7 @@ const apis = {
   queryStatus: '/queryStatus',
   query: '/query',
   history: '/history',
-  historyStatus: '/historyStatus',
+  historyStatusBatch: '/historyStatusBatch',
   queryHistory: '/queryHistory?datasource={datasource}',
   download: '/download?datasource={datasource}&queryid={queryid}&encode=UTF-8&header={includeHeader}',
   csvdownload: '/csvdownload?datasource={datasource}&queryid={queryid}&encode=UTF-8&header={includeHeader}',
@@ -82,6 +82,7 @@ const apis = {
   bookmarkUser: '/bookmarkUser',
   comment: '/comment',
   elasticsearch: '/elasticsearch',
+  elasticsearchAsync: '/elasticsearchAsync',
   elasticsearchQueryStatus: '/elasticsearchQueryStatus',
   translate: '/elasticsearch?translate',
   label: '/label',
@@ -360,7 +361,7 @@ export async function runQueryElasticsearch (datasource, query, authInfo) {
     query,
     ...authInfo
   }
-  const response = await client.post(apis.elasticsearch, makeFormParams(params))
+  const response = await client.post(apis.elasticsearchAsync, makeFormParams(params))
   return response.data
 }
 
@@ -416,14 +417,38 @@ export async function getQueryStatusElasticsearch (datasource, queryid, authUser
   return response.data
 }
 
-export async function getHistoryStatus (datasource, engine, queryid) {
-  const params = {
-    datasource,
-    engine,
-    queryid
-  }
-  const response = await client.get(apis.historyStatus, {params})
-  return response.data
+// statuses requested within HISTORY_STATUS_BATCH_DELAY are fetched by one /historyStatusBatch request
+const HISTORY_STATUS_BATCH_DELAY = 100
+let historyStatusBatch = null
+
+async function flushHistoryStatusBatch () {
+  const batch = historyStatusBatch
+  historyStatusBatch = null
+  const queries = batch.map(({datasource, engine, queryid}) => ({datasource, engine, queryid}))
+  try {
+    const response = await client.post(apis.historyStatusBatch, makeFormParams({queries: JSON.stringify(queries)}))
+    const data = response.data || {}
+    batch.forEach(({datasource, engine, queryid, resolve}) => {
+      if (data.error) {
+        resolve({error: data.error})
+        return
+      }
+      const result = (data.results || []).find(r => r.datasource === datasource && r.engine === engine && r.queryid === queryid)
+      resolve(result || {status: 'ng'})
+    })
+  } catch (e) {
+    batch.forEach(({reject}) => reject(e))
+  }
+}
+
+export function getHistoryStatus (datasource, engine, queryid) {
+  return new Promise((resolve, reject) => {
+    if (!historyStatusBatch) {
+      historyStatusBatch = []
+      setTimeout(flushHistoryStatusBatch, HISTORY_STATUS_BATCH_DELAY)
+    }
+    historyStatusBatch.push({datasource, engine, queryid, resolve, reject})
+  })
 }
 
 export async function getQueryResult (datasource, engine, queryid) {
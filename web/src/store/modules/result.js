@@ -92,9 +92,11 @@ const actions = {
       const queryid = data.queryid
       if (queryid) {
         try {
-          await dispatch('waitQueryComplete', {datasource, queryid, isPresto, isHive, isSpark, isElasticsearch})
-          await dispatch('waitHistoryComplete', {datasource, engine, queryid})
-          commit('setHashItem', {queryid: queryid, engine: data.engine}, {root: true})
+          const status = await dispatch('waitQueryComplete', {datasource, queryid, isPresto, isHive, isSpark, isElasticsearch})
+          // a queued presto query is answered with a handle until the coordinator assigns its id
+          const historyId = isPresto && status && status.queryId ? status.queryId : queryid
+          await dispatch('waitHistoryComplete', {datasource, engine, queryid: historyId})
+          commit('setHashItem', {queryid: historyId, engine: data.engine}, {root: true})
 
           if (enableDesktopNotification) {
             desktopNotification(true, query)
@@ -175,7 +177,7 @@ const actions = {
       const queryState = data.state
 
       if (queryState === 'FINISHED' || Object.isEmpty(data)) {
-        commit('history/setHistoryId', {datasource, historyId: queryid}, {root: true})
+        commit('history/setHistoryId', {datasource, historyId: isPresto && data.queryId ? data.queryId : queryid}, {root: true})
       } else if (queryState === 'FAILED' || queryState === 'KILLED') {
         if (isPresto) {
           if (data.failureInfo.errorLocation) {